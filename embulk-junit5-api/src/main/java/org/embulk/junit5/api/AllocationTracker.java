@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.api;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks what a test allocates out of its own thread, and how many rows it processes, for allocation budgets.
+ *
+ * <p>The engine starts a tracker in the thread which runs a test, and stops it at the end of the test. The tracker
+ * is inherited by threads created during the test. Harnesses report rows with {@link #reportRows}, and the bytes
+ * allocated in their own threads with {@link #reportSpawnedThread}. Reports out of a tracked test are ignored.
+ *
+ * <p>It is for the engine and the harnesses, not for tests. It is thread-safe.
+ */
+public final class AllocationTracker {
+    private AllocationTracker() {
+        this.rows = new LongAdder();
+        this.spawnedThreads = new LongAdder();
+        this.spawnedThreadAllocatedBytes = new LongAdder();
+        this.active = true;
+    }
+
+    /**
+     * Starts a tracker in the current thread, which is the thread running a test.
+     */
+    public static AllocationTracker start() {
+        final AllocationTracker tracker = new AllocationTracker();
+        CURRENT.set(tracker);
+        return tracker;
+    }
+
+    /**
+     * Stops the tracker. Reports to it are ignored after that, even from threads which have inherited it.
+     */
+    public void stop() {
+        this.active = false;
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Reports rows processed in the current test, if tracked.
+     */
+    public static void reportRows(final long rows) {
+        final AllocationTracker tracker = CURRENT.get();
+        if (tracker != null && tracker.active) {
+            tracker.rows.add(rows);
+        }
+    }
+
+    /**
+     * Reports bytes allocated in a thread spawned for the current test, if tracked.
+     *
+     * @param allocatedBytes  the bytes from {@link #currentThreadAllocatedBytes}, or {@code -1} if unsupported
+     */
+    public static void reportSpawnedThread(final long allocatedBytes) {
+        final AllocationTracker tracker = CURRENT.get();
+        if (tracker != null && tracker.active && allocatedBytes >= 0) {
+            tracker.spawnedThreads.increment();
+            tracker.spawnedThreadAllocatedBytes.add(allocatedBytes);
+        }
+    }
+
+    /**
+     * Returns the total bytes allocated in the current thread, or {@code -1} if unsupported in the JVM.
+     */
+    @SuppressWarnings("deprecation")  // Thread#getId is deprecated since Java 19, but Thread#threadId is unavailable in Java 8.
+    public static long currentThreadAllocatedBytes() {
+        if (ALLOCATION_THREAD == null) {
+            return -1L;
+        }
+        return ALLOCATION_THREAD.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public long getRows() {
+        return this.rows.sum();
+    }
+
+    public long getSpawnedThreads() {
+        return this.spawnedThreads.sum();
+    }
+
+    public long getSpawnedThreadAllocatedBytes() {
+        return this.spawnedThreadAllocatedBytes.sum();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationThreadBean() {
+        try {
+            final java.lang.management.ThreadMXBean thread = ManagementFactory.getThreadMXBean();
+            if (thread instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean allocationThread = (com.sun.management.ThreadMXBean) thread;
+                if (allocationThread.isThreadAllocatedMemorySupported() && allocationThread.isThreadAllocatedMemoryEnabled()) {
+                    return allocationThread;
+                }
+            }
+        } catch (final LinkageError | RuntimeException ex) {
+            // com.sun.management is unavailable in the JVM.
+        }
+        return null;
+    }
+
+    private static final InheritableThreadLocal<AllocationTracker> CURRENT = new InheritableThreadLocal<>();
+
+    private static final com.sun.management.ThreadMXBean ALLOCATION_THREAD = allocationThreadBean();
+
+    private final LongAdder rows;
+
+    private final LongAdder spawnedThreads;
+
+    private final LongAdder spawnedThreadAllocatedBytes;
+
+    private volatile boolean active;
+}
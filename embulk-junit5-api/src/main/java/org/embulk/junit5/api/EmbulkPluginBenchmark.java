@@ -0,0 +1,60 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.api;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method as a microbenchmark of plugin code, run in Embulk's {@code PluginClassLoader} as an {@link EmbulkPluginTest}.
+ *
+ * <p>The method is invoked repeatedly on a single instance of the test class. An iteration invokes the method
+ * {@link #batchSize} times, and is timed as a whole. {@link #warmupIterations} are run first, and then
+ * {@link #measurementIterations} are measured, both within {@link #timeBudgetMillis}.
+ *
+ * <p>The results are published as report entries of the test: operations per second, the mean and the percentiles
+ * of the time per operation, and the bytes allocated per operation. The benchmark fails if the method throws.
+ */
+@Target({ ElementType.ANNOTATION_TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface EmbulkPluginBenchmark {
+    /**
+     * The number of iterations to warm up, which are not measured.
+     */
+    int warmupIterations() default 5;
+
+    /**
+     * The number of iterations to measure.
+     */
+    int measurementIterations() default 10;
+
+    /**
+     * The number of invocations of the method in an iteration. Every invocation is an operation.
+     */
+    int batchSize() default 1;
+
+    /**
+     * The time budget of the whole benchmark in milliseconds, or {@code 0} for no limit.
+     *
+     * <p>The remaining iterations are skipped once the budget is exhausted, but at least one iteration is measured.
+     */
+    long timeBudgetMillis() default 10_000L;
+}
@@ -26,4 +26,35 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Documented
 public @interface EmbulkPluginTest {
+    /**
+     * The timeout of the test in milliseconds, {@code 0} for no timeout, or {@code -1} for the engine's default.
+     *
+     * <p>The test runs in its own thread, which is interrupted and abandoned at the deadline. The test then fails
+     * with a thread dump of the JVM.
+     */
+    long timeoutMillis() default -1L;
+
+    /**
+     * Whether the test runs in the Embulk session shared among the tests in the test class, which is the default.
+     *
+     * <p>The engine creates an Embulk session for each test class, so that {@code Exec.getBufferAllocator()} and
+     * {@code Exec.getPageBuilder} are available without bootstrapping a session in every test. Set {@code false} for
+     * a test which needs isolation, such as one which changes the session. It then runs in its own new session.
+     */
+    boolean sharedExecSession() default true;
+
+    /**
+     * The maximum bytes allocated by the test, or {@code -1} for no limit.
+     *
+     * <p>It is measured with the thread allocation counters of the JVM, in the thread which runs the test, and in
+     * the threads spawned by harnesses such as {@link InputPluginHarness}. It is not checked if unsupported in the JVM.
+     */
+    long maxAllocatedBytes() default -1L;
+
+    /**
+     * The maximum bytes allocated by the test per row reported by harnesses, or {@code -1} for no limit.
+     *
+     * <p>Rows are reported by {@link InputPluginHarness} and {@link PageGenerator}. The test fails if no rows are reported.
+     */
+    long maxAllocatedBytesPerRow() default -1L;
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.api;
+
+import java.util.Properties;
+import org.embulk.EmbulkSystemProperties;
+import org.embulk.config.ConfigSource;
+import org.embulk.exec.SimpleTempFileSpaceAllocator;
+import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.ExecSessionInternal;
+
+/**
+ * Builds Embulk sessions for the harnesses and the engine, with a {@code ModelManager} shared among them.
+ */
+final class ExecSessions {
+    private ExecSessions() {
+        // No instantiation.
+    }
+
+    static ExecSessionInternal newExecSession(final BufferAllocator bufferAllocator) {
+        return ExecSessionInternal.builderInternal(bufferAllocator, new SimpleTempFileSpaceAllocator())
+                .setModelManager(MODEL_MANAGER)
+                .setEmbulkSystemProperties(EmbulkSystemProperties.of(new Properties()))
+                .build();
+    }
+
+    static ConfigSource newConfigSource() {
+        return MODEL_MANAGER.newConfigSource();
+    }
+
+    // ModelManager is thread-safe, and shared by sessions.
+    @SuppressWarnings("deprecation")  // ModelManager is deprecated, but still required to build ExecSessionInternal.
+    private static final org.embulk.config.ModelManager MODEL_MANAGER = new org.embulk.config.ModelManager();
+}
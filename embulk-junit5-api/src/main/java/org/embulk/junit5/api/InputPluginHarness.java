@@ -0,0 +1,547 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskReport;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.ExecAction;
+import org.embulk.spi.ExecInternal;
+import org.embulk.spi.ExecSessionInternal;
+import org.embulk.spi.InputPlugin;
+import org.embulk.spi.Schema;
+
+/**
+ * Runs an {@link InputPlugin} in-process, in a new Embulk session, as Embulk's bulk loader does.
+ *
+ * <p>It calls {@link InputPlugin#transaction}, which calls {@link InputPlugin#resume} as usual. The control of
+ * the transaction runs every task with {@link InputPlugin#run} against an output of {@link PageCollector}, and then
+ * {@link InputPlugin#cleanup} is called. The pages are not kept, and their buffers are recycled, so that a test can
+ * push many records through the plugin.
+ *
+ * <p>The tasks run one by one in the calling thread by default. With {@link #withThreads}, they run concurrently on
+ * a fixed thread pool as Embulk's local executor does with {@code max_threads}, so that contention and thread-unsafe
+ * states in {@link InputPlugin#run} show up. The result has the throughput of every task and of the whole.
+ *
+ * <pre>{@code
+ * final PageCollector collector = PageCollector.counting();
+ * final InputPluginHarness.Result result = InputPluginHarness.of(ExampleInputPlugin.class).run(config, collector);
+ * assertEquals(100_000_000L, collector.getRecordCount());
+ * }</pre>
+ *
+ * <p>Use it in an {@link EmbulkPluginTest} so that the plugin class is loaded in {@code PluginClassLoader} as Embulk does.
+ * {@code embulk-core}, {@code embulk-spi}, and {@code embulk-deps} are required in the class path of the test runtime.
+ */
+public final class InputPluginHarness {
+    private InputPluginHarness(final Class<? extends InputPlugin> pluginClass, final int pageSize, final int threads) {
+        this.pluginClass = pluginClass;
+        this.pageSize = pageSize;
+        this.threads = threads;
+    }
+
+    public static InputPluginHarness of(final Class<? extends InputPlugin> pluginClass) {
+        return new InputPluginHarness(pluginClass, DEFAULT_PAGE_SIZE, 1);
+    }
+
+    /**
+     * Returns a harness of the plugin class loaded by the thread context class loader, which is {@code PluginClassLoader}
+     * in an {@link EmbulkPluginTest}. It is useful when the plugin class is not on the compile class path of the test.
+     */
+    public static InputPluginHarness of(final String pluginClassName) throws ClassNotFoundException {
+        final Class<?> pluginClass = Class.forName(pluginClassName, true, Thread.currentThread().getContextClassLoader());
+        if (!InputPlugin.class.isAssignableFrom(pluginClass)) {
+            throw new IllegalArgumentException(pluginClassName + " is not an InputPlugin.");
+        }
+        return of(pluginClass.asSubclass(InputPlugin.class));
+    }
+
+    /**
+     * Returns a harness with the page size in bytes, which is 32 KiB by default as Embulk's {@code page_size}.
+     */
+    public InputPluginHarness withPageSize(final int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive.");
+        }
+        return new InputPluginHarness(this.pluginClass, pageSize, this.threads);
+    }
+
+    /**
+     * Returns a harness which runs tasks on a thread pool of the number of threads, as Embulk's {@code max_threads}.
+     *
+     * <p>The tasks run in the calling thread if it is {@code 1}, which is the default.
+     */
+    public InputPluginHarness withThreads(final int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive.");
+        }
+        return new InputPluginHarness(this.pluginClass, this.pageSize, threads);
+    }
+
+    /**
+     * Creates an empty config to run the plugin with.
+     */
+    public ConfigSource newConfigSource() {
+        return ExecSessions.newConfigSource();
+    }
+
+    /**
+     * Runs a transaction of the plugin, and collects its pages into the collector.
+     *
+     * <p>If tasks fail, the other tasks still run to the end as Embulk does, and then the failure of the first task
+     * is thrown with the failures of the others suppressed, in the order of the task indexes. It is the same whether
+     * the tasks run in the calling thread or on the thread pool. {@link InputPlugin#cleanup} is not called then.
+     *
+     * <p>If the calling thread is interrupted, such as on the timeout of the test, the running tasks are interrupted,
+     * and the tasks not started yet are not run. {@link IllegalStateException} is thrown with the interrupt status kept,
+     * and with the failures of the tasks so far suppressed.
+     *
+     * @param config  the config of the plugin, which is {@code in:} of an Embulk config
+     * @param collector  the collector of the pages
+     * @return the result of the transaction
+     * @throws RuntimeException  if the plugin throws, which is thrown as-is if unchecked
+     */
+    public Result run(final ConfigSource config, final PageCollector collector) {
+        final RecyclingBufferAllocator bufferAllocator = new RecyclingBufferAllocator(this.pageSize);
+        final ExecSessionInternal session = bufferAllocator.newExecSession();
+        try {
+            return doWith(session, () -> this.runInSession(session, config, collector, bufferAllocator));
+        } finally {
+            session.cleanup();
+        }
+    }
+
+    /**
+     * A result of a transaction of an {@code InputPlugin}.
+     */
+    public static final class Result {
+        private Result(
+                final ConfigDiff configDiff,
+                final Schema schema,
+                final List<TaskResult> taskResults,
+                final int threads,
+                final long elapsedNanos,
+                final long allocatedPageBuffers) {
+            this.configDiff = configDiff;
+            this.schema = schema;
+            this.taskResults = taskResults;
+            this.threads = threads;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedPageBuffers = allocatedPageBuffers;
+        }
+
+        /**
+         * Returns the config diff returned from {@link InputPlugin#transaction}.
+         */
+        public ConfigDiff getConfigDiff() {
+            return this.configDiff;
+        }
+
+        /**
+         * Returns the schema given to the control, or {@code null} if the control was not run.
+         */
+        public Schema getSchema() {
+            return this.schema;
+        }
+
+        public int getTaskCount() {
+            return this.taskResults.size();
+        }
+
+        /**
+         * Returns the task reports in the order of the task indexes.
+         */
+        public List<TaskReport> getTaskReports() {
+            return Collections.unmodifiableList(taskReportsOf(this.taskResults));
+        }
+
+        /**
+         * Returns the results of the tasks in the order of the task indexes.
+         */
+        public List<TaskResult> getTaskResults() {
+            return this.taskResults;
+        }
+
+        /**
+         * Returns the number of threads which ran the tasks.
+         */
+        public int getThreads() {
+            return this.threads;
+        }
+
+        /**
+         * Returns the wall-clock time to run all the tasks in nanoseconds.
+         */
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+
+        public long getRecordCount() {
+            long records = 0L;
+            for (final TaskResult taskResult : this.taskResults) {
+                records += taskResult.getRecordCount();
+            }
+            return records;
+        }
+
+        /**
+         * Returns the aggregate throughput of all the tasks, in records per second of the wall-clock time.
+         */
+        public double getRecordsPerSecond() {
+            return recordsPerSecond(this.getRecordCount(), this.elapsedNanos);
+        }
+
+        /**
+         * Returns the number of page buffers allocated, not recycled, in the transaction.
+         */
+        public long getAllocatedPageBuffers() {
+            return this.allocatedPageBuffers;
+        }
+
+        private final ConfigDiff configDiff;
+
+        private final Schema schema;
+
+        private final List<TaskResult> taskResults;
+
+        private final int threads;
+
+        private final long elapsedNanos;
+
+        private final long allocatedPageBuffers;
+    }
+
+    /**
+     * A result of a task of an {@code InputPlugin}.
+     */
+    public static final class TaskResult {
+        private TaskResult(
+                final int taskIndex,
+                final TaskReport taskReport,
+                final long pages,
+                final long records,
+                final long bytes,
+                final long elapsedNanos,
+                final String threadName) {
+            this.taskIndex = taskIndex;
+            this.taskReport = taskReport;
+            this.pages = pages;
+            this.records = records;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.threadName = threadName;
+        }
+
+        public int getTaskIndex() {
+            return this.taskIndex;
+        }
+
+        /**
+         * Returns the task report returned from {@link InputPlugin#run}.
+         */
+        public TaskReport getTaskReport() {
+            return this.taskReport;
+        }
+
+        public long getPageCount() {
+            return this.pages;
+        }
+
+        public long getRecordCount() {
+            return this.records;
+        }
+
+        public long getByteCount() {
+            return this.bytes;
+        }
+
+        /**
+         * Returns the wall-clock time of {@link InputPlugin#run} of the task in nanoseconds.
+         */
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+
+        public double getRecordsPerSecond() {
+            return recordsPerSecond(this.records, this.elapsedNanos);
+        }
+
+        /**
+         * Returns the name of the thread which ran the task.
+         */
+        public String getThreadName() {
+            return this.threadName;
+        }
+
+        private final int taskIndex;
+
+        private final TaskReport taskReport;
+
+        private final long pages;
+
+        private final long records;
+
+        private final long bytes;
+
+        private final long elapsedNanos;
+
+        private final String threadName;
+    }
+
+    private Result runInSession(
+            final ExecSessionInternal session,
+            final ConfigSource config,
+            final PageCollector collector,
+            final RecyclingBufferAllocator bufferAllocator) throws ReflectiveOperationException {
+        final InputPlugin plugin = this.pluginClass.getDeclaredConstructor().newInstance();
+        final Control control = new Control(session, plugin, collector, this.threads);
+        final ConfigDiff configDiff = plugin.transaction(config, control);
+        if (control.taskResults == null) {
+            return new Result(configDiff, null, Collections.emptyList(), this.threads, 0L, bufferAllocator.getAllocatedArrays());
+        }
+        plugin.cleanup(control.taskSource, control.schema, control.taskResults.size(), taskReportsOf(control.taskResults));
+        return new Result(
+                configDiff,
+                control.schema,
+                Collections.unmodifiableList(control.taskResults),
+                this.threads,
+                control.elapsedNanos,
+                bufferAllocator.getAllocatedArrays());
+    }
+
+    private static final class Control implements InputPlugin.Control {
+        Control(final ExecSessionInternal session, final InputPlugin plugin, final PageCollector collector, final int threads) {
+            this.session = session;
+            this.plugin = plugin;
+            this.collector = collector;
+            this.threads = threads;
+        }
+
+        @Override
+        public List<TaskReport> run(final TaskSource taskSource, final Schema schema, final int taskCount) {
+            final long startNanos = System.nanoTime();
+            final List<TaskResult> taskResults;
+            if (this.threads == 1) {
+                taskResults = this.runTasksSequentially(taskSource, schema, taskCount);
+            } else {
+                taskResults = this.runTasksConcurrently(taskSource, schema, taskCount);
+            }
+            this.elapsedNanos = System.nanoTime() - startNanos;
+            this.taskSource = taskSource;
+            this.schema = schema;
+            this.taskResults = taskResults;
+            long records = 0L;
+            for (final TaskResult taskResult : taskResults) {
+                records += taskResult.getRecordCount();
+            }
+            AllocationTracker.reportRows(records);
+            return taskReportsOf(taskResults);
+        }
+
+        private List<TaskResult> runTasksSequentially(final TaskSource taskSource, final Schema schema, final int taskCount) {
+            final ArrayList<TaskResult> taskResults = new ArrayList<>(taskCount);
+            Throwable failure = null;
+            for (int taskIndex = 0; taskIndex < taskCount; taskIndex++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // Interrupted by the timeout of the test, for example. The remaining tasks are not run.
+                    throw interrupted(null, failure);
+                }
+                try {
+                    taskResults.add(this.runTask(taskSource, schema, taskIndex));
+                } catch (final RuntimeException | Error ex) {
+                    failure = withSuppressed(failure, ex);
+                }
+            }
+            if (failure != null) {
+                throw asUnchecked(failure);
+            }
+            return taskResults;
+        }
+
+        private List<TaskResult> runTasksConcurrently(final TaskSource taskSource, final Schema schema, final int taskCount) {
+            // Tasks run in the same context class loader as the transaction, which is PluginClassLoader in a test.
+            final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+            final ExecutorService executor = Executors.newFixedThreadPool(this.threads, new TaskThreadFactory(contextClassLoader));
+            try {
+                final ArrayList<Future<TaskResult>> futures = new ArrayList<>(taskCount);
+                for (int taskIndex = 0; taskIndex < taskCount; taskIndex++) {
+                    final int index = taskIndex;
+                    futures.add(executor.submit(() -> this.runTaskInSpawnedThread(taskSource, schema, index)));
+                }
+
+                // Waits for every task, even after a failure, not to interrupt the others by shutdownNow below.
+                final ArrayList<TaskResult> taskResults = new ArrayList<>(taskCount);
+                Throwable failure = null;
+                for (final Future<TaskResult> future : futures) {
+                    try {
+                        taskResults.add(future.get());
+                    } catch (final InterruptedException ex) {
+                        // Interrupted by the timeout of the test, for example. The running tasks are interrupted as well.
+                        for (final Future<TaskResult> running : futures) {
+                            running.cancel(true);
+                        }
+                        Thread.currentThread().interrupt();
+                        throw interrupted(ex, failure);
+                    } catch (final ExecutionException ex) {
+                        failure = withSuppressed(failure, ex.getCause());
+                    }
+                }
+                if (failure != null) {
+                    throw asUnchecked(failure);
+                }
+                return taskResults;
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        /**
+         * Runs a task in a thread of the pool, and reports its allocation to the allocation budget of the test.
+         */
+        private TaskResult runTaskInSpawnedThread(final TaskSource taskSource, final Schema schema, final int taskIndex) {
+            final long allocatedBytesStart = AllocationTracker.currentThreadAllocatedBytes();
+            try {
+                return doWith(this.session, () -> this.runTask(taskSource, schema, taskIndex));
+            } finally {
+                final long allocatedBytesEnd = AllocationTracker.currentThreadAllocatedBytes();
+                if (allocatedBytesStart >= 0 && allocatedBytesEnd >= 0) {
+                    AllocationTracker.reportSpawnedThread(allocatedBytesEnd - allocatedBytesStart);
+                }
+            }
+        }
+
+        private TaskResult runTask(final TaskSource taskSource, final Schema schema, final int taskIndex) {
+            final long startNanos = System.nanoTime();
+            final TaskReport taskReport;
+            final PageCollector.Output output = this.collector.open(schema);
+            try {
+                taskReport = this.plugin.run(taskSource, schema, taskIndex, output);
+            } finally {
+                output.close();
+            }
+            return new TaskResult(
+                    taskIndex,
+                    taskReport,
+                    output.getPageCount(),
+                    output.getRecordCount(),
+                    output.getByteCount(),
+                    System.nanoTime() - startNanos,
+                    Thread.currentThread().getName());
+        }
+
+        private final ExecSessionInternal session;
+
+        private final InputPlugin plugin;
+
+        private final PageCollector collector;
+
+        private final int threads;
+
+        private TaskSource taskSource;
+
+        private Schema schema;
+
+        private List<TaskResult> taskResults;
+
+        private long elapsedNanos;
+    }
+
+    private static final class TaskThreadFactory implements ThreadFactory {
+        TaskThreadFactory(final ClassLoader contextClassLoader) {
+            this.contextClassLoader = contextClassLoader;
+            this.number = new AtomicInteger(0);
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "embulk-junit5-task-" + this.number.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(this.contextClassLoader);
+            return thread;
+        }
+
+        private final ClassLoader contextClassLoader;
+
+        private final AtomicInteger number;
+    }
+
+    /**
+     * Runs the action in the Embulk session, and throws an exception from the action as-is if unchecked.
+     */
+    private static <T> T doWith(final ExecSessionInternal session, final ExecAction<T> action) {
+        try {
+            return ExecInternal.doWith(session, action);
+        } catch (final ExecutionException ex) {
+            throw asUnchecked(ex.getCause());
+        }
+    }
+
+    private static RuntimeException asUnchecked(final Throwable throwable) {
+        if (throwable instanceof RuntimeException) {
+            return (RuntimeException) throwable;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        return new RuntimeException(throwable);
+    }
+
+    private static Throwable withSuppressed(final Throwable failure, final Throwable another) {
+        if (failure == null) {
+            return another;
+        }
+        failure.addSuppressed(another);
+        return failure;
+    }
+
+    private static IllegalStateException interrupted(final InterruptedException cause, final Throwable failure) {
+        final IllegalStateException exception = new IllegalStateException("Interrupted while running the tasks of the input plugin.", cause);
+        if (failure != null) {
+            exception.addSuppressed(failure);
+        }
+        return exception;
+    }
+
+    private static List<TaskReport> taskReportsOf(final List<TaskResult> taskResults) {
+        final ArrayList<TaskReport> taskReports = new ArrayList<>(taskResults.size());
+        for (final TaskResult taskResult : taskResults) {
+            taskReports.add(taskResult.getTaskReport());
+        }
+        return taskReports;
+    }
+
+    private static double recordsPerSecond(final long records, final long elapsedNanos) {
+        return elapsedNanos <= 0L ? 0.0 : records * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    private static final int DEFAULT_PAGE_SIZE = 32 * 1024;
+
+    private final Class<? extends InputPlugin> pluginClass;
+
+    private final int pageSize;
+
+    private final int threads;
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.api;
+
+import java.util.concurrent.atomic.LongAdder;
+import org.embulk.spi.Exec;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+
+/**
+ * Collects pages from an {@code InputPlugin} driven by {@link InputPluginHarness}, without keeping them in heap.
+ *
+ * <p>Every page is counted, and released right after its records are read so that its buffer is recycled.
+ * In the streaming mode, {@link RecordHandler} reads each record through {@link PageReader} while the page is
+ * available. The counts are summed up over all the tasks. It is thread-safe.
+ */
+public final class PageCollector {
+    private PageCollector(final RecordHandler recordHandler) {
+        this.recordHandler = recordHandler;
+        this.pages = new LongAdder();
+        this.records = new LongAdder();
+        this.bytes = new LongAdder();
+        this.finishedOutputs = new LongAdder();
+    }
+
+    /**
+     * Reads a record in the streaming mode.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        /**
+         * Handles a record.
+         *
+         * @param reader  the reader at the record, which must not be kept after returning
+         */
+        void handle(PageReader reader);
+    }
+
+    /**
+     * Returns a collector which only counts pages and records.
+     */
+    public static PageCollector counting() {
+        return new PageCollector(null);
+    }
+
+    /**
+     * Returns a collector which streams every record to the handler.
+     *
+     * <p>The handler is called in the thread which runs the task. It is called concurrently if tasks run concurrently.
+     */
+    public static PageCollector streaming(final RecordHandler recordHandler) {
+        if (recordHandler == null) {
+            throw new NullPointerException("recordHandler must not be null.");
+        }
+        return new PageCollector(recordHandler);
+    }
+
+    public long getPageCount() {
+        return this.pages.sum();
+    }
+
+    public long getRecordCount() {
+        return this.records.sum();
+    }
+
+    /**
+     * Returns the total size of the page buffers in bytes, excluding strings and JSON values referred from pages.
+     */
+    public long getByteCount() {
+        return this.bytes.sum();
+    }
+
+    /**
+     * Returns the number of outputs on which {@link PageOutput#finish} was called, normally the number of tasks run.
+     */
+    public long getFinishedOutputCount() {
+        return this.finishedOutputs.sum();
+    }
+
+    /**
+     * Opens an output for a task. It must be called in an Embulk session.
+     */
+    Output open(final Schema schema) {
+        return new Output(Exec.getPageReader(schema));
+    }
+
+    /**
+     * An output for a task, which also counts its own pages and records.
+     */
+    final class Output implements PageOutput {
+        private Output(final PageReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public void add(final Page page) {
+            // PageReader releases the page at the next setPage, or at close.
+            this.reader.setPage(page);
+            final long bytesInPage = page.buffer().limit();
+            long recordsInPage = 0L;
+            final RecordHandler recordHandler = PageCollector.this.recordHandler;
+            while (this.reader.nextRecord()) {
+                if (recordHandler != null) {
+                    recordHandler.handle(this.reader);
+                }
+                recordsInPage++;
+            }
+            this.pages++;
+            this.records += recordsInPage;
+            this.bytes += bytesInPage;
+            PageCollector.this.pages.increment();
+            PageCollector.this.records.add(recordsInPage);
+            PageCollector.this.bytes.add(bytesInPage);
+        }
+
+        @Override
+        public void finish() {
+            PageCollector.this.finishedOutputs.increment();
+        }
+
+        @Override
+        public void close() {
+            this.reader.close();
+        }
+
+        long getPageCount() {
+            return this.pages;
+        }
+
+        long getRecordCount() {
+            return this.records;
+        }
+
+        long getByteCount() {
+            return this.bytes;
+        }
+
+        private final PageReader reader;
+
+        // Counted only in the thread which runs the task.
+        private long pages;
+
+        private long records;
+
+        private long bytes;
+    }
+
+    private final RecordHandler recordHandler;
+
+    private final LongAdder pages;
+
+    private final LongAdder records;
+
+    private final LongAdder bytes;
+
+    private final LongAdder finishedOutputs;
+}
@@ -0,0 +1,455 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.api;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.embulk.spi.Column;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageBuilderImpl;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.Schema;
+import org.embulk.spi.json.JsonLong;
+import org.embulk.spi.json.JsonObject;
+import org.embulk.spi.json.JsonString;
+import org.embulk.spi.json.JsonValue;
+import org.embulk.spi.type.BooleanType;
+import org.embulk.spi.type.DoubleType;
+import org.embulk.spi.type.JsonType;
+import org.embulk.spi.type.LongType;
+import org.embulk.spi.type.StringType;
+import org.embulk.spi.type.TimestampType;
+import org.embulk.spi.type.Type;
+
+/**
+ * Generates pages of synthetic records for a {@link Schema}, to drive a {@code FilterPlugin} or an {@code OutputPlugin}.
+ *
+ * <p>Every value is computed only from the seed, the row number, and the column index. The same generator always
+ * generates the same records, and a row can be reproduced without generating the rows before it.
+ *
+ * <ul>
+ * <li>{@code boolean}, {@code long}, and {@code double}: uniformly distributed. {@code double} is in {@code [0, 1)}.
+ * <li>{@code string}: one of {@link #withStringCardinality} distinct values, {@code "v0"}, {@code "v1"}, and so on.
+ * <li>{@code timestamp}: in {@link #withTimestampRange} at millisecond precision.
+ * <li>{@code json}: an object in {@link #withJsonShape}, with keys {@code "k0"}, {@code "k1"}, and so on.
+ * </ul>
+ *
+ * <p>Pages are built one by one only when they are consumed. Their buffers are recycled when released, normally by
+ * the plugin's {@code PageReader}, so that memory use does not depend on the number of rows. It does not need an
+ * Embulk session. It is immutable, and every {@code with*} method returns a new generator.
+ *
+ * <p>The rows are reported to {@link AllocationTracker} for {@link EmbulkPluginTest#maxAllocatedBytesPerRow} when all
+ * of them are generated.
+ */
+public final class PageGenerator implements Iterable<Page> {
+    private PageGenerator(
+            final Schema schema,
+            final long rows,
+            final long seed,
+            final int stringCardinality,
+            final Instant timestampStart,
+            final Instant timestampEnd,
+            final int jsonFields,
+            final int jsonDepth,
+            final int pageSize) {
+        this.schema = schema;
+        this.rows = rows;
+        this.seed = seed;
+        this.stringCardinality = stringCardinality;
+        this.timestampStart = timestampStart;
+        this.timestampEnd = timestampEnd;
+        this.jsonFields = jsonFields;
+        this.jsonDepth = jsonDepth;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns a generator of the number of rows for the schema, with the default options.
+     */
+    public static PageGenerator of(final Schema schema, final long rows) {
+        if (schema == null) {
+            throw new NullPointerException("schema must not be null.");
+        }
+        if (rows < 0) {
+            throw new IllegalArgumentException("rows must not be negative: " + rows);
+        }
+        return new PageGenerator(
+                schema,
+                rows,
+                0L,
+                DEFAULT_STRING_CARDINALITY,
+                DEFAULT_TIMESTAMP_START,
+                DEFAULT_TIMESTAMP_END,
+                DEFAULT_JSON_FIELDS,
+                DEFAULT_JSON_DEPTH,
+                DEFAULT_PAGE_SIZE);
+    }
+
+    public PageGenerator withSeed(final long seed) {
+        return new PageGenerator(
+                this.schema, this.rows, seed, this.stringCardinality, this.timestampStart, this.timestampEnd,
+                this.jsonFields, this.jsonDepth, this.pageSize);
+    }
+
+    /**
+     * Returns a generator whose {@code string} columns have the number of distinct values. It is 1000 by default.
+     */
+    public PageGenerator withStringCardinality(final int stringCardinality) {
+        if (stringCardinality <= 0) {
+            throw new IllegalArgumentException("stringCardinality must be positive: " + stringCardinality);
+        }
+        return new PageGenerator(
+                this.schema, this.rows, this.seed, stringCardinality, this.timestampStart, this.timestampEnd,
+                this.jsonFields, this.jsonDepth, this.pageSize);
+    }
+
+    /**
+     * Returns a generator whose {@code timestamp} columns are in the range. It is from 2000-01-01 to 2030-01-01 by default.
+     *
+     * @param startInclusive  the earliest timestamp
+     * @param endExclusive  the end of the range, later than {@code startInclusive} by 1 millisecond or more
+     */
+    public PageGenerator withTimestampRange(final Instant startInclusive, final Instant endExclusive) {
+        if (startInclusive == null || endExclusive == null) {
+            throw new NullPointerException("The timestamp range must not be null.");
+        }
+        if (endExclusive.toEpochMilli() <= startInclusive.toEpochMilli()) {
+            throw new IllegalArgumentException("Empty timestamp range: [" + startInclusive + ", " + endExclusive + ")");
+        }
+        return new PageGenerator(
+                this.schema, this.rows, this.seed, this.stringCardinality, startInclusive, endExclusive,
+                this.jsonFields, this.jsonDepth, this.pageSize);
+    }
+
+    /**
+     * Returns a generator whose {@code json} columns are objects of the shape. It is 4 fields in 1 level by default.
+     *
+     * <p>Objects in the levels above the deepest have nested objects as values. Objects in the deepest level have
+     * numbers and strings as values alternately.
+     *
+     * @param fields  the number of fields in each object
+     * @param depth  the number of levels of nested objects, 1 for a flat object
+     */
+    public PageGenerator withJsonShape(final int fields, final int depth) {
+        if (fields < 0) {
+            throw new IllegalArgumentException("fields must not be negative: " + fields);
+        }
+        if (depth <= 0) {
+            throw new IllegalArgumentException("depth must be positive: " + depth);
+        }
+        return new PageGenerator(
+                this.schema, this.rows, this.seed, this.stringCardinality, this.timestampStart, this.timestampEnd,
+                fields, depth, this.pageSize);
+    }
+
+    /**
+     * Returns a generator which builds pages of the size in bytes. It is 32 KiB by default, as Embulk's default.
+     */
+    public PageGenerator withPageSize(final int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        return new PageGenerator(
+                this.schema, this.rows, this.seed, this.stringCardinality, this.timestampStart, this.timestampEnd,
+                this.jsonFields, this.jsonDepth, pageSize);
+    }
+
+    public Schema getSchema() {
+        return this.schema;
+    }
+
+    public long getRowCount() {
+        return this.rows;
+    }
+
+    /**
+     * Generates all the rows to the output, and calls {@link PageOutput#finish}.
+     *
+     * <p>The output is not closed. It is usually the output returned from {@code FilterPlugin#open}, or
+     * {@code OutputPlugin#open} which is to be committed after this method.
+     */
+    public void generateTo(final PageOutput output) {
+        final Rows rowsToBuild = new Rows(output);
+        rowsToBuild.addRemaining();
+        rowsToBuild.pageBuilder.finish();
+        AllocationTracker.reportRows(rowsToBuild.nextRow);
+    }
+
+    /**
+     * Returns an iterator which builds the next page only when it is requested.
+     *
+     * <p>Every page returned must be released, for example by {@code PageReader}, not to leak its buffer from the pool.
+     */
+    @Override
+    public Iterator<Page> iterator() {
+        return new PageIterator();
+    }
+
+    /**
+     * Returns the value of the cell, as it is set in generated pages, or {@code null} for an unsupported type.
+     *
+     * <p>It is a {@link Boolean}, a {@link Long}, a {@link Double}, a {@link String}, an {@link Instant}, or a
+     * {@link JsonValue}, so that a test can compute the expected output of a plugin without reading the pages.
+     */
+    public Object valueAt(final long row, final int columnIndex) {
+        if (row < 0 || row >= this.rows) {
+            throw new IndexOutOfBoundsException("row out of [0, " + this.rows + "): " + row);
+        }
+        final Type type = this.schema.getColumnType(columnIndex);
+        final long hash = hash(this.seed, row, columnIndex);
+        if (type instanceof BooleanType) {
+            return booleanOf(hash);
+        } else if (type instanceof LongType) {
+            return hash;
+        } else if (type instanceof DoubleType) {
+            return doubleOf(hash);
+        } else if (type instanceof StringType) {
+            return this.stringOf(hash);
+        } else if (type instanceof TimestampType) {
+            return this.timestampOf(hash);
+        } else if (type instanceof JsonType) {
+            return this.jsonOf(hash, this.jsonDepth);
+        }
+        return null;
+    }
+
+    /**
+     * Builds rows one by one into a page builder.
+     */
+    private final class Rows {
+        private Rows(final PageOutput output) {
+            this.pageBuilder = new PageBuilderImpl(
+                    new RecyclingBufferAllocator(PageGenerator.this.pageSize), PageGenerator.this.schema, output);
+            this.columns = PageGenerator.this.schema.getColumns().toArray(new Column[0]);
+            this.strings = PageGenerator.this.stringCardinality <= MAX_CACHED_STRINGS
+                    ? new String[PageGenerator.this.stringCardinality]
+                    : null;
+            this.nextRow = 0L;
+        }
+
+        /**
+         * Adds the next row, or returns {@code false} if all the rows have been added.
+         */
+        private boolean addNext() {
+            final long row = this.nextRow;
+            if (row >= PageGenerator.this.rows) {
+                return false;
+            }
+            final long seed = PageGenerator.this.seed;
+            for (int i = 0; i < this.columns.length; i++) {
+                final Type type = this.columns[i].getType();
+                final long hash = hash(seed, row, i);
+                if (type instanceof BooleanType) {
+                    this.pageBuilder.setBoolean(i, booleanOf(hash));
+                } else if (type instanceof LongType) {
+                    this.pageBuilder.setLong(i, hash);
+                } else if (type instanceof DoubleType) {
+                    this.pageBuilder.setDouble(i, doubleOf(hash));
+                } else if (type instanceof StringType) {
+                    this.pageBuilder.setString(i, this.cachedStringOf(hash));
+                } else if (type instanceof TimestampType) {
+                    this.pageBuilder.setTimestamp(i, PageGenerator.this.timestampOf(hash));
+                } else if (type instanceof JsonType) {
+                    this.pageBuilder.setJson(i, PageGenerator.this.jsonOf(hash, PageGenerator.this.jsonDepth));
+                } else {
+                    this.pageBuilder.setNull(i);
+                }
+            }
+            this.pageBuilder.addRecord();
+            this.nextRow = row + 1;
+            return true;
+        }
+
+        private void addRemaining() {
+            while (this.nextRow < PageGenerator.this.rows) {
+                this.addNext();
+            }
+        }
+
+        // Strings are cached not to allocate the same strings again and again, unless the cardinality is too large.
+        private String cachedStringOf(final long hash) {
+            if (this.strings == null) {
+                return PageGenerator.this.stringOf(hash);
+            }
+            final int index = (int) Long.remainderUnsigned(hash, PageGenerator.this.stringCardinality);
+            final String cached = this.strings[index];
+            if (cached != null) {
+                return cached;
+            }
+            final String string = STRING_PREFIX + index;
+            this.strings[index] = string;
+            return string;
+        }
+
+        private final PageBuilder pageBuilder;
+
+        private final Column[] columns;
+
+        private final String[] strings;
+
+        private long nextRow;
+    }
+
+    /**
+     * Builds pages into itself, and hands them out one by one.
+     */
+    private final class PageIterator implements Iterator<Page>, PageOutput {
+        private PageIterator() {
+            this.rowsToBuild = new Rows(this);
+            this.finished = false;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.next == null && !this.finished) {
+                if (!this.rowsToBuild.addNext()) {
+                    // PageBuilder#finish flushes the last page, if any, into #add.
+                    this.rowsToBuild.pageBuilder.finish();
+                    this.finished = true;
+                    AllocationTracker.reportRows(this.rowsToBuild.nextRow);
+                }
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public Page next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Page page = this.next;
+            this.next = null;
+            return page;
+        }
+
+        @Override
+        public void add(final Page page) {
+            this.next = page;
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private final Rows rowsToBuild;
+
+        private Page next;
+
+        private boolean finished;
+    }
+
+    private String stringOf(final long hash) {
+        return STRING_PREFIX + Long.remainderUnsigned(hash, this.stringCardinality);
+    }
+
+    private Instant timestampOf(final long hash) {
+        final long startMillis = this.timestampStart.toEpochMilli();
+        final long rangeMillis = this.timestampEnd.toEpochMilli() - startMillis;
+        return Instant.ofEpochMilli(startMillis + Long.remainderUnsigned(hash, rangeMillis));
+    }
+
+    private JsonValue jsonOf(final long hash, final int depth) {
+        final String[] keys = new String[this.jsonFields];
+        final JsonValue[] values = new JsonValue[this.jsonFields];
+        for (int i = 0; i < this.jsonFields; i++) {
+            final long fieldHash = mix64(hash + (i + 1) * GOLDEN_GAMMA);
+            keys[i] = i < JSON_KEYS.length ? JSON_KEYS[i] : "k" + i;
+            if (depth > 1) {
+                values[i] = this.jsonOf(fieldHash, depth - 1);
+            } else if (i % 2 == 0) {
+                values[i] = JsonLong.of(fieldHash);
+            } else {
+                values[i] = JsonString.of(this.stringOf(fieldHash));
+            }
+        }
+        return JsonObject.ofUnsafe(keys, values);
+    }
+
+    private static boolean booleanOf(final long hash) {
+        return (hash & 1L) != 0L;
+    }
+
+    private static double doubleOf(final long hash) {
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns a well-distributed hash of the cell, in the same way as {@code SplittableRandom}.
+     */
+    private static long hash(final long seed, final long row, final int columnIndex) {
+        return mix64(mix64(seed + row * GOLDEN_GAMMA) + (columnIndex + 1) * GOLDEN_GAMMA);
+    }
+
+    private static long mix64(final long value) {
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static String[] jsonKeys(final int size) {
+        final String[] keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = "k" + i;
+        }
+        return keys;
+    }
+
+    private static final int DEFAULT_STRING_CARDINALITY = 1000;
+
+    private static final Instant DEFAULT_TIMESTAMP_START = Instant.parse("2000-01-01T00:00:00Z");
+
+    private static final Instant DEFAULT_TIMESTAMP_END = Instant.parse("2030-01-01T00:00:00Z");
+
+    private static final int DEFAULT_JSON_FIELDS = 4;
+
+    private static final int DEFAULT_JSON_DEPTH = 1;
+
+    private static final int DEFAULT_PAGE_SIZE = 32 * 1024;
+
+    private static final int MAX_CACHED_STRINGS = 1 << 16;
+
+    private static final String STRING_PREFIX = "v";
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static final String[] JSON_KEYS = jsonKeys(16);
+
+    private final Schema schema;
+
+    private final long rows;
+
+    private final long seed;
+
+    private final int stringCardinality;
+
+    private final Instant timestampStart;
+
+    private final Instant timestampEnd;
+
+    private final int jsonFields;
+
+    private final int jsonDepth;
+
+    private final int pageSize;
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.api;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.BufferImpl;
+import org.embulk.spi.ExecSessionInternal;
+
+/**
+ * Allocates page buffers, and recycles their arrays when they are released.
+ *
+ * <p>A buffer larger than the page size is allocated as-is, and not recycled. It is thread-safe.
+ *
+ * <p>It is also the allocator of the Embulk session which the engine shares among the tests in a test class.
+ */
+public final class RecyclingBufferAllocator implements BufferAllocator {
+    public RecyclingBufferAllocator(final int pageSize) {
+        this.pageSize = pageSize;
+        this.pool = new ConcurrentLinkedQueue<>();
+        this.allocatedArrays = new AtomicLong(0L);
+    }
+
+    @Override
+    public Buffer allocate() {
+        return this.allocate(this.pageSize);
+    }
+
+    @Override
+    public Buffer allocate(final int minimumCapacity) {
+        if (minimumCapacity > this.pageSize) {
+            this.allocatedArrays.incrementAndGet();
+            return BufferImpl.allocate(minimumCapacity);
+        }
+        byte[] array = this.pool.poll();
+        if (array == null) {
+            this.allocatedArrays.incrementAndGet();
+            array = new byte[this.pageSize];
+        }
+        return new RecycledBuffer(array);
+    }
+
+    /**
+     * Builds an Embulk session whose pages are allocated by this allocator.
+     *
+     * <p>It builds the sessions of both {@link InputPluginHarness} and the engine. The session is to be cleaned up by the caller.
+     */
+    public ExecSessionInternal newExecSession() {
+        return ExecSessions.newExecSession(this);
+    }
+
+    /**
+     * Returns the number of arrays allocated, not recycled.
+     */
+    long getAllocatedArrays() {
+        return this.allocatedArrays.get();
+    }
+
+    private final class RecycledBuffer extends BufferImpl {
+        RecycledBuffer(final byte[] array) {
+            super(array, 0, array.length);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")  // Buffer#array is deprecated for plugins, not for Embulk itself.
+        public void release() {
+            // A page may be released more than once, but its array must be recycled only once.
+            if (!this.released) {
+                this.released = true;
+                RecyclingBufferAllocator.this.pool.offer(this.array());
+            }
+        }
+
+        private boolean released;
+    }
+
+    private final int pageSize;
+
+    private final ConcurrentLinkedQueue<byte[]> pool;
+
+    private final AtomicLong allocatedArrays;
+}
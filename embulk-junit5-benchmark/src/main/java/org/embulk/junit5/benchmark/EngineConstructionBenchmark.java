@@ -0,0 +1,51 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.embulk.junit5.engine.EmbulkPluginTestEngine;
+import org.junit.jupiter.engine.JupiterTestEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the construction of {@link EmbulkPluginTestEngine} with {@link JupiterTestEngine}.
+ *
+ * <p>The launcher constructs every engine on the class path through {@link java.util.ServiceLoader} even if the engine
+ * has no tests to run, so the construction is an overhead on every test run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EngineConstructionBenchmark {
+    @Benchmark
+    public EmbulkPluginTestEngine constructEmbulk() {
+        return new EmbulkPluginTestEngine();
+    }
+
+    @Benchmark
+    public JupiterTestEngine constructJupiter() {
+        return new JupiterTestEngine();
+    }
+}
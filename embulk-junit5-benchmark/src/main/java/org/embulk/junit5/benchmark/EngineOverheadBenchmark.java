@@ -0,0 +1,203 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.embulk.junit5.engine.EmbulkPluginTestEngine;
+import org.junit.jupiter.engine.JupiterTestEngine;
+import org.junit.platform.engine.DiscoverySelector;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestEngine;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.discovery.DiscoverySelectors;
+import org.junit.platform.launcher.Launcher;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.core.LauncherConfig;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+import org.junit.platform.launcher.listeners.SummaryGeneratingListener;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link EmbulkPluginTestEngine} with {@link JupiterTestEngine} on the same synthetic test suites.
+ *
+ * <ul>
+ * <li>{@code discover*}: {@code TestEngine#discover} of a new engine, as a test run does once.
+ * <li>{@code execute*}: Discovery and execution of the whole suite through a new {@link Launcher}. Divide the score
+ *     by the number of tests ({@code classes} x {@value #METHODS_PER_CLASS}) for the per-test overhead.
+ * </ul>
+ *
+ * <p>Each operation loads the suite in a new class loader, a new {@code PluginClassLoader} for the engine, and
+ * a new {@link URLClassLoader} for Jupiter, as a new test run does. The engine's INFO logs are suppressed not to
+ * measure the console. {@code peakHeapBytes} is the sum of the peak usages of the heap memory pools in an iteration.
+ *
+ * <p>The engine needs {@code -jvmArgsAppend --add-opens=java.base/java.lang=ALL-UNNAMED} on Java 9 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EngineOverheadBenchmark {
+    @Param({ "10", "1000", "10000" })
+    public int classes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ENGINE_LOGGER.setLevel(java.util.logging.Level.WARNING);
+
+        this.embulkSuite = SyntheticSuite.prepare(SyntheticSuite.Flavor.EMBULK, this.classes, METHODS_PER_CLASS);
+        this.jupiterSuite = SyntheticSuite.prepare(SyntheticSuite.Flavor.JUPITER, this.classes, METHODS_PER_CLASS);
+
+        // The engine loads test classes from the plugin class path in its PluginClassLoader.
+        System.setProperty("org.embulk.junit5.plugin.class.path", this.embulkSuite.getClassesDirectory().toString());
+        this.embulkRequest = requestOf(this.embulkSuite.getClassNames().stream()
+                .map(DiscoverySelectors::selectClass)
+                .collect(Collectors.toList()));
+
+        // Both engines must run all the tests. Otherwise, the comparison is meaningless.
+        checkTests("embulk-junit5-engine", this.runEmbulk(), this.embulkSuite.getTests());
+        checkTests("junit-jupiter", this.runJupiter(), this.jupiterSuite.getTests());
+    }
+
+    @Benchmark
+    public TestDescriptor discoverEmbulk() {
+        final EmbulkPluginTestEngine engine = new EmbulkPluginTestEngine();
+        return engine.discover(this.embulkRequest, UniqueId.forEngine(engine.getId()));
+    }
+
+    @Benchmark
+    public TestDescriptor discoverJupiter() throws IOException {
+        try (final URLClassLoader classLoader = this.jupiterSuite.newClassLoader(this.getClass().getClassLoader())) {
+            final JupiterTestEngine engine = new JupiterTestEngine();
+            return engine.discover(this.jupiterRequestIn(classLoader), UniqueId.forEngine(engine.getId()));
+        }
+    }
+
+    @Benchmark
+    public long executeEmbulk(final HeapCounters heap) {
+        return this.runEmbulk();
+    }
+
+    @Benchmark
+    public long executeJupiter(final HeapCounters heap) throws IOException {
+        return this.runJupiter();
+    }
+
+    /**
+     * Peak heap usage in an iteration, reported by JMH as a secondary result.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class HeapCounters {
+        public long peakHeapBytes;
+
+        @Setup(Level.Iteration)
+        public void resetPeak() {
+            System.gc();
+            for (final MemoryPoolMXBean pool : HEAP_POOLS) {
+                pool.resetPeakUsage();
+            }
+            this.peakHeapBytes = 0L;
+        }
+
+        @TearDown(Level.Iteration)
+        public void recordPeak() {
+            long peak = 0L;
+            for (final MemoryPoolMXBean pool : HEAP_POOLS) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+            this.peakHeapBytes = peak;
+        }
+    }
+
+    private long runEmbulk() {
+        return execute(new EmbulkPluginTestEngine(), this.embulkRequest);
+    }
+
+    private long runJupiter() throws IOException {
+        try (final URLClassLoader classLoader = this.jupiterSuite.newClassLoader(this.getClass().getClassLoader())) {
+            return execute(new JupiterTestEngine(), this.jupiterRequestIn(classLoader));
+        }
+    }
+
+    private LauncherDiscoveryRequest jupiterRequestIn(final ClassLoader classLoader) {
+        return requestOf(this.jupiterSuite.getClassNames().stream()
+                .map(className -> DiscoverySelectors.selectClass(classLoader, className))
+                .collect(Collectors.toList()));
+    }
+
+    private static long execute(final TestEngine engine, final LauncherDiscoveryRequest request) {
+        final Launcher launcher = LauncherFactory.create(LauncherConfig.builder()
+                .enableTestEngineAutoRegistration(false)
+                .enableLauncherSessionListenerAutoRegistration(false)
+                .enableLauncherDiscoveryListenerAutoRegistration(false)
+                .enablePostDiscoveryFilterAutoRegistration(false)
+                .enableTestExecutionListenerAutoRegistration(false)
+                .addTestEngines(engine)
+                .build());
+        final SummaryGeneratingListener listener = new SummaryGeneratingListener();
+        launcher.execute(request, listener);
+        return listener.getSummary().getTestsSucceededCount();
+    }
+
+    private static LauncherDiscoveryRequest requestOf(final List<? extends DiscoverySelector> selectors) {
+        return LauncherDiscoveryRequestBuilder.request().selectors(selectors).build();
+    }
+
+    private static void checkTests(final String engineId, final long succeeded, final int expected) {
+        if (succeeded != expected) {
+            throw new IllegalStateException(engineId + " succeeded in " + succeeded + " tests, but expected " + expected + ".");
+        }
+    }
+
+    static final int METHODS_PER_CLASS = 3;
+
+    // Kept strongly not to be garbage-collected with its level.
+    private static final java.util.logging.Logger ENGINE_LOGGER = java.util.logging.Logger.getLogger("org.embulk.junit5");
+
+    private static final List<MemoryPoolMXBean> HEAP_POOLS = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .collect(Collectors.toList());
+
+    private SyntheticSuite embulkSuite;
+
+    private SyntheticSuite jupiterSuite;
+
+    private LauncherDiscoveryRequest embulkRequest;
+}
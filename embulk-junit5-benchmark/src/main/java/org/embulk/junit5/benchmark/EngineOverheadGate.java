@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Fails if the engine takes much longer than JUnit Jupiter to discover and execute the same synthetic test suites.
+ *
+ * <p>It runs {@code executeEmbulk} and {@code executeJupiter} of {@link EngineOverheadBenchmark}, and exits with
+ * {@code 1} if the ratio of their scores exceeds {@code embulk.junit5.benchmark.gate.maxOverheadRatio} for any number
+ * of classes in {@code embulk.junit5.benchmark.gate.classes}. The ratio, not the absolute time, is checked so that
+ * the gate is stable across machines.
+ */
+public final class EngineOverheadGate {
+    private EngineOverheadGate() {
+        // No instantiation.
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        final double maxOverheadRatio = Double.parseDouble(System.getProperty("embulk.junit5.benchmark.gate.maxOverheadRatio", "3.0"));
+        final String[] classes = System.getProperty("embulk.junit5.benchmark.gate.classes", "10,1000").split(",");
+
+        final OptionsBuilder builder = new OptionsBuilder();
+        builder.include(EngineOverheadBenchmark.class.getName() + ".execute(Embulk|Jupiter)$");
+        builder.param("classes", classes);
+        builder.shouldFailOnError(true);
+        // It replaces jvmArgsAppend of @Fork. The forked JVMs are the same Java as this, and inherit its JVM arguments.
+        final List<String> jvmArgs = new ArrayList<>(Arrays.asList("-Xms2g", "-Xmx2g"));
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            // The engine needs to access ClassLoader#findLoadedClass.
+            jvmArgs.add("--add-opens=java.base/java.lang=ALL-UNNAMED");
+        }
+        builder.jvmArgsAppend(jvmArgs.toArray(new String[0]));
+        final Options options = builder.build();
+        final Collection<RunResult> results = new Runner(options).run();
+
+        final List<String> violations = new ArrayList<>();
+        for (final String numberOfClasses : classes) {
+            final double embulk = scoreOf(results, "executeEmbulk", numberOfClasses);
+            final double jupiter = scoreOf(results, "executeJupiter", numberOfClasses);
+            final double ratio = embulk / jupiter;
+            final String line = String.format(
+                    Locale.ENGLISH, "classes=%s: embulk-junit5-engine %.3f ms/op, junit-jupiter %.3f ms/op, ratio %.2f (max %.2f)",
+                    numberOfClasses, embulk, jupiter, ratio, maxOverheadRatio);
+            System.out.println(line);
+            if (!(ratio <= maxOverheadRatio)) {
+                violations.add(line);
+            }
+        }
+
+        if (!violations.isEmpty()) {
+            System.err.println("The engine overhead exceeds the limit against JUnit Jupiter:");
+            for (final String violation : violations) {
+                System.err.println("  " + violation);
+            }
+            System.exit(1);
+        }
+    }
+
+    private static double scoreOf(final Collection<RunResult> results, final String benchmark, final String numberOfClasses) {
+        for (final RunResult result : results) {
+            if (result.getParams().getBenchmark().endsWith("." + benchmark)
+                    && numberOfClasses.equals(result.getParams().getParam("classes"))) {
+                return result.getPrimaryResult().getScore();
+            }
+        }
+        throw new IllegalStateException("No result of " + benchmark + " with classes=" + numberOfClasses + ".");
+    }
+}
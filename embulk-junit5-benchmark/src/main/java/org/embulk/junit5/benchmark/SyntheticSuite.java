@@ -0,0 +1,172 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * A synthetic test suite of classes with test methods, generated and compiled on disk.
+ *
+ * <p>The suites of the same size have the same test bodies for both flavors, {@link Flavor#EMBULK} annotated with
+ * {@code @EmbulkPluginTest}, and {@link Flavor#JUPITER} annotated with {@code @Test}. A compiled suite is reused
+ * while its directory is kept, because compiling thousands of classes takes much longer than running them.
+ */
+final class SyntheticSuite {
+    private SyntheticSuite(final Path classesDirectory, final List<String> classNames, final int methodsPerClass) {
+        this.classesDirectory = classesDirectory;
+        this.classNames = classNames;
+        this.methodsPerClass = methodsPerClass;
+    }
+
+    enum Flavor {
+        EMBULK("org.embulk.junit5.api.EmbulkPluginTest"),
+        JUPITER("org.junit.jupiter.api.Test"),
+        ;
+
+        private Flavor(final String annotation) {
+            this.annotation = annotation;
+        }
+
+        private final String annotation;
+    }
+
+    /**
+     * Returns a compiled suite, which is generated and compiled at the first call for the flavor and the size.
+     */
+    static synchronized SyntheticSuite prepare(final Flavor flavor, final int classes, final int methodsPerClass) throws IOException {
+        final String packageName = "org.embulk.junit5.benchmark.synthetic." + flavor.name().toLowerCase();
+        final List<String> classNames = new ArrayList<>();
+        for (int i = 0; i < classes; i++) {
+            classNames.add(String.format("%s.SyntheticTest%05d", packageName, i));
+        }
+
+        final Path suiteDirectory = suitesDirectory().resolve(flavor.name().toLowerCase() + "-" + classes + "x" + methodsPerClass);
+        final Path classesDirectory = suiteDirectory.resolve("classes");
+        final Path completed = suiteDirectory.resolve("COMPLETED");
+        if (!Files.exists(completed)) {
+            generateAndCompile(flavor, classNames, methodsPerClass, suiteDirectory.resolve("src"), classesDirectory);
+            Files.write(completed, new byte[0]);
+        }
+        return new SyntheticSuite(classesDirectory, Collections.unmodifiableList(classNames), methodsPerClass);
+    }
+
+    Path getClassesDirectory() {
+        return this.classesDirectory;
+    }
+
+    List<String> getClassNames() {
+        return this.classNames;
+    }
+
+    int getTests() {
+        return this.classNames.size() * this.methodsPerClass;
+    }
+
+    /**
+     * Creates a new class loader to load the suite, as a test runner loads test classes.
+     */
+    URLClassLoader newClassLoader(final ClassLoader parent) {
+        try {
+            return new URLClassLoader(new URL[] { this.classesDirectory.toUri().toURL() }, parent);
+        } catch (final MalformedURLException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void generateAndCompile(
+            final Flavor flavor,
+            final List<String> classNames,
+            final int methodsPerClass,
+            final Path sourcesDirectory,
+            final Path classesDirectory) throws IOException {
+        final ArrayList<String> sourceFiles = new ArrayList<>();
+        for (final String className : classNames) {
+            final Path sourceFile = sourcesDirectory.resolve(className.replace('.', '/') + ".java");
+            Files.createDirectories(sourceFile.getParent());
+            Files.write(sourceFile, generateSource(flavor, className, methodsPerClass).getBytes(StandardCharsets.UTF_8));
+            sourceFiles.add(sourceFile.toString());
+        }
+        Files.createDirectories(classesDirectory);
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("A JDK is required to compile synthetic test suites.");
+        }
+        final ArrayList<String> arguments = new ArrayList<>(Arrays.asList(
+                "-proc:none",
+                "-nowarn",
+                "-encoding", "UTF-8",
+                "-cp", System.getProperty("java.class.path"),
+                "-d", classesDirectory.toString()));
+        arguments.addAll(sourceFiles);
+        final int exitCode = compiler.run(null, null, null, arguments.toArray(new String[0]));
+        if (exitCode != 0) {
+            throw new IllegalStateException("Failed to compile a synthetic test suite in: " + sourcesDirectory);
+        }
+    }
+
+    /**
+     * Generates a test class whose test methods do the same small amount of work, not to be optimized away.
+     */
+    private static String generateSource(final Flavor flavor, final String className, final int methodsPerClass) {
+        final int lastDot = className.lastIndexOf('.');
+        final StringBuilder source = new StringBuilder();
+        source.append("package ").append(className, 0, lastDot).append(";\n\n");
+        source.append("public class ").append(className.substring(lastDot + 1)).append(" {\n");
+        for (int i = 0; i < methodsPerClass; i++) {
+            source.append("    @").append(flavor.annotation).append("\n");
+            source.append("    public void test").append(i).append("() {\n");
+            source.append("        long value = ").append(i).append("L;\n");
+            source.append("        for (int j = 0; j < 100; j++) {\n");
+            source.append("            value = value * 31L + j;\n");
+            source.append("        }\n");
+            source.append("        sink = value;\n");
+            source.append("    }\n\n");
+        }
+        source.append("    public static volatile long sink;\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private static Path suitesDirectory() {
+        final String configured = System.getProperty("embulk.junit5.benchmark.suites.dir");
+        if (configured != null && !configured.isEmpty()) {
+            return Paths.get(configured);
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"), "embulk-junit5-benchmark");
+    }
+
+    private final Path classesDirectory;
+
+    private final List<String> classNames;
+
+    private final int methodsPerClass;
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures class loading over a class path of many jar files, with and without {@link IndexedClassPath}.
+ *
+ * <p>{@code plain*} use a {@link URLClassLoader} with the jar files, as {@code PluginClassLoader} does by default.
+ * {@code indexed*} use a {@link URLClassLoader} with the URLs of the index, built once in the setup as the engine does.
+ *
+ * <ul>
+ * <li>{@code *LoadAll}: Loads all the classes, spread across the jar files, in a new class loader.
+ * <li>{@code *Miss}: Looks up a class file which is not in the class path, as for a class in the parent class loader.
+ * <li>{@code buildIndex}: Builds the index from the jar files.
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexedClassPathBenchmark {
+    @Param({ "200" })
+    public int jarCount;
+
+    @Param({ "10" })
+    public int classesPerJar;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("embulk-junit5-bench");
+        this.jarFiles = new ArrayList<>();
+        final ArrayList<URL> jarUrls = new ArrayList<>();
+        for (int jar = 0; jar < this.jarCount; jar++) {
+            final Path jarFile = this.directory.resolve("lib" + jar + ".jar");
+            writeJar(jarFile, jar, this.classesPerJar);
+            this.jarFiles.add(jarFile);
+            jarUrls.add(jarFile.toUri().toURL());
+        }
+        this.jarUrls = jarUrls.toArray(new URL[0]);
+
+        // Interleaved so that the lookups are spread across the jar files.
+        this.classNames = new ArrayList<>();
+        for (int klass = 0; klass < this.classesPerJar; klass++) {
+            for (int jar = 0; jar < this.jarCount; jar++) {
+                this.classNames.add(className(jar, klass));
+            }
+        }
+
+        this.indexedClassPath = IndexedClassPath.build(this.jarFiles);
+        this.indexedUrls = this.indexedClassPath.getUrls().toArray(new URL[0]);
+
+        this.plainClassLoader = new URLClassLoader(this.jarUrls, null);
+        this.indexedClassLoader = new URLClassLoader(this.indexedUrls, null);
+        this.plainClassLoader.getResource(MISSING);  // Opens all the jar files.
+        this.indexedClassLoader.getResource(MISSING);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.plainClassLoader.close();
+        this.indexedClassLoader.close();
+        this.indexedClassPath.close();
+        try (final Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int plainLoadAll() throws ClassNotFoundException, IOException {
+        try (final URLClassLoader classLoader = new URLClassLoader(this.jarUrls, null)) {
+            return loadAll(classLoader, this.classNames);
+        }
+    }
+
+    @Benchmark
+    public int indexedLoadAll() throws ClassNotFoundException, IOException {
+        try (final URLClassLoader classLoader = new URLClassLoader(this.indexedUrls, null)) {
+            return loadAll(classLoader, this.classNames);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public URL plainMiss() {
+        return this.plainClassLoader.findResource(MISSING);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public URL indexedMiss() {
+        return this.indexedClassLoader.findResource(MISSING);
+    }
+
+    @Benchmark
+    public int buildIndex() throws IOException {
+        try (final IndexedClassPath indexedClassPath = IndexedClassPath.build(this.jarFiles)) {
+            return indexedClassPath.getPackageCount();
+        }
+    }
+
+    private static int loadAll(final ClassLoader classLoader, final List<String> classNames) throws ClassNotFoundException {
+        int hash = 0;
+        for (final String className : classNames) {
+            hash += classLoader.loadClass(className).hashCode();
+        }
+        return hash;
+    }
+
+    private static String className(final int jar, final int klass) {
+        return "bench.p" + jar + ".C" + klass;
+    }
+
+    private static void writeJar(final Path jarFile, final int jar, final int classesPerJar) throws IOException {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        try (final OutputStream out = Files.newOutputStream(jarFile);
+                final JarOutputStream jarOut = new JarOutputStream(out, manifest)) {
+            for (int klass = 0; klass < classesPerJar; klass++) {
+                final String internalName = className(jar, klass).replace('.', '/');
+                jarOut.putNextEntry(new JarEntry(internalName + ".class"));
+                jarOut.write(classFile(internalName));
+                jarOut.closeEntry();
+            }
+            if (jar % 20 == 0) {
+                // Some jar files provide the same service, as in a real class path.
+                jarOut.putNextEntry(new JarEntry("META-INF/services/bench.Service"));
+                jarOut.write((className(jar, 0) + "\n").getBytes(StandardCharsets.UTF_8));
+                jarOut.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Returns a minimal class file of a public class which extends {@link Object} without any member.
+     */
+    private static byte[] classFile(final String internalName) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xcafebabe);
+        out.writeShort(0);  // minor_version
+        out.writeShort(52);  // major_version: Java 8
+        out.writeShort(5);  // constant_pool_count
+        out.writeByte(7);  // #1: CONSTANT_Class
+        out.writeShort(2);
+        out.writeByte(1);  // #2: CONSTANT_Utf8
+        out.writeUTF(internalName);
+        out.writeByte(7);  // #3: CONSTANT_Class
+        out.writeShort(4);
+        out.writeByte(1);  // #4: CONSTANT_Utf8
+        out.writeUTF("java/lang/Object");
+        out.writeShort(0x0021);  // ACC_PUBLIC | ACC_SUPER
+        out.writeShort(1);  // this_class
+        out.writeShort(3);  // super_class
+        out.writeShort(0);  // interfaces_count
+        out.writeShort(0);  // fields_count
+        out.writeShort(0);  // methods_count
+        out.writeShort(0);  // attributes_count
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static final String MISSING = "org/embulk/spi/Missing.class";
+
+    private Path directory;
+
+    private List<Path> jarFiles;
+
+    private URL[] jarUrls;
+
+    private List<String> classNames;
+
+    private IndexedClassPath indexedClassPath;
+
+    private URL[] indexedUrls;
+
+    private URLClassLoader plainClassLoader;
+
+    private URLClassLoader indexedClassLoader;
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures lookups per second of {@link LoadedClassFinder} as the number of threads grows.
+ *
+ * <p>{@code legacy*} reproduce the former implementation, which was {@code static synchronized}, and looked up
+ * {@code ClassLoader#findLoadedClass} reflectively on every call.
+ *
+ * <p>Run it with {@code -jvmArgsAppend --add-opens=java.base/java.lang=ALL-UNNAMED} on Java 9+.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadedClassFinderBenchmark {
+    @Param({ "org.embulk.junit5.engine.LoadedClassFinderBenchmark", "org.embulk.junit5.engine.NonExistent" })
+    public String name;
+
+    @Benchmark
+    @Threads(1)
+    public Class<?> cached1Thread() {
+        return LoadedClassFinder.findFrom(CLASS_LOADER, this.name);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Class<?> cached4Threads() {
+        return LoadedClassFinder.findFrom(CLASS_LOADER, this.name);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Class<?> cached16Threads() {
+        return LoadedClassFinder.findFrom(CLASS_LOADER, this.name);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Class<?> legacy1Thread() {
+        return legacyFindFrom(CLASS_LOADER, this.name);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Class<?> legacy4Threads() {
+        return legacyFindFrom(CLASS_LOADER, this.name);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Class<?> legacy16Threads() {
+        return legacyFindFrom(CLASS_LOADER, this.name);
+    }
+
+    private static synchronized Class<?> legacyFindFrom(final ClassLoader classLoader, final String name) {
+        final Method findLoadedClass;
+        try {
+            findLoadedClass = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+        } catch (final NoSuchMethodException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        findLoadedClass.setAccessible(true);
+        try {
+            return (Class<?>) findLoadedClass.invoke(classLoader, name);
+        } catch (final IllegalAccessException | InvocationTargetException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            findLoadedClass.setAccessible(false);
+        }
+    }
+
+    private static final ClassLoader CLASS_LOADER = LoadedClassFinderBenchmark.class.getClassLoader();
+}
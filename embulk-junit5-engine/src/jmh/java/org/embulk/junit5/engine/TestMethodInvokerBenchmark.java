@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link TestMethodInvoker} with plain {@link Method#invoke} on a suite of 10k trivial tests.
+ *
+ * <p>Each test has its own {@link Method} (and its own {@link TestMethodInvoker}) as discovery would create.
+ * It runs in the single-shot mode with a small number of iterations because each test method runs only once,
+ * or a few times with repetitions, in a real test suite. Note that HotSpot customizes a {@link java.lang.invoke.MethodHandle}
+ * which is invoked more than a threshold (127 times by default), which never happens for a test in a suite.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(3)
+public class TestMethodInvokerBenchmark {
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        this.invokers = new TestMethodInvoker[TESTS];
+        this.constructors = new Constructor<?>[TESTS];
+        this.methods = new Method[TESTS];
+        for (int i = 0; i < TESTS; i++) {
+            final Method method = TrivialTest.class.getDeclaredMethod("test" + (i % 4));
+            this.invokers[i] = TestMethodInvoker.of(TrivialTest.class, method);
+            this.constructors[i] = TrivialTest.class.getDeclaredConstructor();
+            this.methods[i] = method;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TESTS)
+    public void methodHandle() throws Exception {
+        for (int i = 0; i < TESTS; i++) {
+            this.invokers[i].invoke();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TESTS)
+    public void reflection() throws ReflectiveOperationException {
+        for (int i = 0; i < TESTS; i++) {
+            this.methods[i].invoke(this.constructors[i].newInstance());
+        }
+    }
+
+    public static class TrivialTest {
+        public void test0() {
+            count++;
+        }
+
+        public void test1() {
+            count++;
+        }
+
+        public void test2() {
+            count++;
+        }
+
+        public void test3() {
+            count++;
+        }
+
+        static int count;
+    }
+
+    private static final int TESTS = 10_000;
+
+    private TestMethodInvoker[] invokers;
+
+    private Constructor<?>[] constructors;
+
+    private Method[] methods;
+}
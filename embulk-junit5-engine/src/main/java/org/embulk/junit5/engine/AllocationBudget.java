@@ -0,0 +1,125 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.util.Locale;
+import org.embulk.junit5.api.AllocationTracker;
+import org.embulk.junit5.api.EmbulkPluginTest;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+import org.opentest4j.AssertionFailedError;
+
+/**
+ * Measures the bytes allocated by an {@link EmbulkPluginTest} method, and checks them against its budgets.
+ *
+ * <p>The bytes are of the thread which runs the test, and of the threads spawned by harnesses which report them to
+ * {@link AllocationTracker}. The budgets are not checked if the thread allocation counter is unsupported in the JVM.
+ *
+ * <p>It measures a test only once. Create a new instance for every run.
+ */
+final class AllocationBudget {
+    private AllocationBudget(final long maxAllocatedBytes, final long maxAllocatedBytesPerRow) {
+        this.maxAllocatedBytes = maxAllocatedBytes;
+        this.maxAllocatedBytesPerRow = maxAllocatedBytesPerRow;
+    }
+
+    /**
+     * Returns a budget of the annotation, or {@code null} if the annotation has no budgets.
+     */
+    static AllocationBudget of(final EmbulkPluginTest annotation) {
+        if (annotation == null || (annotation.maxAllocatedBytes() < 0 && annotation.maxAllocatedBytesPerRow() < 0)) {
+            return null;
+        }
+        return new AllocationBudget(annotation.maxAllocatedBytes(), annotation.maxAllocatedBytesPerRow());
+    }
+
+    /**
+     * Starts measuring in the current thread, which runs the test.
+     */
+    void start() {
+        this.tracker = AllocationTracker.start();
+        this.allocatedBytesStart = AllocationTracker.currentThreadAllocatedBytes();
+    }
+
+    /**
+     * Stops measuring in the current thread. It is called even if the test fails.
+     */
+    void stop() {
+        this.allocatedBytesEnd = AllocationTracker.currentThreadAllocatedBytes();
+        this.tracker.stop();
+    }
+
+    /**
+     * Checks the budgets after {@link #stop}.
+     *
+     * @throws AssertionFailedError  if a budget is exceeded
+     */
+    void check() {
+        if (this.allocatedBytesStart < 0 || this.allocatedBytesEnd < 0) {
+            logger.warn(() -> "Allocation budgets are not checked as the thread allocation counter is unsupported in the JVM.");
+            return;
+        }
+
+        final long testThreadBytes = this.allocatedBytesEnd - this.allocatedBytesStart;
+        final long spawnedThreadBytes = this.tracker.getSpawnedThreadAllocatedBytes();
+        final long totalBytes = testThreadBytes + spawnedThreadBytes;
+        final long rows = this.tracker.getRows();
+
+        final StringBuilder failures = new StringBuilder();
+        if (this.maxAllocatedBytes >= 0 && totalBytes > this.maxAllocatedBytes) {
+            failures.append(String.format(Locale.ENGLISH, "Allocated %,d bytes, over the budget of %,d bytes.",
+                                          totalBytes, this.maxAllocatedBytes));
+        }
+        if (this.maxAllocatedBytesPerRow >= 0) {
+            if (rows <= 0) {
+                appendLine(failures, String.format(Locale.ENGLISH,
+                        "No rows were reported by harnesses to check the budget of %,d bytes per row.", this.maxAllocatedBytesPerRow));
+            } else if ((double) totalBytes / rows > this.maxAllocatedBytesPerRow) {
+                appendLine(failures, String.format(Locale.ENGLISH, "Allocated %,.1f bytes per row, over the budget of %,d bytes per row.",
+                                                   (double) totalBytes / rows, this.maxAllocatedBytesPerRow));
+            }
+        }
+        if (failures.length() == 0) {
+            return;
+        }
+
+        appendLine(failures, String.format(Locale.ENGLISH, "  in the test thread:     %,d bytes", testThreadBytes));
+        appendLine(failures, String.format(Locale.ENGLISH, "  in %,d spawned threads: %,d bytes", this.tracker.getSpawnedThreads(), spawnedThreadBytes));
+        appendLine(failures, String.format(Locale.ENGLISH, "  total:                  %,d bytes", totalBytes));
+        appendLine(failures, String.format(Locale.ENGLISH, "  rows reported:          %,d", rows));
+        throw new AssertionFailedError(failures.toString());
+    }
+
+    private static void appendLine(final StringBuilder builder, final String line) {
+        if (builder.length() > 0) {
+            builder.append(System.lineSeparator());
+        }
+        builder.append(line);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(AllocationBudget.class);
+
+    private final long maxAllocatedBytes;
+
+    private final long maxAllocatedBytesPerRow;
+
+    private AllocationTracker tracker;
+
+    private long allocatedBytesStart;
+
+    private long allocatedBytesEnd;
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.embulk.junit5.api.EmbulkPluginBenchmark;
+import org.embulk.junit5.api.EmbulkPluginTest;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+
+/**
+ * Finds {@code @EmbulkPluginTest} and {@code @EmbulkPluginBenchmark} methods by parsing a class file directly, without loading the class.
+ *
+ * <p>It reads only what it needs from the class file format (JVMS §4): the constant pool, the class name, and
+ * the {@code RuntimeVisibleAnnotations} attributes of methods. Annotations are matched only when they are directly
+ * present, as {@link Class#getDeclaredMethods()} with {@link java.lang.reflect.Method#isAnnotationPresent} does.
+ *
+ * <p>Invalid test methods are skipped with warnings, as discovery by reflection skips them. They are static methods,
+ * methods with parameters, and methods of classes without a constructor with no parameters.
+ */
+final class ClassFileScanner {
+    private ClassFileScanner() {
+        // No instantiation.
+    }
+
+    /**
+     * Scans a class file.
+     *
+     * @param classFile  the content of a class file
+     * @return the scanned class, which may have no test methods
+     * @throws IOException  if the class file is broken
+     */
+    static ScannedClass scan(final byte[] classFile) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file.");
+        }
+        in.readUnsignedShort();  // minor_version
+        in.readUnsignedShort();  // major_version
+
+        final int constantPoolCount = in.readUnsignedShort();
+        final String[] utf8s = new String[constantPoolCount];
+        final int[] classNameIndices = new int[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            final int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:  // CONSTANT_Utf8
+                    utf8s[i] = in.readUTF();
+                    break;
+                case 7:  // CONSTANT_Class
+                    classNameIndices[i] = in.readUnsignedShort();
+                    break;
+                case 8:  // CONSTANT_String
+                case 16:  // CONSTANT_MethodType
+                case 19:  // CONSTANT_Module
+                case 20:  // CONSTANT_Package
+                    in.skipBytes(2);
+                    break;
+                case 15:  // CONSTANT_MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 3:  // CONSTANT_Integer
+                case 4:  // CONSTANT_Float
+                case 9:  // CONSTANT_Fieldref
+                case 10:  // CONSTANT_Methodref
+                case 11:  // CONSTANT_InterfaceMethodref
+                case 12:  // CONSTANT_NameAndType
+                case 17:  // CONSTANT_Dynamic
+                case 18:  // CONSTANT_InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5:  // CONSTANT_Long
+                case 6:  // CONSTANT_Double
+                    in.skipBytes(8);
+                    i++;  // Takes two entries.
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag: " + tag);
+            }
+        }
+
+        in.readUnsignedShort();  // access_flags
+        final String className = utf8s[classNameIndices[in.readUnsignedShort()]].replace('/', '.');
+        in.readUnsignedShort();  // super_class
+        in.skipBytes(2 * in.readUnsignedShort());  // interfaces
+
+        final int fieldsCount = in.readUnsignedShort();
+        for (int i = 0; i < fieldsCount; i++) {
+            in.skipBytes(6);  // access_flags, name_index, descriptor_index
+            skipAttributes(in);
+        }
+
+        final ArrayList<String> testMethodNames = new ArrayList<>();
+        boolean hasNoArgConstructor = false;
+        final int methodsCount = in.readUnsignedShort();
+        for (int i = 0; i < methodsCount; i++) {
+            final int accessFlags = in.readUnsignedShort();
+            final String name = utf8s[in.readUnsignedShort()];
+            final String descriptor = utf8s[in.readUnsignedShort()];
+            if ("<init>".equals(name) && "()V".equals(descriptor)) {
+                hasNoArgConstructor = true;
+            }
+            boolean isTest = false;
+            final int attributesCount = in.readUnsignedShort();
+            for (int j = 0; j < attributesCount; j++) {
+                final String attributeName = utf8s[in.readUnsignedShort()];
+                final int length = in.readInt();
+                if ("RuntimeVisibleAnnotations".equals(attributeName)) {
+                    isTest |= hasTestAnnotation(in, utf8s);
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+
+            if (isTest) {
+                if ((accessFlags & ACC_STATIC) != 0) {
+                    logger.warn(() -> "Skipping invalid @EmbulkPluginTest method, which must not be static: " + className + "." + name);
+                } else if (!descriptor.startsWith("()")) {
+                    logger.warn(() -> "Skipping invalid @EmbulkPluginTest method, which must not have parameters: " + className + "." + name);
+                } else {
+                    testMethodNames.add(name);
+                }
+            }
+        }
+
+        if (!hasNoArgConstructor && !testMethodNames.isEmpty()) {
+            for (final String name : testMethodNames) {
+                logger.warn(() -> "Skipping invalid @EmbulkPluginTest method, whose class must have a constructor with no parameters: "
+                                  + className + "." + name);
+            }
+            testMethodNames.clear();
+        }
+
+        return new ScannedClass(className, Collections.unmodifiableList(testMethodNames));
+    }
+
+    static final class ScannedClass {
+        ScannedClass(final String className, final List<String> testMethodNames) {
+            this.className = className;
+            this.testMethodNames = testMethodNames;
+        }
+
+        String getClassName() {
+            return this.className;
+        }
+
+        List<String> getTestMethodNames() {
+            return this.testMethodNames;
+        }
+
+        private final String className;
+
+        private final List<String> testMethodNames;
+    }
+
+    private static boolean hasTestAnnotation(final DataInputStream in, final String[] utf8s) throws IOException {
+        boolean found = false;
+        final int annotationsCount = in.readUnsignedShort();
+        for (int i = 0; i < annotationsCount; i++) {
+            final String annotationDescriptor = utf8s[in.readUnsignedShort()];
+            if (TEST_ANNOTATION_DESCRIPTOR.equals(annotationDescriptor) || BENCHMARK_ANNOTATION_DESCRIPTOR.equals(annotationDescriptor)) {
+                found = true;
+            }
+            skipElementValuePairs(in);
+        }
+        return found;
+    }
+
+    private static void skipAnnotation(final DataInputStream in) throws IOException {
+        in.skipBytes(2);  // type_index
+        skipElementValuePairs(in);
+    }
+
+    private static void skipElementValuePairs(final DataInputStream in) throws IOException {
+        final int pairsCount = in.readUnsignedShort();
+        for (int i = 0; i < pairsCount; i++) {
+            in.skipBytes(2);  // element_name_index
+            skipElementValue(in);
+        }
+    }
+
+    private static void skipElementValue(final DataInputStream in) throws IOException {
+        final int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+            case 's':
+            case 'c':
+                in.skipBytes(2);
+                break;
+            case 'e':
+                in.skipBytes(4);
+                break;
+            case '@':
+                skipAnnotation(in);
+                break;
+            case '[':
+                final int valuesCount = in.readUnsignedShort();
+                for (int i = 0; i < valuesCount; i++) {
+                    skipElementValue(in);
+                }
+                break;
+            default:
+                throw new IOException("Unknown element_value tag: " + tag);
+        }
+    }
+
+    private static void skipAttributes(final DataInputStream in) throws IOException {
+        final int attributesCount = in.readUnsignedShort();
+        for (int i = 0; i < attributesCount; i++) {
+            in.skipBytes(2);  // attribute_name_index
+            in.skipBytes(in.readInt());
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(ClassFileScanner.class);
+
+    private static final String TEST_ANNOTATION_DESCRIPTOR = "L" + EmbulkPluginTest.class.getName().replace('.', '/') + ";";
+
+    private static final String BENCHMARK_ANNOTATION_DESCRIPTOR = "L" + EmbulkPluginBenchmark.class.getName().replace('.', '/') + ";";
+
+    private static final int ACC_STATIC = 0x0008;
+}
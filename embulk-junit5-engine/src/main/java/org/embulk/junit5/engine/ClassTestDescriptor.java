@@ -16,13 +16,29 @@
 
 package org.embulk.junit5.engine;
 
+import org.embulk.plugin.PluginClassLoader;
+import org.junit.platform.engine.TestDescriptor;
 import org.junit.platform.engine.UniqueId;
 import org.junit.platform.engine.support.descriptor.AbstractTestDescriptor;
+import org.junit.platform.engine.support.hierarchical.Node;
 
-final class ClassTestDescriptor extends AbstractTestDescriptor {
-    ClassTestDescriptor(final UniqueId uniqueId, final Class<?> testClass) {
-        super(uniqueId, testClass.getSimpleName());
-        this.testClass = testClass;
+final class ClassTestDescriptor extends AbstractTestDescriptor implements Node<EmbulkPluginTestEngineExecutionContext> {
+    /**
+     * Creates a descriptor of a test class which is not loaded yet.
+     *
+     * <p>The test class is loaded in a {@link PluginClassLoader} at {@link #prepare}, and then its children
+     * {@link MethodTestDescriptor}s are resolved.
+     */
+    ClassTestDescriptor(
+            final UniqueId uniqueId,
+            final String testClassName,
+            final PluginClassLoaderLifecycle pluginClassLoaderLifecycle,
+            final Node.ExecutionMode executionMode) {
+        super(uniqueId, simpleNameOf(testClassName));
+        this.testClassName = testClassName;
+        this.testClass = null;
+        this.pluginClassLoaderLifecycle = pluginClassLoaderLifecycle;
+        this.executionMode = executionMode;
     }
 
     @Override
@@ -30,5 +46,122 @@ final class ClassTestDescriptor extends AbstractTestDescriptor {
         return Type.CONTAINER;
     }
 
-    private final Class<?> testClass;
+    /**
+     * Returns {@link Node.ExecutionMode#CONCURRENT} if parallel execution is enabled, or {@link Node.ExecutionMode#SAME_THREAD} otherwise.
+     */
+    @Override  // from org.junit.platform.engine.support.hierarchical.Node
+    public ExecutionMode getExecutionMode() {
+        return this.executionMode;
+    }
+
+    String getTestClassName() {
+        return this.testClassName;
+    }
+
+    @Override  // from org.junit.platform.engine.support.hierarchical.Node
+    public SkipResult shouldBeSkipped(final EmbulkPluginTestEngineExecutionContext context) {
+        return context.skipResultAfterFailure();
+    }
+
+    @Override  // from org.junit.platform.engine.support.hierarchical.Node
+    public EmbulkPluginTestEngineExecutionContext prepare(final EmbulkPluginTestEngineExecutionContext context) throws Exception {
+        this.prepareNanos = System.nanoTime();
+        context.invalidateDependencies(this.testClassName);
+        EmbulkPluginTestEngineExecutionContext classContext = context.startContainerMetrics();
+        final EngineEvents.Timed event = EngineEvents.get().beginClassPrepare(this.getUniqueId(), this.testClassName);
+        try {
+            if (this.testClass == null) {
+                final PluginClassLoader pluginClassLoader = this.pluginClassLoaderLifecycle.acquire();
+                // Counted from before the test class is loaded, as the PluginClassLoader may have been used by other test classes.
+                classContext = classContext.countLoadedClassesIn(pluginClassLoader);
+                this.loadTestClass(pluginClassLoader);
+            }
+            this.execSession = PluginExecSession.open(this.testClass.getClassLoader());
+        } catch (final Throwable ex) {
+            // cleanUp is not called when prepare throws. The session and the PluginClassLoader must not leak then.
+            this.closeAfterFailedPrepare(ex);
+            throw ex;
+        } finally {
+            event.finish();
+        }
+        return classContext.withExecSession(this.execSession);
+    }
+
+    @Override  // from org.junit.platform.engine.support.hierarchical.Node
+    public void cleanUp(final EmbulkPluginTestEngineExecutionContext context) throws Exception {
+        if (this.execSession != null) {
+            this.execSession.close();
+            this.execSession = null;
+        }
+        if (this.testClass == null) {
+            return;
+        }
+        final EngineEvents.Timed event = EngineEvents.get().beginClassCleanUp(this.getUniqueId(), this.testClassName);
+        final ClassLoader classLoader = this.testClass.getClassLoader();
+        // Recorded before the class loader is released, and closed with some lifecycles.
+        context.recordDependencies(this.testClassName, classLoader);
+        // Not to keep the test class reachable from the descriptor so that its PluginClassLoader can be unloaded.
+        this.testClass = null;
+        try {
+            if (classLoader instanceof PluginClassLoader) {
+                this.pluginClassLoaderLifecycle.release((PluginClassLoader) classLoader);
+            }
+        } finally {
+            event.finish();
+        }
+        context.recordDuration(this, System.nanoTime() - this.prepareNanos);
+        context.reportContainerMetrics(this);
+    }
+
+    private void loadTestClass(final PluginClassLoader pluginClassLoader) throws ReflectiveOperationException {
+        try {
+            this.testClass = EmbulkPluginTestEngine.findOrLoadClassFrom(pluginClassLoader, this.testClassName);
+        } catch (final Throwable ex) {
+            this.pluginClassLoaderLifecycle.release(pluginClassLoader);
+            throw ex;
+        }
+        for (final TestDescriptor child : this.getChildren()) {
+            if (child instanceof MethodTestDescriptor) {
+                ((MethodTestDescriptor) child).resolve(this.testClass);
+            }
+        }
+    }
+
+    private void closeAfterFailedPrepare(final Throwable failure) {
+        if (this.execSession != null) {
+            try {
+                this.execSession.close();
+            } catch (final RuntimeException ex) {
+                failure.addSuppressed(ex);
+            }
+            this.execSession = null;
+        }
+        if (this.testClass != null) {
+            final ClassLoader classLoader = this.testClass.getClassLoader();
+            this.testClass = null;
+            if (classLoader instanceof PluginClassLoader) {
+                try {
+                    this.pluginClassLoaderLifecycle.release((PluginClassLoader) classLoader);
+                } catch (final RuntimeException ex) {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+    }
+
+    private static String simpleNameOf(final String className) {
+        return className.substring(Math.max(className.lastIndexOf('.'), className.lastIndexOf('$')) + 1);
+    }
+
+    private final String testClassName;
+
+    private Class<?> testClass;
+
+    private PluginExecSession execSession;
+
+    private long prepareNanos;
+
+    private final PluginClassLoaderLifecycle pluginClassLoaderLifecycle;
+
+    private final Node.ExecutionMode executionMode;
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import org.junit.platform.engine.support.hierarchical.DefaultParallelExecutionConfigurationStrategy;
+
+/**
+ * Collection of constants of configuration parameters for {@link EmbulkPluginTestEngine}.
+ *
+ * <p>The configuration parameters can be given as JVM system properties, in {@code junit-platform.properties},
+ * or through the JUnit Platform Launcher (e.g. {@code systemProperty} of Gradle's {@code Test} task).
+ */
+public final class Constants {
+    private Constants() {
+        // No instantiation.
+    }
+
+    /**
+     * Property name used to enable parallel test execution: {@value}
+     *
+     * <p>By default, tests are executed sequentially in a single thread.
+     */
+    public static final String PARALLEL_EXECUTION_ENABLED_PROPERTY_NAME = "embulk.junit5.execution.parallel.enabled";
+
+    /**
+     * Prefix of the property names to configure parallel test execution: {@value}
+     *
+     * <p>The properties under the prefix are interpreted by JUnit Platform's
+     * {@link DefaultParallelExecutionConfigurationStrategy} in the same way as Jupiter's
+     * {@code junit.jupiter.execution.parallel.config.*}.
+     */
+    public static final String PARALLEL_CONFIG_PREFIX = "embulk.junit5.execution.parallel.config.";
+
+    /**
+     * Property name used to select the {@link DefaultParallelExecutionConfigurationStrategy}: {@value}
+     *
+     * <p>One of {@code "dynamic"} (default), {@code "fixed"}, or {@code "custom"}.
+     */
+    public static final String PARALLEL_CONFIG_STRATEGY_PROPERTY_NAME =
+            PARALLEL_CONFIG_PREFIX + DefaultParallelExecutionConfigurationStrategy.CONFIG_STRATEGY_PROPERTY_NAME;
+
+    /**
+     * Property name used to set the desired parallelism for the {@code "fixed"} strategy: {@value}
+     */
+    public static final String PARALLEL_CONFIG_FIXED_PARALLELISM_PROPERTY_NAME =
+            PARALLEL_CONFIG_PREFIX + DefaultParallelExecutionConfigurationStrategy.CONFIG_FIXED_PARALLELISM_PROPERTY_NAME;
+
+    /**
+     * Property name used to set the factor to be multiplied with the number of available processors
+     * for the {@code "dynamic"} strategy: {@value}
+     */
+    public static final String PARALLEL_CONFIG_DYNAMIC_FACTOR_PROPERTY_NAME =
+            PARALLEL_CONFIG_PREFIX + DefaultParallelExecutionConfigurationStrategy.CONFIG_DYNAMIC_FACTOR_PROPERTY_NAME;
+
+    /**
+     * Property name used to set the number of worker JVMs to fork to run tests in: {@value}
+     *
+     * <p>It is {@code 0} by default, which means that tests run in this JVM. If it is positive, test classes are handed
+     * out one at a time to worker JVMs started with the same class path and the same {@code embulk.junit5.*}
+     * properties, and their results are reported back to this engine. Bytecode discovery is recommended with it, so
+     * that the test classes are not loaded in this JVM.
+     */
+    public static final String FORK_COUNT_PROPERTY_NAME = "embulk.junit5.execution.fork.count";
+
+    /**
+     * Property name used to set the JVM options of forked worker JVMs, separated by whitespaces: {@value}
+     *
+     * <p>For example, {@code "-Xmx1g -XX:+UseParallelGC"}.
+     */
+    public static final String FORK_JVM_ARGS_PROPERTY_NAME = "embulk.junit5.execution.fork.jvmArgs";
+
+    /**
+     * Property name used to stop at the first failure: {@value}
+     *
+     * <p>It is {@code false} by default. If it is {@code true}, the tests after the first failed test are skipped.
+     * With forked execution, test classes are no longer handed out after the first failure.
+     */
+    public static final String FAIL_FAST_PROPERTY_NAME = "embulk.junit5.execution.failFast";
+
+    /**
+     * Property name used to set the default timeout of {@code @EmbulkPluginTest} methods in milliseconds: {@value}
+     *
+     * <p>It is {@code 0} by default, which means no timeout. A method can override it with
+     * {@code @EmbulkPluginTest(timeoutMillis)}. A method with a timeout runs in its own thread, which is interrupted and
+     * abandoned at the deadline. The test then fails with a thread dump of the JVM.
+     */
+    public static final String DEFAULT_TIMEOUT_PROPERTY_NAME = "embulk.junit5.execution.timeout.default";
+
+    /**
+     * Property name used to set how to discover {@code @EmbulkPluginTest} methods: {@value}
+     *
+     * <ul>
+     * <li>{@code "reflection"} (default): Each selected class is loaded in {@code PluginClassLoader}, and its methods are
+     *     looked up reflectively.
+     * <li>{@code "bytecode"}: Each selected class file is parsed directly from the plugin class path, in parallel.
+     *     Only the classes which have {@code @EmbulkPluginTest} methods are loaded, when they are executed.
+     * </ul>
+     */
+    public static final String DISCOVERY_MODE_PROPERTY_NAME = "embulk.junit5.discovery.mode";
+
+    /**
+     * Property name used to set the path of the discovery index file for the {@code "bytecode"} discovery mode: {@value}
+     *
+     * <p>If it is set, unchanged class files are not scanned again in the next discovery. It is recommended to be
+     * under the build directory, such as {@code build/tmp/embulkTest/discovery.index}. It can be shared among
+     * concurrent test workers.
+     */
+    public static final String DISCOVERY_INDEX_FILE_PROPERTY_NAME = "embulk.junit5.discovery.index.file";
+
+    /**
+     * Property name used to set the path of the test history file: {@value}
+     *
+     * <p>If it is set, the durations and the outcomes of test classes and test methods are recorded into it. In the
+     * next discovery, test classes are ordered for fast feedback: the classes which have tests failed in the last run
+     * first, then the classes whose class files are newer than the last run, and then the rest. In each group, they
+     * are ordered longest-first, so that a slow class does not start last. Tests without history keep the discovery
+     * order. It is recommended to be under the build directory, such as {@code build/tmp/embulkTest/history}.
+     * It can be shared among concurrent test workers.
+     */
+    public static final String HISTORY_FILE_PROPERTY_NAME = "embulk.junit5.execution.history.file";
+
+    /**
+     * Property name used to set the path of the test impact index file: {@value}
+     *
+     * <p>If it is set, the files in the plugin class path which each test class depends on are recorded into it with
+     * their content hashes, traced from the classes loaded in its {@code PluginClassLoader}. It is recommended to be
+     * under the build directory, such as {@code build/tmp/embulkTest/impact.index}. It can be shared among concurrent
+     * test workers.
+     */
+    public static final String IMPACT_INDEX_FILE_PROPERTY_NAME = "embulk.junit5.execution.impact.index.file";
+
+    /**
+     * Property name used to run only the test classes affected by changes: {@value}
+     *
+     * <p>It is {@code false} by default. If it is {@code true} with {@value #IMPACT_INDEX_FILE_PROPERTY_NAME}, the test
+     * classes which passed last, and whose dependencies in the plugin class path are unchanged since then, are not
+     * run. Changes out of the plugin class path are not detected.
+     */
+    public static final String AFFECTED_ONLY_PROPERTY_NAME = "embulk.junit5.execution.affectedOnly";
+
+    /**
+     * Property name used to enable per-test performance metrics: {@value}
+     *
+     * <p>It is {@code false} by default. If enabled, the wall time, the thread CPU time, the thread allocated bytes, the
+     * number of classes of the plugin class path loaded in {@code PluginClassLoader}, and the GC time of the JVM, of each
+     * test method and test class are published as JUnit's report entries, and appended to the file of
+     * {@link #METRICS_FILE_PROPERTY_NAME} if it is set.
+     */
+    public static final String METRICS_ENABLED_PROPERTY_NAME = "embulk.junit5.metrics.enabled";
+
+    /**
+     * Property name used to set the path of the file to append per-test performance metrics to: {@value}
+     *
+     * <p>The records are in JSON Lines, or in CSV if the file name ends with {@code ".csv"}. It is recommended to be
+     * under the build directory, such as {@code build/reports/embulkTest/metrics.jsonl}.
+     */
+    public static final String METRICS_FILE_PROPERTY_NAME = "embulk.junit5.metrics.file";
+
+    /**
+     * Property name used to set the path of the JVM startup report file: {@value}
+     *
+     * <p>If it is set, the startup time of the JVM is saved into it, and compared between with and without a dynamic
+     * class data sharing archive given by {@code -XX:SharedArchiveFile}. It is recommended to be under the build
+     * directory, such as {@code build/tmp/embulkTest/cds/startup.properties}.
+     */
+    public static final String STARTUP_REPORT_FILE_PROPERTY_NAME = "embulk.junit5.startup.report.file";
+
+    /**
+     * Property name used to set the lifecycle policy of {@code PluginClassLoader}: {@value}
+     *
+     * <ul>
+     * <li>{@code "shared"} (default): All test classes are loaded in a single {@code PluginClassLoader}.
+     * <li>{@code "per-class"}: Each test class is loaded in its own {@code PluginClassLoader} pre-built, and warmed up, in the background.
+     * <li>{@code "recycle-every-N"} (e.g. {@code "recycle-every-10"}): A {@code PluginClassLoader} is replaced with a new one
+     *     every N test classes, and the old one is dropped so that its classes can be unloaded.
+     * </ul>
+     */
+    public static final String PLUGIN_CLASS_LOADER_LIFECYCLE_PROPERTY_NAME = "embulk.junit5.plugin.class.loader.lifecycle";
+
+    /**
+     * Property name used to set the number of {@code PluginClassLoader}s pre-built in the {@code "per-class"} lifecycle: {@value}
+     *
+     * <p>It is {@code 2} by default.
+     */
+    public static final String PLUGIN_CLASS_LOADER_POOL_SIZE_PROPERTY_NAME = "embulk.junit5.plugin.class.loader.pool.size";
+
+    /**
+     * Property name used to build {@code PluginClassLoader}s with an index of the plugin class path: {@value}
+     *
+     * <p>If it is {@code true}, an index from packages to the entries of the plugin class path which contain them is
+     * built once, in parallel, from the central directories of the jar files. A lookup of a class or a resource goes
+     * straight to the entries of its package, instead of searching the jar files one by one. It helps with many jar
+     * files, especially in the {@code "per-class"} and {@code "recycle-every-N"} lifecycles, which share the open jar
+     * files among the {@code PluginClassLoader}s.
+     *
+     * <p>It is {@code false} by default because the code source of a class is the URL of the index, not its jar file,
+     * packages are defined without manifests, and {@code ClassLoader#getResources} finds only the first resource for a
+     * name except for {@code META-INF/services/} files. Multi-release jar files are served for the running Java version
+     * as a class loader does, but a package which only has classes in {@code META-INF/versions/} is looked up there
+     * even for a later Java version, which is just a miss.
+     */
+    public static final String PLUGIN_CLASS_PATH_INDEX_ENABLED_PROPERTY_NAME = "embulk.junit5.plugin.class.path.index.enabled";
+}
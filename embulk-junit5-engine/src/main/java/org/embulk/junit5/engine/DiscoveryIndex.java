@@ -0,0 +1,293 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+
+/**
+ * Persistent index from class files to their {@code @EmbulkPluginTest} methods, for incremental discovery.
+ *
+ * <p>Each entry records the location, the size, the last modified time, and CRC-32 of the content of a class file.
+ * A class file is not read at all if its location, size and last modified time (or CRC-32 recorded in a jar file)
+ * are unchanged. Otherwise, it is read, and scanned again only if its content is changed.
+ *
+ * <p>The index file is replaced atomically so that concurrent test workers never read a partially written index.
+ * On saving, entries written by other workers in the meantime are merged under {@link StateFileLock}, so that workers
+ * saving at the same time do not lose each other's entries. A corrupt or incompatible index file is just ignored, and
+ * the discovery falls back to scan all the class files. It is thread-safe.
+ */
+final class DiscoveryIndex {
+    private DiscoveryIndex(final Path indexFile, final Map<String, Entry> entries) {
+        this.indexFile = indexFile;
+        this.entries = new ConcurrentHashMap<>(entries);
+        this.updatedEntries = new ConcurrentHashMap<>();
+        this.hits = new AtomicInteger(0);
+        this.misses = new AtomicInteger(0);
+    }
+
+    /**
+     * Loads the index file, or starts with an empty index if it does not exist, or if it is broken.
+     */
+    static DiscoveryIndex load(final Path indexFile) {
+        final long startNanos = System.nanoTime();
+        Map<String, Entry> entries;
+        try {
+            entries = readEntries(indexFile);
+        } catch (final IOException | RuntimeException ex) {
+            logger.warn(ex, () -> "The discovery index is unreadable or broken. Discovering from scratch: " + indexFile);
+            entries = Collections.emptyMap();
+        }
+        final int loaded = entries.size();
+        logger.info(() -> String.format(
+                "Loaded %d entries from the discovery index %s in %.3f ms.",
+                loaded, indexFile, (System.nanoTime() - startNanos) / 1_000_000.0));
+        return new DiscoveryIndex(indexFile, entries);
+    }
+
+    /**
+     * Scans the class file of a class, or reuses the last scan from the index if the class file is unchanged.
+     *
+     * @param classFiles  the class files in the plugin class path
+     * @param className  the binary name of the class
+     * @return the scanned class, or empty if it is not found in the plugin class path, or if it is broken
+     */
+    Optional<ClassFileScanner.ScannedClass> scan(final PluginClassFiles classFiles, final String className) {
+        try {
+            final Optional<PluginClassFiles.ClassFile> found = classFiles.find(className);
+            if (!found.isPresent()) {
+                logger.warn(() -> "<" + className + "> is not found in the plugin class path.");
+                return Optional.empty();
+            }
+            final PluginClassFiles.ClassFile classFile = found.get();
+
+            final Entry indexed = this.entries.get(className);
+            if (indexed != null && indexed.isUnchangedFrom(classFile)) {
+                this.hits.incrementAndGet();
+                return Optional.of(new ClassFileScanner.ScannedClass(className, indexed.testMethodNames));
+            }
+
+            final byte[] content = classFile.read();
+            final long crc = crcOf(content);
+            if (indexed != null && indexed.hasSameContentAs(classFile, crc)) {
+                // Only touched. The entry is refreshed not to read the content again next time.
+                this.hits.incrementAndGet();
+                this.put(className, new Entry(classFile.getLocation(), classFile.getSize(), classFile.getLastModified(), crc,
+                                              indexed.testMethodNames));
+                return Optional.of(new ClassFileScanner.ScannedClass(className, indexed.testMethodNames));
+            }
+
+            this.misses.incrementAndGet();
+            final ClassFileScanner.ScannedClass scannedClass = ClassFileScanner.scan(content);
+            this.put(className, new Entry(classFile.getLocation(), classFile.getSize(), classFile.getLastModified(), crc,
+                                          scannedClass.getTestMethodNames()));
+            return Optional.of(scannedClass);
+        } catch (final IOException ex) {
+            logger.warn(ex, () -> "Failed to scan the class file of <" + className + ">.");
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Saves the updated entries into the index file, if any, merged with the entries in the index file at the moment.
+     *
+     * <p>It waits for other workers saving the index file. It never throws. A failure is just logged because the index
+     * is only a cache.
+     */
+    void save() {
+        logger.info(() -> String.format(
+                "Discovery index: %d class file(s) reused, %d class file(s) scanned.", this.hits.get(), this.misses.get()));
+        if (this.updatedEntries.isEmpty()) {
+            return;
+        }
+
+        final long startNanos = System.nanoTime();
+        try (final StateFileLock lock = StateFileLock.acquire(this.indexFile)) {
+            // Entries written by other workers after this index was loaded are kept. Entries updated here win.
+            final HashMap<String, Entry> merged = new HashMap<>();
+            try {
+                merged.putAll(readEntries(this.indexFile));
+            } catch (final IOException | RuntimeException ex) {
+                logger.debug(ex, () -> "Overwriting the broken discovery index: " + this.indexFile);
+            }
+            merged.putAll(this.updatedEntries);
+            lock.replace(serialize(merged));
+            logger.info(() -> String.format(
+                    "Saved %d entries into the discovery index %s in %.3f ms.",
+                    merged.size(), this.indexFile, (System.nanoTime() - startNanos) / 1_000_000.0));
+        } catch (final IOException | RuntimeException ex) {
+            logger.warn(ex, () -> "Failed to save the discovery index: " + this.indexFile);
+        }
+    }
+
+    private void put(final String className, final Entry entry) {
+        this.entries.put(className, entry);
+        this.updatedEntries.put(className, entry);
+    }
+
+    private static Map<String, Entry> readEntries(final Path indexFile) throws IOException {
+        final byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(indexFile);
+        } catch (final NoSuchFileException ex) {
+            return Collections.emptyMap();
+        }
+        return deserialize(bytes);
+    }
+
+    /**
+     * Serializes entries.
+     *
+     * <p>The format is: the magic number, the format version, the number of entries, the entries, and CRC-32 of
+     * all the preceding bytes.
+     */
+    private static byte[] serialize(final Map<String, Entry> entries) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue().location);
+            out.writeLong(entry.getValue().size);
+            out.writeLong(entry.getValue().lastModified);
+            out.writeLong(entry.getValue().crc);
+            out.writeInt(entry.getValue().testMethodNames.size());
+            for (final String testMethodName : entry.getValue().testMethodNames) {
+                out.writeUTF(testMethodName);
+            }
+        }
+        out.flush();
+        out.writeLong(crcOf(bytes.toByteArray()));
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, Entry> deserialize(final byte[] bytes) throws IOException {
+        if (bytes.length < 8 + 8) {
+            throw new IOException("Too short.");
+        }
+        final DataInputStream checksum = new DataInputStream(new ByteArrayInputStream(bytes, bytes.length - 8, 8));
+        final CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length - 8);
+        if (checksum.readLong() != crc32.getValue()) {
+            throw new IOException("Checksum mismatch.");
+        }
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a discovery index.");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version: " + version);
+        }
+        final int entriesCount = in.readInt();
+        final HashMap<String, Entry> entries = new HashMap<>();
+        for (int i = 0; i < entriesCount; i++) {
+            final String className = in.readUTF();
+            final String location = in.readUTF();
+            final long size = in.readLong();
+            final long lastModified = in.readLong();
+            final long crc = in.readLong();
+            final int testMethodsCount = in.readInt();
+            final ArrayList<String> testMethodNames = new ArrayList<>(testMethodsCount);
+            for (int j = 0; j < testMethodsCount; j++) {
+                testMethodNames.add(in.readUTF());
+            }
+            entries.put(className, new Entry(location, size, lastModified, crc, Collections.unmodifiableList(testMethodNames)));
+        }
+        return entries;
+    }
+
+    private static long crcOf(final byte[] bytes) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return crc32.getValue();
+    }
+
+    private static final class Entry {
+        Entry(final String location, final long size, final long lastModified, final long crc, final List<String> testMethodNames) {
+            this.location = location;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.crc = crc;
+            this.testMethodNames = testMethodNames;
+        }
+
+        /**
+         * Returns {@code true} if the class file is unchanged, only from its metadata.
+         */
+        boolean isUnchangedFrom(final PluginClassFiles.ClassFile classFile) {
+            if (!this.location.equals(classFile.getLocation()) || this.size != classFile.getSize()) {
+                return false;
+            }
+            if (classFile.getCrc() >= 0) {
+                return this.crc == classFile.getCrc();
+            }
+            return this.lastModified == classFile.getLastModified();
+        }
+
+        boolean hasSameContentAs(final PluginClassFiles.ClassFile classFile, final long crc) {
+            return this.location.equals(classFile.getLocation()) && this.size == classFile.getSize() && this.crc == crc;
+        }
+
+        private final String location;
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final long crc;
+
+        private final List<String> testMethodNames;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(DiscoveryIndex.class);
+
+    private static final int MAGIC = 0x454a3549;  // "EJ5I"
+
+    private static final int VERSION = 2;  // 2: @EmbulkPluginBenchmark methods are also test methods.
+
+    private final Path indexFile;
+
+    private final ConcurrentHashMap<String, Entry> entries;
+
+    private final ConcurrentHashMap<String, Entry> updatedEntries;
+
+    private final AtomicInteger hits;
+
+    private final AtomicInteger misses;
+}
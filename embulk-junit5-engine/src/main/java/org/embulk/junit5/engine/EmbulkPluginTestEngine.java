@@ -16,70 +16,53 @@
 
 package org.embulk.junit5.engine;
 
-import java.io.File;
-import java.io.UncheckedIOException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.nio.file.InvalidPathException;
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.embulk.junit5.api.EmbulkPluginBenchmark;
 import org.embulk.junit5.api.EmbulkPluginTest;
 import org.embulk.plugin.PluginClassLoader;
-import org.embulk.plugin.PluginClassLoaderFactory;
-import org.embulk.plugin.PluginClassLoaderFactoryImpl;
 import org.junit.platform.commons.logging.Logger;
 import org.junit.platform.commons.logging.LoggerFactory;
+import org.junit.platform.engine.ConfigurationParameters;
 import org.junit.platform.engine.EngineDiscoveryRequest;
 import org.junit.platform.engine.ExecutionRequest;
 import org.junit.platform.engine.TestDescriptor;
 import org.junit.platform.engine.UniqueId;
-import org.junit.platform.engine.discovery.ClassSelector;
+import org.junit.platform.engine.support.config.PrefixedConfigurationParameters;
+import org.junit.platform.engine.support.hierarchical.ForkJoinPoolHierarchicalTestExecutorService;
 import org.junit.platform.engine.support.hierarchical.HierarchicalTestEngine;
 import org.junit.platform.engine.support.hierarchical.HierarchicalTestExecutorService;
+import org.junit.platform.engine.support.hierarchical.Node;
 import org.junit.platform.engine.support.hierarchical.OpenTest4JAwareThrowableCollector;
 import org.junit.platform.engine.support.hierarchical.SameThreadHierarchicalTestExecutorService;
 import org.junit.platform.engine.support.hierarchical.ThrowableCollector;
 import org.junit.platform.launcher.LauncherDiscoveryRequest;
 
 public final class EmbulkPluginTestEngine extends HierarchicalTestEngine<EmbulkPluginTestEngineExecutionContext> {
-    public EmbulkPluginTestEngine() throws InvalidPathException, IllegalArgumentException, MalformedURLException {
+    public EmbulkPluginTestEngine() {
         super();
+        // Taken first to measure the JVM startup, not the engine construction.
+        this.startupMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        this.startupLoadedClasses = ManagementFactory.getClassLoadingMXBean().getTotalLoadedClassCount();
+        final EngineEvents.Timed constructionEvent = EngineEvents.get().beginEngineConstruction();
+        final long startNanos = System.nanoTime();
         final Class<?> klass = this.getClass();
         this.klassLoader = klass.getClassLoader();
         logger.info(() -> "Initializing EmbulkPluginTestEngine@" + Integer.toHexString(this.hashCode()));
         logger.info(() -> "EmbulkPluginTestEngine's ClassLoader: " + this.klassLoader.toString());
-        this.pluginClassLoaderFactory = PluginClassLoaderFactoryImpl.of();
-
-        final String pluginClassPath = System.getProperty("org.embulk.junit5.plugin.class.path");
-        logger.info(() -> "System property \"org.embulk.junit5.plugin.class.path\": " + pluginClassPath);
-        final ArrayList<URL> classPathUrls = new ArrayList<>();
-        if (pluginClassPath != null && !pluginClassPath.isEmpty()) {
-            final String[] paths = pluginClassPath.split(Pattern.quote(File.pathSeparator));
-            for (final String pathString : paths) {
-                final Path path;
-                try {
-                    path = Paths.get(pathString);
-                } catch (final InvalidPathException ex) {
-                    throw ex;
-                }
-                try {
-                    classPathUrls.add(path.toUri().toURL());
-                } catch (final MalformedURLException ex) {
-                    throw new UncheckedIOException(ex);
-                } catch (final IllegalArgumentException ex) {
-                    throw ex;
-                }
-            }
-        }
-        logger.info(() -> "Building PluginClassLoader with: " + classPathUrls);
+        logger.info(() -> StartupReport.describeJvmStartup(this.startupMillis));
 
-        this.pluginClassLoader =
-                this.pluginClassLoaderFactory.create(Collections.unmodifiableList(classPathUrls), this.klassLoader);
+        // The plugin class path and PluginClassLoader are built lazily at the first discovery which needs them.
+        this.pluginClassLoaderProvider = new PluginClassLoaderProvider(this.klassLoader);
+        this.constructionNanos = System.nanoTime() - startNanos;
+        constructionEvent.finish();
     }
 
     /**
@@ -108,59 +91,63 @@ public final class EmbulkPluginTestEngine extends HierarchicalTestEngine<EmbulkP
         logger.trace(() -> "  ConfigurationParameters: " + discoveryRequest.getConfigurationParameters());
         logger.trace(() -> "UniqueId: " + uniqueId.toString());
 
-        final EmbulkPluginTestEngineDescriptor engineDescriptor = new EmbulkPluginTestEngineDescriptor(uniqueId);
-
-        discoveryRequest.getSelectorsByType(ClassSelector.class).forEach(classSelector -> {
-            // NOTE: Gradle('s test worker) once loads the target test class in its class loader before starting the test.
-            // It means that the target test class has already loaded in the its (top-level) class loader.
-            //
-            // https://github.com/gradle/gradle/blob/v8.10.0/platforms/jvm/testing-junit-platform/src/main/java/org/gradle/api/internal/tasks/testing/junitplatform/JUnitPlatformTestClassProcessor.java#L83-L90
-            //
-            // https://github.com/gradle/gradle/blob/v8.10.0/platforms/jvm/testing-junit-platform/src/main/java/org/gradle/api/internal/tasks/testing/junitplatform/JUnitPlatformTestClassProcessor.java#L99
-            //
-            // Unfortunately, it can conflict with the requirement for the test class to be loaded in Embulk's PluginClassLoader
-            // along with the plugin's main classes.
-            //
-            // It is unavoidable. However, in order to mitigate the situation, Embulk and this Test Engine had smoe tweaks.
-            // * This Test Engine tries to get the test class by class name, not by the Java class object. (below)
-            // * This Test Engine loads the test class in Embulk's PluginClassLoader with "#loadClassInThisClassLoader"
-            //     ** Added in https://github.com/embulk/embulk/pull/1686
-            // * Embulk (v0.11.5+) PluginClassLoader prioritizes more classes to be loaded in it, not in the parent class loader.
-            //     ** Changed in https://github.com/embulk/embulk/pull/1684
-            //     ** Not all "org.embulk" classes are loaded in the parent class loader in priority.
-
-            // final Class<?> testClass = classSelector.getJavaClass();
-            // Not to get the Java class "in the top-level class loader" directly!
-
-            final String testClassName = classSelector.getClassName();
-
-            // Just debug prints.
-            checkClass("org.embulk.input.junit5example.ExampleInputPlugin");
-            checkClass("org.embulk.input.junit5example.TestExample");
-            checkClass("org.embulk.input.junit5example.TestExample1");
-            checkClass("org.embulk.util.config.Config");
-
-            final Class<?> testClass = findOrLoadClassFrom(this.pluginClassLoader, testClassName);
-            logger.info(() -> "<" + testClass.getName() + "> has been already loaded in [" + testClass.getClassLoader() + "]: "
-                                + testClass.toString() + "@" + testClass.hashCode());
-
-            final TestDescriptor classDescriptor =
-                    new ClassTestDescriptor(uniqueId.append("class", testClass.getName()), testClass);
-            System.out.println(classDescriptor);
-
-            for (final Method method : testClass.getDeclaredMethods()) {
-                if (method.isAnnotationPresent(EmbulkPluginTest.class)) {
-                    final MethodTestDescriptor methodDescriptor =
-                            new MethodTestDescriptor(uniqueId.append("method", method.getName()), testClass, method);
-                    classDescriptor.addChild(methodDescriptor);
+        if (isExcludedByEngineFilters(discoveryRequest)) {
+            logger.info(() -> "EmbulkPluginTestEngine is excluded by engine filters.");
+            return new EmbulkPluginTestEngineDescriptor(uniqueId, null);
+        }
+
+        final EngineEvents.Discovery discoveryEvent = EngineEvents.get().beginDiscovery();
+        final PluginClassLoaderLifecycle pluginClassLoaderLifecycle = PluginClassLoaderLifecycle.of(
+                discoveryRequest.getConfigurationParameters(), this.pluginClassLoaderProvider);
+        final EmbulkPluginTestEngineDescriptor engineDescriptor =
+                new EmbulkPluginTestEngineDescriptor(uniqueId, pluginClassLoaderLifecycle);
+
+        // The execution mode is determined at discovery so that the descriptors can report it to the executor service.
+        final Node.ExecutionMode executionMode = isParallelExecutionEnabled(discoveryRequest.getConfigurationParameters())
+                ? Node.ExecutionMode.CONCURRENT
+                : Node.ExecutionMode.SAME_THREAD;
+
+        try (final PluginClassFiles classFiles = new PluginClassFiles(this.pluginClassLoaderProvider.getClassPaths())) {
+            final SelectedTestClasses selectedTestClasses = SelectedTestClasses.resolve(discoveryRequest, uniqueId, classFiles);
+            if (isBytecodeDiscoveryEnabled(discoveryRequest.getConfigurationParameters())) {
+                this.discoverByScanningClassFiles(
+                        discoveryRequest.getConfigurationParameters(),
+                        selectedTestClasses,
+                        classFiles,
+                        engineDescriptor,
+                        pluginClassLoaderLifecycle,
+                        executionMode);
+            } else {
+                this.discoverByReflection(selectedTestClasses, engineDescriptor, pluginClassLoaderLifecycle, executionMode);
+            }
+
+            final Optional<String> impactIndexFile =
+                    discoveryRequest.getConfigurationParameters().get(Constants.IMPACT_INDEX_FILE_PROPERTY_NAME);
+            if (impactIndexFile.isPresent()) {
+                final TestImpactIndex testImpactIndex =
+                        TestImpactIndex.load(Paths.get(impactIndexFile.get()), this.pluginClassLoaderProvider.getClassPaths());
+                if (discoveryRequest.getConfigurationParameters().getBoolean(Constants.AFFECTED_ONLY_PROPERTY_NAME).orElse(false)) {
+                    final int discovered = engineDescriptor.getChildren().size();
+                    final int removed = testImpactIndex.removeUnaffected(engineDescriptor);
+                    logger.info(() -> String.format(
+                            "Affected-only: %d of %d test class(es) are affected by changes. %d unaffected one(s) are not run.",
+                            discovered - removed, discovered, removed));
                 }
+                engineDescriptor.setTestImpactIndex(testImpactIndex);
             }
 
-            if (!classDescriptor.getChildren().isEmpty()) {
-                engineDescriptor.addChild(classDescriptor);
+            // Failed-first, then changed-first for fast feedback, and longest-first not to stretch the whole run.
+            final Optional<String> historyFile = discoveryRequest.getConfigurationParameters().get(Constants.HISTORY_FILE_PROPERTY_NAME);
+            if (historyFile.isPresent()) {
+                final TestHistory testHistory = TestHistory.load(Paths.get(historyFile.get()));
+                testHistory.order(engineDescriptor, testClass -> isChangedSince(classFiles, testClass, testHistory.getLastRunMillis()));
             }
-        });
+        }
 
+        discoveryEvent.finish(
+                engineDescriptor.getChildren().size(),
+                (int) engineDescriptor.getDescendants().stream().filter(TestDescriptor::isTest).count());
+        this.logMetrics();
         return engineDescriptor;
     }
 
@@ -182,6 +169,22 @@ public final class EmbulkPluginTestEngine extends HierarchicalTestEngine<EmbulkP
 
     @Override
     protected HierarchicalTestExecutorService createExecutorService​(final ExecutionRequest request) {
+        final ConfigurationParameters configurationParameters = request.getConfigurationParameters();
+        final int forkCount = forkCountOf(configurationParameters);
+        if (forkCount > 0) {
+            logger.info(() -> "Forked execution is enabled with " + forkCount + " worker JVM(s).");
+            final List<String> jvmArgs = configurationParameters.get(Constants.FORK_JVM_ARGS_PROPERTY_NAME)
+                    .map(String::trim)
+                    .filter(value -> !value.isEmpty())
+                    .map(value -> Arrays.asList(value.split("\\s+")))
+                    .orElse(Collections.emptyList());
+            return new ForkedExecutorService(request, forkCount, jvmArgs);
+        }
+        if (isParallelExecutionEnabled(configurationParameters)) {
+            logger.info(() -> "Parallel execution is enabled.");
+            return new ForkJoinPoolHierarchicalTestExecutorService(
+                    new PrefixedConfigurationParameters(configurationParameters, Constants.PARALLEL_CONFIG_PREFIX));
+        }
         return new SameThreadHierarchicalTestExecutorService();
     }
 
@@ -192,7 +195,248 @@ public final class EmbulkPluginTestEngine extends HierarchicalTestEngine<EmbulkP
 
     @Override
     protected EmbulkPluginTestEngineExecutionContext createExecutionContext​(final ExecutionRequest request) {
-        return new EmbulkPluginTestEngineExecutionContext();
+        final ConfigurationParameters configurationParameters = request.getConfigurationParameters();
+        final boolean metricsEnabled = configurationParameters.getBoolean(Constants.METRICS_ENABLED_PROPERTY_NAME).orElse(false);
+        TestMetricsWriter metricsWriter = null;
+        // Forked workers write the metrics file by themselves.
+        if (metricsEnabled && forkCountOf(configurationParameters) == 0) {
+            final Optional<String> metricsFile = configurationParameters.get(Constants.METRICS_FILE_PROPERTY_NAME);
+            if (metricsFile.isPresent()) {
+                try {
+                    metricsWriter = TestMetricsWriter.open(Paths.get(metricsFile.get()));
+                } catch (final IOException | RuntimeException ex) {
+                    logger.warn(ex, () -> "Failed to open the test metrics file: " + metricsFile.get());
+                }
+            }
+        }
+        final long defaultTimeoutMillis = configurationParameters.get(Constants.DEFAULT_TIMEOUT_PROPERTY_NAME, Long::parseLong).orElse(0L);
+        if (defaultTimeoutMillis < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid " + Constants.DEFAULT_TIMEOUT_PROPERTY_NAME + ": " + defaultTimeoutMillis + ", which must not be negative.");
+        }
+        // Forked workers record the test history by themselves.
+        final TestHistory testHistory = forkCountOf(configurationParameters) == 0
+                ? configurationParameters.get(Constants.HISTORY_FILE_PROPERTY_NAME).map(file -> TestHistory.load(Paths.get(file))).orElse(null)
+                : null;
+        // Forked workers record the dependencies of test classes by themselves, too.
+        final TestImpactIndex testImpactIndex = forkCountOf(configurationParameters) == 0
+                && request.getRootTestDescriptor() instanceof EmbulkPluginTestEngineDescriptor
+                ? ((EmbulkPluginTestEngineDescriptor) request.getRootTestDescriptor()).getTestImpactIndex()
+                : null;
+        // The coordinator of forked workers does not run tests by itself.
+        final StartupReport startupReport = forkCountOf(configurationParameters) == 0
+                ? configurationParameters.get(Constants.STARTUP_REPORT_FILE_PROPERTY_NAME)
+                        .map(file -> StartupReport.of(Paths.get(file), this.startupMillis, this.startupLoadedClasses))
+                        .orElse(null)
+                : null;
+        final LoadedClassCounter loadedClassCounter = metricsEnabled ? new LoadedClassCounter(this.pluginClassLoaderProvider.getClassPaths()) : null;
+        final boolean failFast = configurationParameters.getBoolean(Constants.FAIL_FAST_PROPERTY_NAME).orElse(false);
+        return new EmbulkPluginTestEngineExecutionContext(
+                request.getEngineExecutionListener(), metricsEnabled, metricsWriter, loadedClassCounter, defaultTimeoutMillis, testHistory,
+                testImpactIndex, startupReport, failFast);
+    }
+
+    /**
+     * Discovers tests by loading the selected classes in {@link PluginClassLoader}, and looking up their methods reflectively.
+     *
+     * <p>The classes are loaded in a {@link PluginClassLoader} acquired only for discovery, which is released at its end.
+     * Each test class is loaded again in a {@link PluginClassLoader} acquired at {@link ClassTestDescriptor#prepare},
+     * as discovered by class files, so that class loaders are not held from discovery until their test classes run.
+     *
+     * <p>No {@link PluginClassLoader} is acquired if no class is selected, e.g. only Jupiter tests are selected.
+     */
+    private void discoverByReflection(
+            final SelectedTestClasses selectedTestClasses,
+            final EmbulkPluginTestEngineDescriptor engineDescriptor,
+            final PluginClassLoaderLifecycle pluginClassLoaderLifecycle,
+            final Node.ExecutionMode executionMode) {
+        if (selectedTestClasses.getClassNames().isEmpty()) {
+            return;
+        }
+        final PluginClassLoader pluginClassLoader = pluginClassLoaderLifecycle.acquire();
+        try {
+            for (final String testClassName : selectedTestClasses.getClassNames()) {
+                this.discoverClassByReflection(
+                        testClassName, pluginClassLoader, selectedTestClasses, engineDescriptor, pluginClassLoaderLifecycle, executionMode);
+            }
+        } finally {
+            pluginClassLoaderLifecycle.release(pluginClassLoader);
+        }
+    }
+
+    private void discoverClassByReflection(
+            final String testClassName,
+            final PluginClassLoader pluginClassLoader,
+            final SelectedTestClasses selectedTestClasses,
+            final EmbulkPluginTestEngineDescriptor engineDescriptor,
+            final PluginClassLoaderLifecycle pluginClassLoaderLifecycle,
+            final Node.ExecutionMode executionMode) {
+        // NOTE: Gradle('s test worker) once loads the target test class in its class loader before starting the test.
+        // It means that the target test class has already loaded in the its (top-level) class loader.
+        //
+        // https://github.com/gradle/gradle/blob/v8.10.0/platforms/jvm/testing-junit-platform/src/main/java/org/gradle/api/internal/tasks/testing/junitplatform/JUnitPlatformTestClassProcessor.java#L83-L90
+        //
+        // https://github.com/gradle/gradle/blob/v8.10.0/platforms/jvm/testing-junit-platform/src/main/java/org/gradle/api/internal/tasks/testing/junitplatform/JUnitPlatformTestClassProcessor.java#L99
+        //
+        // Unfortunately, it can conflict with the requirement for the test class to be loaded in Embulk's PluginClassLoader
+        // along with the plugin's main classes.
+        //
+        // It is unavoidable. However, in order to mitigate the situation, Embulk and this Test Engine had smoe tweaks.
+        // * This Test Engine tries to get the test class by class name, not by the Java class object. (below)
+        // * This Test Engine loads the test class in Embulk's PluginClassLoader with "#loadClassInThisClassLoader"
+        //     ** Added in https://github.com/embulk/embulk/pull/1686
+        // * Embulk (v0.11.5+) PluginClassLoader prioritizes more classes to be loaded in it, not in the parent class loader.
+        //     ** Changed in https://github.com/embulk/embulk/pull/1684
+        //     ** Not all "org.embulk" classes are loaded in the parent class loader in priority.
+
+        // final Class<?> testClass = classSelector.getJavaClass();
+        // Not to get the Java class "in the top-level class loader" directly!
+
+        // Just debug prints.
+        checkClass("org.embulk.input.junit5example.ExampleInputPlugin");
+        checkClass("org.embulk.input.junit5example.TestExample");
+        checkClass("org.embulk.input.junit5example.TestExample1");
+        checkClass("org.embulk.util.config.Config");
+
+        final Class<?> testClass = findOrLoadClassFrom(pluginClassLoader, testClassName);
+        logger.info(() -> "<" + testClass.getName() + "> has been already loaded in [" + testClass.getClassLoader() + "]: "
+                            + testClass.toString() + "@" + testClass.hashCode());
+
+        final TestDescriptor classDescriptor = new ClassTestDescriptor(
+                engineDescriptor.getUniqueId().append(SelectedTestClasses.CLASS_SEGMENT_TYPE, testClassName),
+                testClassName,
+                pluginClassLoaderLifecycle,
+                executionMode);
+
+        for (final Method method : testClass.getDeclaredMethods()) {
+            if ((method.isAnnotationPresent(EmbulkPluginTest.class) || method.isAnnotationPresent(EmbulkPluginBenchmark.class))
+                    && selectedTestClasses.isMethodSelected(testClassName, method.getName())) {
+                // Invalid methods are skipped here. The MethodHandles are resolved again at prepare in the class loader to run.
+                try {
+                    TestMethodInvoker.of(testClass, method);
+                } catch (final IllegalArgumentException | ReflectiveOperationException ex) {
+                    logger.warn(ex, () -> "Skipping invalid @EmbulkPluginTest method: " + method);
+                    continue;
+                }
+                classDescriptor.addChild(new MethodTestDescriptor(
+                        classDescriptor.getUniqueId().append(SelectedTestClasses.METHOD_SEGMENT_TYPE, method.getName()),
+                        method.getName(),
+                        executionMode));
+            }
+        }
+
+        if (!classDescriptor.getChildren().isEmpty()) {
+            engineDescriptor.addChild(classDescriptor);
+        }
+    }
+
+    /**
+     * Discovers tests by parsing class files directly, without loading the classes.
+     *
+     * <p>Only the classes which have {@code @EmbulkPluginTest} or {@code @EmbulkPluginBenchmark} methods are loaded later, when they are executed.
+     */
+    private void discoverByScanningClassFiles(
+            final ConfigurationParameters configurationParameters,
+            final SelectedTestClasses selectedTestClasses,
+            final PluginClassFiles classFiles,
+            final EmbulkPluginTestEngineDescriptor engineDescriptor,
+            final PluginClassLoaderLifecycle pluginClassLoaderLifecycle,
+            final Node.ExecutionMode executionMode) {
+        final long startNanos = System.nanoTime();
+        final Optional<DiscoveryIndex> discoveryIndex = configurationParameters.get(Constants.DISCOVERY_INDEX_FILE_PROPERTY_NAME)
+                .map(indexFile -> DiscoveryIndex.load(Paths.get(indexFile)));
+
+        // The class files are scanned in parallel while the order of the selection is kept.
+        final List<ClassFileScanner.ScannedClass> scannedClasses = selectedTestClasses.getClassNames().parallelStream()
+                .map(className -> discoveryIndex.isPresent()
+                        ? discoveryIndex.get().scan(classFiles, className)
+                        : classFiles.scan(className))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+        discoveryIndex.ifPresent(DiscoveryIndex::save);
+
+        for (final ClassFileScanner.ScannedClass scannedClass : scannedClasses) {
+            final String testClassName = scannedClass.getClassName();
+            final ClassTestDescriptor classDescriptor = new ClassTestDescriptor(
+                    engineDescriptor.getUniqueId().append(SelectedTestClasses.CLASS_SEGMENT_TYPE, testClassName),
+                    testClassName,
+                    pluginClassLoaderLifecycle,
+                    executionMode);
+            for (final String methodName : scannedClass.getTestMethodNames()) {
+                if (selectedTestClasses.isMethodSelected(testClassName, methodName)) {
+                    classDescriptor.addChild(new MethodTestDescriptor(
+                            classDescriptor.getUniqueId().append(SelectedTestClasses.METHOD_SEGMENT_TYPE, methodName),
+                            methodName,
+                            executionMode));
+                }
+            }
+            if (!classDescriptor.getChildren().isEmpty()) {
+                engineDescriptor.addChild(classDescriptor);
+            }
+        }
+        logger.info(() -> String.format(
+                "Scanned %d class file(s) in %.3f ms, and found %d test class(es).",
+                scannedClasses.size(), (System.nanoTime() - startNanos) / 1_000_000.0, engineDescriptor.getChildren().size()));
+    }
+
+    private void logMetrics() {
+        logger.info(() -> String.format(
+                "EmbulkPluginTestEngine metrics: construction %.3f ms, plugin class path parsing %.3f ms, "
+                        + "shared PluginClassLoader creation %.3f ms.",
+                this.constructionNanos / 1_000_000.0,
+                this.pluginClassLoaderProvider.getClassPathParsingNanos() / 1_000_000.0,
+                this.pluginClassLoaderProvider.getSharedPluginClassLoaderCreationNanos() / 1_000_000.0));
+    }
+
+    private boolean isExcludedByEngineFilters(final EngineDiscoveryRequest discoveryRequest) {
+        if (!(discoveryRequest instanceof LauncherDiscoveryRequest)) {
+            return false;
+        }
+        return ((LauncherDiscoveryRequest) discoveryRequest).getEngineFilters().stream()
+                .anyMatch(engineFilter -> engineFilter.apply(this).excluded());
+    }
+
+    private static boolean isBytecodeDiscoveryEnabled(final ConfigurationParameters configurationParameters) {
+        final String mode = configurationParameters.get(Constants.DISCOVERY_MODE_PROPERTY_NAME).orElse("reflection").trim();
+        if (mode.equals("bytecode")) {
+            return true;
+        }
+        if (mode.equals("reflection")) {
+            return false;
+        }
+        throw new IllegalArgumentException(
+                "Invalid discovery mode: " + mode + " (expected one of \"reflection\" or \"bytecode\")");
+    }
+
+    /**
+     * Returns {@code true} if the class file of the test class is modified after the time.
+     */
+    private static boolean isChangedSince(final PluginClassFiles classFiles, final TestDescriptor testClass, final long millis) {
+        if (millis <= 0 || !(testClass instanceof ClassTestDescriptor)) {
+            return false;
+        }
+        try {
+            return classFiles.find(((ClassTestDescriptor) testClass).getTestClassName())
+                    .map(classFile -> classFile.getLastModified() > millis)
+                    .orElse(false);
+        } catch (final IOException ex) {
+            logger.debug(ex, () -> "Failed to find the class file of: " + testClass.getUniqueId());
+            return false;
+        }
+    }
+
+    private static int forkCountOf(final ConfigurationParameters configurationParameters) {
+        final int forkCount = configurationParameters.get(Constants.FORK_COUNT_PROPERTY_NAME, Integer::parseInt).orElse(0);
+        if (forkCount < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid " + Constants.FORK_COUNT_PROPERTY_NAME + ": " + forkCount + ", which must not be negative.");
+        }
+        return forkCount;
+    }
+
+    private static boolean isParallelExecutionEnabled(final ConfigurationParameters configurationParameters) {
+        return configurationParameters.getBoolean(Constants.PARALLEL_EXECUTION_ENABLED_PROPERTY_NAME).orElse(false);
     }
 
     private static Class<?> checkClass(final String name) {
@@ -207,9 +451,11 @@ public final class EmbulkPluginTestEngine extends HierarchicalTestEngine<EmbulkP
         return clazz;
     }
 
-    private static Class<?> findOrLoadClassFrom(final PluginClassLoader classLoader, final String name) {
+    static Class<?> findOrLoadClassFrom(final PluginClassLoader classLoader, final String name) {
+        final EngineEvents.ClassLoad event = EngineEvents.get().beginClassLoad(name);
         final Class<?> foundClass = LoadedClassFinder.findFrom(classLoader, name);
         if (foundClass != null) {
+            event.finish(true);
             logger.info(() -> "<" + name + "> has been already loaded in [" + classLoader + "]: " + foundClass.toString());
             return foundClass;
         }
@@ -219,6 +465,8 @@ public final class EmbulkPluginTestEngine extends HierarchicalTestEngine<EmbulkP
             return classLoader.loadClassInThisClassLoader(name, false);
         } catch (final ClassNotFoundException ex) {
             throw new RuntimeException(ex);
+        } finally {
+            event.finish(false);
         }
     }
 
@@ -226,7 +474,11 @@ public final class EmbulkPluginTestEngine extends HierarchicalTestEngine<EmbulkP
 
     private final ClassLoader klassLoader;
 
-    private final PluginClassLoaderFactory pluginClassLoaderFactory;
+    private final PluginClassLoaderProvider pluginClassLoaderProvider;
+
+    private final long constructionNanos;
+
+    private final long startupMillis;
 
-    private final PluginClassLoader pluginClassLoader;
+    private final long startupLoadedClasses;
 }
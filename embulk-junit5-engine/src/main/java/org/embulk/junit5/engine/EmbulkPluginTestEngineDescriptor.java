@@ -21,8 +21,9 @@ import org.junit.platform.engine.support.descriptor.EngineDescriptor;
 import org.junit.platform.engine.support.hierarchical.Node;
 
 final class EmbulkPluginTestEngineDescriptor extends EngineDescriptor implements Node<EmbulkPluginTestEngineExecutionContext> {
-    EmbulkPluginTestEngineDescriptor(final UniqueId uniqueId) {
+    EmbulkPluginTestEngineDescriptor(final UniqueId uniqueId, final PluginClassLoaderLifecycle pluginClassLoaderLifecycle) {
         super(uniqueId, "JUnit Test Engine for Embulk Plugins");
+        this.pluginClassLoaderLifecycle = pluginClassLoaderLifecycle;
     }
 
     @Override  // from org.junit.platform.engine.support.hierarchical.Node
@@ -32,6 +33,40 @@ final class EmbulkPluginTestEngineDescriptor extends EngineDescriptor implements
 
     @Override  // from org.junit.platform.engine.support.hierarchical.Node
     public void cleanUp(final EmbulkPluginTestEngineExecutionContext context) throws Exception {
+        context.close();
+        this.closePluginClassLoaders();
+    }
+
+    /**
+     * Closes the {@code PluginClassLoader}s used in discovery and execution.
+     *
+     * <p>It is called also by {@link ForkedExecutorService}, which does not execute this descriptor in this JVM.
+     */
+    void closePluginClassLoaders() {
+        if (this.pluginClassLoaderLifecycle != null) {
+            this.pluginClassLoaderLifecycle.close();
+        }
+    }
+
+    /**
+     * Returns the lifecycle of {@code PluginClassLoader}s, or {@code null} if the engine is excluded by engine filters.
+     */
+    PluginClassLoaderLifecycle getPluginClassLoaderLifecycle() {
+        return this.pluginClassLoaderLifecycle;
+    }
+
+    /**
+     * Sets the test impact index loaded at discovery, to record the dependencies of test classes at execution.
+     */
+    void setTestImpactIndex(final TestImpactIndex testImpactIndex) {
+        this.testImpactIndex = testImpactIndex;
+    }
+
+    /**
+     * Returns the test impact index loaded at discovery, or {@code null} if test impact analysis is disabled.
+     */
+    TestImpactIndex getTestImpactIndex() {
+        return this.testImpactIndex;
     }
 
     /**
@@ -41,4 +76,8 @@ final class EmbulkPluginTestEngineDescriptor extends EngineDescriptor implements
     public ExecutionMode getExecutionMode() {
         return Node.ExecutionMode.SAME_THREAD;
     }
+
+    private final PluginClassLoaderLifecycle pluginClassLoaderLifecycle;
+
+    private volatile TestImpactIndex testImpactIndex;
 }
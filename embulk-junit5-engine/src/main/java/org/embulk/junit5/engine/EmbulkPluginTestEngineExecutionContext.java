@@ -1,5 +1,5 @@
 /*
- * Copyright 2023 The Embulk project
+ * Copyright 2024 The Embulk project
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,7 +16,259 @@
 
 package org.embulk.junit5.engine;
 
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.platform.engine.EngineExecutionListener;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.reporting.ReportEntry;
 import org.junit.platform.engine.support.hierarchical.EngineExecutionContext;
+import org.junit.platform.engine.support.hierarchical.Node.SkipResult;
 
+/**
+ * Context passed down from the engine to its test classes and test methods during execution.
+ *
+ * <p>It is immutable. A test class gets a derived context at {@code prepare} which holds the start snapshot of its
+ * {@link TestMetrics}, so that it is measured from {@code prepare} to {@code cleanUp}, and the Embulk session shared among
+ * its tests.
+ */
 final class EmbulkPluginTestEngineExecutionContext implements EngineExecutionContext {
+    EmbulkPluginTestEngineExecutionContext(
+            final EngineExecutionListener executionListener,
+            final boolean metricsEnabled,
+            final TestMetricsWriter metricsWriter,
+            final LoadedClassCounter loadedClassCounter,
+            final long defaultTimeoutMillis,
+            final TestHistory testHistory,
+            final TestImpactIndex testImpactIndex,
+            final StartupReport startupReport,
+            final boolean failFast) {
+        this(executionListener, metricsEnabled, metricsWriter, loadedClassCounter, defaultTimeoutMillis, testHistory, testImpactIndex,
+             startupReport, failFast ? new AtomicBoolean(false) : null, null, null);
+    }
+
+    private EmbulkPluginTestEngineExecutionContext(
+            final EngineExecutionListener executionListener,
+            final boolean metricsEnabled,
+            final TestMetricsWriter metricsWriter,
+            final LoadedClassCounter loadedClassCounter,
+            final long defaultTimeoutMillis,
+            final TestHistory testHistory,
+            final TestImpactIndex testImpactIndex,
+            final StartupReport startupReport,
+            final AtomicBoolean failFast,
+            final TestMetrics containerMetricsStart,
+            final PluginExecSession execSession) {
+        this.executionListener = executionListener;
+        this.metricsEnabled = metricsEnabled;
+        this.metricsWriter = metricsWriter;
+        this.loadedClassCounter = loadedClassCounter;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.testHistory = testHistory;
+        this.testImpactIndex = testImpactIndex;
+        this.startupReport = startupReport;
+        this.failFast = failFast;
+        this.containerMetricsStart = containerMetricsStart;
+        this.execSession = execSession;
+    }
+
+    /**
+     * Returns the timeout of a test method in milliseconds which does not have its own, or {@code 0} for no timeout.
+     */
+    long getDefaultTimeoutMillis() {
+        return this.defaultTimeoutMillis;
+    }
+
+    /**
+     * Takes a snapshot to start measuring {@link TestMetrics}, or returns {@code null} if metrics are disabled.
+     *
+     * @param classLoader  the class loader of the test class, in which loaded classes are counted
+     */
+    TestMetrics startMetrics(final ClassLoader classLoader) {
+        return this.metricsEnabled ? TestMetrics.snapshot(this.loadedClassCounter, classLoader) : null;
+    }
+
+    /**
+     * Returns a derived context to measure a test container from now until {@link #reportContainerMetrics}.
+     */
+    EmbulkPluginTestEngineExecutionContext startContainerMetrics() {
+        if (!this.metricsEnabled) {
+            return this;
+        }
+        return new EmbulkPluginTestEngineExecutionContext(
+                this.executionListener, this.metricsEnabled, this.metricsWriter, this.loadedClassCounter, this.defaultTimeoutMillis, this.testHistory,
+                this.testImpactIndex, this.startupReport, this.failFast,
+                TestMetrics.snapshot(this.loadedClassCounter, null), this.execSession);
+    }
+
+    /**
+     * Returns a derived context which counts the classes loaded in the class loader of the test class from now.
+     *
+     * <p>The class loader is not known at {@link #startContainerMetrics}, before it is acquired for the test class.
+     */
+    EmbulkPluginTestEngineExecutionContext countLoadedClassesIn(final ClassLoader classLoader) {
+        if (this.containerMetricsStart == null) {
+            return this;
+        }
+        return new EmbulkPluginTestEngineExecutionContext(
+                this.executionListener, this.metricsEnabled, this.metricsWriter, this.loadedClassCounter, this.defaultTimeoutMillis, this.testHistory,
+                this.testImpactIndex, this.startupReport, this.failFast,
+                this.containerMetricsStart.countingClassesIn(classLoader), this.execSession);
+    }
+
+    /**
+     * Returns a derived context which carries the Embulk session shared among the tests in a test class.
+     */
+    EmbulkPluginTestEngineExecutionContext withExecSession(final PluginExecSession execSession) {
+        return new EmbulkPluginTestEngineExecutionContext(
+                this.executionListener, this.metricsEnabled, this.metricsWriter, this.loadedClassCounter, this.defaultTimeoutMillis, this.testHistory,
+                this.testImpactIndex, this.startupReport, this.failFast,
+                this.containerMetricsStart, execSession);
+    }
+
+    /**
+     * Returns the Embulk session shared among the tests in the test class, or {@code null} if unavailable.
+     */
+    PluginExecSession getExecSession() {
+        return this.execSession;
+    }
+
+    /**
+     * Reports the metrics of a test, as a {@link ReportEntry} and into the metrics file.
+     *
+     * @param testDescriptor  the test
+     * @param metrics  the metrics since the start snapshot from {@link #startMetrics}, or {@code null} if not measured
+     * @param status  the status of the test, which is the outcome in the metrics file in lower case
+     */
+    void reportMetrics(final TestDescriptor testDescriptor, final TestMetrics metrics, final TestExecutionResult.Status status) {
+        if (metrics == null) {
+            return;
+        }
+        this.report(testDescriptor, status.name().toLowerCase(Locale.ENGLISH), metrics);
+    }
+
+    /**
+     * Reports the metrics of a test container since {@link #startContainerMetrics}.
+     */
+    void reportContainerMetrics(final TestDescriptor testDescriptor) {
+        if (this.containerMetricsStart == null) {
+            return;
+        }
+        this.report(testDescriptor, null, TestMetrics.since(this.containerMetricsStart));
+    }
+
+    /**
+     * Publishes key-values of a test as a {@link ReportEntry}, regardless of whether metrics are enabled.
+     */
+    void publishReportEntry(final TestDescriptor testDescriptor, final Map<String, String> keyValuePairs) {
+        this.executionListener.reportingEntryPublished(testDescriptor, ReportEntry.from(keyValuePairs));
+    }
+
+    /**
+     * Records the duration of a test container into the test history, if enabled.
+     */
+    void recordDuration(final TestDescriptor testDescriptor, final long durationNanos) {
+        if (this.testHistory != null) {
+            this.testHistory.record(testDescriptor, durationNanos, false);
+        }
+    }
+
+    /**
+     * Records the duration and the outcome of a test into the test history, if enabled, and for fail-fast.
+     *
+     * <p>Only {@link TestExecutionResult.Status#FAILED} is a failure. An aborted test does not stop the tests for
+     * fail-fast, is not run first as a failed one in the next run, and does not prevent its test class from being
+     * recorded into the test impact index.
+     */
+    void recordResult(final TestDescriptor testDescriptor, final long durationNanos, final TestExecutionResult.Status status) {
+        final boolean failed = status == TestExecutionResult.Status.FAILED;
+        if (this.testHistory != null) {
+            this.testHistory.record(testDescriptor, durationNanos, failed);
+        }
+        if (failed && this.failFast != null) {
+            this.failFast.set(true);
+        }
+        if (failed && this.testImpactIndex != null) {
+            testDescriptor.getParent()
+                    .filter(parent -> parent instanceof ClassTestDescriptor)
+                    .ifPresent(parent -> this.testImpactIndex.markFailed(((ClassTestDescriptor) parent).getTestClassName()));
+        }
+    }
+
+    /**
+     * Forgets the recorded dependencies of a test class which is starting, if test impact analysis is enabled.
+     */
+    void invalidateDependencies(final String testClassName) {
+        if (this.testImpactIndex != null) {
+            this.testImpactIndex.invalidate(testClassName);
+        }
+    }
+
+    /**
+     * Records the dependencies of a test class from the classes defined in its class loader, if test impact analysis is enabled.
+     */
+    void recordDependencies(final String testClassName, final ClassLoader classLoader) {
+        if (this.testImpactIndex != null) {
+            this.testImpactIndex.record(testClassName, classLoader);
+        }
+    }
+
+    /**
+     * Returns {@link SkipResult#skip} if fail-fast is enabled, and a test has already failed.
+     */
+    SkipResult skipResultAfterFailure() {
+        if (this.failFast != null && this.failFast.get()) {
+            return SkipResult.skip("Skipped after the first failure as " + Constants.FAIL_FAST_PROPERTY_NAME + " is enabled.");
+        }
+        return SkipResult.doNotSkip();
+    }
+
+    /**
+     * Closes the metrics file, and saves the test history, if any. It is called only by the engine descriptor at the end.
+     */
+    void close() {
+        if (this.metricsWriter != null) {
+            this.metricsWriter.close();
+        }
+        if (this.testHistory != null) {
+            this.testHistory.save();
+        }
+        if (this.testImpactIndex != null) {
+            this.testImpactIndex.save();
+        }
+        if (this.startupReport != null) {
+            this.startupReport.save();
+        }
+    }
+
+    private void report(final TestDescriptor testDescriptor, final String outcome, final TestMetrics metrics) {
+        this.executionListener.reportingEntryPublished(testDescriptor, ReportEntry.from(metrics.toMap()));
+        if (this.metricsWriter != null) {
+            this.metricsWriter.write(testDescriptor, outcome, metrics);
+        }
+    }
+
+    private final EngineExecutionListener executionListener;
+
+    private final boolean metricsEnabled;
+
+    private final TestMetricsWriter metricsWriter;
+
+    private final LoadedClassCounter loadedClassCounter;
+
+    private final long defaultTimeoutMillis;
+
+    private final TestHistory testHistory;
+
+    private final TestImpactIndex testImpactIndex;
+
+    private final StartupReport startupReport;
+
+    // Whether a test has failed, shared among all the derived contexts, or null if fail-fast is disabled.
+    private final AtomicBoolean failFast;
+
+    private final TestMetrics containerMetricsStart;
+
+    private final PluginExecSession execSession;
 }
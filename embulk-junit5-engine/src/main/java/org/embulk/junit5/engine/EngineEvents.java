@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+import org.junit.platform.engine.UniqueId;
+
+/**
+ * Emits the engine's own events to JDK Flight Recorder, if available.
+ *
+ * <p>The implementation with JDK Flight Recorder, {@code FlightRecorderEngineEvents}, is in {@code META-INF/versions/11}
+ * of the multi-release jar, and loaded reflectively. It falls back to no-op on Java 8, or without the {@code jdk.jfr}
+ * module. The implementation returns no-op events also when the events are disabled in Flight Recorder, so that
+ * they cost nothing while Flight Recorder is off.
+ *
+ * <p>Every {@code begin*} method returns an event which has been started. The caller must finish it exactly once.
+ */
+abstract class EngineEvents {
+    static EngineEvents get() {
+        return INSTANCE;
+    }
+
+    abstract Timed beginEngineConstruction();
+
+    abstract Discovery beginDiscovery();
+
+    abstract Timed beginPluginClassLoaderCreation(String lifecycle);
+
+    abstract ClassLoad beginClassLoad(String className);
+
+    abstract Timed beginClassPrepare(UniqueId uniqueId, String className);
+
+    abstract Timed beginClassCleanUp(UniqueId uniqueId, String className);
+
+    abstract MethodExecution beginMethodExecution(UniqueId uniqueId, String className, String methodName);
+
+    interface Timed {
+        void finish();
+    }
+
+    interface Discovery {
+        void finish(int testClasses, int tests);
+    }
+
+    interface ClassLoad {
+        void finish(boolean alreadyLoaded);
+    }
+
+    interface MethodExecution {
+        void finish(boolean successful);
+    }
+
+    private static final class NoOp extends EngineEvents {
+        @Override
+        Timed beginEngineConstruction() {
+            return NO_OP_TIMED;
+        }
+
+        @Override
+        Discovery beginDiscovery() {
+            return NO_OP_DISCOVERY;
+        }
+
+        @Override
+        Timed beginPluginClassLoaderCreation(final String lifecycle) {
+            return NO_OP_TIMED;
+        }
+
+        @Override
+        ClassLoad beginClassLoad(final String className) {
+            return NO_OP_CLASS_LOAD;
+        }
+
+        @Override
+        Timed beginClassPrepare(final UniqueId uniqueId, final String className) {
+            return NO_OP_TIMED;
+        }
+
+        @Override
+        Timed beginClassCleanUp(final UniqueId uniqueId, final String className) {
+            return NO_OP_TIMED;
+        }
+
+        @Override
+        MethodExecution beginMethodExecution(final UniqueId uniqueId, final String className, final String methodName) {
+            return NO_OP_METHOD_EXECUTION;
+        }
+    }
+
+    private static EngineEvents load() {
+        try {
+            final Class<?> flightRecorderEngineEvents = Class.forName(
+                    "org.embulk.junit5.engine.FlightRecorderEngineEvents", true, EngineEvents.class.getClassLoader());
+            final EngineEvents engineEvents = (EngineEvents) flightRecorderEngineEvents.getDeclaredConstructor().newInstance();
+            logger.debug(() -> "JDK Flight Recorder events are available.");
+            return engineEvents;
+        } catch (final ReflectiveOperationException | LinkageError | RuntimeException ex) {
+            // Expected on Java 8, or on a Java runtime without the jdk.jfr module.
+            logger.debug(() -> "JDK Flight Recorder events are unavailable: " + ex);
+            return new NoOp();
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(EngineEvents.class);
+
+    static final Timed NO_OP_TIMED = () -> { };
+
+    static final Discovery NO_OP_DISCOVERY = (testClasses, tests) -> { };
+
+    static final ClassLoad NO_OP_CLASS_LOAD = alreadyLoaded -> { };
+
+    static final MethodExecution NO_OP_METHOD_EXECUTION = successful -> { };
+
+    private static final EngineEvents INSTANCE = load();
+}
@@ -0,0 +1,518 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+import org.junit.platform.engine.ConfigurationParameters;
+import org.junit.platform.engine.EngineExecutionListener;
+import org.junit.platform.engine.ExecutionRequest;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.reporting.ReportEntry;
+import org.junit.platform.engine.support.hierarchical.HierarchicalTestExecutorService;
+import org.junit.platform.engine.support.hierarchical.SameThreadHierarchicalTestExecutorService;
+
+/**
+ * Runs the tests in worker JVMs forked from this JVM, instead of running them in this JVM.
+ *
+ * <p>{@code HierarchicalTestEngine} submits only the task of the engine descriptor to an executor service, and waits
+ * for it. This executor service does not run the task, but coordinates the workers to run the whole tree. It starts
+ * {@link ForkedWorker}s with the same class path and the same {@code embulk.junit5.*} properties, and hands out one
+ * test class at a time to whichever worker asks for work first, so that a slow class does not hold up the others.
+ * The events of the tests are streamed back, and reported to the listener of this engine on the descriptors of this
+ * JVM. IDEs and Gradle see a single engine tree, then.
+ *
+ * <p>If a worker exits unexpectedly, the tests of its current test class which have not finished are failed.
+ *
+ * <p>Only the first task submitted is taken as the task of the engine descriptor, as {@code HierarchicalTestExecutor}
+ * submits it first. Other tasks are not expected because the engine descriptor is not executed in this JVM, but they
+ * are executed in the calling thread as {@link SameThreadHierarchicalTestExecutorService} does, if any.
+ */
+final class ForkedExecutorService implements HierarchicalTestExecutorService {
+    ForkedExecutorService(final ExecutionRequest request, final int forkCount, final List<String> jvmArgs) {
+        this.request = request;
+        this.forkCount = forkCount;
+        this.jvmArgs = jvmArgs;
+        this.listenerLock = new Object();
+        this.started = ConcurrentHashMap.newKeySet();
+        this.finished = ConcurrentHashMap.newKeySet();
+        this.failFast = request.getConfigurationParameters().getBoolean(Constants.FAIL_FAST_PROPERTY_NAME).orElse(false);
+        this.rootSubmitted = new AtomicBoolean(false);
+        this.sameThread = new SameThreadHierarchicalTestExecutorService();
+    }
+
+    /**
+     * Runs the whole tree in workers, instead of the first task, which is the task of the engine descriptor.
+     *
+     * <p>A task submitted after the first one is executed in the calling thread.
+     */
+    @Override
+    public Future<Void> submit(final TestTask testTask) {
+        if (!this.rootSubmitted.compareAndSet(false, true)) {
+            return this.sameThread.submit(testTask);
+        }
+
+        final TestDescriptor root = this.request.getRootTestDescriptor();
+        final EngineExecutionListener listener = this.request.getEngineExecutionListener();
+        listener.executionStarted(root);
+        try {
+            this.runInWorkers(root);
+        } catch (final IOException | RuntimeException ex) {
+            listener.executionFinished(root, TestExecutionResult.failed(ex));
+            return CompletableFuture.completedFuture(null);
+        } finally {
+            if (root instanceof EmbulkPluginTestEngineDescriptor) {
+                ((EmbulkPluginTestEngineDescriptor) root).closePluginClassLoaders();
+            }
+        }
+        listener.executionFinished(root, TestExecutionResult.successful());
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Executes the tasks in the calling thread one by one.
+     */
+    @Override
+    public void invokeAll(final List<? extends TestTask> testTasks) {
+        this.sameThread.invokeAll(testTasks);
+    }
+
+    @Override
+    public void close() {
+        this.sameThread.close();
+    }
+
+    private void runInWorkers(final TestDescriptor root) throws IOException {
+        final HashMap<String, TestDescriptor> descriptors = new HashMap<>();
+        final ConcurrentLinkedQueue<TestDescriptor> testClasses = new ConcurrentLinkedQueue<>();
+        for (final TestDescriptor descriptor : root.getDescendants()) {
+            descriptors.put(descriptor.getUniqueId().toString(), descriptor);
+        }
+        for (final TestDescriptor child : root.getChildren()) {
+            testClasses.add(child);
+        }
+        if (testClasses.isEmpty()) {
+            return;
+        }
+        final int workerCount = Math.min(this.forkCount, testClasses.size());
+        final String token = newToken();
+
+        try (final ServerSocket serverSocket = new ServerSocket(0, workerCount, InetAddress.getLoopbackAddress())) {
+            final ArrayList<Process> processes = new ArrayList<>(workerCount);
+            final ArrayList<Thread> threads = new ArrayList<>();
+            try {
+                for (int i = 0; i < workerCount; i++) {
+                    final Process process = this.startWorker(serverSocket.getLocalPort(), token);
+                    processes.add(process);
+                    threads.add(startDaemon("embulk-junit5-fork-" + i + "-stdout", () -> pump(process.getInputStream(), System.out)));
+                    threads.add(startDaemon("embulk-junit5-fork-" + i + "-stderr", () -> pump(process.getErrorStream(), System.err)));
+                }
+                logger.info(() -> "Started " + workerCount + " forked worker JVM(s) for " + testClasses.size() + " test class(es).");
+
+                final ArrayList<Thread> coordinators = new ArrayList<>(workerCount);
+                serverSocket.setSoTimeout(WORKER_CONNECT_TIMEOUT_MILLIS);
+                while (coordinators.size() < workerCount && !testClasses.isEmpty()) {
+                    final Socket socket;
+                    try {
+                        socket = serverSocket.accept();
+                    } catch (final SocketTimeoutException ex) {
+                        logger.warn(() -> "Only " + coordinators.size() + " of " + workerCount + " forked worker JVM(s) connected in time.");
+                        break;
+                    }
+                    final Thread coordinator = startDaemon(
+                            "embulk-junit5-fork-coordinator-" + coordinators.size(),
+                            () -> this.coordinate(socket, token, descriptors, testClasses));
+                    coordinators.add(coordinator);
+                }
+                for (final Thread coordinator : coordinators) {
+                    joinUninterruptibly(coordinator);
+                }
+            } finally {
+                for (final Process process : processes) {
+                    stopWorker(process);
+                }
+                for (final Thread thread : threads) {
+                    joinUninterruptibly(thread);
+                }
+            }
+        }
+
+        // The test classes never handed out, if all the workers have gone.
+        TestDescriptor testClass;
+        while ((testClass = testClasses.poll()) != null) {
+            this.failUnfinished(testClass, new IllegalStateException("No forked worker JVM was available to run the test."));
+        }
+    }
+
+    /**
+     * Hands out test classes to a worker, and reports the events from it, until no test classes are left.
+     */
+    private void coordinate(
+            final Socket socket,
+            final String token,
+            final Map<String, TestDescriptor> descriptors,
+            final ConcurrentLinkedQueue<TestDescriptor> testClasses) {
+        TestDescriptor current = null;
+        try {
+            socket.setTcpNoDelay(true);
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (!token.equals(ForkedProtocol.readString(input))) {
+                logger.warn(() -> "Rejected a connection with an invalid token from: " + socket.getRemoteSocketAddress());
+                return;
+            }
+            while (true) {
+                final byte type = input.readByte();
+                if (type == ForkedProtocol.NEXT) {
+                    if (current != null) {
+                        // The tests which the worker did not report, for example if they were not discovered there.
+                        this.failUnfinished(current, new IllegalStateException("The forked worker JVM did not report the test."));
+                    }
+                    if (this.failFast && this.failureSeen) {
+                        this.skipRemaining(testClasses);
+                    }
+                    current = testClasses.poll();
+                    if (current == null) {
+                        output.writeByte(ForkedProtocol.QUIT);
+                        output.flush();
+                        return;
+                    }
+                    final List<String> uniqueIds = testUniqueIdsOf(current);
+                    output.writeByte(ForkedProtocol.RUN);
+                    output.writeInt(uniqueIds.size());
+                    for (final String uniqueId : uniqueIds) {
+                        ForkedProtocol.writeString(output, uniqueId);
+                    }
+                    output.flush();
+                    continue;
+                }
+                final TestDescriptor descriptor = descriptors.get(ForkedProtocol.readString(input));
+                this.report(type, descriptor, input);
+            }
+        } catch (final IOException ex) {
+            if (current != null) {
+                final TestDescriptor lost = current;
+                logger.warn(ex, () -> "A forked worker JVM exited unexpectedly while running: " + lost.getUniqueId());
+                this.failUnfinished(lost, new IllegalStateException("The forked worker JVM exited unexpectedly while running the test.", ex));
+            }
+        } catch (final RuntimeException ex) {
+            // The worker is given up as lost, so that the tests of its current test class are finished anyway.
+            if (current != null) {
+                final TestDescriptor lost = current;
+                logger.warn(ex, () -> "Failed to coordinate a forked worker JVM while running: " + lost.getUniqueId());
+                this.failUnfinished(lost, new IllegalStateException("Failed to coordinate the forked worker JVM running the test.", ex));
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (final IOException ex) {
+                logger.debug(ex, () -> "Failed to close a connection to a forked worker JVM.");
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of an event from a worker, and reports it on the descriptor, or ignores it if it is unknown here.
+     */
+    private void report(final byte type, final TestDescriptor descriptor, final DataInputStream input) throws IOException {
+        final EngineExecutionListener listener = this.request.getEngineExecutionListener();
+        switch (type) {
+            case ForkedProtocol.STARTED:
+                if (descriptor != null && this.started.add(descriptor)) {
+                    synchronized (this.listenerLock) {
+                        listener.executionStarted(descriptor);
+                    }
+                }
+                return;
+            case ForkedProtocol.SKIPPED: {
+                final String reason = ForkedProtocol.readString(input);
+                if (descriptor != null && this.finished.add(descriptor)) {
+                    synchronized (this.listenerLock) {
+                        listener.executionSkipped(descriptor, reason);
+                    }
+                }
+                return;
+            }
+            case ForkedProtocol.REPORTED: {
+                final Map<String, String> keyValuePairs = ForkedProtocol.readMap(input);
+                if (descriptor != null && !keyValuePairs.isEmpty()) {
+                    synchronized (this.listenerLock) {
+                        listener.reportingEntryPublished(descriptor, ReportEntry.from(keyValuePairs));
+                    }
+                }
+                return;
+            }
+            case ForkedProtocol.FINISHED: {
+                final byte status = input.readByte();
+                final Throwable throwable = ForkedProtocol.readThrowable(input);
+                if (status == ForkedProtocol.FAILED) {
+                    this.failureSeen = true;
+                }
+                if (descriptor != null && this.finished.add(descriptor)) {
+                    synchronized (this.listenerLock) {
+                        listener.executionFinished(descriptor, resultOf(status, throwable));
+                    }
+                }
+                return;
+            }
+            default:
+                throw new IOException("Unexpected message from a forked worker JVM: " + type);
+        }
+    }
+
+    /**
+     * Skips the test classes which have not been handed out, after the first failure with fail-fast.
+     */
+    private void skipRemaining(final ConcurrentLinkedQueue<TestDescriptor> testClasses) {
+        final EngineExecutionListener listener = this.request.getEngineExecutionListener();
+        TestDescriptor testClass;
+        while ((testClass = testClasses.poll()) != null) {
+            if (this.finished.add(testClass)) {
+                synchronized (this.listenerLock) {
+                    listener.executionSkipped(testClass, "Skipped after the first failure as " + Constants.FAIL_FAST_PROPERTY_NAME + " is enabled.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails the tests in the test class which have not finished, and then the test class.
+     */
+    private void failUnfinished(final TestDescriptor testClass, final Throwable cause) {
+        final EngineExecutionListener listener = this.request.getEngineExecutionListener();
+        synchronized (this.listenerLock) {
+            if (this.started.add(testClass)) {
+                listener.executionStarted(testClass);
+            }
+            for (final TestDescriptor child : testClass.getChildren()) {
+                if (this.finished.contains(child)) {
+                    continue;
+                }
+                if (this.started.add(child)) {
+                    listener.executionStarted(child);
+                }
+                this.finished.add(child);
+                listener.executionFinished(child, TestExecutionResult.failed(cause));
+            }
+            if (this.finished.add(testClass)) {
+                listener.executionFinished(testClass, TestExecutionResult.failed(cause));
+            }
+        }
+    }
+
+    private Process startWorker(final int port, final String token) throws IOException {
+        final ArrayList<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(this.jvmArgs);
+        command.addAll(this.sharedArchiveArgs());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        for (final Map.Entry<String, String> property : this.workerProperties().entrySet()) {
+            command.add("-D" + property.getKey() + "=" + property.getValue());
+        }
+        command.add(ForkedWorker.class.getName());
+        command.add(Integer.toString(port));
+        command.add(token);
+        return new ProcessBuilder(command).start();
+    }
+
+    /**
+     * Returns the properties for workers: the plugin class path, and the {@code embulk.junit5.*} configuration
+     * parameters, from both the system properties and the configuration parameters of this engine.
+     */
+    private Map<String, String> workerProperties() {
+        final HashMap<String, String> properties = new HashMap<>();
+        for (final String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(PROPERTY_PREFIX) || name.equals(PLUGIN_CLASS_PATH_PROPERTY_NAME)) {
+                properties.put(name, System.getProperty(name));
+            }
+        }
+        final ConfigurationParameters configurationParameters = this.request.getConfigurationParameters();
+        for (final String name : configurationParameters.keySet()) {
+            if (name.startsWith(PROPERTY_PREFIX)) {
+                configurationParameters.get(name).ifPresent(value -> properties.put(name, value));
+            }
+        }
+        // Workers never fork workers.
+        properties.put(Constants.FORK_COUNT_PROPERTY_NAME, "0");
+        // Workers would race on the report file, and their startups are not comparable.
+        properties.remove(Constants.STARTUP_REPORT_FILE_PROPERTY_NAME);
+        return properties;
+    }
+
+    /**
+     * Returns the option to map the class data sharing archive of this JVM in workers, which have the same class path.
+     *
+     * <p>Workers only map an existing archive. They never dump one not to race on it.
+     */
+    private List<String> sharedArchiveArgs() {
+        for (final String jvmArg : this.jvmArgs) {
+            if (jvmArg.startsWith(StartupReport.SHARED_ARCHIVE_FILE_OPTION)) {
+                return Collections.emptyList();
+            }
+        }
+        for (final String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith(StartupReport.SHARED_ARCHIVE_FILE_OPTION)
+                    && Files.isRegularFile(Paths.get(argument.substring(StartupReport.SHARED_ARCHIVE_FILE_OPTION.length())))) {
+                return Collections.singletonList(argument);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private static void stopWorker(final Process process) {
+        try {
+            if (!process.waitFor(WORKER_EXIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                logger.warn(() -> "Killing a forked worker JVM which did not exit.");
+                process.destroyForcibly();
+            }
+        } catch (final InterruptedException ex) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the unique IDs of the tests in the test class, or of the test class itself if it has no tests.
+     */
+    private static List<String> testUniqueIdsOf(final TestDescriptor testClass) {
+        final ArrayList<String> uniqueIds = new ArrayList<>();
+        for (final TestDescriptor child : testClass.getChildren()) {
+            uniqueIds.add(child.getUniqueId().toString());
+        }
+        if (uniqueIds.isEmpty()) {
+            return Collections.singletonList(testClass.getUniqueId().toString());
+        }
+        return uniqueIds;
+    }
+
+    private static TestExecutionResult resultOf(final byte status, final Throwable throwable) {
+        switch (status) {
+            case ForkedProtocol.SUCCESSFUL:
+                return TestExecutionResult.successful();
+            case ForkedProtocol.ABORTED:
+                return TestExecutionResult.aborted(throwable);
+            default:
+                return TestExecutionResult.failed(throwable);
+        }
+    }
+
+    private static void pump(final InputStream input, final PrintStream output) {
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(input, Charset.defaultCharset()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.println(line);
+            }
+        } catch (final IOException ex) {
+            logger.debug(ex, () -> "Failed to read the output of a forked worker JVM.");
+        }
+    }
+
+    private static Thread startDaemon(final String name, final Runnable runnable) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void joinUninterruptibly(final Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (final InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String newToken() {
+        final byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            builder.append(String.format("%02x", b & 0xff));
+        }
+        return builder.toString();
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(ForkedExecutorService.class);
+
+    private static final String PROPERTY_PREFIX = "embulk.junit5.";
+
+    private static final String PLUGIN_CLASS_PATH_PROPERTY_NAME = "org.embulk.junit5.plugin.class.path";
+
+    private static final int WORKER_CONNECT_TIMEOUT_MILLIS = 60_000;
+
+    private static final long WORKER_EXIT_TIMEOUT_MILLIS = 10_000L;
+
+    private final ExecutionRequest request;
+
+    private final int forkCount;
+
+    private final List<String> jvmArgs;
+
+    private final Object listenerLock;
+
+    private final Set<TestDescriptor> started;
+
+    private final Set<TestDescriptor> finished;
+
+    private final boolean failFast;
+
+    private volatile boolean failureSeen;
+
+    private final AtomicBoolean rootSubmitted;
+
+    private final SameThreadHierarchicalTestExecutorService sameThread;
+}
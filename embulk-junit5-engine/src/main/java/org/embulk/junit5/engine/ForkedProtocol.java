@@ -0,0 +1,194 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.opentest4j.AssertionFailedError;
+import org.opentest4j.TestAbortedException;
+
+/**
+ * Messages between the coordinator in the parent JVM and {@link ForkedWorker}s over a local socket.
+ *
+ * <p>A worker first sends the token given in its command line, and then {@link #NEXT} to ask for a unit of work.
+ * The coordinator answers {@link #RUN} with the unique IDs of the tests of a test class, or {@link #QUIT}. While
+ * running them, the worker sends {@link #STARTED}, {@link #SKIPPED}, {@link #REPORTED}, and {@link #FINISHED}
+ * of the test class and its tests, and then {@link #NEXT} again.
+ *
+ * <p>Strings are in UTF-8 prefixed with their length in bytes, not to be limited by {@link DataOutputStream#writeUTF}.
+ * Throwables are sent as their class names, messages, stack traces, and causes, because their classes may be
+ * loaded only in {@code PluginClassLoader} of the worker.
+ */
+final class ForkedProtocol {
+    private ForkedProtocol() {
+        // No instantiation.
+    }
+
+    static void writeString(final DataOutputStream output, final String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    static String readString(final DataInputStream input) throws IOException {
+        final int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeMap(final DataOutputStream output, final Map<String, String> map) throws IOException {
+        output.writeInt(map.size());
+        for (final Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(output, entry.getKey());
+            writeString(output, entry.getValue());
+        }
+    }
+
+    static Map<String, String> readMap(final DataInputStream input) throws IOException {
+        final int size = input.readInt();
+        final LinkedHashMap<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(readString(input), readString(input));
+        }
+        return map;
+    }
+
+    /**
+     * Writes a throwable with its causes, or {@code null}.
+     */
+    static void writeThrowable(final DataOutputStream output, final Throwable throwable) throws IOException {
+        Throwable current = throwable;
+        for (int depth = 0; current != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            output.writeBoolean(true);
+            writeString(output, current.getClass().getName());
+            writeString(output, current.getMessage());
+            final StackTraceElement[] stackTrace = current.getStackTrace();
+            output.writeInt(stackTrace.length);
+            for (final StackTraceElement element : stackTrace) {
+                writeString(output, element.getClassName());
+                writeString(output, element.getMethodName());
+                writeString(output, element.getFileName());
+                output.writeInt(element.getLineNumber());
+            }
+            current = current.getCause() == current ? null : current.getCause();
+        }
+        output.writeBoolean(false);
+    }
+
+    /**
+     * Reads a throwable written by {@link #writeThrowable}, or {@code null}.
+     *
+     * <p>Assertion failures and aborts are rebuilt as opentest4j's, so that they are reported as such.
+     * The others are rebuilt as {@link RemoteException} which prints as the original.
+     */
+    static Throwable readThrowable(final DataInputStream input) throws IOException {
+        final ArrayList<String> classNames = new ArrayList<>();
+        final ArrayList<String> messages = new ArrayList<>();
+        final ArrayList<StackTraceElement[]> stackTraces = new ArrayList<>();
+        while (input.readBoolean()) {
+            classNames.add(readString(input));
+            messages.add(readString(input));
+            final StackTraceElement[] stackTrace = new StackTraceElement[input.readInt()];
+            for (int i = 0; i < stackTrace.length; i++) {
+                final String declaringClass = readString(input);
+                final String methodName = readString(input);
+                final String fileName = readString(input);
+                stackTrace[i] = new StackTraceElement(declaringClass, methodName, fileName, input.readInt());
+            }
+            stackTraces.add(stackTrace);
+        }
+
+        // Built from the innermost cause because opentest4j's exceptions initialize their causes in their constructors.
+        Throwable cause = null;
+        for (int depth = classNames.size() - 1; depth >= 0; depth--) {
+            final String className = classNames.get(depth);
+            final String message = messages.get(depth);
+            final Throwable throwable;
+            if (depth == 0 && (AssertionFailedError.class.getName().equals(className) || AssertionError.class.getName().equals(className))) {
+                throwable = new AssertionFailedError(message, cause);
+            } else if (depth == 0 && TestAbortedException.class.getName().equals(className)) {
+                throwable = new TestAbortedException(message, cause);
+            } else {
+                throwable = new RemoteException(className, message, cause);
+            }
+            throwable.setStackTrace(stackTraces.get(depth));
+            cause = throwable;
+        }
+        return cause;
+    }
+
+    /**
+     * An exception thrown in a worker, whose class may not be loadable in the parent JVM.
+     */
+    static final class RemoteException extends RuntimeException {
+        RemoteException(final String className, final String message, final Throwable cause) {
+            super(message, cause);
+            this.className = className;
+        }
+
+        @Override
+        public String toString() {
+            final String message = this.getLocalizedMessage();
+            return message != null ? this.className + ": " + message : this.className;
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        private final String className;
+    }
+
+    // Worker to coordinator.
+
+    static final byte NEXT = 'N';
+
+    static final byte STARTED = 'S';
+
+    static final byte SKIPPED = 'K';
+
+    static final byte REPORTED = 'E';
+
+    static final byte FINISHED = 'F';
+
+    // Coordinator to worker.
+
+    static final byte RUN = 'R';
+
+    static final byte QUIT = 'Q';
+
+    // Statuses in FINISHED, in the order of TestExecutionResult.Status.
+
+    static final byte SUCCESSFUL = 0;
+
+    static final byte ABORTED = 1;
+
+    static final byte FAILED = 2;
+
+    private static final int MAX_CAUSE_DEPTH = 16;
+}
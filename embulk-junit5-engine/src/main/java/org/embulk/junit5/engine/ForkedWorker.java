@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.platform.engine.DiscoverySelector;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.discovery.DiscoverySelectors;
+import org.junit.platform.engine.reporting.ReportEntry;
+import org.junit.platform.launcher.EngineFilter;
+import org.junit.platform.launcher.Launcher;
+import org.junit.platform.launcher.TestExecutionListener;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+
+/**
+ * The main class of a worker JVM forked by {@link ForkedExecutorService}.
+ *
+ * <p>It connects to the coordinator in the parent JVM, and runs the tests handed out one test class at a time with
+ * its own {@link EmbulkPluginTestEngine} through the JUnit Platform Launcher. The events of the tests are streamed
+ * back to the coordinator. It exits when the coordinator has no more work, or when the connection is lost.
+ *
+ * <p>It is not an API. Its command line is built by {@link ForkedExecutorService}.
+ */
+public final class ForkedWorker {
+    private ForkedWorker(final DataInputStream input, final DataOutputStream output) {
+        this.input = input;
+        this.output = output;
+        this.launcher = LauncherFactory.create();
+    }
+
+    /**
+     * Runs a worker.
+     *
+     * @param args  the port of the coordinator, and the token to authenticate this worker
+     */
+    public static void main(final String[] args) {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: ForkedWorker <port> <token>");
+        }
+        int exitCode = 0;
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]))) {
+            socket.setTcpNoDelay(true);
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            ForkedProtocol.writeString(output, args[1]);
+            new ForkedWorker(input, output).run();
+        } catch (final IOException | RuntimeException ex) {
+            System.err.println("The forked worker lost the connection to the coordinator.");
+            ex.printStackTrace();
+            exitCode = 1;
+        }
+        // Not to wait for non-daemon threads left by plugins under test.
+        System.exit(exitCode);
+    }
+
+    private void run() throws IOException {
+        while (true) {
+            synchronized (this.output) {
+                this.output.writeByte(ForkedProtocol.NEXT);
+                this.output.flush();
+            }
+            final byte command = this.input.readByte();
+            if (command == ForkedProtocol.QUIT) {
+                return;
+            }
+            if (command != ForkedProtocol.RUN) {
+                throw new IOException("Unexpected command from the coordinator: " + command);
+            }
+            final int size = this.input.readInt();
+            final List<DiscoverySelector> selectors = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                selectors.add(DiscoverySelectors.selectUniqueId(ForkedProtocol.readString(this.input)));
+            }
+            // A lost connection in the listener is detected by the next NEXT, as the launcher does not rethrow it.
+            this.launcher.execute(
+                    LauncherDiscoveryRequestBuilder.request()
+                            .selectors(selectors)
+                            .filters(EngineFilter.includeEngines(ENGINE_ID))
+                            .build(),
+                    new StreamingListener());
+        }
+    }
+
+    /**
+     * Streams the events of tests to the coordinator. The event of the engine itself is not streamed.
+     */
+    private final class StreamingListener implements TestExecutionListener {
+        @Override
+        public void executionStarted(final TestIdentifier testIdentifier) {
+            if (!testIdentifier.getParentId().isPresent()) {
+                return;
+            }
+            this.send(ForkedProtocol.STARTED, testIdentifier, output -> { });
+        }
+
+        @Override
+        public void executionSkipped(final TestIdentifier testIdentifier, final String reason) {
+            if (!testIdentifier.getParentId().isPresent()) {
+                return;
+            }
+            this.send(ForkedProtocol.SKIPPED, testIdentifier, output -> ForkedProtocol.writeString(output, reason));
+        }
+
+        @Override
+        public void reportingEntryPublished(final TestIdentifier testIdentifier, final ReportEntry entry) {
+            if (!testIdentifier.getParentId().isPresent()) {
+                return;
+            }
+            this.send(ForkedProtocol.REPORTED, testIdentifier, output -> ForkedProtocol.writeMap(output, entry.getKeyValuePairs()));
+        }
+
+        @Override
+        public void executionFinished(final TestIdentifier testIdentifier, final TestExecutionResult result) {
+            if (!testIdentifier.getParentId().isPresent()) {
+                return;
+            }
+            this.send(ForkedProtocol.FINISHED, testIdentifier, output -> {
+                output.writeByte(result.getStatus().ordinal());
+                ForkedProtocol.writeThrowable(output, result.getThrowable().orElse(null));
+            });
+        }
+
+        // Tests may run concurrently in the worker, so that messages are written under the lock of the output.
+        private void send(final byte type, final TestIdentifier testIdentifier, final Body body) {
+            synchronized (ForkedWorker.this.output) {
+                try {
+                    ForkedWorker.this.output.writeByte(type);
+                    ForkedProtocol.writeString(ForkedWorker.this.output, testIdentifier.getUniqueId());
+                    body.write(ForkedWorker.this.output);
+                    ForkedWorker.this.output.flush();
+                } catch (final IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Body {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    private static final String ENGINE_ID = "embulk-junit5-engine";
+
+    private final DataInputStream input;
+
+    private final DataOutputStream output;
+
+    private final Launcher launcher;
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Index from packages to the entries of the plugin class path which contain them, served to class loaders as URLs.
+ *
+ * <p>A {@link java.net.URLClassLoader}, such as {@code PluginClassLoader}, looks up a class or a resource in its URLs
+ * one by one. With many jar files, a lookup opens and searches the jar files in front of the owning one, and a miss
+ * searches all of them. Instead, {@link #getUrls()} returns a few URLs handled by this index. A lookup on the first URL
+ * goes straight to the entries which contain the package, usually one, and a miss ends there.
+ *
+ * <p>The index is built once, in parallel, by reading the central directories of the jar files, and walking the
+ * directories. The jar files are kept open, and shared by all the class loaders built with the URLs, until it is closed.
+ *
+ * <p>The first URL serves a name from the first entry which contains it, as a class loader does. The following URLs
+ * serve the second and later entries only for {@code META-INF/services/} files, so that {@link java.util.ServiceLoader} still
+ * finds providers in all the entries. {@link ClassLoader#getResources} returns only the first one for other names.
+ * The code source of a class is the URL of the index, not its jar file, and packages are defined without manifests.
+ *
+ * <p>Jar files are opened as multi-release jar files for the running Java version in Java 9 or later, as a class loader
+ * does, so that the entries in {@code META-INF/versions/} are served instead of the base ones. {@link JarFile}'s
+ * constructor for it is looked up reflectively because the engine is built for Java 8. It is thread-safe.
+ */
+final class IndexedClassPath implements AutoCloseable {
+    private IndexedClassPath(final Entry[] entries, final Map<String, int[]> packages, final Map<String, int[]> serviceFiles) {
+        this.entries = entries;
+        this.packages = packages;
+        this.serviceFiles = serviceFiles;
+        this.handler = new Handler();
+
+        int ranks = 1;
+        for (final int[] owners : serviceFiles.values()) {
+            ranks = Math.max(ranks, owners.length);
+        }
+        final ArrayList<URL> urls = new ArrayList<>();
+        for (int rank = 0; rank < ranks; rank++) {
+            try {
+                urls.add(new URL(PROTOCOL, "", -1, "/" + rank + "/", this.handler));
+            } catch (final MalformedURLException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        this.urls = Collections.unmodifiableList(urls);
+    }
+
+    /**
+     * Builds the index of the entries of a class path, which are directories or jar files, in parallel.
+     */
+    static IndexedClassPath build(final List<Path> classPaths) throws IOException {
+        final Entry[] entries;
+        try {
+            entries = IntStream.range(0, classPaths.size()).parallel()
+                    .mapToObj(index -> {
+                        try {
+                            return Entry.of(classPaths.get(index));
+                        } catch (final IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    })
+                    .toArray(Entry[]::new);
+        } catch (final UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        // Merged in the order of the class path so that the first entry wins, as a class loader does.
+        final HashMap<String, int[]> packages = new HashMap<>();
+        final HashMap<String, int[]> serviceFiles = new HashMap<>();
+        for (int index = 0; index < entries.length; index++) {
+            for (final String packageName : entries[index].packages) {
+                packages.merge(packageName, new int[] { index }, IndexedClassPath::concat);
+            }
+            for (final String serviceFile : entries[index].serviceFiles) {
+                serviceFiles.merge(serviceFile, new int[] { index }, IndexedClassPath::concat);
+            }
+        }
+        return new IndexedClassPath(entries, packages, serviceFiles);
+    }
+
+    /**
+     * Returns the URLs to build a class loader with, instead of the entries of the class path.
+     */
+    List<URL> getUrls() {
+        return this.urls;
+    }
+
+    int getPackageCount() {
+        return this.packages.size();
+    }
+
+    @Override
+    public void close() {
+        for (final Entry entry : this.entries) {
+            entry.close();
+        }
+    }
+
+    /**
+     * Finds the entry which serves a name at a rank, or {@code null} if not found.
+     */
+    private Entry find(final int rank, final String name) {
+        if (rank > 0) {
+            final int[] owners = this.serviceFiles.get(name);
+            return owners != null && owners.length > rank ? this.entries[owners[rank]] : null;
+        }
+        final int[] owners = this.packages.get(packageOf(name));
+        if (owners == null) {
+            return null;
+        }
+        for (final int owner : owners) {
+            if (this.entries[owner].contains(name)) {
+                return this.entries[owner];
+            }
+        }
+        return null;
+    }
+
+    private static String packageOf(final String name) {
+        final int lastSlash = name.lastIndexOf('/');
+        return lastSlash < 0 ? "" : name.substring(0, lastSlash);
+    }
+
+    private static int[] concat(final int[] former, final int[] latter) {
+        final int[] concatenated = Arrays.copyOf(former, former.length + latter.length);
+        System.arraycopy(latter, 0, concatenated, former.length, latter.length);
+        return concatenated;
+    }
+
+    /**
+     * Handles the URLs of the index: {@code embulk-junit5-index:/<rank>/<name>}.
+     */
+    private final class Handler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(final URL url) throws IOException {
+            final String path = decodedPathOf(url);
+            final int secondSlash = path.indexOf('/', 1);
+            if (secondSlash < 0) {
+                throw NOT_FOUND;
+            }
+            final int rank;
+            try {
+                rank = Integer.parseInt(path.substring(1, secondSlash));
+            } catch (final NumberFormatException ex) {
+                throw NOT_FOUND;
+            }
+            final String name = path.substring(secondSlash + 1);
+            final Entry entry = IndexedClassPath.this.find(rank, name);
+            if (entry == null) {
+                // A miss is common, e.g. for classes in the parent class loader. It must be cheap.
+                throw NOT_FOUND;
+            }
+            return new Connection(url, entry, name);
+        }
+    }
+
+    private static String decodedPathOf(final URL url) throws IOException {
+        final String path = url.getPath();
+        if (path.indexOf('%') < 0) {
+            return path;
+        }
+        try {
+            return url.toURI().getPath();  // Decoded as URLClassLoader encodes names.
+        } catch (final URISyntaxException ex) {
+            throw NOT_FOUND;
+        }
+    }
+
+    private static final class Connection extends URLConnection {
+        Connection(final URL url, final Entry entry, final String name) {
+            super(url);
+            this.entry = entry;
+            this.name = name;
+        }
+
+        @Override
+        public void connect() {
+            this.connected = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return this.entry.open(this.name);
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return this.entry.sizeOf(this.name);
+        }
+
+        @Override
+        public int getContentLength() {
+            final long length = this.getContentLengthLong();
+            return length > Integer.MAX_VALUE ? -1 : (int) length;
+        }
+
+        private final Entry entry;
+
+        private final String name;
+    }
+
+    /**
+     * An entry of the class path, which is a directory or a jar file.
+     */
+    private abstract static class Entry {
+        Entry(final Set<String> packages, final List<String> serviceFiles) {
+            this.packages = packages;
+            this.serviceFiles = serviceFiles;
+        }
+
+        static Entry of(final Path classPath) throws IOException {
+            if (Files.isDirectory(classPath)) {
+                return DirectoryEntry.of(classPath);
+            }
+            if (Files.isRegularFile(classPath)) {
+                return JarEntry.of(classPath);
+            }
+            return new DirectoryEntry(classPath, Collections.emptySet(), Collections.emptyList());  // Missing, as a class loader ignores it.
+        }
+
+        abstract boolean contains(String name);
+
+        abstract InputStream open(String name) throws IOException;
+
+        abstract long sizeOf(String name);
+
+        abstract void close();
+
+        final Set<String> packages;
+
+        final List<String> serviceFiles;
+    }
+
+    private static final class DirectoryEntry extends Entry {
+        DirectoryEntry(final Path directory, final Set<String> packages, final List<String> serviceFiles) {
+            super(packages, serviceFiles);
+            this.directory = directory;
+        }
+
+        static DirectoryEntry of(final Path directory) throws IOException {
+            final HashSet<String> packages = new HashSet<>();
+            final ArrayList<String> serviceFiles = new ArrayList<>();
+            try (final Stream<Path> files = Files.walk(directory)) {
+                files.filter(file -> Files.isRegularFile(file)).forEach(file -> {
+                    final String name = directory.relativize(file).toString().replace(directory.getFileSystem().getSeparator(), "/");
+                    packages.add(packageOf(name));
+                    if (name.startsWith(SERVICES_PREFIX)) {
+                        serviceFiles.add(name);
+                    }
+                });
+            }
+            return new DirectoryEntry(directory, packages, serviceFiles);
+        }
+
+        @Override
+        boolean contains(final String name) {
+            return Files.isRegularFile(this.directory.resolve(name));
+        }
+
+        @Override
+        InputStream open(final String name) throws IOException {
+            return Files.newInputStream(this.directory.resolve(name));
+        }
+
+        @Override
+        long sizeOf(final String name) {
+            try {
+                return Files.size(this.directory.resolve(name));
+            } catch (final IOException ex) {
+                return -1L;
+            }
+        }
+
+        @Override
+        void close() {
+        }
+
+        private final Path directory;
+    }
+
+    private static final class JarEntry extends Entry {
+        JarEntry(final ZipFile zipFile, final Set<String> packages, final List<String> serviceFiles) {
+            super(packages, serviceFiles);
+            this.zipFile = zipFile;
+        }
+
+        static JarEntry of(final Path jarFile) throws IOException {
+            // Opening a ZipFile reads only its central directory, not the contents.
+            final ZipFile zipFile = openZipFile(jarFile.toFile());
+            final HashSet<String> packages = new HashSet<>();
+            final ArrayList<String> serviceFiles = new ArrayList<>();
+            final Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                final ZipEntry zipEntry = zipEntries.nextElement();
+                if (zipEntry.isDirectory()) {
+                    continue;
+                }
+                packages.add(packageOf(zipEntry.getName()));
+                if (MULTI_RELEASE_JAR_FILE != null && zipEntry.getName().startsWith(VERSIONS_PREFIX)) {
+                    // A class only in "META-INF/versions/<N>/" is in its package. The package may be indexed even if
+                    // N is later than the running Java version, or the jar file is not multi-release. It just misses then.
+                    final int versionEnd = zipEntry.getName().indexOf('/', VERSIONS_PREFIX.length());
+                    if (versionEnd >= 0) {
+                        packages.add(packageOf(zipEntry.getName().substring(versionEnd + 1)));
+                    }
+                }
+                if (zipEntry.getName().startsWith(SERVICES_PREFIX)) {
+                    serviceFiles.add(zipEntry.getName());
+                }
+            }
+            return new JarEntry(zipFile, packages, serviceFiles);
+        }
+
+        /**
+         * Opens a jar file as a multi-release {@link JarFile} for the running Java version, or as a {@link ZipFile} in Java 8.
+         */
+        private static ZipFile openZipFile(final File file) throws IOException {
+            if (MULTI_RELEASE_JAR_FILE == null) {
+                return new ZipFile(file);
+            }
+            try {
+                return MULTI_RELEASE_JAR_FILE.newInstance(file, true, ZipFile.OPEN_READ, RUNTIME_VERSION);
+            } catch (final InvocationTargetException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IllegalStateException(ex.getCause());
+            } catch (final ReflectiveOperationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        boolean contains(final String name) {
+            return this.zipFile.getEntry(name) != null;
+        }
+
+        @Override
+        InputStream open(final String name) throws IOException {
+            final ZipEntry zipEntry = this.zipFile.getEntry(name);
+            if (zipEntry == null) {
+                throw NOT_FOUND;
+            }
+            return this.zipFile.getInputStream(zipEntry);
+        }
+
+        @Override
+        long sizeOf(final String name) {
+            final ZipEntry zipEntry = this.zipFile.getEntry(name);
+            return zipEntry == null ? -1L : zipEntry.getSize();
+        }
+
+        @Override
+        void close() {
+            try {
+                this.zipFile.close();
+            } catch (final IOException ex) {
+                // Ignored.
+            }
+        }
+
+        private final ZipFile zipFile;
+    }
+
+    /**
+     * Thrown for a miss without its stack trace, which the class loader just ignores.
+     */
+    private static final class NotFoundException extends FileNotFoundException {
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Returns {@code JarFile(File, boolean, int, Runtime.Version)} in Java 9 or later, or {@code null} in Java 8.
+     */
+    private static Constructor<JarFile> lookUpMultiReleaseJarFile() {
+        try {
+            return JarFile.class.getConstructor(File.class, boolean.class, int.class, Class.forName("java.lang.Runtime$Version"));
+        } catch (final ReflectiveOperationException ex) {
+            return null;  // Java 8
+        }
+    }
+
+    /**
+     * Returns {@code JarFile.runtimeVersion()} in Java 9 or later, or {@code null} in Java 8.
+     */
+    private static Object lookUpRuntimeVersion() {
+        if (MULTI_RELEASE_JAR_FILE == null) {
+            return null;
+        }
+        try {
+            return JarFile.class.getMethod("runtimeVersion").invoke(null);
+        } catch (final ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static final String PROTOCOL = "embulk-junit5-index";
+
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+    private static final Constructor<JarFile> MULTI_RELEASE_JAR_FILE = lookUpMultiReleaseJarFile();
+
+    private static final Object RUNTIME_VERSION = lookUpRuntimeVersion();
+
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+
+    private static final NotFoundException NOT_FOUND = new NotFoundException();
+
+    private final Entry[] entries;
+
+    private final Map<String, int[]> packages;
+
+    private final Map<String, int[]> serviceFiles;
+
+    private final Handler handler;
+
+    private final List<URL> urls;
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+
+/**
+ * Counts the classes of the plugin class path which have been loaded in a class loader, without loading them.
+ *
+ * <p>The JVM counts loaded classes only in total, not per class loader. The class names are listed from the plugin
+ * class path only once at the first count, and each of them is looked up in the class loader by {@link LoadedClassFinder}.
+ * Classes delegated to the parent class loader are not counted. It is thread-safe.
+ */
+final class LoadedClassCounter {
+    LoadedClassCounter(final List<Path> classPaths) {
+        this.classPaths = classPaths;
+        this.classNames = null;
+        this.listingFailed = false;
+    }
+
+    /**
+     * Returns the number of classes of the plugin class path loaded in the class loader, or {@code -1} if they cannot be counted.
+     *
+     * <p>It never throws, not to fail a test only for its metrics.
+     */
+    long count(final ClassLoader classLoader) {
+        final List<String> classNames = this.getClassNames();
+        if (classNames == null) {
+            return -1L;
+        }
+        long count = 0L;
+        try {
+            for (final String className : classNames) {
+                final Class<?> loadedClass = LoadedClassFinder.findFrom(classLoader, className);
+                if (loadedClass != null && loadedClass.getClassLoader() == classLoader) {
+                    count++;
+                }
+            }
+        } catch (final RuntimeException ex) {
+            logger.debug(ex, () -> "Failed to count the classes loaded in: " + classLoader);
+            return -1L;
+        }
+        return count;
+    }
+
+    private List<String> getClassNames() {
+        if (this.classNames == null) {
+            synchronized (this) {
+                if (this.classNames == null) {
+                    try (final PluginClassFiles classFiles = new PluginClassFiles(this.classPaths)) {
+                        this.classNames = Collections.unmodifiableList(classFiles.listClassNamesInPackage(""));
+                    } catch (final IOException | UncheckedIOException ex) {
+                        logger.warn(ex, () -> "Failed to list the classes in the plugin class path. Loaded classes are not counted.");
+                        this.listingFailed = true;
+                        this.classNames = Collections.emptyList();  // Published at last as the guard.
+                    }
+                }
+            }
+        }
+        final List<String> classNames = this.classNames;
+        return this.listingFailed ? null : classNames;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadedClassCounter.class);
+
+    private final List<Path> classPaths;
+
+    private volatile List<String> classNames;
+
+    private volatile boolean listingFailed;
+}
@@ -16,37 +16,148 @@
 
 package org.embulk.junit5.engine;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Finds a class which has already been loaded in a class loader, without loading it.
+ *
+ * <p>{@code ClassLoader#findLoadedClass} is resolved into a {@link MethodHandle} only once. Lookups do not take a global
+ * lock. Found classes are cached per class loader as a class never disappears from its living class loader. The caches
+ * are in a {@link ConcurrentHashMap} keyed weakly by the class loaders, and dropped after the class loaders are collected.
+ *
+ * <p>Misses are not cached. A class missed may be loaded anytime by the plugin or the test, not through this finder,
+ * such as the classes which {@link TestImpactIndex} looks up after a test class has run. A cached miss would be wrong then.
+ */
 class LoadedClassFinder extends ClassLoader {
-    static synchronized Class<?> findFrom(final ClassLoader classLoader, final String name) {
-        final Method findLoadedClass;
+    static Class<?> findFrom(final ClassLoader classLoader, final String name) {
+        final ConcurrentHashMap<String, WeakReference<Class<?>>> found = foundClassesIn(classLoader);
+        final WeakReference<Class<?>> cachedReference = found.get(name);
+        if (cachedReference != null) {
+            final Class<?> cached = cachedReference.get();
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        if (FIND_LOADED_CLASS == null) {
+            throw FIND_LOADED_CLASS_FAILURE;
+        }
+        final Class<?> classObject;
         try {
-            findLoadedClass = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
-        } catch (final NoSuchMethodException ex) {
+            classObject = (Class<?>) FIND_LOADED_CLASS.invokeExact(classLoader, name);
+        } catch (final RuntimeException | Error ex) {
+            throw ex;
+        } catch (final Throwable ex) {
             throw new RuntimeException(ex);
         }
 
-        findLoadedClass.setAccessible(true);
-        try {
-            final Object classObject;
-            try {
-                classObject = findLoadedClass.invoke(classLoader, name);
-            } catch (final IllegalAccessException | InvocationTargetException ex) {
-                throw new RuntimeException(ex);
+        if (classObject != null) {
+            found.put(name, new WeakReference<>(classObject));
+        }
+        return classObject;
+    }
+
+    private static ConcurrentHashMap<String, WeakReference<Class<?>>> foundClassesIn(final ClassLoader classLoader) {
+        // Most lookups are for the same class loader in a row. It avoids locking in that case.
+        final FoundClasses last = lastFoundClasses;
+        if (last != null && last.classLoader.get() == classLoader) {
+            return last.classes;
+        }
+
+        expungeCollectedClassLoaders();
+        FoundClasses foundClasses = FOUND_CLASSES.get(new ClassLoaderKey(classLoader, null));
+        if (foundClasses == null) {
+            final FoundClasses created = new FoundClasses(classLoader);
+            foundClasses = FOUND_CLASSES.putIfAbsent(new ClassLoaderKey(classLoader, COLLECTED_CLASS_LOADERS), created);
+            if (foundClasses == null) {
+                foundClasses = created;
             }
+        }
+        lastFoundClasses = foundClasses;
+        return foundClasses.classes;
+    }
 
-            if (classObject == null) {
-                return null;
+    private static void expungeCollectedClassLoaders() {
+        Reference<? extends ClassLoader> collected;
+        while ((collected = COLLECTED_CLASS_LOADERS.poll()) != null) {
+            FOUND_CLASSES.remove(collected);
+        }
+    }
+
+    /**
+     * A key of a class loader, which is referenced weakly, and compared by its identity.
+     *
+     * <p>A key whose class loader has been collected is equal only to itself so that it can be removed from the map.
+     */
+    private static final class ClassLoaderKey extends WeakReference<ClassLoader> {
+        ClassLoaderKey(final ClassLoader classLoader, final ReferenceQueue<ClassLoader> queue) {
+            super(classLoader, queue);
+            this.hashCode = System.identityHashCode(classLoader);
+        }
+
+        @Override
+        public boolean equals(final Object otherObject) {
+            if (this == otherObject) {
+                return true;
             }
-            if (classObject instanceof Class) {
-                return (Class<?>) classObject;
-            } else {
-                throw new RuntimeException();
+            if (!(otherObject instanceof ClassLoaderKey)) {
+                return false;
             }
-        } finally {
-            findLoadedClass.setAccessible(false);
+            final ClassLoader classLoader = this.get();
+            return classLoader != null && classLoader == ((ClassLoaderKey) otherObject).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        private final int hashCode;
+    }
+
+    /**
+     * Classes found in a class loader.
+     *
+     * <p>Both the class loader and the classes are referenced weakly not to prevent the class loader from being unloaded.
+     */
+    private static final class FoundClasses {
+        FoundClasses(final ClassLoader classLoader) {
+            this.classLoader = new WeakReference<>(classLoader);
+            this.classes = new ConcurrentHashMap<>();
+        }
+
+        private final WeakReference<ClassLoader> classLoader;
+
+        private final ConcurrentHashMap<String, WeakReference<Class<?>>> classes;
+    }
+
+    static {
+        MethodHandle findLoadedClassHandle = null;
+        RuntimeException failure = null;
+        try {
+            final Method findLoadedClass = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+            findLoadedClass.setAccessible(true);
+            findLoadedClassHandle = MethodHandles.lookup().unreflect(findLoadedClass);
+        } catch (final ReflectiveOperationException | RuntimeException ex) {
+            failure = new RuntimeException(ex);
         }
+        FIND_LOADED_CLASS = findLoadedClassHandle;
+        FIND_LOADED_CLASS_FAILURE = failure;
     }
+
+    private static final MethodHandle FIND_LOADED_CLASS;
+
+    private static final RuntimeException FIND_LOADED_CLASS_FAILURE;
+
+    private static final ConcurrentHashMap<ClassLoaderKey, FoundClasses> FOUND_CLASSES = new ConcurrentHashMap<>();
+
+    private static final ReferenceQueue<ClassLoader> COLLECTED_CLASS_LOADERS = new ReferenceQueue<>();
+
+    private static volatile FoundClasses lastFoundClasses;
 }
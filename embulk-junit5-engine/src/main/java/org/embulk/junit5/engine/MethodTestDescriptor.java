@@ -17,13 +17,27 @@
 package org.embulk.junit5.engine;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicReference;
+import org.embulk.junit5.api.EmbulkPluginBenchmark;
+import org.embulk.junit5.api.EmbulkPluginTest;
+import org.junit.platform.engine.TestExecutionResult;
 import org.junit.platform.engine.UniqueId;
 import org.junit.platform.engine.support.descriptor.AbstractTestDescriptor;
+import org.junit.platform.engine.support.hierarchical.Node;
+import org.opentest4j.TestAbortedException;
 
-final class MethodTestDescriptor extends AbstractTestDescriptor {
-    MethodTestDescriptor(final UniqueId uniqueId, final Class<?> testClass, final Method testMethod) {
-        super(uniqueId, testMethod.getName());
-        this.testMethod = testMethod;
+final class MethodTestDescriptor extends AbstractTestDescriptor implements Node<EmbulkPluginTestEngineExecutionContext> {
+    /**
+     * Creates a descriptor of a test method in a test class which is not loaded yet.
+     *
+     * <p>It is resolved by {@link #resolve} when the test class is loaded.
+     */
+    MethodTestDescriptor(final UniqueId uniqueId, final String testMethodName, final Node.ExecutionMode executionMode) {
+        super(uniqueId, testMethodName);
+        this.testMethodName = testMethodName;
+        this.testMethod = null;
+        this.testMethodInvoker = null;
+        this.executionMode = executionMode;
     }
 
     @Override
@@ -31,5 +45,132 @@ final class MethodTestDescriptor extends AbstractTestDescriptor {
         return Type.TEST;
     }
 
-    private final Method testMethod;
+    /**
+     * Returns {@link Node.ExecutionMode#CONCURRENT} if parallel execution is enabled, or {@link Node.ExecutionMode#SAME_THREAD} otherwise.
+     */
+    @Override  // from org.junit.platform.engine.support.hierarchical.Node
+    public ExecutionMode getExecutionMode() {
+        return this.executionMode;
+    }
+
+    /**
+     * Resolves the test method in the test class loaded lazily, if it has not been resolved.
+     */
+    void resolve(final Class<?> testClass) throws ReflectiveOperationException {
+        if (this.testMethodInvoker != null) {
+            return;
+        }
+        final Method method = testClass.getDeclaredMethod(this.testMethodName);
+        this.testMethodInvoker = TestMethodInvoker.of(testClass, method);
+        this.testMethod = method;
+    }
+
+    @Override  // from org.junit.platform.engine.support.hierarchical.Node
+    public SkipResult shouldBeSkipped(final EmbulkPluginTestEngineExecutionContext context) {
+        return context.skipResultAfterFailure();
+    }
+
+    @Override  // from org.junit.platform.engine.support.hierarchical.Node
+    public EmbulkPluginTestEngineExecutionContext execute(
+            final EmbulkPluginTestEngineExecutionContext context,
+            final DynamicTestExecutor dynamicTestExecutor)
+            throws Exception {
+        final EngineEvents.MethodExecution event = EngineEvents.get().beginMethodExecution(
+                this.getUniqueId(), this.testMethod.getDeclaringClass().getName(), this.testMethodName);
+        final AtomicReference<TestMetrics> metrics = new AtomicReference<>();
+        final TestTimeout.Body body = () -> this.executeMeasured(context, metrics);
+        final long startNanos = System.nanoTime();
+        TestExecutionResult.Status status = TestExecutionResult.Status.FAILED;
+        try {
+            final TestTimeout timeout = TestTimeout.of(
+                    this.testMethod.getAnnotation(EmbulkPluginTest.class), context.getDefaultTimeoutMillis());
+            if (timeout != null) {
+                timeout.run(this.testMethod.getDeclaringClass().getName() + "#" + this.testMethodName, body);
+            } else {
+                body.run();
+            }
+            status = TestExecutionResult.Status.SUCCESSFUL;
+        } catch (final TestAbortedException ex) {
+            // An aborted test, such as by a failed assumption, is reported as aborted. It is not a failure.
+            status = TestExecutionResult.Status.ABORTED;
+            throw ex;
+        } finally {
+            event.finish(status == TestExecutionResult.Status.SUCCESSFUL);
+            context.recordResult(this, System.nanoTime() - startNanos, status);
+            // No metrics are reported if the test has timed out, because its thread is abandoned before they are taken.
+            context.reportMetrics(this, metrics.get(), status);
+        }
+        return context;
+    }
+
+    /**
+     * Runs the test, and measures it in the thread which runs it, which is not the engine's thread with a timeout.
+     */
+    private void executeMeasured(final EmbulkPluginTestEngineExecutionContext context, final AtomicReference<TestMetrics> metrics) throws Exception {
+        final TestMetrics metricsStart = context.startMetrics(this.testMethod.getDeclaringClass().getClassLoader());
+        try {
+            this.executeInExecSession(context);
+        } finally {
+            if (metricsStart != null) {
+                metrics.set(TestMetrics.since(metricsStart));
+            }
+        }
+    }
+
+    /**
+     * Runs the test in the Embulk session of the test class, or in its own session if it opts out of the shared one.
+     */
+    private void executeInExecSession(final EmbulkPluginTestEngineExecutionContext context) throws Exception {
+        final EmbulkPluginTest annotation = this.testMethod.getAnnotation(EmbulkPluginTest.class);
+        if (context.getExecSession() == null) {
+            this.executeBody(context);
+        } else if (annotation == null || annotation.sharedExecSession()) {
+            context.getExecSession().doWith(() -> this.executeBody(context));
+        } else {
+            final PluginExecSession isolatedExecSession = PluginExecSession.open(this.testMethod.getDeclaringClass().getClassLoader());
+            try {
+                isolatedExecSession.doWith(() -> this.executeBody(context));
+            } finally {
+                isolatedExecSession.close();
+            }
+        }
+    }
+
+    private void executeBody(final EmbulkPluginTestEngineExecutionContext context) throws Exception {
+        final EmbulkPluginBenchmark benchmark = this.testMethod.getAnnotation(EmbulkPluginBenchmark.class);
+        if (benchmark != null) {
+            final PluginBenchmark pluginBenchmark = PluginBenchmark.of(benchmark);
+            pluginBenchmark.run(this.testMethodInvoker);
+            context.publishReportEntry(this, pluginBenchmark.toMap());
+            return;
+        }
+
+        final AllocationBudget allocationBudget = AllocationBudget.of(this.testMethod.getAnnotation(EmbulkPluginTest.class));
+        if (allocationBudget == null) {
+            this.testMethodInvoker.invoke();
+            return;
+        }
+        allocationBudget.start();
+        try {
+            this.testMethodInvoker.invoke();
+        } finally {
+            allocationBudget.stop();
+        }
+        allocationBudget.check();
+    }
+
+    @Override  // from org.junit.platform.engine.support.hierarchical.Node
+    public void cleanUp(final EmbulkPluginTestEngineExecutionContext context) throws Exception {
+        // Not to keep the test class reachable from the descriptor so that its PluginClassLoader can be unloaded.
+        this.testMethod = null;
+        this.testMethodInvoker = null;
+    }
+
+    private final String testMethodName;
+
+    private Method testMethod;
+
+    private TestMethodInvoker testMethodInvoker;
+
+    private final Node.ExecutionMode executionMode;
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.embulk.junit5.api.AllocationTracker;
+import org.embulk.junit5.api.EmbulkPluginBenchmark;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+
+/**
+ * Runs an {@link EmbulkPluginBenchmark} method through its {@link TestMethodInvoker}, and summarizes the results.
+ *
+ * <p>An iteration of {@code batchSize} invocations is timed as a whole, not to measure {@link System#nanoTime}
+ * with every short invocation. The time per operation of an iteration is a sample for the percentiles.
+ * The allocated bytes are of the current thread, only in the measured iterations.
+ *
+ * <p>It runs a benchmark only once. Create a new instance for every run.
+ */
+final class PluginBenchmark {
+    private PluginBenchmark(
+            final int warmupIterations,
+            final int measurementIterations,
+            final int batchSize,
+            final long timeBudgetNanos) {
+        this.warmupIterations = warmupIterations;
+        this.batchSize = batchSize;
+        this.timeBudgetNanos = timeBudgetNanos;
+        this.iterationNanos = new long[measurementIterations];
+        this.measuredIterations = 0;
+        this.allocatedBytes = 0L;
+        this.budgetExhausted = false;
+    }
+
+    static PluginBenchmark of(final EmbulkPluginBenchmark annotation) {
+        if (annotation.warmupIterations() < 0) {
+            throw new IllegalArgumentException("@EmbulkPluginBenchmark(warmupIterations) must not be negative.");
+        }
+        if (annotation.measurementIterations() < 1) {
+            throw new IllegalArgumentException("@EmbulkPluginBenchmark(measurementIterations) must be positive.");
+        }
+        if (annotation.batchSize() < 1) {
+            throw new IllegalArgumentException("@EmbulkPluginBenchmark(batchSize) must be positive.");
+        }
+        if (annotation.timeBudgetMillis() < 0) {
+            throw new IllegalArgumentException("@EmbulkPluginBenchmark(timeBudgetMillis) must not be negative.");
+        }
+        return new PluginBenchmark(
+                annotation.warmupIterations(),
+                annotation.measurementIterations(),
+                annotation.batchSize(),
+                annotation.timeBudgetMillis() == 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(annotation.timeBudgetMillis()));
+    }
+
+    /**
+     * Runs the benchmark. It fails with the exception thrown from the benchmark method, if any.
+     */
+    void run(final TestMethodInvoker testMethodInvoker) throws Exception {
+        testMethodInvoker.invokeRepeatedly(this::repeat);
+    }
+
+    /**
+     * Returns the results as key-values for {@link org.junit.platform.engine.reporting.ReportEntry}.
+     *
+     * <p>Times are in nanoseconds per operation. {@code allocatedBytesPerOp} is {@code -1} if unsupported in the JVM.
+     */
+    Map<String, String> toMap() {
+        final long[] nanosPerOp = new long[this.measuredIterations];
+        long totalNanos = 0L;
+        for (int i = 0; i < this.measuredIterations; i++) {
+            nanosPerOp[i] = this.iterationNanos[i] / this.batchSize;
+            totalNanos += this.iterationNanos[i];
+        }
+        Arrays.sort(nanosPerOp);
+        final long operations = (long) this.measuredIterations * this.batchSize;
+
+        final LinkedHashMap<String, String> map = new LinkedHashMap<>();
+        map.put("benchmark.iterations", Integer.toString(this.measuredIterations));
+        map.put("benchmark.batchSize", Integer.toString(this.batchSize));
+        map.put("benchmark.opsPerSecond", String.format(Locale.ENGLISH, "%.3f", operations * 1_000_000_000.0 / Math.max(totalNanos, 1L)));
+        map.put("benchmark.meanNanosPerOp", Long.toString(totalNanos / operations));
+        map.put("benchmark.p50NanosPerOp", Long.toString(percentile(nanosPerOp, 50)));
+        map.put("benchmark.p90NanosPerOp", Long.toString(percentile(nanosPerOp, 90)));
+        map.put("benchmark.p99NanosPerOp", Long.toString(percentile(nanosPerOp, 99)));
+        map.put("benchmark.maxNanosPerOp", Long.toString(nanosPerOp[nanosPerOp.length - 1]));
+        map.put("benchmark.allocatedBytesPerOp", Long.toString(this.allocatedBytes < 0 ? -1L : this.allocatedBytes / operations));
+        map.put("benchmark.budgetExhausted", Boolean.toString(this.budgetExhausted));
+        return map;
+    }
+
+    private void repeat(final TestMethodInvoker.Invocation invocation) throws Throwable {
+        final long startNanos = System.nanoTime();
+
+        for (int i = 0; i < this.warmupIterations; i++) {
+            if (System.nanoTime() - startNanos >= this.timeBudgetNanos) {
+                logger.debug(() -> "The time budget is exhausted in warmup.");
+                break;
+            }
+            this.runBatch(invocation);
+        }
+
+        final long allocatedBytesStart = AllocationTracker.currentThreadAllocatedBytes();
+        for (int i = 0; i < this.iterationNanos.length; i++) {
+            // At least one iteration is measured even if the time budget is exhausted.
+            if (i > 0 && System.nanoTime() - startNanos >= this.timeBudgetNanos) {
+                this.budgetExhausted = true;
+                break;
+            }
+            final long iterationStartNanos = System.nanoTime();
+            this.runBatch(invocation);
+            this.iterationNanos[i] = System.nanoTime() - iterationStartNanos;
+            this.measuredIterations++;
+        }
+        final long allocatedBytesEnd = AllocationTracker.currentThreadAllocatedBytes();
+        this.allocatedBytes = (allocatedBytesStart < 0 || allocatedBytesEnd < 0) ? -1L : allocatedBytesEnd - allocatedBytesStart;
+    }
+
+    private void runBatch(final TestMethodInvoker.Invocation invocation) throws Throwable {
+        for (int j = 0; j < this.batchSize; j++) {
+            invocation.invoke();
+        }
+    }
+
+    /**
+     * Returns the percentile of sorted samples by the nearest-rank method.
+     */
+    private static long percentile(final long[] sorted, final int percent) {
+        final int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(PluginBenchmark.class);
+
+    private final int warmupIterations;
+
+    private final int batchSize;
+
+    private final long timeBudgetNanos;
+
+    private final long[] iterationNanos;
+
+    private int measuredIterations;
+
+    private long allocatedBytes;
+
+    private boolean budgetExhausted;
+}
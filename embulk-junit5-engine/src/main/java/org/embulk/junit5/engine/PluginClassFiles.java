@@ -0,0 +1,276 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+
+/**
+ * Reads class files from the entries of the plugin class path, which are directories or jar files, without loading them.
+ *
+ * <p>Class files are looked up in the order of the entries, as a class loader does. Jar files are opened lazily, and
+ * kept open until {@link #close()}. It is thread-safe.
+ */
+final class PluginClassFiles implements AutoCloseable {
+    PluginClassFiles(final List<Path> classPaths) {
+        this.classPaths = classPaths;
+        this.zipFiles = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Reads the class file of a class.
+     *
+     * @param className  the binary name of the class
+     * @return the content of the class file, or empty if it is not found in the plugin class path
+     */
+    Optional<byte[]> read(final String className) throws IOException {
+        final Optional<ClassFile> classFile = this.find(className);
+        if (!classFile.isPresent()) {
+            return Optional.empty();
+        }
+        return Optional.of(classFile.get().read());
+    }
+
+    /**
+     * Finds the class file of a class, without reading its content.
+     *
+     * @param className  the binary name of the class
+     * @return the class file, or empty if it is not found in the plugin class path
+     */
+    Optional<ClassFile> find(final String className) throws IOException {
+        final String entryName = className.replace('.', '/') + ".class";
+        for (final Path classPath : this.classPaths) {
+            if (Files.isDirectory(classPath)) {
+                final Path classFile = classPath.resolve(entryName);
+                if (Files.isRegularFile(classFile)) {
+                    final BasicFileAttributes attributes = Files.readAttributes(classFile, BasicFileAttributes.class);
+                    return Optional.of(new ClassFile(
+                            classFile.toString(), attributes.size(), attributes.lastModifiedTime().toMillis(), -1L,
+                            () -> Files.readAllBytes(classFile)));
+                }
+            } else if (Files.isRegularFile(classPath)) {
+                final ZipFile zipFile = this.openZipFile(classPath);
+                final ZipEntry entry = zipFile.getEntry(entryName);
+                if (entry != null) {
+                    return Optional.of(new ClassFile(
+                            classPath.toString() + "!/" + entryName, entry.getSize(), entry.getTime(), entry.getCrc(),
+                            () -> {
+                                try (final InputStream in = zipFile.getInputStream(entry)) {
+                                    return readAll(in, entry.getSize());
+                                }
+                            }));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Scans the class file of a class.
+     *
+     * @param className  the binary name of the class
+     * @return the scanned class, or empty if it is not found in the plugin class path, or if it is broken
+     */
+    Optional<ClassFileScanner.ScannedClass> scan(final String className) {
+        try {
+            final Optional<byte[]> classFile = this.read(className);
+            if (!classFile.isPresent()) {
+                logger.warn(() -> "<" + className + "> is not found in the plugin class path.");
+                return Optional.empty();
+            }
+            return Optional.of(ClassFileScanner.scan(classFile.get()));
+        } catch (final IOException ex) {
+            logger.warn(ex, () -> "Failed to scan the class file of <" + className + ">.");
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Lists the binary names of classes in a package, including its sub-packages, in the plugin class path.
+     *
+     * @param packageName  the name of the package
+     * @return the binary names of the classes, without duplicates, in the order of the entries of the plugin class path
+     */
+    List<String> listClassNamesInPackage(final String packageName) throws IOException {
+        final String packagePath = packageName.isEmpty() ? "" : packageName.replace('.', '/') + "/";
+        final LinkedHashSet<String> classNames = new LinkedHashSet<>();
+        for (final Path classPath : this.classPaths) {
+            this.collectClassNames(classPath, packagePath, classNames);
+        }
+        return new ArrayList<>(classNames);
+    }
+
+    /**
+     * Lists the binary names of all classes in a class path entry, which is a directory or a jar file.
+     *
+     * <p>The entry does not need to be in the plugin class path.
+     *
+     * @param classPath  the class path entry
+     * @return the binary names of the classes
+     */
+    List<String> listClassNames(final Path classPath) throws IOException {
+        final LinkedHashSet<String> classNames = new LinkedHashSet<>();
+        this.collectClassNames(classPath, "", classNames);
+        return new ArrayList<>(classNames);
+    }
+
+    @Override
+    public void close() {
+        for (final ZipFile zipFile : this.zipFiles.values()) {
+            try {
+                zipFile.close();
+            } catch (final IOException ex) {
+                logger.warn(ex, () -> "Failed to close: " + zipFile.getName());
+            }
+        }
+        this.zipFiles.clear();
+    }
+
+    private void collectClassNames(final Path classPath, final String packagePath, final Set<String> classNames) throws IOException {
+        if (Files.isDirectory(classPath)) {
+            final Path packageDirectory = classPath.resolve(packagePath);
+            if (!Files.isDirectory(packageDirectory)) {
+                return;
+            }
+            try (final Stream<Path> files = Files.walk(packageDirectory)) {
+                files.filter(file -> Files.isRegularFile(file))
+                        .map(file -> classPath.relativize(file).toString().replace(classPath.getFileSystem().getSeparator(), "/"))
+                        .filter(PluginClassFiles::isClassEntry)
+                        .forEach(entryName -> classNames.add(toClassName(entryName)));
+            }
+        } else if (Files.isRegularFile(classPath)) {
+            final Enumeration<? extends ZipEntry> entries = this.openZipFile(classPath).entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getName().startsWith(packagePath) && isClassEntry(entry.getName())) {
+                    classNames.add(toClassName(entry.getName()));
+                }
+            }
+        }
+    }
+
+    private ZipFile openZipFile(final Path path) throws IOException {
+        final ZipFile opened = this.zipFiles.get(path);
+        if (opened != null) {
+            return opened;
+        }
+        final ZipFile zipFile = new ZipFile(path.toFile());
+        final ZipFile raced = this.zipFiles.putIfAbsent(path, zipFile);
+        if (raced != null) {
+            zipFile.close();
+            return raced;
+        }
+        return zipFile;
+    }
+
+    private static boolean isClassEntry(final String entryName) {
+        return entryName.endsWith(".class")
+                && !entryName.endsWith("module-info.class")
+                && !entryName.endsWith("package-info.class")
+                && !entryName.startsWith("META-INF/");  // Multi-release jars
+    }
+
+    private static String toClassName(final String entryName) {
+        return entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+    }
+
+    private static byte[] readAll(final InputStream in, final long sizeHint) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint > 0 ? (int) sizeHint : 4096);
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A class file found in the plugin class path, whose content is read on demand.
+     */
+    static final class ClassFile {
+        private ClassFile(final String location, final long size, final long lastModified, final long crc, final Reader reader) {
+            this.location = location;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.crc = crc;
+            this.reader = reader;
+        }
+
+        /**
+         * Returns where the class file is, which is its file path, or {@code <jar path>!/<entry name>} in a jar file.
+         */
+        String getLocation() {
+            return this.location;
+        }
+
+        long getSize() {
+            return this.size;
+        }
+
+        long getLastModified() {
+            return this.lastModified;
+        }
+
+        /**
+         * Returns CRC-32 of the content recorded in the jar file, or {@code -1} if it is unknown without reading the content.
+         */
+        long getCrc() {
+            return this.crc;
+        }
+
+        byte[] read() throws IOException {
+            return this.reader.read();
+        }
+
+        private final String location;
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final long crc;
+
+        private final Reader reader;
+    }
+
+    @FunctionalInterface
+    private interface Reader {
+        byte[] read() throws IOException;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(PluginClassFiles.class);
+
+    private final List<Path> classPaths;
+
+    private final ConcurrentHashMap<Path, ZipFile> zipFiles;
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.IOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.embulk.plugin.PluginClassLoader;
+import org.embulk.plugin.PluginClassLoaderFactoryImpl;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+import org.junit.platform.engine.ConfigurationParameters;
+
+/**
+ * Manages which {@link PluginClassLoader} each test class is loaded in, and when the class loader is dropped.
+ *
+ * <ul>
+ * <li>{@code "shared"}: All test classes are loaded in the single {@link PluginClassLoader} of the engine.
+ * <li>{@code "per-class"}: Each test class is loaded in its own {@link PluginClassLoader}. The class loaders are
+ *     pre-built in the background, and warmed up by opening all the entries of their class paths, and pooled.
+ * <li>{@code "recycle-every-N"}: A {@link PluginClassLoader} is shared by N test classes, and then it is replaced.
+ * </ul>
+ *
+ * <p>Except for {@code "shared"}, a class loader is closed, and left to be unreachable, after all the test classes
+ * loaded in it are cleaned up so that the classes in it can be unloaded from metaspace.
+ */
+abstract class PluginClassLoaderLifecycle {
+    private PluginClassLoaderLifecycle(final String name) {
+        this.name = name;
+        this.createdCount = new AtomicInteger(0);
+        this.creationNanos = new AtomicLong(0L);
+        this.initialLoadedClassCount = CLASS_LOADING.getTotalLoadedClassCount();
+        this.initialUnloadedClassCount = CLASS_LOADING.getUnloadedClassCount();
+    }
+
+    static PluginClassLoaderLifecycle of(
+            final ConfigurationParameters configurationParameters,
+            final PluginClassLoaderProvider pluginClassLoaderProvider) {
+        if (configurationParameters.getBoolean(Constants.PLUGIN_CLASS_PATH_INDEX_ENABLED_PROPERTY_NAME).orElse(false)) {
+            pluginClassLoaderProvider.enableClassPathIndex();
+        }
+
+        final String policy = configurationParameters.get(Constants.PLUGIN_CLASS_LOADER_LIFECYCLE_PROPERTY_NAME).orElse(SHARED).trim();
+        if (policy.equals(SHARED)) {
+            return new Shared(pluginClassLoaderProvider);
+        }
+        if (policy.equals(PER_CLASS)) {
+            final int poolSize = configurationParameters.get(
+                    Constants.PLUGIN_CLASS_LOADER_POOL_SIZE_PROPERTY_NAME, Integer::parseInt).orElse(DEFAULT_POOL_SIZE);
+            if (poolSize < 0) {
+                throw new IllegalArgumentException(
+                        "\"" + Constants.PLUGIN_CLASS_LOADER_POOL_SIZE_PROPERTY_NAME + "\" must not be negative: " + poolSize);
+            }
+            return new PerClass(pluginClassLoaderProvider, poolSize);
+        }
+        if (policy.startsWith(RECYCLE_EVERY_PREFIX)) {
+            final int classesPerClassLoader;
+            try {
+                classesPerClassLoader = Integer.parseInt(policy.substring(RECYCLE_EVERY_PREFIX.length()));
+            } catch (final NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid PluginClassLoader lifecycle: " + policy, ex);
+            }
+            if (classesPerClassLoader <= 0) {
+                throw new IllegalArgumentException("Invalid PluginClassLoader lifecycle: " + policy);
+            }
+            return new Recycling(policy, pluginClassLoaderProvider, classesPerClassLoader);
+        }
+        throw new IllegalArgumentException(
+                "Invalid PluginClassLoader lifecycle: " + policy
+                + " (expected one of \"shared\", \"per-class\", or \"recycle-every-N\")");
+    }
+
+    /**
+     * Returns a {@link PluginClassLoader} to load a next test class in.
+     */
+    abstract PluginClassLoader acquire();
+
+    /**
+     * Notifies that a test class loaded in the {@link PluginClassLoader} is no longer used.
+     */
+    abstract void release(PluginClassLoader pluginClassLoader);
+
+    /**
+     * Closes the lifecycle, and reports its statistics.
+     *
+     * <p>Except for {@code "shared"}, it closes also the index of the plugin class path, if built, which the class
+     * loaders have been built with.
+     */
+    void close() {
+        logger.info(() -> String.format(
+                "PluginClassLoader lifecycle [%s]: %d class loader(s) created in %.3f ms in total, "
+                        + "%d class(es) loaded and %d class(es) unloaded in the JVM.",
+                this.name,
+                this.createdCount.get(),
+                this.creationNanos.get() / 1_000_000.0,
+                CLASS_LOADING.getTotalLoadedClassCount() - this.initialLoadedClassCount,
+                CLASS_LOADING.getUnloadedClassCount() - this.initialUnloadedClassCount));
+    }
+
+    /**
+     * Returns the number of {@link PluginClassLoader}s created so far.
+     */
+    int getCreatedCount() {
+        return this.createdCount.get();
+    }
+
+    final PluginClassLoader create(final PluginClassLoaderProvider pluginClassLoaderProvider) {
+        final List<URL> classPathUrls = pluginClassLoaderProvider.getPluginClassLoaderUrls();
+        final EngineEvents.Timed event = EngineEvents.get().beginPluginClassLoaderCreation(this.name);
+        final long startNanos = System.nanoTime();
+
+        // A new PluginClassLoaderFactory is created for each PluginClassLoader because the factory holds
+        // all the PluginClassLoaders it created. They would never be unreachable otherwise.
+        final PluginClassLoader pluginClassLoader;
+        try {
+            pluginClassLoader = PluginClassLoaderFactoryImpl.of().create(classPathUrls, pluginClassLoaderProvider.getParentClassLoader());
+        } finally {
+            event.finish();
+        }
+
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final int count = this.countCreation(elapsedNanos);
+        logger.info(() -> String.format("Created PluginClassLoader #%d [%s] in %.3f ms.", count, pluginClassLoader, elapsedNanos / 1_000_000.0));
+        return pluginClassLoader;
+    }
+
+    final int countCreation(final long elapsedNanos) {
+        this.creationNanos.addAndGet(elapsedNanos);
+        return this.createdCount.incrementAndGet();
+    }
+
+    static void closeQuietly(final PluginClassLoader pluginClassLoader) {
+        try {
+            pluginClassLoader.close();
+        } catch (final IOException ex) {
+            logger.warn(ex, () -> "Failed to close PluginClassLoader [" + pluginClassLoader + "].");
+        }
+    }
+
+    private static final class Shared extends PluginClassLoaderLifecycle {
+        Shared(final PluginClassLoaderProvider pluginClassLoaderProvider) {
+            super(SHARED);
+            this.pluginClassLoaderProvider = pluginClassLoaderProvider;
+        }
+
+        @Override
+        PluginClassLoader acquire() {
+            return this.pluginClassLoaderProvider.getSharedPluginClassLoader();
+        }
+
+        @Override
+        void release(final PluginClassLoader pluginClassLoader) {
+            // The shared PluginClassLoader lives along with the engine.
+        }
+
+        @Override
+        int getCreatedCount() {
+            return this.pluginClassLoaderProvider.hasSharedPluginClassLoader() ? 1 : 0;
+        }
+
+        @Override
+        void close() {
+            // The shared PluginClassLoader is created by the provider, not by this lifecycle.
+            if (this.pluginClassLoaderProvider.hasSharedPluginClassLoader()) {
+                this.countCreation(this.pluginClassLoaderProvider.getSharedPluginClassLoaderCreationNanos());
+            }
+            super.close();
+        }
+
+        private final PluginClassLoaderProvider pluginClassLoaderProvider;
+    }
+
+    private static final class PerClass extends PluginClassLoaderLifecycle {
+        PerClass(final PluginClassLoaderProvider pluginClassLoaderProvider, final int poolSize) {
+            super(PER_CLASS);
+            this.pluginClassLoaderProvider = pluginClassLoaderProvider;
+            this.poolSize = poolSize;
+            this.pool = new ConcurrentLinkedQueue<>();
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "embulk-junit5-plugin-class-loader-pool");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @Override
+        PluginClassLoader acquire() {
+            final Future<PluginClassLoader> pooled;
+            synchronized (this) {
+                pooled = this.pool.poll();
+                // The pool starts to be filled at the first acquisition, not to build class loaders which may not be used.
+                this.fill();
+            }
+            // It waits for the pooled one out of the lock, not to block other threads to take other pooled ones.
+            if (pooled == null) {
+                return this.create(this.pluginClassLoaderProvider);
+            }
+            try {
+                return pooled.get();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a pre-built PluginClassLoader.", ex);
+            } catch (final ExecutionException ex) {
+                throw new IllegalStateException("Failed to pre-build a PluginClassLoader.", ex.getCause());
+            }
+        }
+
+        @Override
+        void release(final PluginClassLoader pluginClassLoader) {
+            closeQuietly(pluginClassLoader);
+        }
+
+        @Override
+        synchronized void close() {
+            this.executor.shutdown();
+            Future<PluginClassLoader> pooled;
+            while ((pooled = this.pool.poll()) != null) {
+                try {
+                    closeQuietly(pooled.get());
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (final ExecutionException ex) {
+                    // Failures in pre-building are ignored as the class loader is not used anyway.
+                }
+            }
+            this.pluginClassLoaderProvider.closeIndexedClassPath();
+            super.close();
+        }
+
+        private void fill() {
+            while (this.pool.size() < this.poolSize && !this.executor.isShutdown()) {
+                this.pool.add(this.executor.submit(() -> warm(this.create(this.pluginClassLoaderProvider))));
+            }
+        }
+
+        /**
+         * Opens all the entries of the class path of the {@link PluginClassLoader}, which it does lazily at the first lookups.
+         *
+         * <p>A resource which does not exist is looked up so that all the jar files are opened, and their central
+         * directories are read, in the background. It is closed if it fails.
+         */
+        private static PluginClassLoader warm(final PluginClassLoader pluginClassLoader) throws IOException {
+            try {
+                final Enumeration<URL> resources = pluginClassLoader.getResources(WARMING_RESOURCE_NAME);
+                while (resources.hasMoreElements()) {
+                    resources.nextElement();
+                }
+            } catch (final IOException | RuntimeException ex) {
+                closeQuietly(pluginClassLoader);
+                throw ex;
+            }
+            return pluginClassLoader;
+        }
+
+        private static final String WARMING_RESOURCE_NAME = "org/embulk/junit5/engine/warming-up-plugin-class-loader";
+
+        private final PluginClassLoaderProvider pluginClassLoaderProvider;
+
+        private final int poolSize;
+
+        private final ConcurrentLinkedQueue<Future<PluginClassLoader>> pool;
+
+        private final ExecutorService executor;
+    }
+
+    private static final class Recycling extends PluginClassLoaderLifecycle {
+        Recycling(final String name, final PluginClassLoaderProvider pluginClassLoaderProvider, final int classesPerClassLoader) {
+            super(name);
+            this.pluginClassLoaderProvider = pluginClassLoaderProvider;
+            this.classesPerClassLoader = classesPerClassLoader;
+            this.inUse = new IdentityHashMap<>();
+            this.current = null;
+            this.assignedToCurrent = 0;
+        }
+
+        @Override
+        synchronized PluginClassLoader acquire() {
+            if (this.current == null || this.assignedToCurrent >= this.classesPerClassLoader) {
+                // The old one is closed here if all its test classes have been released while it was the current.
+                if (this.current != null && !this.inUse.containsKey(this.current)) {
+                    closeQuietly(this.current);
+                }
+                this.current = this.create(this.pluginClassLoaderProvider);
+                this.assignedToCurrent = 0;
+            }
+            this.assignedToCurrent++;
+            this.inUse.merge(this.current, 1, Integer::sum);
+            return this.current;
+        }
+
+        @Override
+        synchronized void release(final PluginClassLoader pluginClassLoader) {
+            final Integer remaining = this.inUse.computeIfPresent(pluginClassLoader, (key, count) -> count > 1 ? count - 1 : null);
+            if (remaining == null && pluginClassLoader != this.current) {
+                closeQuietly(pluginClassLoader);
+            }
+        }
+
+        @Override
+        synchronized void close() {
+            if (this.current != null && !this.inUse.containsKey(this.current)) {
+                closeQuietly(this.current);
+            }
+            this.current = null;
+            // The index is kept open for the ones still in use, as they are not closed either.
+            if (this.inUse.isEmpty()) {
+                this.pluginClassLoaderProvider.closeIndexedClassPath();
+            }
+            super.close();
+        }
+
+        private final PluginClassLoaderProvider pluginClassLoaderProvider;
+
+        private final int classesPerClassLoader;
+
+        private final IdentityHashMap<PluginClassLoader, Integer> inUse;
+
+        private PluginClassLoader current;
+
+        private int assignedToCurrent;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(PluginClassLoaderLifecycle.class);
+
+    private static final ClassLoadingMXBean CLASS_LOADING = ManagementFactory.getClassLoadingMXBean();
+
+    private static final String SHARED = "shared";
+
+    private static final String PER_CLASS = "per-class";
+
+    private static final String RECYCLE_EVERY_PREFIX = "recycle-every-";
+
+    private static final int DEFAULT_POOL_SIZE = 2;
+
+    private final String name;
+
+    private final AtomicInteger createdCount;
+
+    private final AtomicLong creationNanos;
+
+    private final long initialLoadedClassCount;
+
+    private final long initialUnloadedClassCount;
+}
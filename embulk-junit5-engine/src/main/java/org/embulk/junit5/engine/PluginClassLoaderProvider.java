@@ -0,0 +1,244 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.embulk.plugin.PluginClassLoader;
+import org.embulk.plugin.PluginClassLoaderFactoryImpl;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+
+/**
+ * Provides the plugin class path, and the engine's shared {@link PluginClassLoader}, on demand.
+ *
+ * <p>Both are built only once at their first use, not in the engine's constructor, so that a JVM which does not
+ * run any Embulk plugin test (e.g. the engine is excluded by engine filters) does not pay for them.
+ *
+ * <p>If the class path index is enabled, {@link PluginClassLoader}s are built with the URLs of an {@link IndexedClassPath}
+ * instead of the plugin class path. The index is built once, and its jar files are kept open until it is closed by
+ * {@link #closeIndexedClassPath} along with the {@link PluginClassLoader}s built with it. It is thread-safe.
+ */
+final class PluginClassLoaderProvider {
+    PluginClassLoaderProvider(final ClassLoader parentClassLoader) {
+        this.parentClassLoader = parentClassLoader;
+        this.classPaths = null;
+        this.classPathUrls = null;
+        this.sharedPluginClassLoader = null;
+        this.classPathIndexEnabled = false;
+        this.indexedClassPath = null;
+        this.indexedClassPathShared = false;
+        this.classPathParsingNanos = 0L;
+        this.sharedPluginClassLoaderCreationNanos = 0L;
+    }
+
+    ClassLoader getParentClassLoader() {
+        return this.parentClassLoader;
+    }
+
+    /**
+     * Returns the entries of the system property {@code "org.embulk.junit5.plugin.class.path"} as {@link Path}s.
+     */
+    List<Path> getClassPaths() {
+        this.initializeClassPath();
+        return this.classPaths;
+    }
+
+    /**
+     * Returns the entries of the system property {@code "org.embulk.junit5.plugin.class.path"} as {@link URL}s.
+     */
+    List<URL> getClassPathUrls() {
+        this.initializeClassPath();
+        return this.classPathUrls;
+    }
+
+    /**
+     * Builds {@link PluginClassLoader}s with the {@link IndexedClassPath} of the plugin class path from now on.
+     */
+    void enableClassPathIndex() {
+        this.classPathIndexEnabled = true;
+    }
+
+    /**
+     * Returns the URLs to build a {@link PluginClassLoader} with.
+     *
+     * <p>They are the URLs of the {@link IndexedClassPath} if the class path index is enabled. They fall back to the
+     * plugin class path if the index fails to be built.
+     */
+    List<URL> getPluginClassLoaderUrls() {
+        if (!this.classPathIndexEnabled) {
+            return this.getClassPathUrls();
+        }
+        IndexedClassPath indexedClassPath = this.indexedClassPath;
+        if (indexedClassPath != null) {
+            return indexedClassPath.getUrls();
+        }
+        synchronized (this) {
+            if (this.indexedClassPath == null) {
+                final List<Path> classPaths = this.getClassPaths();
+                final long startNanos = System.nanoTime();
+                try {
+                    indexedClassPath = IndexedClassPath.build(classPaths);
+                } catch (final IOException ex) {
+                    logger.warn(ex, () -> "Failed to index the plugin class path. PluginClassLoader loads from it as is.");
+                    this.classPathIndexEnabled = false;
+                    return this.getClassPathUrls();
+                }
+                final IndexedClassPath built = indexedClassPath;
+                final long indexingNanos = System.nanoTime() - startNanos;
+                logger.info(() -> String.format(
+                        "Indexed %d package(s) in %d entries of the plugin class path in %.3f ms.",
+                        built.getPackageCount(), classPaths.size(), indexingNanos / 1_000_000.0));
+                this.indexedClassPath = indexedClassPath;
+            }
+            return this.indexedClassPath.getUrls();
+        }
+    }
+
+    /**
+     * Returns the {@link PluginClassLoader} shared in the engine.
+     */
+    PluginClassLoader getSharedPluginClassLoader() {
+        PluginClassLoader pluginClassLoader = this.sharedPluginClassLoader;
+        if (pluginClassLoader != null) {
+            return pluginClassLoader;
+        }
+        synchronized (this) {
+            pluginClassLoader = this.sharedPluginClassLoader;
+            if (pluginClassLoader == null) {
+                final List<URL> urls = this.getPluginClassLoaderUrls();
+                logger.info(() -> "Building PluginClassLoader with: " + urls);
+                final EngineEvents.Timed event = EngineEvents.get().beginPluginClassLoaderCreation("shared");
+                final long startNanos = System.nanoTime();
+                try {
+                    pluginClassLoader = PluginClassLoaderFactoryImpl.of().create(urls, this.parentClassLoader);
+                } finally {
+                    event.finish();
+                }
+                this.sharedPluginClassLoaderCreationNanos = System.nanoTime() - startNanos;
+                this.indexedClassPathShared = this.indexedClassPath != null && urls == this.indexedClassPath.getUrls();
+                this.sharedPluginClassLoader = pluginClassLoader;
+                logger.info(() -> String.format(
+                        "Built the shared PluginClassLoader in %.3f ms.", this.sharedPluginClassLoaderCreationNanos / 1_000_000.0));
+            }
+            return pluginClassLoader;
+        }
+    }
+
+    boolean hasSharedPluginClassLoader() {
+        return this.sharedPluginClassLoader != null;
+    }
+
+    /**
+     * Closes the {@link IndexedClassPath}, and its jar files, after the {@link PluginClassLoader}s built with it are closed.
+     *
+     * <p>It is built again if another {@link PluginClassLoader} is built later. It is kept open if the shared
+     * {@link PluginClassLoader} is built with it, because the shared one lives along with the engine.
+     */
+    synchronized void closeIndexedClassPath() {
+        final IndexedClassPath indexedClassPath = this.indexedClassPath;
+        if (indexedClassPath == null || this.indexedClassPathShared) {
+            return;
+        }
+        this.indexedClassPath = null;
+        indexedClassPath.close();
+        logger.info(() -> "Closed the index of the plugin class path.");
+    }
+
+    /**
+     * Returns nanoseconds taken to parse the plugin class path, or {@code 0} if it has not been parsed.
+     */
+    synchronized long getClassPathParsingNanos() {
+        return this.classPathParsingNanos;
+    }
+
+    /**
+     * Returns nanoseconds taken to build the shared {@link PluginClassLoader}, or {@code 0} if it has not been built.
+     */
+    synchronized long getSharedPluginClassLoaderCreationNanos() {
+        return this.sharedPluginClassLoaderCreationNanos;
+    }
+
+    private void initializeClassPath() {
+        if (this.classPathUrls != null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.classPathUrls != null) {
+                return;
+            }
+
+            final long startNanos = System.nanoTime();
+            final String pluginClassPath = System.getProperty("org.embulk.junit5.plugin.class.path");
+            logger.info(() -> "System property \"org.embulk.junit5.plugin.class.path\": " + pluginClassPath);
+            final ArrayList<Path> classPaths = new ArrayList<>();
+            final ArrayList<URL> classPathUrls = new ArrayList<>();
+            if (pluginClassPath != null && !pluginClassPath.isEmpty()) {
+                final String[] paths = pluginClassPath.split(Pattern.quote(File.pathSeparator));
+                for (final String pathString : paths) {
+                    final Path path;
+                    try {
+                        path = Paths.get(pathString);
+                    } catch (final InvalidPathException ex) {
+                        throw ex;
+                    }
+                    try {
+                        classPathUrls.add(path.toUri().toURL());
+                    } catch (final MalformedURLException ex) {
+                        throw new UncheckedIOException(ex);
+                    } catch (final IllegalArgumentException ex) {
+                        throw ex;
+                    }
+                    classPaths.add(path);
+                }
+            }
+            this.classPathParsingNanos = System.nanoTime() - startNanos;
+            this.classPaths = Collections.unmodifiableList(classPaths);
+            this.classPathUrls = Collections.unmodifiableList(classPathUrls);  // Published at last as the guard.
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(PluginClassLoaderProvider.class);
+
+    private final ClassLoader parentClassLoader;
+
+    private volatile List<Path> classPaths;
+
+    private volatile List<URL> classPathUrls;
+
+    private volatile PluginClassLoader sharedPluginClassLoader;
+
+    private volatile boolean classPathIndexEnabled;
+
+    private volatile IndexedClassPath indexedClassPath;
+
+    private boolean indexedClassPathShared;
+
+    private long classPathParsingNanos;
+
+    private long sharedPluginClassLoaderCreationNanos;
+}
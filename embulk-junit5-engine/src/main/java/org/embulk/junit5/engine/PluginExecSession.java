@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.util.concurrent.ExecutionException;
+import org.embulk.junit5.api.RecyclingBufferAllocator;
+import org.embulk.spi.ExecInternal;
+import org.embulk.spi.ExecSessionInternal;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+
+/**
+ * An Embulk session in which {@code @EmbulkPluginTest} methods run, so that {@code Exec} is available in tests.
+ *
+ * <p>A session is created for each test class at its {@code prepare}, with the thread context class loader switched
+ * to its {@code PluginClassLoader}, and cleaned up at its {@code cleanUp}. It is shared among the tests in the class,
+ * which may run concurrently. Its page buffers are recycled.
+ */
+final class PluginExecSession {
+    private PluginExecSession(final ExecSessionInternal session) {
+        this.session = session;
+    }
+
+    /**
+     * Creates a session in the class loader, or returns {@code null} if {@code embulk-core} is unavailable at runtime.
+     */
+    static PluginExecSession open(final ClassLoader classLoader) {
+        final Thread currentThread = Thread.currentThread();
+        final ClassLoader originalContextClassLoader = currentThread.getContextClassLoader();
+        currentThread.setContextClassLoader(classLoader);
+        try {
+            return new PluginExecSession(new RecyclingBufferAllocator(DEFAULT_PAGE_SIZE).newExecSession());
+        } catch (final LinkageError ex) {
+            logger.debug(ex, () -> "Tests run without an Embulk session as embulk-core is unavailable.");
+            return null;
+        } finally {
+            currentThread.setContextClassLoader(originalContextClassLoader);
+        }
+    }
+
+    /**
+     * Runs the body in the session, and throws an exception from the body as-is.
+     */
+    void doWith(final TestTimeout.Body body) throws Exception {
+        try {
+            ExecInternal.doWith(this.session, () -> {
+                body.run();
+                return null;
+            });
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    void close() {
+        this.session.cleanup();
+    }
+
+    private static final int DEFAULT_PAGE_SIZE = 32 * 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(PluginExecSession.class);
+
+    private final ExecSessionInternal session;
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+import org.junit.platform.engine.DiscoveryFilter;
+import org.junit.platform.engine.EngineDiscoveryRequest;
+import org.junit.platform.engine.Filter;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.discovery.ClassNameFilter;
+import org.junit.platform.engine.discovery.ClassSelector;
+import org.junit.platform.engine.discovery.ClasspathRootSelector;
+import org.junit.platform.engine.discovery.MethodSelector;
+import org.junit.platform.engine.discovery.PackageNameFilter;
+import org.junit.platform.engine.discovery.PackageSelector;
+import org.junit.platform.engine.discovery.UniqueIdSelector;
+
+/**
+ * Test classes, and optionally their test methods, selected by an {@link EngineDiscoveryRequest}.
+ *
+ * <p>The selectors are resolved into class names and method names without loading any class, so that selecting
+ * a single test method (e.g. IDE's "rerun this test") loads only its test class.
+ *
+ * <p>Unique IDs are resolved in the form of {@code [engine:embulk-junit5-engine]/[class:<class>]/[method:<method>]}.
+ * {@link ClassNameFilter}s and {@link PackageNameFilter}s are applied to classes found by {@link PackageSelector}s
+ * and {@link ClasspathRootSelector}s, not to classes selected explicitly.
+ */
+final class SelectedTestClasses {
+    private SelectedTestClasses() {
+        this.selected = new LinkedHashMap<>();
+    }
+
+    static SelectedTestClasses resolve(
+            final EngineDiscoveryRequest discoveryRequest,
+            final UniqueId engineUniqueId,
+            final PluginClassFiles classFiles) {
+        final SelectedTestClasses selectedTestClasses = new SelectedTestClasses();
+        final Predicate<String> classNameFilter = classNameFilterOf(discoveryRequest);
+
+        for (final PackageSelector packageSelector : discoveryRequest.getSelectorsByType(PackageSelector.class)) {
+            try {
+                classFiles.listClassNamesInPackage(packageSelector.getPackageName()).stream()
+                        .filter(classNameFilter)
+                        .forEach(selectedTestClasses::selectClass);
+            } catch (final IOException ex) {
+                logger.warn(ex, () -> "Failed to list classes in package: " + packageSelector.getPackageName());
+            }
+        }
+
+        for (final ClasspathRootSelector classpathRootSelector : discoveryRequest.getSelectorsByType(ClasspathRootSelector.class)) {
+            try {
+                final Path classpathRoot = Paths.get(classpathRootSelector.getClasspathRoot());
+                classFiles.listClassNames(classpathRoot).stream()
+                        .filter(classNameFilter)
+                        .forEach(selectedTestClasses::selectClass);
+            } catch (final IOException | RuntimeException ex) {
+                logger.warn(ex, () -> "Failed to list classes in class path root: " + classpathRootSelector.getClasspathRoot());
+            }
+        }
+
+        for (final ClassSelector classSelector : discoveryRequest.getSelectorsByType(ClassSelector.class)) {
+            selectedTestClasses.selectClass(classSelector.getClassName());
+        }
+
+        for (final MethodSelector methodSelector : discoveryRequest.getSelectorsByType(MethodSelector.class)) {
+            if (!methodSelector.getParameterTypeNames().isEmpty()) {
+                // @EmbulkPluginTest methods never have parameters.
+                logger.debug(() -> "Ignoring a method with parameters: " + methodSelector);
+                continue;
+            }
+            selectedTestClasses.selectMethod(methodSelector.getClassName(), methodSelector.getMethodName());
+        }
+
+        for (final UniqueIdSelector uniqueIdSelector : discoveryRequest.getSelectorsByType(UniqueIdSelector.class)) {
+            selectedTestClasses.selectUniqueId(uniqueIdSelector.getUniqueId(), engineUniqueId);
+        }
+
+        return selectedTestClasses;
+    }
+
+    /**
+     * Returns the binary names of the selected classes in the order of selection.
+     */
+    List<String> getClassNames() {
+        return Collections.unmodifiableList(new ArrayList<>(this.selected.keySet()));
+    }
+
+    /**
+     * Returns {@code true} if the method is selected in the selected class.
+     */
+    boolean isMethodSelected(final String className, final String methodName) {
+        if (!this.selected.containsKey(className)) {
+            return false;
+        }
+        final Set<String> methodNames = this.selected.get(className);
+        return methodNames == null || methodNames.contains(methodName);
+    }
+
+    private void selectClass(final String className) {
+        // null as the value represents that all the test methods in the class are selected.
+        this.selected.put(className, null);
+    }
+
+    private void selectMethod(final String className, final String methodName) {
+        if (this.selected.containsKey(className) && this.selected.get(className) == null) {
+            return;  // Already selected entirely.
+        }
+        this.selected.computeIfAbsent(className, key -> new LinkedHashSet<>()).add(methodName);
+    }
+
+    private void selectUniqueId(final UniqueId uniqueId, final UniqueId engineUniqueId) {
+        if (!uniqueId.hasPrefix(engineUniqueId)) {
+            return;  // For another engine.
+        }
+
+        final List<UniqueId.Segment> segments = uniqueId.getSegments();
+        final int engineDepth = engineUniqueId.getSegments().size();
+        if (segments.size() == engineDepth) {
+            // Test classes cannot be enumerated only from the engine's unique ID.
+            logger.debug(() -> "Ignoring the engine's unique ID: " + uniqueId);
+        } else if (segments.size() == engineDepth + 1 && CLASS_SEGMENT_TYPE.equals(segments.get(engineDepth).getType())) {
+            this.selectClass(segments.get(engineDepth).getValue());
+        } else if (segments.size() == engineDepth + 2
+                && CLASS_SEGMENT_TYPE.equals(segments.get(engineDepth).getType())
+                && METHOD_SEGMENT_TYPE.equals(segments.get(engineDepth + 1).getType())) {
+            this.selectMethod(segments.get(engineDepth).getValue(), segments.get(engineDepth + 1).getValue());
+        } else {
+            logger.warn(() -> "Ignoring an unresolvable unique ID: " + uniqueId);
+        }
+    }
+
+    private static Predicate<String> classNameFilterOf(final EngineDiscoveryRequest discoveryRequest) {
+        final ArrayList<DiscoveryFilter<String>> filters = new ArrayList<>();
+        filters.addAll(discoveryRequest.getFiltersByType(ClassNameFilter.class));
+        filters.addAll(discoveryRequest.getFiltersByType(PackageNameFilter.class));
+        return Filter.composeFilters(filters).toPredicate();
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(SelectedTestClasses.class);
+
+    static final String CLASS_SEGMENT_TYPE = "class";
+
+    static final String METHOD_SEGMENT_TYPE = "method";
+
+    private final LinkedHashMap<String, Set<String>> selected;
+}
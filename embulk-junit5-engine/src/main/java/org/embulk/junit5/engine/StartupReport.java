@@ -0,0 +1,221 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+
+/**
+ * Reports how long the JVM took to start, with or without a dynamic class data sharing (CDS) archive.
+ *
+ * <p>The archive is given to the JVM by the build, such as the {@code embulkTest} task, with
+ * {@code -XX:SharedArchiveFile}, {@code -XX:ArchiveClassesAtExit}, or {@code -XX:+AutoCreateSharedArchive}. The JVM is
+ * "archived" if it has mapped an archive which existed before the JVM started, or "unarchived" otherwise, including a
+ * training run which dumps the archive at its exit.
+ *
+ * <p>The uptime of the JVM at the engine construction, the uptime at the end of the execution, and the number of
+ * loaded classes are saved into a report file for each of them, and compared with the last one of the other. The
+ * report file is a properties file replaced atomically. Forked workers do not report.
+ */
+final class StartupReport {
+    private StartupReport(final Path reportFile, final long startupMillis, final long startupLoadedClasses) {
+        this.reportFile = reportFile;
+        this.startupMillis = startupMillis;
+        this.startupLoadedClasses = startupLoadedClasses;
+    }
+
+    /**
+     * Describes the class data sharing of this JVM, and the uptime, to be logged at the engine construction.
+     */
+    static String describeJvmStartup(final long startupMillis) {
+        return String.format("JVM started %d ms before EmbulkPluginTestEngine with class data sharing: %s.", startupMillis, describeSharing());
+    }
+
+    static StartupReport of(final Path reportFile, final long startupMillis, final long startupLoadedClasses) {
+        return new StartupReport(reportFile, startupMillis, startupLoadedClasses);
+    }
+
+    /**
+     * Saves the startup of this JVM into the report file, and logs the difference from the last JVM of the other kind.
+     *
+     * <p>It never throws. A failure is just logged because the report is only informational.
+     */
+    void save() {
+        final boolean archived = isArchiveMapped();
+        final String kind = archived ? ARCHIVED : UNARCHIVED;
+        final String other = archived ? UNARCHIVED : ARCHIVED;
+        final long totalMillis = RUNTIME.getUptime();
+
+        Path temporaryFile = null;
+        try {
+            final Properties report = new Properties();
+            try (final InputStream in = Files.newInputStream(this.reportFile)) {
+                report.load(in);
+            } catch (final NoSuchFileException ex) {
+                // The first report.
+            } catch (final IOException | IllegalArgumentException ex) {
+                logger.debug(ex, () -> "Overwriting the broken startup report: " + this.reportFile);
+                report.clear();
+            }
+
+            final long otherStartupMillis = parseLong(report.getProperty(other + ".startupMillis"));
+            final long otherTotalMillis = parseLong(report.getProperty(other + ".totalMillis"));
+            final long otherLoadedClasses = parseLong(report.getProperty(other + ".startupLoadedClasses"));
+            if (otherStartupMillis >= 0 && otherTotalMillis >= 0) {
+                final long archivedStartup = archived ? this.startupMillis : otherStartupMillis;
+                final long unarchivedStartup = archived ? otherStartupMillis : this.startupMillis;
+                final long archivedTotal = archived ? totalMillis : otherTotalMillis;
+                final long unarchivedTotal = archived ? otherTotalMillis : totalMillis;
+                logger.info(() -> String.format(
+                        "JVM startup with the CDS archive: %d ms to the engine (%+d ms), %d ms to the end of the execution (%+d ms), "
+                                + "compared with %d ms and %d ms without it. %d class(es) were loaded at the engine construction (%d without it).",
+                        archivedStartup, archivedStartup - unarchivedStartup, archivedTotal, archivedTotal - unarchivedTotal,
+                        unarchivedStartup, unarchivedTotal,
+                        archived ? this.startupLoadedClasses : otherLoadedClasses, archived ? otherLoadedClasses : this.startupLoadedClasses));
+            } else {
+                logger.info(() -> String.format(
+                        "JVM startup %s the CDS archive: %d ms to the engine, %d ms to the end of the execution. "
+                                + "No run %s it has been reported to compare with.",
+                        archived ? "with" : "without", this.startupMillis, totalMillis, archived ? "without" : "with"));
+            }
+
+            report.setProperty(kind + ".startupMillis", Long.toString(this.startupMillis));
+            report.setProperty(kind + ".totalMillis", Long.toString(totalMillis));
+            report.setProperty(kind + ".startupLoadedClasses", Long.toString(this.startupLoadedClasses));
+            report.setProperty(kind + ".sharing", describeSharing());
+
+            final Path directory = this.reportFile.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            temporaryFile = Files.createTempFile(directory, this.reportFile.getFileName().toString(), ".tmp");
+            try (final OutputStream out = Files.newOutputStream(temporaryFile)) {
+                report.store(out, "JVM startup of embulk-junit5-engine");
+            }
+            try {
+                Files.move(temporaryFile, this.reportFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException ex) {
+                Files.move(temporaryFile, this.reportFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temporaryFile = null;
+        } catch (final IOException | RuntimeException ex) {
+            logger.warn(ex, () -> "Failed to save the startup report: " + this.reportFile);
+        } finally {
+            if (temporaryFile != null) {
+                try {
+                    Files.deleteIfExists(temporaryFile);
+                } catch (final IOException ex) {
+                    // Ignored.
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if this JVM has mapped a dynamic archive which existed before the JVM started.
+     */
+    private static boolean isArchiveMapped() {
+        final String archive = sharedArchiveFile();
+        if (archive == null || !isSharing() || isDumping()) {
+            return false;
+        }
+        try {
+            // With -XX:+AutoCreateSharedArchive, the archive is (re-)created at exit if it was missing or unusable.
+            return Files.getLastModifiedTime(Paths.get(archive)).toMillis() < RUNTIME.getStartTime();
+        } catch (final IOException | RuntimeException ex) {
+            return false;
+        }
+    }
+
+    private static String describeSharing() {
+        if (!isSharing()) {
+            return "off";
+        }
+        if (isDumping()) {
+            return "training, dumping into a dynamic archive at exit";
+        }
+        final String archive = sharedArchiveFile();
+        if (archive == null) {
+            return "the default JDK archive only";
+        }
+        return isArchiveMapped() ? "the dynamic archive " + archive : "training, dumping into the dynamic archive " + archive + " at exit";
+    }
+
+    private static boolean isSharing() {
+        // HotSpot reports "sharing" in "java.vm.info", e.g. "mixed mode, sharing", if class data sharing is enabled.
+        final String vmInfo = System.getProperty("java.vm.info", "");
+        return vmInfo.contains("sharing");
+    }
+
+    private static boolean isDumping() {
+        for (final String argument : JVM_ARGUMENTS) {
+            if (argument.startsWith("-XX:ArchiveClassesAtExit=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String sharedArchiveFile() {
+        for (final String argument : JVM_ARGUMENTS) {
+            if (argument.startsWith(SHARED_ARCHIVE_FILE_OPTION)) {
+                return argument.substring(SHARED_ARCHIVE_FILE_OPTION.length());
+            }
+        }
+        return null;
+    }
+
+    private static long parseLong(final String value) {
+        if (value == null) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException ex) {
+            return -1L;
+        }
+    }
+
+    static final String SHARED_ARCHIVE_FILE_OPTION = "-XX:SharedArchiveFile=";
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupReport.class);
+
+    private static final RuntimeMXBean RUNTIME = ManagementFactory.getRuntimeMXBean();
+
+    private static final List<String> JVM_ARGUMENTS = RUNTIME.getInputArguments();
+
+    private static final String ARCHIVED = "archived";
+
+    private static final String UNARCHIVED = "unarchived";
+
+    private final Path reportFile;
+
+    private final long startupMillis;
+
+    private final long startupLoadedClasses;
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock on a file which the engine keeps across runs, to read, merge, and write it without losing updates.
+ *
+ * <p>It locks the sibling lock file {@code <name>.lock}, not the file itself, because the file is replaced atomically
+ * with a new one by {@link #replace}. The lock file is kept. A {@link FileLock} is held on behalf of the JVM, so that
+ * threads in the JVM are serialized by their own lock in addition.
+ */
+final class StateFileLock implements AutoCloseable {
+    private StateFileLock(final Path file, final ReentrantLock jvmLock, final FileChannel channel, final FileLock fileLock) {
+        this.file = file;
+        this.jvmLock = jvmLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Acquires the lock of the file, waiting for other threads and other processes which hold it.
+     */
+    static StateFileLock acquire(final Path file) throws IOException {
+        final Path lockFile = file.toAbsolutePath().normalize().resolveSibling(file.getFileName().toString() + ".lock");
+        final ReentrantLock jvmLock = JVM_LOCKS.computeIfAbsent(lockFile, key -> new ReentrantLock());
+        jvmLock.lock();
+        try {
+            Files.createDirectories(lockFile.getParent());
+            final FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                return new StateFileLock(file, jvmLock, channel, channel.lock());
+            } catch (final IOException | RuntimeException | Error ex) {
+                channel.close();
+                throw ex;
+            }
+        } catch (final IOException | RuntimeException | Error ex) {
+            jvmLock.unlock();
+            throw ex;
+        }
+    }
+
+    /**
+     * Replaces the content of the locked file atomically, through a temporary file in the same directory.
+     *
+     * <p>Readers without the lock see either the old content or the new content, never a partially written one.
+     */
+    void replace(final byte[] content) throws IOException {
+        final Path directory = this.file.toAbsolutePath().getParent();
+        final Path temporaryFile = Files.createTempFile(directory, this.file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporaryFile, content);
+            try {
+                Files.move(temporaryFile, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException ex) {
+                Files.move(temporaryFile, this.file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.fileLock.release();
+        } finally {
+            try {
+                this.channel.close();
+            } finally {
+                this.jvmLock.unlock();
+            }
+        }
+    }
+
+    private static final ConcurrentHashMap<Path, ReentrantLock> JVM_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path file;
+
+    private final ReentrantLock jvmLock;
+
+    private final FileChannel channel;
+
+    private final FileLock fileLock;
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+import org.junit.platform.engine.TestDescriptor;
+
+/**
+ * Persistent history of the durations and the outcomes of test classes and test methods, to order them for fast feedback.
+ *
+ * <p>Each entry records the duration of a test class or a test method by its unique ID, smoothed over runs, and
+ * whether it failed in its last run. The history also records when the last run started. At discovery, the test
+ * classes are ordered:
+ *
+ * <ol>
+ * <li>the classes which have tests failed in the last run, so that a re-run after a fix gives its signal first,
+ * <li>the classes whose class files are newer than the last run,
+ * <li>and the rest.
+ * </ol>
+ *
+ * <p>In each group, the classes are ordered longest-first, so that a slow class does not start last and stretch
+ * the whole run with parallel or forked execution. Classes without history keep the discovery order, and run before
+ * the others in the group as they may be long. The test methods in a class are ordered in the same way, failed-first
+ * and then longest-first.
+ *
+ * <p>The history file is saved in the same way as {@link DiscoveryIndex}: replaced atomically, merged with entries
+ * written by other workers in the meantime under {@link StateFileLock}, and just ignored if corrupt. It is thread-safe.
+ */
+final class TestHistory {
+    private TestHistory(final Path historyFile, final Map<String, Entry> entries, final long lastRunMillis) {
+        this.historyFile = historyFile;
+        this.entries = new ConcurrentHashMap<>(entries);
+        this.updatedEntries = new ConcurrentHashMap<>();
+        this.lastRunMillis = lastRunMillis;
+        this.runStartMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Loads the history file, or starts with an empty history if it does not exist, or if it is broken.
+     */
+    static TestHistory load(final Path historyFile) {
+        History history;
+        try {
+            history = readHistory(historyFile);
+        } catch (final IOException | RuntimeException ex) {
+            logger.warn(ex, () -> "The test history is unreadable or broken. Starting without history: " + historyFile);
+            history = History.EMPTY;
+        }
+        final int loaded = history.entries.size();
+        logger.info(() -> "Loaded " + loaded + " entries from the test history " + historyFile + ".");
+        return new TestHistory(historyFile, history.entries, history.lastRunMillis);
+    }
+
+    /**
+     * Returns when the last run started in milliseconds since the epoch, or {@code 0} if unknown.
+     */
+    long getLastRunMillis() {
+        return this.lastRunMillis;
+    }
+
+    /**
+     * Returns the duration of the test in nanoseconds from the history, or {@code -1} if unknown.
+     */
+    long getDurationNanos(final TestDescriptor testDescriptor) {
+        final Entry entry = this.entries.get(testDescriptor.getUniqueId().toString());
+        return entry == null ? -1L : entry.durationNanos;
+    }
+
+    /**
+     * Returns {@code true} if the test, or any test in the test container, failed in its last run.
+     */
+    boolean hasFailed(final TestDescriptor testDescriptor) {
+        final Entry entry = this.entries.get(testDescriptor.getUniqueId().toString());
+        if (entry != null && entry.failed) {
+            return true;
+        }
+        for (final TestDescriptor child : testDescriptor.getChildren()) {
+            if (this.hasFailed(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the duration of the test in this run, smoothed with the duration in the history, and its outcome.
+     *
+     * @param testDescriptor  the test, or the test container
+     * @param durationNanos  the duration in this run
+     * @param failed  {@code true} if the test failed, always {@code false} for a test container
+     */
+    void record(final TestDescriptor testDescriptor, final long durationNanos, final boolean failed) {
+        final String uniqueId = testDescriptor.getUniqueId().toString();
+        final Entry previous = this.entries.get(uniqueId);
+        final long smoothed = previous == null ? durationNanos : (previous.durationNanos + durationNanos) / 2;
+        final Entry entry = new Entry(smoothed, failed);
+        this.entries.put(uniqueId, entry);
+        this.updatedEntries.put(uniqueId, entry);
+    }
+
+    /**
+     * Orders the test classes under the engine descriptor, and the tests in them, for fast feedback.
+     *
+     * @param engineDescriptor  the engine descriptor
+     * @param changed  tells whether the class file of a test class is newer than the last run
+     */
+    void order(final TestDescriptor engineDescriptor, final Predicate<TestDescriptor> changed) {
+        for (final TestDescriptor testClass : engineDescriptor.getChildren()) {
+            this.orderChildren(testClass, child -> this.hasFailed(child) ? 0 : 1);
+        }
+        this.orderChildren(engineDescriptor, child -> this.hasFailed(child) ? 0 : (changed.test(child) ? 1 : 2));
+    }
+
+    /**
+     * Orders the children by their groups, and longest-first in each group.
+     *
+     * <p>Children without history come first in their group in their original order.
+     */
+    private void orderChildren(final TestDescriptor parent, final ToIntFunction<TestDescriptor> groupOf) {
+        final ArrayList<TestDescriptor> children = new ArrayList<>(parent.getChildren());
+        if (children.size() < 2) {
+            return;
+        }
+        final HashMap<TestDescriptor, long[]> keys = new HashMap<>();
+        for (final TestDescriptor child : children) {
+            final long duration = this.getDurationNanos(child);
+            keys.put(child, new long[] { groupOf.applyAsInt(child), duration < 0 ? Long.MIN_VALUE : -duration });
+        }
+        final List<TestDescriptor> ordered = new ArrayList<>(children);
+        // List#sort is stable, so that children without history keep their original order.
+        ordered.sort(Comparator.comparingLong((TestDescriptor child) -> keys.get(child)[0])
+                             .thenComparingLong(child -> keys.get(child)[1]));
+        if (ordered.equals(children)) {
+            return;
+        }
+        for (final TestDescriptor child : children) {
+            parent.removeChild(child);
+        }
+        for (final TestDescriptor child : ordered) {
+            parent.addChild(child);
+        }
+    }
+
+    /**
+     * Saves the updated entries into the history file, if any, merged with the entries in the history file at the moment.
+     *
+     * <p>It never throws. A failure is just logged because the history is only for scheduling.
+     */
+    void save() {
+        if (this.updatedEntries.isEmpty()) {
+            return;
+        }
+
+        try (final StateFileLock lock = StateFileLock.acquire(this.historyFile)) {
+            // Entries written by other workers after this history was loaded are kept. Entries updated here win.
+            final HashMap<String, Entry> merged = new HashMap<>();
+            long lastRunMillis = this.runStartMillis;
+            try {
+                final History saved = readHistory(this.historyFile);
+                merged.putAll(saved.entries);
+                lastRunMillis = Math.max(lastRunMillis, saved.lastRunMillis);
+            } catch (final IOException | RuntimeException ex) {
+                logger.debug(ex, () -> "Overwriting the broken test history: " + this.historyFile);
+            }
+            merged.putAll(this.updatedEntries);
+            lock.replace(serialize(new History(merged, lastRunMillis)));
+            logger.info(() -> "Saved " + merged.size() + " entries into the test history " + this.historyFile + ".");
+        } catch (final IOException | RuntimeException ex) {
+            logger.warn(ex, () -> "Failed to save the test history: " + this.historyFile);
+        }
+    }
+
+    private static History readHistory(final Path historyFile) throws IOException {
+        final byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(historyFile);
+        } catch (final NoSuchFileException ex) {
+            return History.EMPTY;
+        }
+        return deserialize(bytes);
+    }
+
+    /**
+     * Serializes a history.
+     *
+     * <p>The format is: the magic number, the format version, the start time of the last run, the number of entries,
+     * the entries, and CRC-32 of all the preceding bytes.
+     */
+    private static byte[] serialize(final History history) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(history.lastRunMillis);
+        out.writeInt(history.entries.size());
+        for (final Map.Entry<String, Entry> entry : history.entries.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue().durationNanos);
+            out.writeBoolean(entry.getValue().failed);
+        }
+        out.flush();
+        out.writeLong(crcOf(bytes.toByteArray()));
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static History deserialize(final byte[] bytes) throws IOException {
+        if (bytes.length < 8 + 8) {
+            throw new IOException("Too short.");
+        }
+        final DataInputStream checksum = new DataInputStream(new ByteArrayInputStream(bytes, bytes.length - 8, 8));
+        final CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length - 8);
+        if (checksum.readLong() != crc32.getValue()) {
+            throw new IOException("Checksum mismatch.");
+        }
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a test history.");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version: " + version);
+        }
+        final long lastRunMillis = in.readLong();
+        final int entriesCount = in.readInt();
+        final HashMap<String, Entry> entries = new HashMap<>();
+        for (int i = 0; i < entriesCount; i++) {
+            final String uniqueId = in.readUTF();
+            final long durationNanos = in.readLong();
+            entries.put(uniqueId, new Entry(durationNanos, in.readBoolean()));
+        }
+        return new History(entries, lastRunMillis);
+    }
+
+    private static long crcOf(final byte[] bytes) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return crc32.getValue();
+    }
+
+    private static final class Entry {
+        Entry(final long durationNanos, final boolean failed) {
+            this.durationNanos = durationNanos;
+            this.failed = failed;
+        }
+
+        private final long durationNanos;
+
+        private final boolean failed;
+    }
+
+    private static final class History {
+        History(final Map<String, Entry> entries, final long lastRunMillis) {
+            this.entries = entries;
+            this.lastRunMillis = lastRunMillis;
+        }
+
+        static final History EMPTY = new History(Collections.emptyMap(), 0L);
+
+        private final Map<String, Entry> entries;
+
+        private final long lastRunMillis;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(TestHistory.class);
+
+    private static final int MAGIC = 0x454a3548;  // "EJ5H"
+
+    private static final int VERSION = 2;  // 2: The outcomes of tests, and the start time of the last run.
+
+    private final Path historyFile;
+
+    private final ConcurrentHashMap<String, Entry> entries;
+
+    private final ConcurrentHashMap<String, Entry> updatedEntries;
+
+    private final long lastRunMillis;
+
+    private final long runStartMillis;
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+import org.junit.platform.engine.TestDescriptor;
+
+/**
+ * Persistent map from test classes to the files in the plugin class path which they depend on, for test impact analysis.
+ *
+ * <p>The files are the class files and the resource files in directories, and the jar files, in the plugin class path.
+ * Each of them is fingerprinted by its size and CRC-32 of its content. Files are hashed in parallel, and large files
+ * are memory-mapped. A fingerprint is reused in the JVM while the size and the last modified time of the file are
+ * unchanged, so that forked workers do not hash the whole plugin class path again for every test class.
+ *
+ * <p>After a test class has run successfully, the classes which its {@code PluginClassLoader} has defined are
+ * looked up among the classes in the plugin class path, and the fingerprints of their files are recorded as the
+ * dependencies of the test class. All the resource files in directories are recorded as its dependencies as well,
+ * because resource lookups cannot be traced without instrumenting {@code PluginClassLoader}. With the shared
+ * {@code PluginClassLoader}, a test class is recorded with all the classes loaded until it finishes. It is a safe
+ * over-approximation. The {@code "per-class"} lifecycle gives the precise dependencies.
+ *
+ * <p>A test class is affected if it has no record, for example if it is new, or if it failed in the last run, or if
+ * any of its dependencies is changed or removed, or if a resource file is added. Changes out of the plugin class path,
+ * such as the engine, Embulk itself, or the JVM, are not detected. Run without the affected-only mode after them.
+ *
+ * <p>The index file is saved in the same way as {@link DiscoveryIndex}: replaced atomically, merged with entries
+ * written by other workers in the meantime under {@link StateFileLock}, and just ignored if corrupt. It is thread-safe.
+ */
+final class TestImpactIndex {
+    private TestImpactIndex(
+            final Path indexFile,
+            final List<Path> classPaths,
+            final Map<String, Map<String, Fingerprint>> dependencies,
+            final Map<String, Fingerprint> fingerprints,
+            final Set<String> resourceFiles) {
+        this.indexFile = indexFile;
+        this.classPaths = classPaths;
+        this.dependencies = new ConcurrentHashMap<>(dependencies);
+        this.fingerprints = fingerprints;
+        this.resourceFiles = resourceFiles;
+        this.recorded = new ConcurrentHashMap<>();
+        this.invalidated = ConcurrentHashMap.newKeySet();
+        this.failed = ConcurrentHashMap.newKeySet();
+        this.filesOfClasses = null;
+    }
+
+    /**
+     * Loads the index file, or starts with an empty index if it does not exist, or if it is broken, and fingerprints
+     * the files in the plugin class path at the moment.
+     */
+    static TestImpactIndex load(final Path indexFile, final List<Path> classPaths) {
+        final long startNanos = System.nanoTime();
+        Map<String, Map<String, Fingerprint>> dependencies;
+        try {
+            dependencies = readDependencies(indexFile);
+        } catch (final IOException | RuntimeException ex) {
+            logger.warn(ex, () -> "The test impact index is unreadable or broken. Running all tests: " + indexFile);
+            dependencies = Collections.emptyMap();
+        }
+
+        final HashSet<String> resourceFiles = new HashSet<>();
+        Map<String, Fingerprint> fingerprints;
+        try {
+            fingerprints = fingerprint(classPaths, resourceFiles);
+        } catch (final IOException | UncheckedIOException ex) {
+            // Without fingerprints, every test class is affected, and nothing is recorded.
+            logger.warn(ex, () -> "Failed to fingerprint the plugin class path. Running all tests.");
+            fingerprints = null;
+            dependencies = Collections.emptyMap();
+        }
+
+        final int loaded = dependencies.size();
+        final int fingerprinted = fingerprints == null ? 0 : fingerprints.size();
+        logger.info(() -> String.format(
+                "Loaded %d test class(es) from the test impact index %s, and fingerprinted %d file(s) in %.3f ms.",
+                loaded, indexFile, fingerprinted, (System.nanoTime() - startNanos) / 1_000_000.0));
+        return new TestImpactIndex(indexFile, classPaths, dependencies, fingerprints, Collections.unmodifiableSet(resourceFiles));
+    }
+
+    /**
+     * Returns {@code true} if the test class needs to run because of changes since it passed last.
+     */
+    boolean isAffected(final String testClassName) {
+        if (this.fingerprints == null) {
+            return true;
+        }
+        final Map<String, Fingerprint> recordedDependencies = this.dependencies.get(testClassName);
+        if (recordedDependencies == null) {
+            return true;
+        }
+        for (final Map.Entry<String, Fingerprint> dependency : recordedDependencies.entrySet()) {
+            if (!dependency.getValue().equals(this.fingerprints.get(dependency.getKey()))) {
+                return true;
+            }
+        }
+        return !recordedDependencies.keySet().containsAll(this.resourceFiles);
+    }
+
+    /**
+     * Removes the test classes which are not affected from the engine descriptor.
+     *
+     * @return the number of the removed test classes
+     */
+    int removeUnaffected(final TestDescriptor engineDescriptor) {
+        final ArrayList<TestDescriptor> unaffected = new ArrayList<>();
+        for (final TestDescriptor child : engineDescriptor.getChildren()) {
+            if (child instanceof ClassTestDescriptor && !this.isAffected(((ClassTestDescriptor) child).getTestClassName())) {
+                unaffected.add(child);
+            }
+        }
+        for (final TestDescriptor testClass : unaffected) {
+            logger.debug(() -> "Not affected: " + testClass.getUniqueId());
+            testClass.removeFromHierarchy();
+        }
+        return unaffected.size();
+    }
+
+    /**
+     * Forgets the dependencies of a test class which is starting, so that it runs again next time unless it is recorded.
+     */
+    void invalidate(final String testClassName) {
+        this.invalidated.add(testClassName);
+        this.recorded.remove(testClassName);
+        this.failed.remove(testClassName);
+    }
+
+    /**
+     * Marks a test class to have a failed test, so that its dependencies are not recorded.
+     */
+    void markFailed(final String testClassName) {
+        this.failed.add(testClassName);
+    }
+
+    /**
+     * Records the dependencies of a test class from the classes defined in its class loader, unless it has failed.
+     *
+     * <p>It must be called before the class loader is released.
+     */
+    void record(final String testClassName, final ClassLoader classLoader) {
+        if (this.fingerprints == null || this.failed.contains(testClassName)) {
+            return;
+        }
+        final Map<String, String> filesOfClasses;
+        try {
+            filesOfClasses = this.getFilesOfClasses();
+        } catch (final IOException | UncheckedIOException ex) {
+            logger.warn(ex, () -> "Failed to list the classes in the plugin class path. Not recording: " + testClassName);
+            return;
+        }
+
+        final HashMap<String, Fingerprint> testClassDependencies = new HashMap<>();
+        for (final Map.Entry<String, String> fileOfClass : filesOfClasses.entrySet()) {
+            final Class<?> loadedClass = LoadedClassFinder.findFrom(classLoader, fileOfClass.getKey());
+            // Classes delegated to the parent class loader are not from the plugin class path.
+            if (loadedClass != null && loadedClass.getClassLoader() == classLoader) {
+                this.addDependency(testClassDependencies, fileOfClass.getValue());
+            }
+        }
+        for (final String resourceFile : this.resourceFiles) {
+            this.addDependency(testClassDependencies, resourceFile);
+        }
+        this.recorded.put(testClassName, Collections.unmodifiableMap(testClassDependencies));
+        logger.debug(() -> testClassName + " depends on " + testClassDependencies.size() + " file(s) in the plugin class path.");
+    }
+
+    /**
+     * Saves the recorded test classes into the index file, if any, merged with the entries in the index file at the moment.
+     *
+     * <p>It never throws. A failure is just logged because all tests just run without the index.
+     */
+    void save() {
+        if (this.invalidated.isEmpty() && this.recorded.isEmpty()) {
+            return;
+        }
+
+        try (final StateFileLock lock = StateFileLock.acquire(this.indexFile)) {
+            // Entries written by other workers after this index was loaded are kept. Test classes run here win.
+            final HashMap<String, Map<String, Fingerprint>> merged = new HashMap<>();
+            try {
+                merged.putAll(readDependencies(this.indexFile));
+            } catch (final IOException | RuntimeException ex) {
+                logger.debug(ex, () -> "Overwriting the broken test impact index: " + this.indexFile);
+            }
+            for (final String testClassName : this.invalidated) {
+                merged.remove(testClassName);
+            }
+            merged.putAll(this.recorded);
+            lock.replace(serialize(merged));
+            logger.info(() -> "Saved " + merged.size() + " test class(es) into the test impact index " + this.indexFile + ".");
+        } catch (final IOException | RuntimeException ex) {
+            logger.warn(ex, () -> "Failed to save the test impact index: " + this.indexFile);
+        }
+    }
+
+    private void addDependency(final Map<String, Fingerprint> testClassDependencies, final String file) {
+        final Fingerprint fingerprint = this.fingerprints.get(file);
+        if (fingerprint != null) {
+            testClassDependencies.put(file, fingerprint);
+        }
+    }
+
+    /**
+     * Returns the map from the binary names of the classes in the plugin class path to the files which define them.
+     *
+     * <p>The file is the class file in a directory, or the jar file. The first one wins, as a class loader does.
+     * It is built only once at its first use.
+     */
+    private Map<String, String> getFilesOfClasses() throws IOException {
+        Map<String, String> filesOfClasses = this.filesOfClasses;
+        if (filesOfClasses != null) {
+            return filesOfClasses;
+        }
+        synchronized (this) {
+            if (this.filesOfClasses != null) {
+                return this.filesOfClasses;
+            }
+            final LinkedHashMap<String, String> built = new LinkedHashMap<>();
+            try (final PluginClassFiles classFiles = new PluginClassFiles(this.classPaths)) {
+                for (final Path classPath : this.classPaths) {
+                    final boolean isDirectory = Files.isDirectory(classPath);
+                    for (final String className : classFiles.listClassNames(classPath)) {
+                        built.putIfAbsent(className, isDirectory
+                                ? classPath.resolve(className.replace('.', '/') + ".class").toString()
+                                : classPath.toString());
+                    }
+                }
+            }
+            filesOfClasses = Collections.unmodifiableMap(built);
+            this.filesOfClasses = filesOfClasses;
+            return filesOfClasses;
+        }
+    }
+
+    /**
+     * Fingerprints the files in directories, and the jar files, in the plugin class path, in parallel.
+     *
+     * @param classPaths  the entries of the plugin class path
+     * @param resourceFiles  receives the files in directories which are not class files
+     * @return the fingerprints by the file paths
+     */
+    private static Map<String, Fingerprint> fingerprint(final List<Path> classPaths, final Set<String> resourceFiles) throws IOException {
+        final ArrayList<Path> files = new ArrayList<>();
+        for (final Path classPath : classPaths) {
+            if (Files.isDirectory(classPath)) {
+                try (final Stream<Path> walked = Files.walk(classPath)) {
+                    walked.filter(file -> Files.isRegularFile(file)).forEach(file -> {
+                        files.add(file);
+                        if (!file.getFileName().toString().endsWith(".class")) {
+                            resourceFiles.add(file.toString());
+                        }
+                    });
+                }
+            } else if (Files.isRegularFile(classPath)) {
+                files.add(classPath);
+            }
+        }
+        return Collections.unmodifiableMap(files.parallelStream().collect(Collectors.toMap(
+                Path::toString,
+                file -> {
+                    try {
+                        return fingerprintOf(file);
+                    } catch (final IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                },
+                (first, second) -> first)));
+    }
+
+    private static Fingerprint fingerprintOf(final Path file) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        final String key = file.toString();
+        final Hashed hashed = HASHED.get(key);
+        if (hashed != null && hashed.size == attributes.size() && hashed.lastModified == lastModified) {
+            return hashed.fingerprint;
+        }
+
+        final CRC32 crc32 = new CRC32();
+        final long size;
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            if (size < MAPPING_THRESHOLD) {
+                // Mapping costs more than reading for small files, such as most class files.
+                final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // Read until the end.
+                }
+                buffer.flip();
+                crc32.update(buffer);
+            } else {
+                for (long position = 0; position < size; position += MAPPING_CHUNK_SIZE) {
+                    final MappedByteBuffer mapped = channel.map(
+                            FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPING_CHUNK_SIZE, size - position));
+                    crc32.update(mapped);
+                }
+            }
+        }
+        final Fingerprint fingerprint = new Fingerprint(size, crc32.getValue());
+        HASHED.put(key, new Hashed(attributes.size(), lastModified, fingerprint));
+        return fingerprint;
+    }
+
+    private static Map<String, Map<String, Fingerprint>> readDependencies(final Path indexFile) throws IOException {
+        final byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(indexFile);
+        } catch (final NoSuchFileException ex) {
+            return Collections.emptyMap();
+        }
+        return deserialize(bytes);
+    }
+
+    /**
+     * Serializes the dependencies of test classes.
+     *
+     * <p>The format is: the magic number, the format version, the number of distinct fingerprinted files, the files,
+     * the number of test classes, the test classes with indices to the files, and CRC-32 of all the preceding bytes.
+     * A file is stored only once even if many test classes depend on it.
+     */
+    private static byte[] serialize(final Map<String, Map<String, Fingerprint>> dependencies) throws IOException {
+        final LinkedHashMap<FingerprintedFile, Integer> files = new LinkedHashMap<>();
+        for (final Map<String, Fingerprint> testClassDependencies : dependencies.values()) {
+            for (final Map.Entry<String, Fingerprint> dependency : testClassDependencies.entrySet()) {
+                files.putIfAbsent(new FingerprintedFile(dependency.getKey(), dependency.getValue()), files.size());
+            }
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(files.size());
+        for (final FingerprintedFile file : files.keySet()) {
+            out.writeUTF(file.path);
+            out.writeLong(file.fingerprint.size);
+            out.writeLong(file.fingerprint.crc);
+        }
+        out.writeInt(dependencies.size());
+        for (final Map.Entry<String, Map<String, Fingerprint>> entry : dependencies.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (final Map.Entry<String, Fingerprint> dependency : entry.getValue().entrySet()) {
+                out.writeInt(files.get(new FingerprintedFile(dependency.getKey(), dependency.getValue())));
+            }
+        }
+        out.flush();
+        out.writeLong(crcOf(bytes.toByteArray()));
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, Map<String, Fingerprint>> deserialize(final byte[] bytes) throws IOException {
+        if (bytes.length < 8 + 8) {
+            throw new IOException("Too short.");
+        }
+        final DataInputStream checksum = new DataInputStream(new ByteArrayInputStream(bytes, bytes.length - 8, 8));
+        final CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length - 8);
+        if (checksum.readLong() != crc32.getValue()) {
+            throw new IOException("Checksum mismatch.");
+        }
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a test impact index.");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version: " + version);
+        }
+        final int filesCount = in.readInt();
+        final FingerprintedFile[] files = new FingerprintedFile[filesCount];
+        for (int i = 0; i < filesCount; i++) {
+            final String path = in.readUTF();
+            final long size = in.readLong();
+            files[i] = new FingerprintedFile(path, new Fingerprint(size, in.readLong()));
+        }
+        final int testClassesCount = in.readInt();
+        final HashMap<String, Map<String, Fingerprint>> dependencies = new HashMap<>();
+        for (int i = 0; i < testClassesCount; i++) {
+            final String testClassName = in.readUTF();
+            final int dependenciesCount = in.readInt();
+            final HashMap<String, Fingerprint> testClassDependencies = new HashMap<>();
+            for (int j = 0; j < dependenciesCount; j++) {
+                final FingerprintedFile file = files[in.readInt()];
+                testClassDependencies.put(file.path, file.fingerprint);
+            }
+            dependencies.put(testClassName, Collections.unmodifiableMap(testClassDependencies));
+        }
+        return dependencies;
+    }
+
+    private static long crcOf(final byte[] bytes) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return crc32.getValue();
+    }
+
+    /**
+     * The size and CRC-32 of the content of a file.
+     */
+    private static final class Fingerprint {
+        Fingerprint(final long size, final long crc) {
+            this.size = size;
+            this.crc = crc;
+        }
+
+        @Override
+        public boolean equals(final Object otherObject) {
+            if (!(otherObject instanceof Fingerprint)) {
+                return false;
+            }
+            final Fingerprint other = (Fingerprint) otherObject;
+            return this.size == other.size && this.crc == other.crc;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.size) * 31 + Long.hashCode(this.crc);
+        }
+
+        private final long size;
+
+        private final long crc;
+    }
+
+    private static final class FingerprintedFile {
+        FingerprintedFile(final String path, final Fingerprint fingerprint) {
+            this.path = path;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(final Object otherObject) {
+            if (!(otherObject instanceof FingerprintedFile)) {
+                return false;
+            }
+            final FingerprintedFile other = (FingerprintedFile) otherObject;
+            return this.path.equals(other.path) && this.fingerprint.equals(other.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.path.hashCode() * 31 + this.fingerprint.hashCode();
+        }
+
+        private final String path;
+
+        private final Fingerprint fingerprint;
+    }
+
+    /**
+     * A fingerprint hashed in the JVM, with the size and the last modified time of the file when it was hashed.
+     */
+    private static final class Hashed {
+        Hashed(final long size, final long lastModified, final Fingerprint fingerprint) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+        }
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final Fingerprint fingerprint;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(TestImpactIndex.class);
+
+    private static final int MAGIC = 0x454a3554;  // "EJ5T", not "EJ5I" of DiscoveryIndex
+
+    private static final int VERSION = 1;
+
+    private static final long MAPPING_THRESHOLD = 64L * 1024L;
+
+    private static final long MAPPING_CHUNK_SIZE = 64L * 1024L * 1024L;
+
+    private static final ConcurrentHashMap<String, Hashed> HASHED = new ConcurrentHashMap<>();
+
+    private final Path indexFile;
+
+    private final List<Path> classPaths;
+
+    private final ConcurrentHashMap<String, Map<String, Fingerprint>> dependencies;
+
+    private final Map<String, Fingerprint> fingerprints;  // null if the plugin class path could not be fingerprinted.
+
+    private final Set<String> resourceFiles;
+
+    private final ConcurrentHashMap<String, Map<String, Fingerprint>> recorded;
+
+    private final Set<String> invalidated;
+
+    private final Set<String> failed;
+
+    private volatile Map<String, String> filesOfClasses;
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Invokes a test method through {@link MethodHandle}s resolved once, not at each invocation.
+ *
+ * <p>The handles are resolved by {@link MethodTestDescriptor#resolve} when the test class is loaded at
+ * {@code ClassTestDescriptor#prepare}, in the {@code PluginClassLoader} to run the test. On discovery by reflection,
+ * they are also resolved in the class loader for discovery only to validate the method, and then dropped.
+ *
+ * <p>A new test instance is created for each invocation, as Jupiter does with its default "per-method" lifecycle.
+ * The thread context class loader is switched to the test class's class loader (i.e. {@code PluginClassLoader})
+ * during the invocation, and restored after that.
+ */
+final class TestMethodInvoker {
+    private TestMethodInvoker(final MethodHandle constructorHandle, final MethodHandle methodHandle, final ClassLoader classLoader) {
+        this.constructorHandle = constructorHandle;
+        this.methodHandle = methodHandle;
+        this.classLoader = classLoader;
+    }
+
+    static TestMethodInvoker of(final Class<?> testClass, final Method testMethod)
+            throws IllegalArgumentException, ReflectiveOperationException {
+        if (Modifier.isStatic(testMethod.getModifiers())) {
+            throw new IllegalArgumentException("@EmbulkPluginTest method must not be static: " + testMethod);
+        }
+        if (testMethod.getParameterCount() != 0) {
+            throw new IllegalArgumentException("@EmbulkPluginTest method must not have parameters: " + testMethod);
+        }
+
+        final Constructor<?> constructor = testClass.getDeclaredConstructor();
+        makeAccessible(testClass, constructor);
+        makeAccessible(testClass, testMethod);
+
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final MethodHandle constructorHandle =
+                lookup.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+        final MethodHandle methodHandle =
+                lookup.unreflect(testMethod).asType(MethodType.methodType(void.class, Object.class));
+        return new TestMethodInvoker(constructorHandle, methodHandle, testClass.getClassLoader());
+    }
+
+    void invoke() throws Exception {
+        this.invokeRepeatedly(Invocation::invoke);
+    }
+
+    /**
+     * Invokes the test method as many times as the repetition calls the invocation, on a single test instance.
+     *
+     * <p>The thread context class loader is switched only once for all the invocations.
+     */
+    void invokeRepeatedly(final Repetition repetition) throws Exception {
+        final Thread currentThread = Thread.currentThread();
+        final ClassLoader originalContextClassLoader = currentThread.getContextClassLoader();
+        final boolean switchesContextClassLoader = originalContextClassLoader != this.classLoader;
+        if (switchesContextClassLoader) {
+            currentThread.setContextClassLoader(this.classLoader);
+        }
+        try {
+            final Object testInstance = (Object) this.constructorHandle.invokeExact();
+            final MethodHandle methodHandle = this.methodHandle;
+            repetition.repeat(() -> {
+                methodHandle.invokeExact(testInstance);
+            });
+        } catch (final Exception | Error ex) {
+            throw ex;
+        } catch (final Throwable ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            if (switchesContextClassLoader) {
+                currentThread.setContextClassLoader(originalContextClassLoader);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface Repetition {
+        void repeat(Invocation invocation) throws Throwable;
+    }
+
+    @FunctionalInterface
+    interface Invocation {
+        void invoke() throws Throwable;
+    }
+
+    private static void makeAccessible(final Class<?> testClass, final Executable executable) {
+        if (!Modifier.isPublic(testClass.getModifiers()) || !Modifier.isPublic(executable.getModifiers())) {
+            executable.setAccessible(true);
+        }
+    }
+
+    private final MethodHandle constructorHandle;
+
+    private final MethodHandle methodHandle;
+
+    private final ClassLoader classLoader;
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.embulk.junit5.api.AllocationTracker;
+
+/**
+ * Performance metrics of a test, or a snapshot of the counters to measure them.
+ *
+ * <p>The wall time, the thread CPU time, and the thread allocated bytes are of the thread which runs the test.
+ * The number of classes loaded is of the classes of the plugin class path loaded in the {@code PluginClassLoader} of the
+ * test class, counted by {@link LoadedClassCounter}. It includes classes loaded by other test classes running in parallel
+ * in the same {@code PluginClassLoader}, such as with the {@code "shared"} lifecycle. The GC time is JVM-wide, as its name
+ * {@code jvm*} tells. A metric is {@code -1} if it is unsupported in the JVM, or unavailable.
+ *
+ * <p>All the counters except for the number of classes loaded are read from platform MXBeans without a safepoint.
+ */
+final class TestMetrics {
+    private TestMetrics(
+            final long wallTimeNanos,
+            final long cpuTimeNanos,
+            final long allocatedBytes,
+            final long classesLoaded,
+            final long jvmGcTimeMillis,
+            final LoadedClassCounter loadedClassCounter,
+            final ClassLoader classLoader) {
+        this.wallTimeNanos = wallTimeNanos;
+        this.cpuTimeNanos = cpuTimeNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.classesLoaded = classesLoaded;
+        this.jvmGcTimeMillis = jvmGcTimeMillis;
+        this.loadedClassCounter = loadedClassCounter;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Takes a snapshot of the counters in the current thread, and of the classes loaded in the class loader.
+     *
+     * @param loadedClassCounter  the counter of the classes loaded, or {@code null} not to count them
+     * @param classLoader  the class loader of the test class, or {@code null} if it is not known yet
+     */
+    static TestMetrics snapshot(final LoadedClassCounter loadedClassCounter, final ClassLoader classLoader) {
+        return new TestMetrics(
+                System.nanoTime(),
+                currentThreadCpuTime(),
+                AllocationTracker.currentThreadAllocatedBytes(),
+                countLoadedClasses(loadedClassCounter, classLoader),
+                totalGcTimeMillis(),
+                loadedClassCounter,
+                classLoader);
+    }
+
+    /**
+     * Returns the start snapshot with the classes loaded in the class loader counted from now, which was not known at the start.
+     */
+    TestMetrics countingClassesIn(final ClassLoader classLoader) {
+        return new TestMetrics(
+                this.wallTimeNanos,
+                this.cpuTimeNanos,
+                this.allocatedBytes,
+                countLoadedClasses(this.loadedClassCounter, classLoader),
+                this.jvmGcTimeMillis,
+                this.loadedClassCounter,
+                classLoader);
+    }
+
+    /**
+     * Returns the metrics from the start snapshot to a new snapshot taken in the current thread.
+     */
+    static TestMetrics since(final TestMetrics start) {
+        final TestMetrics end = snapshot(start.loadedClassCounter, start.classLoader);
+        return new TestMetrics(
+                end.wallTimeNanos - start.wallTimeNanos,
+                difference(start.cpuTimeNanos, end.cpuTimeNanos),
+                difference(start.allocatedBytes, end.allocatedBytes),
+                difference(start.classesLoaded, end.classesLoaded),
+                difference(start.jvmGcTimeMillis, end.jvmGcTimeMillis),
+                null,
+                null);
+    }
+
+    /**
+     * Returns the metrics in the order of {@link #KEYS}.
+     */
+    long[] toArray() {
+        return new long[] { this.wallTimeNanos, this.cpuTimeNanos, this.allocatedBytes, this.classesLoaded, this.jvmGcTimeMillis };
+    }
+
+    /**
+     * Returns the metrics as key-values for {@link org.junit.platform.engine.reporting.ReportEntry}.
+     */
+    Map<String, String> toMap() {
+        final LinkedHashMap<String, String> map = new LinkedHashMap<>();
+        final long[] values = this.toArray();
+        for (int i = 0; i < KEYS.length; i++) {
+            map.put(KEYS[i], Long.toString(values[i]));
+        }
+        return map;
+    }
+
+    private static long difference(final long start, final long end) {
+        if (start < 0 || end < 0) {
+            return -1L;
+        }
+        return end - start;
+    }
+
+    private static long countLoadedClasses(final LoadedClassCounter loadedClassCounter, final ClassLoader classLoader) {
+        if (loadedClassCounter == null || classLoader == null) {
+            return -1L;
+        }
+        return loadedClassCounter.count(classLoader);
+    }
+
+    private static long currentThreadCpuTime() {
+        if (!THREAD_CPU_TIME_ENABLED) {
+            return -1L;
+        }
+        return THREAD.getCurrentThreadCpuTime();
+    }
+
+    private static long totalGcTimeMillis() {
+        long total = 0L;
+        for (final GarbageCollectorMXBean garbageCollector : GARBAGE_COLLECTORS) {
+            final long collectionTime = garbageCollector.getCollectionTime();
+            if (collectionTime > 0) {
+                total += collectionTime;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Names of the metrics, which are used as keys of report entries, and as fields of metrics files.
+     */
+    static final String[] KEYS = { "wallTimeNanos", "cpuTimeNanos", "allocatedBytes", "classesLoaded", "jvmGcTimeMillis" };
+
+    private static final ThreadMXBean THREAD = ManagementFactory.getThreadMXBean();
+
+    private static final boolean THREAD_CPU_TIME_ENABLED = THREAD.isCurrentThreadCpuTimeSupported() && THREAD.isThreadCpuTimeEnabled();
+
+    private static final List<GarbageCollectorMXBean> GARBAGE_COLLECTORS = ManagementFactory.getGarbageCollectorMXBeans();
+
+    private final long wallTimeNanos;
+
+    private final long cpuTimeNanos;
+
+    private final long allocatedBytes;
+
+    private final long classesLoaded;
+
+    private final long jvmGcTimeMillis;
+
+    // Only in a start snapshot, to count the classes loaded in the same class loader at the end.
+    private final LoadedClassCounter loadedClassCounter;
+
+    private final ClassLoader classLoader;
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+import org.junit.platform.engine.TestDescriptor;
+
+/**
+ * Appends {@link TestMetrics} of tests to a file, in JSON Lines, or in CSV if the file name ends with {@code ".csv"}.
+ *
+ * <p>Each record is appended with a single write into the file opened in the append mode, so that records from
+ * concurrent test workers are not interleaved. The CSV header is written only when the file is empty, under
+ * {@link StateFileLock} so that only one of concurrent test workers writes it, before any record. It is thread-safe.
+ */
+final class TestMetricsWriter implements AutoCloseable {
+    private TestMetricsWriter(final Path path, final FileChannel channel, final boolean csv) {
+        this.path = path;
+        this.channel = channel;
+        this.csv = csv;
+        this.jvm = ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    static TestMetricsWriter open(final Path path) throws IOException {
+        final Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final FileChannel channel = FileChannel.open(
+                path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        final boolean csv = path.getFileName().toString().endsWith(".csv");
+        final TestMetricsWriter writer = new TestMetricsWriter(path, channel, csv);
+        if (csv) {
+            try {
+                // Other workers append records only after they have opened the file, and seen the header, under the lock.
+                final StateFileLock lock = StateFileLock.acquire(path);
+                try {
+                    if (channel.size() == 0) {
+                        writer.writeLine(csvHeader());
+                    }
+                } finally {
+                    lock.close();
+                }
+            } catch (final IOException | RuntimeException ex) {
+                writer.close();
+                throw ex;
+            }
+        }
+        logger.info(() -> "Writing test metrics into: " + path);
+        return writer;
+    }
+
+    /**
+     * Appends a record of a test.
+     *
+     * @param testDescriptor  the test, or the test container
+     * @param outcome  {@code "successful"} or {@code "failed"} for a test, or {@code null} for a container
+     * @param metrics  the metrics of the test
+     */
+    void write(final TestDescriptor testDescriptor, final String outcome, final TestMetrics metrics) {
+        final String type = testDescriptor.isTest() ? "test" : "container";
+        final String line = this.csv
+                ? this.toCsv(testDescriptor.getUniqueId().toString(), type, outcome, metrics)
+                : this.toJson(testDescriptor.getUniqueId().toString(), type, outcome, metrics);
+        try {
+            this.writeLine(line);
+        } catch (final IOException ex) {
+            logger.warn(ex, () -> "Failed to write test metrics into: " + this.path);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.close();
+        } catch (final IOException ex) {
+            logger.warn(ex, () -> "Failed to close: " + this.path);
+        }
+    }
+
+    private void writeLine(final String line) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        synchronized (this.channel) {
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+        }
+    }
+
+    private String toJson(final String uniqueId, final String type, final String outcome, final TestMetrics metrics) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("{\"uniqueId\":").append(jsonString(uniqueId));
+        builder.append(",\"type\":").append(jsonString(type));
+        if (outcome != null) {
+            builder.append(",\"outcome\":").append(jsonString(outcome));
+        }
+        final long[] values = metrics.toArray();
+        for (int i = 0; i < TestMetrics.KEYS.length; i++) {
+            builder.append(",\"").append(TestMetrics.KEYS[i]).append("\":").append(values[i]);
+        }
+        builder.append(",\"jvm\":").append(jsonString(this.jvm));
+        builder.append(",\"finishedAt\":").append(System.currentTimeMillis());
+        return builder.append('}').toString();
+    }
+
+    private String toCsv(final String uniqueId, final String type, final String outcome, final TestMetrics metrics) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(csvString(uniqueId)).append(',').append(type).append(',').append(outcome == null ? "" : outcome);
+        for (final long value : metrics.toArray()) {
+            builder.append(',').append(value);
+        }
+        builder.append(',').append(csvString(this.jvm));
+        builder.append(',').append(System.currentTimeMillis());
+        return builder.toString();
+    }
+
+    private static String csvHeader() {
+        return "uniqueId,type,outcome," + String.join(",", TestMetrics.KEYS) + ",jvm,finishedAt";
+    }
+
+    private static String jsonString(final String value) {
+        final StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private static String csvString(final String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(TestMetricsWriter.class);
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private final boolean csv;
+
+    private final String jvm;
+}
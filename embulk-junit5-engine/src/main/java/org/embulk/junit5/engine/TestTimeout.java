@@ -0,0 +1,155 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.embulk.junit5.api.EmbulkPluginTest;
+import org.junit.platform.commons.logging.Logger;
+import org.junit.platform.commons.logging.LoggerFactory;
+import org.opentest4j.AssertionFailedError;
+
+/**
+ * Runs a test method in its own thread, so that it is interrupted and abandoned at the deadline.
+ *
+ * <p>The thread is a daemon thread, so that an abandoned test never blocks the JVM from exiting. It inherits the
+ * thread context class loader of the calling thread. On timeout, the test fails with a thread dump of the JVM which
+ * is taken before the thread is interrupted.
+ */
+final class TestTimeout {
+    private TestTimeout(final long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns a timeout of the annotation, or of the default, or {@code null} if the test has no timeout.
+     */
+    static TestTimeout of(final EmbulkPluginTest annotation, final long defaultTimeoutMillis) {
+        final long timeoutMillis = (annotation == null || annotation.timeoutMillis() < 0) ? defaultTimeoutMillis : annotation.timeoutMillis();
+        if (timeoutMillis <= 0) {
+            return null;
+        }
+        return new TestTimeout(timeoutMillis);
+    }
+
+    /**
+     * Runs the body in a new thread, and waits for it until the deadline.
+     *
+     * @throws AssertionFailedError  if the body does not finish by the deadline
+     * @throws Exception  thrown from the body as-is
+     */
+    void run(final String testName, final Body body) throws Exception {
+        final FutureTask<Void> task = new FutureTask<>(() -> {
+            body.run();
+            return null;
+        });
+        final Thread thread = new Thread(task, "embulk-junit5-test-" + NUMBER.getAndIncrement());
+        thread.setDaemon(true);
+        thread.setContextClassLoader(Thread.currentThread().getContextClassLoader());
+        thread.start();
+
+        try {
+            task.get(this.timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (final TimeoutException ex) {
+            final String threadDump = threadDump();
+            thread.interrupt();
+            thread.join(INTERRUPT_GRACE_MILLIS);
+            if (thread.isAlive()) {
+                logger.warn(() -> "Abandoned " + testName + " in " + thread.getName() + ", which did not stop on interrupt.");
+            }
+            throw new AssertionFailedError(String.format(
+                    Locale.ENGLISH, "%s timed out after %,d ms in %s.%n%nFull thread dump:%n%s",
+                    testName, this.timeoutMillis, thread.getName(), threadDump));
+        } catch (final InterruptedException ex) {
+            thread.interrupt();
+            throw ex;
+        }
+    }
+
+    @FunctionalInterface
+    interface Body {
+        void run() throws Exception;
+    }
+
+    /**
+     * Returns a thread dump of all the threads in the JVM, with their full stack traces unlike {@link ThreadInfo#toString}.
+     */
+    static String threadDump() {
+        final ThreadMXBean thread = ManagementFactory.getThreadMXBean();
+        final StringBuilder builder = new StringBuilder();
+        for (final ThreadInfo info : thread.dumpAllThreads(thread.isObjectMonitorUsageSupported(), thread.isSynchronizerUsageSupported())) {
+            if (info == null) {
+                continue;
+            }
+            builder.append('"').append(info.getThreadName()).append("\" id=").append(info.getThreadId())
+                    .append(' ').append(info.getThreadState());
+            if (info.getLockName() != null) {
+                builder.append(" on ").append(info.getLockName());
+            }
+            if (info.getLockOwnerName() != null) {
+                builder.append(" owned by \"").append(info.getLockOwnerName()).append("\" id=").append(info.getLockOwnerId());
+            }
+            builder.append(System.lineSeparator());
+
+            final StackTraceElement[] stackTrace = info.getStackTrace();
+            final MonitorInfo[] lockedMonitors = info.getLockedMonitors();
+            for (int depth = 0; depth < stackTrace.length; depth++) {
+                builder.append("\tat ").append(stackTrace[depth]).append(System.lineSeparator());
+                for (final MonitorInfo monitor : lockedMonitors) {
+                    if (monitor.getLockedStackDepth() == depth) {
+                        builder.append("\t- locked ").append(monitor).append(System.lineSeparator());
+                    }
+                }
+            }
+            final LockInfo[] lockedSynchronizers = info.getLockedSynchronizers();
+            if (lockedSynchronizers.length > 0) {
+                builder.append("\tLocked synchronizers:").append(System.lineSeparator());
+                for (final LockInfo synchronizer : lockedSynchronizers) {
+                    builder.append("\t- ").append(synchronizer).append(System.lineSeparator());
+                }
+            }
+            builder.append(System.lineSeparator());
+        }
+        return builder.toString();
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(TestTimeout.class);
+
+    private static final long INTERRUPT_GRACE_MILLIS = 1000L;
+
+    private static final AtomicInteger NUMBER = new AtomicInteger(0);
+
+    private final long timeoutMillis;
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.engine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.junit.platform.engine.UniqueId;
+
+/**
+ * Emits the engine's own events to JDK Flight Recorder.
+ *
+ * <p>It is loaded reflectively by {@link EngineEvents} only on Java 11 or later. An event object is returned only when
+ * its event type is enabled in Flight Recorder. Otherwise, a shared no-op is returned.
+ */
+final class FlightRecorderEngineEvents extends EngineEvents {
+    @Override
+    Timed beginEngineConstruction() {
+        final EngineConstructionEvent event = new EngineConstructionEvent();
+        if (!event.isEnabled()) {
+            return NO_OP_TIMED;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    Discovery beginDiscovery() {
+        final DiscoveryEvent event = new DiscoveryEvent();
+        if (!event.isEnabled()) {
+            return NO_OP_DISCOVERY;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    Timed beginPluginClassLoaderCreation(final String lifecycle) {
+        final PluginClassLoaderCreationEvent event = new PluginClassLoaderCreationEvent();
+        if (!event.isEnabled()) {
+            return NO_OP_TIMED;
+        }
+        event.lifecycle = lifecycle;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    ClassLoad beginClassLoad(final String className) {
+        final ClassLoadEvent event = new ClassLoadEvent();
+        if (!event.isEnabled()) {
+            return NO_OP_CLASS_LOAD;
+        }
+        event.className = className;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    Timed beginClassPrepare(final UniqueId uniqueId, final String className) {
+        final ClassPrepareEvent event = new ClassPrepareEvent();
+        if (!event.isEnabled()) {
+            return NO_OP_TIMED;
+        }
+        event.uniqueId = uniqueId.toString();
+        event.className = className;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    Timed beginClassCleanUp(final UniqueId uniqueId, final String className) {
+        final ClassCleanUpEvent event = new ClassCleanUpEvent();
+        if (!event.isEnabled()) {
+            return NO_OP_TIMED;
+        }
+        event.uniqueId = uniqueId.toString();
+        event.className = className;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    MethodExecution beginMethodExecution(final UniqueId uniqueId, final String className, final String methodName) {
+        final MethodExecutionEvent event = new MethodExecutionEvent();
+        if (!event.isEnabled()) {
+            return NO_OP_METHOD_EXECUTION;
+        }
+        event.uniqueId = uniqueId.toString();
+        event.className = className;
+        event.methodName = methodName;
+        event.begin();
+        return event;
+    }
+
+    @Name("org.embulk.junit5.EngineConstruction")
+    @Label("Engine Construction")
+    @Description("Construction of EmbulkPluginTestEngine")
+    @Category({"Embulk", "JUnit 5"})
+    @StackTrace(false)
+    static final class EngineConstructionEvent extends Event implements Timed {
+        @Override
+        public void finish() {
+            this.commit();
+        }
+    }
+
+    @Name("org.embulk.junit5.Discovery")
+    @Label("Test Discovery")
+    @Description("Discovery of @EmbulkPluginTest methods")
+    @Category({"Embulk", "JUnit 5"})
+    @StackTrace(false)
+    static final class DiscoveryEvent extends Event implements Discovery {
+        @Override
+        public void finish(final int testClasses, final int tests) {
+            this.testClasses = testClasses;
+            this.tests = tests;
+            this.commit();
+        }
+
+        @Label("Test Classes")
+        int testClasses;
+
+        @Label("Tests")
+        int tests;
+    }
+
+    @Name("org.embulk.junit5.PluginClassLoaderCreation")
+    @Label("PluginClassLoader Creation")
+    @Description("Creation of a PluginClassLoader to load test classes in")
+    @Category({"Embulk", "JUnit 5"})
+    @StackTrace(false)
+    static final class PluginClassLoaderCreationEvent extends Event implements Timed {
+        @Override
+        public void finish() {
+            this.commit();
+        }
+
+        @Label("Lifecycle")
+        String lifecycle;
+    }
+
+    @Name("org.embulk.junit5.ClassLoad")
+    @Label("Test Class Load")
+    @Description("Look-up or loading of a test class in a PluginClassLoader")
+    @Category({"Embulk", "JUnit 5"})
+    @StackTrace(false)
+    static final class ClassLoadEvent extends Event implements ClassLoad {
+        @Override
+        public void finish(final boolean alreadyLoaded) {
+            this.alreadyLoaded = alreadyLoaded;
+            this.commit();
+        }
+
+        @Label("Class Name")
+        String className;
+
+        @Label("Already Loaded")
+        @Description("True if the class was found already loaded in the PluginClassLoader")
+        boolean alreadyLoaded;
+    }
+
+    @Name("org.embulk.junit5.ClassPrepare")
+    @Label("Test Class Prepare")
+    @Category({"Embulk", "JUnit 5"})
+    @StackTrace(false)
+    static final class ClassPrepareEvent extends Event implements Timed {
+        @Override
+        public void finish() {
+            this.commit();
+        }
+
+        @Label("Unique ID")
+        String uniqueId;
+
+        @Label("Class Name")
+        String className;
+    }
+
+    @Name("org.embulk.junit5.ClassCleanUp")
+    @Label("Test Class Clean-up")
+    @Category({"Embulk", "JUnit 5"})
+    @StackTrace(false)
+    static final class ClassCleanUpEvent extends Event implements Timed {
+        @Override
+        public void finish() {
+            this.commit();
+        }
+
+        @Label("Unique ID")
+        String uniqueId;
+
+        @Label("Class Name")
+        String className;
+    }
+
+    @Name("org.embulk.junit5.MethodExecution")
+    @Label("Test Method Execution")
+    @Category({"Embulk", "JUnit 5"})
+    @StackTrace(false)
+    static final class MethodExecutionEvent extends Event implements MethodExecution {
+        @Override
+        public void finish(final boolean successful) {
+            this.successful = successful;
+            this.commit();
+        }
+
+        @Label("Unique ID")
+        String uniqueId;
+
+        @Label("Class Name")
+        String className;
+
+        @Label("Method Name")
+        String methodName;
+
+        @Label("Successful")
+        boolean successful;
+    }
+}
@@ -0,0 +1,109 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectMethod;
+
+import org.embulk.junit5.api.AllocationTracker;
+import org.embulk.junit5.api.EmbulkPluginTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.testkit.engine.EngineTestKit;
+import org.junit.platform.testkit.engine.Events;
+
+public class TestAllocationBudget {
+    @BeforeEach
+    public void assumeAllocationCounter() {
+        assumeTrue(AllocationTracker.currentThreadAllocatedBytes() >= 0, "The thread allocation counter is unsupported in the JVM.");
+    }
+
+    @Test
+    public void testWithinBudget() {
+        execute("testWithinBudget").assertStatistics(stats -> stats.started(1).succeeded(1));
+    }
+
+    @Test
+    public void testOverBudget() {
+        final String message = failureMessageOf("testOverBudget");
+        assertTrue(message.startsWith("Allocated "), message);
+        assertTrue(message.contains(" bytes, over the budget of 1,024 bytes."), message);
+        assertTrue(message.contains("  in the test thread:     "), message);
+        assertTrue(message.contains("  in 0 spawned threads: 0 bytes"), message);
+        assertTrue(message.contains("  total:                  "), message);
+        assertTrue(message.contains("  rows reported:          0"), message);
+    }
+
+    @Test
+    public void testOverBudgetInSpawnedThread() {
+        final String message = failureMessageOf("testOverBudgetInSpawnedThread");
+        assertTrue(message.contains(" bytes, over the budget of 262,144 bytes."), message);
+        assertTrue(message.contains("  in 1 spawned threads: "), message);
+        assertTrue(message.contains("  rows reported:          0"), message);
+    }
+
+    @Test
+    public void testOverBudgetPerRow() {
+        final String message = failureMessageOf("testOverBudgetPerRow");
+        assertTrue(message.contains(" bytes per row, over the budget of 1,024 bytes per row."), message);
+        assertTrue(message.contains("  rows reported:          2"), message);
+    }
+
+    @Test
+    public void testNoRowsReported() {
+        final String message = failureMessageOf("testNoRowsReported");
+        assertTrue(message.startsWith("No rows were reported by harnesses to check the budget of 1,024 bytes per row."), message);
+        assertTrue(message.contains("  rows reported:          0"), message);
+    }
+
+    private static Events execute(final String methodName) {
+        return EngineTestKit.engine(new EmbulkPluginTestEngine())
+                .selectors(selectMethod(Fixtures.class, methodName))
+                .execute()
+                .testEvents();
+    }
+
+    private static String failureMessageOf(final String methodName) {
+        final Events events = execute(methodName);
+        events.assertStatistics(stats -> stats.started(1).failed(1));
+        return events.failed().list().get(0).getRequiredPayload(TestExecutionResult.class).getThrowable().get().getMessage();
+    }
+
+    // Not run by Jupiter. Run by the engine with EngineTestKit.
+    public static final class Fixtures {
+        @EmbulkPluginTest(maxAllocatedBytes = 1L << 30)
+        public void testWithinBudget() {
+            sink = new byte[1 << 20];
+        }
+
+        @EmbulkPluginTest(maxAllocatedBytes = 1024L)
+        public void testOverBudget() {
+            sink = new byte[1 << 20];
+        }
+
+        @EmbulkPluginTest(maxAllocatedBytes = 1L << 18)
+        public void testOverBudgetInSpawnedThread() throws InterruptedException {
+            // The test thread itself allocates far less than the budget.
+            final Thread thread = new Thread(() -> {
+                sink = new byte[1 << 20];
+                AllocationTracker.reportSpawnedThread(AllocationTracker.currentThreadAllocatedBytes());
+            });
+            thread.start();
+            thread.join();
+        }
+
+        @EmbulkPluginTest(maxAllocatedBytesPerRow = 1024L)
+        public void testOverBudgetPerRow() {
+            sink = new byte[1 << 20];
+            AllocationTracker.reportRows(2L);
+        }
+
+        @EmbulkPluginTest(maxAllocatedBytesPerRow = 1024L)
+        public void testNoRowsReported() {
+            sink = new byte[1 << 10];
+        }
+
+        // Not to let the allocations be optimized away.
+        static volatile byte[] sink;
+    }
+}
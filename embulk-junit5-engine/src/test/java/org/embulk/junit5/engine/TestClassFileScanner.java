@@ -0,0 +1,150 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.Collections;
+import org.embulk.junit5.api.EmbulkPluginBenchmark;
+import org.embulk.junit5.api.EmbulkPluginTest;
+import org.junit.jupiter.api.Test;
+
+public class TestClassFileScanner {
+    @Test
+    public void testScan() throws IOException {
+        final ClassFileScanner.ScannedClass scanned = ClassFileScanner.scan(classFileOf(Fixture.class));
+        assertEquals(Fixture.class.getName(), scanned.getClassName());
+        assertEquals(Arrays.asList("testPlain", "testWithOtherAnnotations", "benchmarkPlain"), scanned.getTestMethodNames());
+    }
+
+    @Test
+    public void testNoTestMethods() throws IOException {
+        final ClassFileScanner.ScannedClass scanned = ClassFileScanner.scan(classFileOf(TestClassFileScanner.class));
+        assertEquals(TestClassFileScanner.class.getName(), scanned.getClassName());
+        assertTrue(scanned.getTestMethodNames().isEmpty());
+    }
+
+    @Test
+    public void testConstructors() throws IOException {
+        assertEquals(
+                Collections.singletonList("testPlain"),
+                ClassFileScanner.scan(classFileOf(PrivateConstructorFixture.class)).getTestMethodNames());
+
+        // They are skipped as discovery by reflection skips them, not to fail the whole class at its execution.
+        assertTrue(ClassFileScanner.scan(classFileOf(ParameterizedConstructorFixture.class)).getTestMethodNames().isEmpty());
+        assertTrue(ClassFileScanner.scan(classFileOf(InnerFixture.class)).getTestMethodNames().isEmpty());
+    }
+
+    @Test
+    public void testNotClassFile() {
+        assertThrows(IOException.class, () -> ClassFileScanner.scan(new byte[] { 'P', 'K', 3, 4, 0, 0, 0, 0 }));
+    }
+
+    @Test
+    public void testUnknownConstantPoolTag() {
+        final byte[] classFile = new byte[] {
+            (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE,
+            0, 0, 0, 52,  // minor_version, major_version
+            0, 2,  // constant_pool_count
+            99,  // An unknown tag
+        };
+        assertThrows(IOException.class, () -> ClassFileScanner.scan(classFile));
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        final byte[] classFile = classFileOf(Fixture.class);
+        for (final int length : new int[] { 0, 3, 9, classFile.length / 4, classFile.length / 2 }) {
+            assertThrows(IOException.class, () -> ClassFileScanner.scan(Arrays.copyOf(classFile, length)), "length: " + length);
+        }
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Elements {
+        ElementType type();
+
+        String[] names();
+
+        Class<?> clazz();
+
+        Retention nested();
+    }
+
+    // Not run: ClassFileScanner only reads its class file.
+    public static final class Fixture {
+        @EmbulkPluginTest
+        public void testPlain() {
+        }
+
+        @Deprecated
+        @Elements(type = ElementType.METHOD, names = { "a", "b" }, clazz = String.class, nested = @Retention(RetentionPolicy.CLASS))
+        @EmbulkPluginTest(timeoutMillis = 1000L, sharedExecSession = false)
+        public void testWithOtherAnnotations() {
+        }
+
+        @EmbulkPluginBenchmark(warmupIterations = 1)
+        public void benchmarkPlain() {
+        }
+
+        @EmbulkPluginTest
+        public static void testStatic() {
+        }
+
+        @EmbulkPluginTest
+        public void testWithParameter(final int parameter) {
+        }
+
+        @Elements(type = ElementType.FIELD, names = {}, clazz = long.class, nested = @Retention(RetentionPolicy.SOURCE))
+        public void notTest() {
+        }
+
+        @Deprecated
+        private final double doubleField = 1.5;
+
+        private static final long LONG_CONSTANT = 1L << 40;  // Takes two entries in the constant pool.
+    }
+
+    public static final class PrivateConstructorFixture {
+        private PrivateConstructorFixture() {
+        }
+
+        @EmbulkPluginTest
+        public void testPlain() {
+        }
+    }
+
+    public static final class ParameterizedConstructorFixture {
+        public ParameterizedConstructorFixture(final String parameter) {
+        }
+
+        @EmbulkPluginTest
+        public void testPlain() {
+        }
+    }
+
+    // Its constructor takes the enclosing instance.
+    public final class InnerFixture {
+        @EmbulkPluginTest
+        public void testPlain() {
+        }
+    }
+
+    private static byte[] classFileOf(final Class<?> clazz) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final InputStream input = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class")) {
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
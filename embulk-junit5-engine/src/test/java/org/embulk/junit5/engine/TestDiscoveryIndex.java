@@ -0,0 +1,183 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.embulk.junit5.api.EmbulkPluginTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TestDiscoveryIndex {
+    @Test
+    public void testRoundTrip(@TempDir final Path directory) throws IOException {
+        final Path classes = directory.resolve("classes");
+        final Path classFile = copyClassFile(Fixture.class, classes);
+        final Path indexFile = directory.resolve("discovery.index");
+
+        final DiscoveryIndex saved = DiscoveryIndex.load(indexFile);
+        assertEquals(Optional.of(FIXTURE_TEST_METHODS), scan(saved, classes));
+        saved.save();
+
+        // The class file is broken in the same size and the same last modified time, so that only the index knows its methods.
+        breakKeepingMetadata(classFile);
+        assertEquals(Optional.of(FIXTURE_TEST_METHODS), scan(DiscoveryIndex.load(indexFile), classes));
+    }
+
+    @Test
+    public void testMergedWithOtherWorkers(@TempDir final Path directory) throws IOException {
+        final Path classes = directory.resolve("classes");
+        final Path fixtureClassFile = copyClassFile(Fixture.class, classes);
+        final Path otherClassFile = copyClassFile(Other.class, classes);
+        final Path indexFile = directory.resolve("discovery.index");
+
+        // Two workers load the same empty index, and scan different classes.
+        final DiscoveryIndex worker1 = DiscoveryIndex.load(indexFile);
+        final DiscoveryIndex worker2 = DiscoveryIndex.load(indexFile);
+        scan(worker1, classes);
+        scan(worker2, classes, Other.class);
+        worker1.save();
+        worker2.save();
+
+        breakKeepingMetadata(fixtureClassFile);
+        breakKeepingMetadata(otherClassFile);
+        final DiscoveryIndex loaded = DiscoveryIndex.load(indexFile);
+        assertEquals(Optional.of(FIXTURE_TEST_METHODS), scan(loaded, classes));
+        assertEquals(Optional.of(Collections.singletonList("testOther")), scan(loaded, classes, Other.class));
+    }
+
+    @Test
+    public void testConcurrentSaves(@TempDir final Path directory) throws Exception {
+        final Path classes = directory.resolve("classes");
+        final Path indexFile = directory.resolve("discovery.index");
+        final int workers = 8;
+        final ArrayList<Path> classFiles = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            classFiles.add(copyClassFile(Fixture.class, classes, "org.example.TestWorker" + i));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final ArrayList<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                final String className = "org.example.TestWorker" + i;
+                futures.add(executor.submit(() -> {
+                    final DiscoveryIndex discoveryIndex = DiscoveryIndex.load(indexFile);
+                    scan(discoveryIndex, classes, className);
+                    start.await();
+                    discoveryIndex.save();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Every worker loaded the index before the others saved. No entry is lost in the read-merge-write.
+        for (final Path classFile : classFiles) {
+            breakKeepingMetadata(classFile);
+        }
+        final DiscoveryIndex loaded = DiscoveryIndex.load(indexFile);
+        for (int i = 0; i < workers; i++) {
+            assertEquals(Optional.of(FIXTURE_TEST_METHODS), scan(loaded, classes, "org.example.TestWorker" + i));
+        }
+    }
+
+    @Test
+    public void testBrokenIndexIsIgnored(@TempDir final Path directory) throws IOException {
+        final Path classes = directory.resolve("classes");
+        final Path classFile = copyClassFile(Fixture.class, classes);
+        final Path indexFile = directory.resolve("discovery.index");
+
+        final DiscoveryIndex saved = DiscoveryIndex.load(indexFile);
+        scan(saved, classes);
+        saved.save();
+        final byte[] index = Files.readAllBytes(indexFile);
+        breakKeepingMetadata(classFile);
+
+        final byte[] flipped = index.clone();
+        flipped[index.length / 2] ^= 0x01;
+        final List<byte[]> brokenIndexes = Arrays.asList(
+                new byte[0],
+                Arrays.copyOf(index, 12),
+                Arrays.copyOf(index, index.length - 1),
+                flipped);
+        for (final byte[] brokenIndex : brokenIndexes) {
+            Files.write(indexFile, brokenIndex);
+            // Scanned from scratch, which fails on the broken class file.
+            assertFalse(scan(DiscoveryIndex.load(indexFile), classes).isPresent());
+        }
+    }
+
+    // Not run: DiscoveryIndex only reads their class files.
+    public static final class Fixture {
+        @EmbulkPluginTest
+        public void testFirst() {
+        }
+
+        @EmbulkPluginTest
+        public void testSecond() {
+        }
+    }
+
+    public static final class Other {
+        @EmbulkPluginTest
+        public void testOther() {
+        }
+    }
+
+    private static Optional<List<String>> scan(final DiscoveryIndex discoveryIndex, final Path classes) {
+        return scan(discoveryIndex, classes, Fixture.class);
+    }
+
+    private static Optional<List<String>> scan(final DiscoveryIndex discoveryIndex, final Path classes, final Class<?> clazz) {
+        return scan(discoveryIndex, classes, clazz.getName());
+    }
+
+    private static Optional<List<String>> scan(final DiscoveryIndex discoveryIndex, final Path classes, final String className) {
+        try (final PluginClassFiles classFiles = new PluginClassFiles(Collections.singletonList(classes))) {
+            return discoveryIndex.scan(classFiles, className).map(ClassFileScanner.ScannedClass::getTestMethodNames);
+        }
+    }
+
+    private static Path copyClassFile(final Class<?> clazz, final Path classes) throws IOException {
+        return copyClassFile(clazz, classes, clazz.getName());
+    }
+
+    // The index is keyed by the class name, so that a class file copied to another name is scanned as the other class.
+    private static Path copyClassFile(final Class<?> clazz, final Path classes, final String className) throws IOException {
+        final Path classFile = classes.resolve(className.replace('.', '/') + ".class");
+        Files.createDirectories(classFile.getParent());
+        try (final InputStream input = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class")) {
+            Files.copy(input, classFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return classFile;
+    }
+
+    private static void breakKeepingMetadata(final Path file) throws IOException {
+        final FileTime lastModified = Files.getLastModifiedTime(file);
+        Files.write(file, new byte[(int) Files.size(file)]);
+        Files.setLastModifiedTime(file, lastModified);
+    }
+
+    private static final List<String> FIXTURE_TEST_METHODS = Arrays.asList("testFirst", "testSecond");
+}
@@ -0,0 +1,31 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectPackage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+
+public class TestEmbulkPluginTestEngine {
+    @Test
+    public void testDiscoverNothingWithoutPluginClassLoader() {
+        for (final String lifecycle : new String[] { "shared", "per-class", "recycle-every-2" }) {
+            final LauncherDiscoveryRequest request = LauncherDiscoveryRequestBuilder.request()
+                    .selectors(selectPackage("org.example.none"))
+                    .configurationParameter(Constants.PLUGIN_CLASS_LOADER_LIFECYCLE_PROPERTY_NAME, lifecycle)
+                    .build();
+
+            final EmbulkPluginTestEngineDescriptor engineDescriptor = (EmbulkPluginTestEngineDescriptor)
+                    new EmbulkPluginTestEngine().discover(request, UniqueId.forEngine("embulk-junit5-engine"));
+            try {
+                assertTrue(engineDescriptor.getChildren().isEmpty());
+                assertEquals(0, engineDescriptor.getPluginClassLoaderLifecycle().getCreatedCount(), lifecycle);
+            } finally {
+                engineDescriptor.closePluginClassLoaders();
+            }
+        }
+    }
+}
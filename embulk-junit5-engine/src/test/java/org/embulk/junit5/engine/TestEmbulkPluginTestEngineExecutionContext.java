@@ -0,0 +1,47 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.engine.EngineExecutionListener;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.support.hierarchical.Node;
+
+public class TestEmbulkPluginTestEngineExecutionContext {
+    @Test
+    public void testAbortedIsNotFailure(@TempDir final Path directory) {
+        final TestHistory testHistory = TestHistory.load(directory.resolve("history"));
+        final EmbulkPluginTestEngineExecutionContext context = newContext(testHistory);
+        final MethodTestDescriptor aborted = newMethod("testAborted");
+
+        context.recordResult(aborted, 1_000_000L, TestExecutionResult.Status.ABORTED);
+        assertFalse(context.skipResultAfterFailure().isSkipped());
+        assertFalse(testHistory.hasFailed(aborted));
+    }
+
+    @Test
+    public void testFailed(@TempDir final Path directory) {
+        final TestHistory testHistory = TestHistory.load(directory.resolve("history"));
+        final EmbulkPluginTestEngineExecutionContext context = newContext(testHistory);
+        final MethodTestDescriptor failed = newMethod("testFailed");
+
+        context.recordResult(failed, 1_000_000L, TestExecutionResult.Status.FAILED);
+        assertTrue(context.skipResultAfterFailure().isSkipped());
+        assertTrue(testHistory.hasFailed(failed));
+    }
+
+    private static EmbulkPluginTestEngineExecutionContext newContext(final TestHistory testHistory) {
+        return new EmbulkPluginTestEngineExecutionContext(EngineExecutionListener.NOOP, false, null, null, 0L, testHistory, null, null, true);
+    }
+
+    private static MethodTestDescriptor newMethod(final String methodName) {
+        final UniqueId uniqueId = UniqueId.forEngine("embulk-junit5-engine")
+                .append(SelectedTestClasses.CLASS_SEGMENT_TYPE, "org.embulk.example.TestExample")
+                .append(SelectedTestClasses.METHOD_SEGMENT_TYPE, methodName);
+        return new MethodTestDescriptor(uniqueId, methodName, Node.ExecutionMode.SAME_THREAD);
+    }
+}
@@ -0,0 +1,30 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.engine.UniqueId;
+
+public class TestEngineEvents {
+    @Test
+    public void testImplementation() {
+        // "testJava11" runs the tests on Java 11 against the multi-release jar, which has FlightRecorderEngineEvents.
+        final String expected = Boolean.getBoolean("org.embulk.junit5.engine.test.multiReleaseJar")
+                ? "org.embulk.junit5.engine.FlightRecorderEngineEvents"
+                : "org.embulk.junit5.engine.EngineEvents$NoOp";
+        assertEquals(expected, EngineEvents.get().getClass().getName());
+    }
+
+    @Test
+    public void testEventsFinish() {
+        final UniqueId uniqueId = UniqueId.forEngine("embulk-junit5-engine").append(SelectedTestClasses.CLASS_SEGMENT_TYPE, "org.embulk.example.TestExample");
+        final EngineEvents events = EngineEvents.get();
+        events.beginEngineConstruction().finish();
+        events.beginDiscovery().finish(1, 2);
+        events.beginPluginClassLoaderCreation("shared").finish();
+        events.beginClassLoad("org.embulk.example.TestExample").finish(false);
+        events.beginClassPrepare(uniqueId, "org.embulk.example.TestExample").finish();
+        events.beginMethodExecution(uniqueId.append(SelectedTestClasses.METHOD_SEGMENT_TYPE, "testExample"), "org.embulk.example.TestExample", "testExample").finish(true);
+        events.beginClassCleanUp(uniqueId, "org.embulk.example.TestExample").finish();
+    }
+}
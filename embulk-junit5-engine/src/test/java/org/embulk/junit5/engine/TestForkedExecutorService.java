@@ -0,0 +1,102 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.engine.ConfigurationParameters;
+import org.junit.platform.engine.EngineExecutionListener;
+import org.junit.platform.engine.ExecutionRequest;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.support.descriptor.EngineDescriptor;
+import org.junit.platform.engine.support.hierarchical.HierarchicalTestExecutorService;
+import org.junit.platform.engine.support.hierarchical.Node;
+import org.junit.platform.engine.support.hierarchical.ResourceLock;
+
+public class TestForkedExecutorService {
+    @Test
+    public void testOnlyFirstTaskRunsInWorkers() throws Exception {
+        // No test classes, so that no worker JVM is started for the engine descriptor.
+        final EngineDescriptor root = new EngineDescriptor(UniqueId.forEngine("embulk-junit5-engine"), "engine");
+        final ArrayList<String> events = new ArrayList<>();
+        final EngineExecutionListener listener = new EngineExecutionListener() {
+            @Override
+            public void executionStarted(final TestDescriptor testDescriptor) {
+                events.add("started " + testDescriptor.getDisplayName());
+            }
+
+            @Override
+            public void executionFinished(final TestDescriptor testDescriptor, final TestExecutionResult result) {
+                events.add("finished " + testDescriptor.getDisplayName() + " " + result.getStatus());
+            }
+        };
+
+        try (final ForkedExecutorService executor = new ForkedExecutorService(
+                ExecutionRequest.create(root, listener, new EmptyConfigurationParameters()), 2, Collections.emptyList())) {
+            executor.submit(new RecordingTask("root", events)).get();
+            executor.submit(new RecordingTask("submitted", events)).get();
+            executor.invokeAll(Arrays.asList(new RecordingTask("invoked1", events), new RecordingTask("invoked2", events)));
+        }
+
+        // The first task is not executed in this JVM, but the whole tree is run in workers instead.
+        assertEquals(
+                Arrays.asList("started engine", "finished engine SUCCESSFUL", "executed submitted", "executed invoked1", "executed invoked2"),
+                events);
+    }
+
+    private static final class RecordingTask implements HierarchicalTestExecutorService.TestTask {
+        RecordingTask(final String name, final List<String> events) {
+            this.name = name;
+            this.events = events;
+        }
+
+        @Override
+        public Node.ExecutionMode getExecutionMode() {
+            return Node.ExecutionMode.SAME_THREAD;
+        }
+
+        @Override
+        public ResourceLock getResourceLock() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void execute() {
+            this.events.add("executed " + this.name);
+        }
+
+        private final String name;
+
+        private final List<String> events;
+    }
+
+    private static final class EmptyConfigurationParameters implements ConfigurationParameters {
+        @Override
+        public Optional<String> get(final String key) {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<Boolean> getBoolean(final String key) {
+            return Optional.empty();
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return Collections.emptySet();
+        }
+    }
+}
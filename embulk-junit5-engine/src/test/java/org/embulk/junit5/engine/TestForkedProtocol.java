@@ -0,0 +1,132 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.opentest4j.AssertionFailedError;
+import org.opentest4j.TestAbortedException;
+
+public class TestForkedProtocol {
+    @Test
+    public void testNullThrowable() throws IOException {
+        assertNull(roundTrip(null));
+    }
+
+    @Test
+    public void testAssertionFailureWithCause() throws IOException {
+        // What a mismatched assertThrows throws: opentest4j's AssertionFailedError caused by the unexpected exception.
+        final AssertionFailedError original = assertThrows(AssertionFailedError.class, () -> {
+            assertThrows(IllegalStateException.class, () -> {
+                throw new UncheckedIOException("broken", new IOException("disk"));
+            });
+        });
+
+        final Throwable read = roundTrip(original);
+        assertSame(AssertionFailedError.class, read.getClass());
+        assertEquals(original.getMessage(), read.getMessage());
+        assertSameFrames(original.getStackTrace(), read.getStackTrace());
+
+        final Throwable cause = read.getCause();
+        assertTrue(cause instanceof ForkedProtocol.RemoteException);
+        assertEquals("java.io.UncheckedIOException: broken", cause.toString());
+        assertSameFrames(original.getCause().getStackTrace(), cause.getStackTrace());
+        assertEquals("java.io.IOException: disk", cause.getCause().toString());
+        assertNull(cause.getCause().getCause());
+    }
+
+    @Test
+    public void testPlainAssertionError() throws IOException {
+        final Throwable read = roundTrip(new AssertionError("plain"));
+        assertSame(AssertionFailedError.class, read.getClass());
+        assertEquals("plain", read.getMessage());
+        assertNull(read.getCause());
+    }
+
+    @Test
+    public void testAbortedWithCause() throws IOException {
+        final Throwable read = roundTrip(new TestAbortedException("assumption", new IllegalArgumentException("why")));
+        assertSame(TestAbortedException.class, read.getClass());
+        assertEquals("assumption", read.getMessage());
+        assertEquals("java.lang.IllegalArgumentException: why", read.getCause().toString());
+    }
+
+    @Test
+    public void testOnlyOutermostIsRebuiltAsAssertion() throws IOException {
+        final Throwable read = roundTrip(new RuntimeException("outer", new AssertionFailedError("inner")));
+        assertTrue(read instanceof ForkedProtocol.RemoteException);
+        assertEquals("java.lang.RuntimeException: outer", read.toString());
+        assertTrue(read.getCause() instanceof ForkedProtocol.RemoteException);
+        assertEquals("org.opentest4j.AssertionFailedError: inner", read.getCause().toString());
+    }
+
+    @Test
+    public void testNullMessage() throws IOException {
+        final Throwable read = roundTrip(new IllegalStateException());
+        assertNull(read.getMessage());
+        assertEquals("java.lang.IllegalStateException", read.toString());
+    }
+
+    @Test
+    public void testDeepCausesAreTruncated() throws IOException {
+        Throwable throwable = new RuntimeException("0");
+        for (int i = 1; i < 100; i++) {
+            throwable = new RuntimeException(Integer.toString(i), throwable);
+        }
+        Throwable read = roundTrip(throwable);
+        int depth = 0;
+        while (read != null) {
+            depth++;
+            read = read.getCause();
+        }
+        assertEquals(16, depth);
+    }
+
+    @Test
+    public void testMapAndStrings() throws IOException {
+        final LinkedHashMap<String, String> map = new LinkedHashMap<>();
+        map.put("cpuTimeNanos", "123");
+        map.put("日本語", null);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        ForkedProtocol.writeMap(output, map);
+        ForkedProtocol.writeString(output, null);
+        output.flush();
+
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        final Map<String, String> read = ForkedProtocol.readMap(input);
+        assertEquals(map, read);
+        assertNull(ForkedProtocol.readString(input));
+    }
+
+    // StackTraceElement#equals compares also the module and the class loader in Java 9+, which are not sent.
+    private static void assertSameFrames(final StackTraceElement[] expected, final StackTraceElement[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getClassName(), actual[i].getClassName());
+            assertEquals(expected[i].getMethodName(), actual[i].getMethodName());
+            assertEquals(expected[i].getFileName(), actual[i].getFileName());
+            assertEquals(expected[i].getLineNumber(), actual[i].getLineNumber());
+        }
+    }
+
+    private static Throwable roundTrip(final Throwable throwable) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        ForkedProtocol.writeThrowable(output, throwable);
+        output.flush();
+        return ForkedProtocol.readThrowable(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+}
@@ -0,0 +1,89 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TestIndexedClassPath {
+    @Test
+    public void testMultiReleaseJar(@TempDir final Path directory) throws IOException {
+        final Path jarFile = directory.resolve("multi-release.jar");
+        try (final JarOutputStream output = new JarOutputStream(Files.newOutputStream(jarFile), multiReleaseManifest())) {
+            putEntry(output, "org/example/greeting.txt", "base");
+            putEntry(output, "META-INF/versions/9/org/example/greeting.txt", "9");
+            putEntry(output, "META-INF/versions/9/org/example/only9/farewell.txt", "9 only");
+        }
+
+        final boolean java8 = System.getProperty("java.specification.version").startsWith("1.");
+        try (final IndexedClassPath index = IndexedClassPath.build(Collections.singletonList(jarFile));
+                final URLClassLoader classLoader = new URLClassLoader(index.getUrls().toArray(new URL[0]), null)) {
+            assertEquals(java8 ? "base" : "9", read(classLoader, "org/example/greeting.txt"));
+            if (java8) {
+                assertNull(classLoader.getResource("org/example/only9/farewell.txt"));
+            } else {
+                assertEquals("9 only", read(classLoader, "org/example/only9/farewell.txt"));
+            }
+        }
+    }
+
+    @Test
+    public void testFirstEntryWins(@TempDir final Path directory) throws IOException {
+        final Path first = directory.resolve("first");
+        Files.createDirectories(first.resolve("org/example"));
+        Files.write(first.resolve("org/example/greeting.txt"), "first".getBytes(StandardCharsets.UTF_8));
+        final Path second = directory.resolve("second.jar");
+        try (final JarOutputStream output = new JarOutputStream(Files.newOutputStream(second))) {
+            putEntry(output, "org/example/greeting.txt", "second");
+            putEntry(output, "org/example/farewell.txt", "second");
+        }
+
+        try (final IndexedClassPath index = IndexedClassPath.build(Arrays.asList(first, second, directory.resolve("missing")));
+                final URLClassLoader classLoader = new URLClassLoader(index.getUrls().toArray(new URL[0]), null)) {
+            assertEquals("first", read(classLoader, "org/example/greeting.txt"));
+            assertEquals("second", read(classLoader, "org/example/farewell.txt"));
+            assertNull(classLoader.getResource("org/example/missing.txt"));
+            assertNull(classLoader.getResource("org/missing/greeting.txt"));
+        }
+    }
+
+    private static Manifest multiReleaseManifest() {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Multi-Release", "true");
+        return manifest;
+    }
+
+    private static void putEntry(final JarOutputStream output, final String name, final String content) throws IOException {
+        output.putNextEntry(new ZipEntry(name));
+        output.write(content.getBytes(StandardCharsets.UTF_8));
+        output.closeEntry();
+    }
+
+    private static String read(final ClassLoader classLoader, final String name) throws IOException {
+        try (final InputStream input = classLoader.getResourceAsStream(name)) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.jupiter.api.Test;
+
+public class TestLoadedClassFinder {
+    @Test
+    public void testFound() {
+        final ClassLoader classLoader = TestLoadedClassFinder.class.getClassLoader();
+        assertSame(TestLoadedClassFinder.class, LoadedClassFinder.findFrom(classLoader, TestLoadedClassFinder.class.getName()));
+        assertSame(TestLoadedClassFinder.class, LoadedClassFinder.findFrom(classLoader, TestLoadedClassFinder.class.getName()));
+    }
+
+    @Test
+    public void testMissIsNotCached() throws IOException {
+        final DefiningClassLoader classLoader = new DefiningClassLoader();
+        assertNull(LoadedClassFinder.findFrom(classLoader, Fixture.class.getName()));
+
+        final Class<?> defined = classLoader.define(Fixture.class);
+        assertSame(defined, LoadedClassFinder.findFrom(classLoader, Fixture.class.getName()));
+    }
+
+    @Test
+    public void testPerClassLoader() throws IOException {
+        final DefiningClassLoader classLoader1 = new DefiningClassLoader();
+        final DefiningClassLoader classLoader2 = new DefiningClassLoader();
+        final Class<?> defined1 = classLoader1.define(Fixture.class);
+        assertSame(defined1, LoadedClassFinder.findFrom(classLoader1, Fixture.class.getName()));
+        assertNull(LoadedClassFinder.findFrom(classLoader2, Fixture.class.getName()));
+
+        final Class<?> defined2 = classLoader2.define(Fixture.class);
+        assertSame(defined2, LoadedClassFinder.findFrom(classLoader2, Fixture.class.getName()));
+        assertSame(defined1, LoadedClassFinder.findFrom(classLoader1, Fixture.class.getName()));
+    }
+
+    public static final class Fixture {
+    }
+
+    private static final class DefiningClassLoader extends ClassLoader {
+        DefiningClassLoader() {
+            super(null);
+        }
+
+        Class<?> define(final Class<?> original) throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (final InputStream input = original.getResourceAsStream("/" + original.getName().replace('.', '/') + ".class")) {
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = input.read(buffer)) >= 0) {
+                    bytes.write(buffer, 0, read);
+                }
+            }
+            return this.defineClass(original.getName(), bytes.toByteArray(), 0, bytes.size());
+        }
+    }
+}
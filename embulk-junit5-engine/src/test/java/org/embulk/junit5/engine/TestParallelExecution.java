@@ -0,0 +1,135 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import org.embulk.junit5.api.EmbulkPluginTest;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.engine.ConfigurationParameters;
+import org.junit.platform.engine.support.hierarchical.DefaultParallelExecutionConfigurationStrategy;
+import org.junit.platform.engine.support.hierarchical.ParallelExecutionConfiguration;
+import org.junit.platform.engine.support.hierarchical.ParallelExecutionConfigurationStrategy;
+import org.junit.platform.testkit.engine.EngineTestKit;
+
+public class TestParallelExecution {
+    @Test
+    public void testParallel() {
+        EngineTestKit.engine(new EmbulkPluginTestEngine())
+                .selectors(selectClass(Rendezvous.class))
+                .configurationParameter(Constants.PARALLEL_EXECUTION_ENABLED_PROPERTY_NAME, "true")
+                .configurationParameter(Constants.PARALLEL_CONFIG_STRATEGY_PROPERTY_NAME, "fixed")
+                .configurationParameter(Constants.PARALLEL_CONFIG_FIXED_PARALLELISM_PROPERTY_NAME, "2")
+                .execute()
+                .testEvents()
+                .assertStatistics(stats -> stats.started(2).succeeded(2));
+    }
+
+    @Test
+    public void testPrefixedConfigurationParameters() {
+        final int configured = CountingStrategy.CONFIGURED.get();
+        EngineTestKit.engine(new EmbulkPluginTestEngine())
+                .selectors(selectClass(Rendezvous.class))
+                .configurationParameter(Constants.PARALLEL_EXECUTION_ENABLED_PROPERTY_NAME, "true")
+                .configurationParameter(Constants.PARALLEL_CONFIG_STRATEGY_PROPERTY_NAME, "custom")
+                .configurationParameter(Constants.PARALLEL_CONFIG_PREFIX + DefaultParallelExecutionConfigurationStrategy.CONFIG_CUSTOM_CLASS_PROPERTY_NAME,
+                                        CountingStrategy.class.getName())
+                // Not prefixed. It must not be read by the engine.
+                .configurationParameter(DefaultParallelExecutionConfigurationStrategy.CONFIG_CUSTOM_CLASS_PROPERTY_NAME, "org.example.NotFound")
+                .execute()
+                .testEvents()
+                .assertStatistics(stats -> stats.started(2).succeeded(2));
+        assertEquals(configured + 1, CountingStrategy.CONFIGURED.get());
+    }
+
+    @Test
+    public void testSequentialByDefault() {
+        EngineTestKit.engine(new EmbulkPluginTestEngine())
+                .selectors(selectClass(ThreadRecorder.class))
+                .execute()
+                .testEvents()
+                .assertStatistics(stats -> stats.started(2).succeeded(2));
+    }
+
+    // Not run by Jupiter. Its tests pass only if they run at the same time.
+    public static final class Rendezvous {
+        @EmbulkPluginTest
+        public void testFirst() throws InterruptedException {
+            LATCH.countDown();
+            assertTrue(LATCH.await(30, TimeUnit.SECONDS), "The other test did not run in parallel.");
+        }
+
+        @EmbulkPluginTest
+        public void testSecond() throws InterruptedException {
+            LATCH.countDown();
+            assertTrue(LATCH.await(30, TimeUnit.SECONDS), "The other test did not run in parallel.");
+        }
+
+        // Loaded for every run as the class is loaded in a new PluginClassLoader of a new engine.
+        private static final CountDownLatch LATCH = new CountDownLatch(2);
+    }
+
+    // Not run by Jupiter. Its tests pass only if they run in the same thread.
+    public static final class ThreadRecorder {
+        @EmbulkPluginTest
+        public void testFirst() {
+            THREAD.compareAndSet(null, Thread.currentThread());
+            assertSame(THREAD.get(), Thread.currentThread());
+        }
+
+        @EmbulkPluginTest
+        public void testSecond() {
+            THREAD.compareAndSet(null, Thread.currentThread());
+            assertSame(THREAD.get(), Thread.currentThread());
+        }
+
+        private static final AtomicReference<Thread> THREAD = new AtomicReference<>();
+    }
+
+    public static final class CountingStrategy implements ParallelExecutionConfigurationStrategy {
+        @Override
+        public ParallelExecutionConfiguration createConfiguration(final ConfigurationParameters configurationParameters) {
+            CONFIGURED.incrementAndGet();
+            return new ParallelExecutionConfiguration() {
+                @Override
+                public int getParallelism() {
+                    return 2;
+                }
+
+                @Override
+                public int getMinimumRunnable() {
+                    return 2;
+                }
+
+                @Override
+                public int getMaxPoolSize() {
+                    return 256;
+                }
+
+                @Override
+                public int getCorePoolSize() {
+                    return 2;
+                }
+
+                @Override
+                public int getKeepAliveSeconds() {
+                    return 30;
+                }
+
+                @Override
+                public Predicate<? super ForkJoinPool> getSaturatePredicate() {
+                    return pool -> true;
+                }
+            };
+        }
+
+        static final AtomicInteger CONFIGURED = new AtomicInteger(0);
+    }
+}
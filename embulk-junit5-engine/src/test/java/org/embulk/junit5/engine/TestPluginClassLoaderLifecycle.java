@@ -0,0 +1,245 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import org.embulk.plugin.PluginClassLoader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+
+public class TestPluginClassLoaderLifecycle {
+    @Test
+    public void testShared(@TempDir final Path directory) throws IOException {
+        final PluginClassLoaderProvider provider = newProvider(directory);
+        final PluginClassLoaderLifecycle lifecycle = newLifecycle("shared", provider);
+        assertEquals(0, lifecycle.getCreatedCount());
+
+        final PluginClassLoader first = lifecycle.acquire();
+        final PluginClassLoader second = lifecycle.acquire();
+        assertSame(first, second);
+        assertSame(provider.getSharedPluginClassLoader(), first);
+
+        lifecycle.release(first);
+        lifecycle.release(second);
+        assertTrue(isOpen(first));
+
+        // The shared one lives along with the engine, not with the lifecycle.
+        lifecycle.close();
+        assertTrue(isOpen(first));
+        assertEquals(1, lifecycle.getCreatedCount());
+        first.close();
+    }
+
+    @Test
+    public void testPerClass(@TempDir final Path directory) throws IOException {
+        final PluginClassLoaderLifecycle lifecycle = newLifecycle("per-class", newProvider(directory));
+        assertEquals(0, lifecycle.getCreatedCount());
+
+        final PluginClassLoader first = lifecycle.acquire();
+        final PluginClassLoader second = lifecycle.acquire();
+        assertNotSame(first, second);
+        assertTrue(isOpen(first));
+        assertTrue(isOpen(second));
+
+        lifecycle.release(first);
+        assertFalse(isOpen(first));
+        assertTrue(isOpen(second));
+        lifecycle.release(second);
+        assertFalse(isOpen(second));
+
+        // The first one is created in place. Two are pooled at the first acquisition, and another one at the second.
+        lifecycle.close();
+        assertEquals(4, lifecycle.getCreatedCount());
+    }
+
+    @Test
+    public void testPerClassConcurrently(@TempDir final Path directory) throws Exception {
+        final PluginClassLoaderLifecycle lifecycle = newLifecycle("per-class", newProvider(directory));
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Callable<PluginClassLoader>> acquisitions = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                acquisitions.add(lifecycle::acquire);
+            }
+            final List<PluginClassLoader> acquired = new ArrayList<>();
+            for (final Future<PluginClassLoader> future : executor.invokeAll(acquisitions)) {
+                final PluginClassLoader pluginClassLoader = future.get();
+                for (final PluginClassLoader other : acquired) {
+                    assertNotSame(other, pluginClassLoader);
+                }
+                assertTrue(isOpen(pluginClassLoader));
+                acquired.add(pluginClassLoader);
+            }
+            for (final PluginClassLoader pluginClassLoader : acquired) {
+                lifecycle.release(pluginClassLoader);
+                assertFalse(isOpen(pluginClassLoader));
+            }
+        } finally {
+            executor.shutdown();
+            lifecycle.close();
+        }
+    }
+
+    @Test
+    public void testRecycling(@TempDir final Path directory) throws IOException {
+        final PluginClassLoaderLifecycle lifecycle = newLifecycle("recycle-every-2", newProvider(directory));
+        assertEquals(0, lifecycle.getCreatedCount());
+
+        final PluginClassLoader first = lifecycle.acquire();
+        final PluginClassLoader second = lifecycle.acquire();
+        final PluginClassLoader third = lifecycle.acquire();
+        assertSame(first, second);
+        assertNotSame(first, third);
+        assertEquals(2, lifecycle.getCreatedCount());
+
+        // The replaced one is closed when all the test classes in it are released.
+        lifecycle.release(first);
+        assertTrue(isOpen(first));
+        lifecycle.release(second);
+        assertFalse(isOpen(first));
+
+        // The current one is kept for the next test class even when it is released.
+        lifecycle.release(third);
+        assertTrue(isOpen(third));
+        assertSame(third, lifecycle.acquire());
+        lifecycle.release(third);
+
+        lifecycle.close();
+        assertFalse(isOpen(third));
+        assertEquals(2, lifecycle.getCreatedCount());
+    }
+
+    @Test
+    public void testRecyclingCloseInUse(@TempDir final Path directory) throws IOException {
+        final PluginClassLoaderLifecycle lifecycle = newLifecycle("recycle-every-2", newProvider(directory));
+        final PluginClassLoader inUse = lifecycle.acquire();
+
+        // The one still in use is not closed by the lifecycle.
+        lifecycle.close();
+        assertTrue(isOpen(inUse));
+        inUse.close();
+    }
+
+    @Test
+    public void testPerClassClosesIndexedClassPath(@TempDir final Path directory) throws IOException {
+        final PluginClassLoaderProvider provider = newJarProvider(directory);
+        final PluginClassLoaderLifecycle lifecycle = newLifecycle("per-class", true, provider);
+        final PluginClassLoader pluginClassLoader = lifecycle.acquire();
+        final URL resource = pluginClassLoader.getResource(RESOURCE_NAME);
+        assertEquals("lifecycle", read(resource));
+        lifecycle.release(pluginClassLoader);
+
+        // The jar file is no longer served by the index after the lifecycle is closed.
+        lifecycle.close();
+        assertThrows(IllegalStateException.class, () -> read(resource));
+
+        // The index is built again for a next lifecycle of the engine.
+        final PluginClassLoaderLifecycle next = newLifecycle("recycle-every-2", true, provider);
+        final PluginClassLoader nextPluginClassLoader = next.acquire();
+        assertEquals("lifecycle", read(nextPluginClassLoader.getResource(RESOURCE_NAME)));
+        next.release(nextPluginClassLoader);
+        next.close();
+    }
+
+    @Test
+    public void testSharedKeepsIndexedClassPath(@TempDir final Path directory) throws IOException {
+        final PluginClassLoaderProvider provider = newJarProvider(directory);
+        final PluginClassLoader shared = newLifecycle("shared", true, provider).acquire();
+
+        // The index is kept open for the shared one, even when another lifecycle is closed.
+        final PluginClassLoaderLifecycle perClass = newLifecycle("per-class", true, provider);
+        perClass.release(perClass.acquire());
+        perClass.close();
+        assertEquals("lifecycle", read(shared.getResource(RESOURCE_NAME)));
+        shared.close();
+    }
+
+    private static PluginClassLoaderProvider newProvider(final Path directory) throws IOException {
+        Files.createDirectories(directory.resolve("org/example"));
+        Files.write(directory.resolve(RESOURCE_NAME), "lifecycle".getBytes(StandardCharsets.UTF_8));
+        return newProvider(directory.toString());
+    }
+
+    private static PluginClassLoaderProvider newProvider(final String classPath) {
+        // The provider reads the plugin class path from the system property only once at its first use.
+        final String original = System.getProperty(CLASS_PATH_PROPERTY_NAME);
+        System.setProperty(CLASS_PATH_PROPERTY_NAME, classPath);
+        try {
+            final PluginClassLoaderProvider provider = new PluginClassLoaderProvider(TestPluginClassLoaderLifecycle.class.getClassLoader());
+            provider.getClassPaths();
+            return provider;
+        } finally {
+            if (original == null) {
+                System.clearProperty(CLASS_PATH_PROPERTY_NAME);
+            } else {
+                System.setProperty(CLASS_PATH_PROPERTY_NAME, original);
+            }
+        }
+    }
+
+    private static PluginClassLoaderProvider newJarProvider(final Path directory) throws IOException {
+        final Path jarFile = directory.resolve("lifecycle.jar");
+        try (final JarOutputStream output = new JarOutputStream(Files.newOutputStream(jarFile))) {
+            output.putNextEntry(new ZipEntry(RESOURCE_NAME));
+            output.write("lifecycle".getBytes(StandardCharsets.UTF_8));
+            output.closeEntry();
+        }
+        return newProvider(jarFile.toString());
+    }
+
+    private static PluginClassLoaderLifecycle newLifecycle(final String policy, final PluginClassLoaderProvider provider) {
+        return newLifecycle(policy, false, provider);
+    }
+
+    private static PluginClassLoaderLifecycle newLifecycle(final String policy, final boolean indexed, final PluginClassLoaderProvider provider) {
+        return PluginClassLoaderLifecycle.of(
+                LauncherDiscoveryRequestBuilder.request()
+                        .configurationParameter(Constants.PLUGIN_CLASS_LOADER_LIFECYCLE_PROPERTY_NAME, policy)
+                        .configurationParameter(Constants.PLUGIN_CLASS_PATH_INDEX_ENABLED_PROPERTY_NAME, String.valueOf(indexed))
+                        .build()
+                        .getConfigurationParameters(),
+                provider);
+    }
+
+    /**
+     * Checks the {@link PluginClassLoader} is not closed, as a closed one finds no resource in its class path.
+     */
+    private static boolean isOpen(final PluginClassLoader pluginClassLoader) {
+        return pluginClassLoader.getResource(RESOURCE_NAME) != null;
+    }
+
+    private static String read(final URL resource) throws IOException {
+        try (final InputStream input = resource.openStream()) {
+            final byte[] bytes = new byte[64];
+            int length = 0;
+            int read;
+            while ((read = input.read(bytes, length, bytes.length - length)) > 0) {
+                length += read;
+            }
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final String CLASS_PATH_PROPERTY_NAME = "org.embulk.junit5.plugin.class.path";
+
+    private static final String RESOURCE_NAME = "org/example/lifecycle.txt";
+}
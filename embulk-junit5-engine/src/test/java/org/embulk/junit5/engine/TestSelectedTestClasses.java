@@ -0,0 +1,75 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectMethod;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectPackage;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectUniqueId;
+
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.discovery.ClassNameFilter;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+
+public class TestSelectedTestClasses {
+    @Test
+    public void testUniqueIds() {
+        final LauncherDiscoveryRequest request = LauncherDiscoveryRequestBuilder.request().selectors(
+                selectUniqueId(ENGINE_ID.append(SelectedTestClasses.CLASS_SEGMENT_TYPE, "org.example.TestWhole")),
+                selectUniqueId(ENGINE_ID.append(SelectedTestClasses.CLASS_SEGMENT_TYPE, "org.example.TestPart")
+                                        .append(SelectedTestClasses.METHOD_SEGMENT_TYPE, "testSelected")),
+                selectUniqueId(ENGINE_ID),
+                selectUniqueId(UniqueId.forEngine("junit-jupiter").append("class", "org.example.TestJupiter")),
+                selectUniqueId(ENGINE_ID.append(SelectedTestClasses.CLASS_SEGMENT_TYPE, "org.example.TestNested")
+                                        .append("nested-class", "Inner")))
+                .build();
+
+        try (final PluginClassFiles classFiles = new PluginClassFiles(Collections.emptyList())) {
+            final SelectedTestClasses selected = SelectedTestClasses.resolve(request, ENGINE_ID, classFiles);
+            assertEquals(Arrays.asList("org.example.TestWhole", "org.example.TestPart"), selected.getClassNames());
+            assertTrue(selected.isMethodSelected("org.example.TestWhole", "testAnything"));
+            assertTrue(selected.isMethodSelected("org.example.TestPart", "testSelected"));
+            assertFalse(selected.isMethodSelected("org.example.TestPart", "testOther"));
+            assertFalse(selected.isMethodSelected("org.example.TestJupiter", "testAnything"));
+        }
+    }
+
+    @Test
+    public void testClassAndMethod() {
+        final LauncherDiscoveryRequest request = LauncherDiscoveryRequestBuilder.request().selectors(
+                selectMethod("org.example.TestBoth", "testSelected", ""),
+                selectClass("org.example.TestBoth"),
+                selectMethod("org.example.TestParameter", "testWithParameter", "int"))
+                .build();
+
+        try (final PluginClassFiles classFiles = new PluginClassFiles(Collections.emptyList())) {
+            final SelectedTestClasses selected = SelectedTestClasses.resolve(request, ENGINE_ID, classFiles);
+            assertEquals(Collections.singletonList("org.example.TestBoth"), selected.getClassNames());
+            assertTrue(selected.isMethodSelected("org.example.TestBoth", "testOther"));
+        }
+    }
+
+    @Test
+    public void testPackageWithClassNameFilter() throws URISyntaxException {
+        final Path testClasses = Paths.get(TestSelectedTestClasses.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        final LauncherDiscoveryRequest request = LauncherDiscoveryRequestBuilder.request()
+                .selectors(selectPackage(TestSelectedTestClasses.class.getPackage().getName()))
+                .filters(ClassNameFilter.includeClassNamePatterns(".*\\.TestSelectedTestClasses"))
+                .build();
+
+        try (final PluginClassFiles classFiles = new PluginClassFiles(Collections.singletonList(testClasses))) {
+            final SelectedTestClasses selected = SelectedTestClasses.resolve(request, ENGINE_ID, classFiles);
+            assertEquals(Collections.singletonList(TestSelectedTestClasses.class.getName()), selected.getClassNames());
+        }
+    }
+
+    private static final UniqueId ENGINE_ID = UniqueId.forEngine("embulk-junit5-engine");
+}
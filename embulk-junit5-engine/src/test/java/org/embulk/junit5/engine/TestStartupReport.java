@@ -0,0 +1,94 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests {@link StartupReport} in the test JVM, which runs without a dynamic class data sharing archive.
+ */
+public class TestStartupReport {
+    @Test
+    public void testDescribeJvmStartup() {
+        assertTrue(StartupReport.describeJvmStartup(123L).startsWith("JVM started 123 ms before EmbulkPluginTestEngine with class data sharing: "));
+    }
+
+    @Test
+    public void testFirstReport(@TempDir final Path directory) throws IOException {
+        final Path reportFile = directory.resolve("missing/startup.properties");
+        StartupReport.of(reportFile, 123L, 4567L).save();
+
+        final Properties report = load(reportFile);
+        assertEquals("123", report.getProperty("unarchived.startupMillis"));
+        assertEquals("4567", report.getProperty("unarchived.startupLoadedClasses"));
+        assertTrue(Long.parseLong(report.getProperty("unarchived.totalMillis")) >= 0L);
+        assertNotNull(report.getProperty("unarchived.sharing"));
+        assertFalse(report.containsKey("archived.startupMillis"));
+        assertNoTemporaryFiles(reportFile.getParent());
+    }
+
+    @Test
+    public void testKeepOtherKind(@TempDir final Path directory) throws IOException {
+        final Path reportFile = directory.resolve("startup.properties");
+        write(reportFile, "archived.startupMillis=100\narchived.totalMillis=2000\narchived.startupLoadedClasses=3000\nunarchived.startupMillis=999\n");
+        StartupReport.of(reportFile, 123L, 4567L).save();
+
+        final Properties report = load(reportFile);
+        assertEquals("100", report.getProperty("archived.startupMillis"));
+        assertEquals("2000", report.getProperty("archived.totalMillis"));
+        assertEquals("3000", report.getProperty("archived.startupLoadedClasses"));
+        assertEquals("123", report.getProperty("unarchived.startupMillis"));
+        assertNoTemporaryFiles(directory);
+    }
+
+    @Test
+    public void testOverwriteBrokenReport(@TempDir final Path directory) throws IOException {
+        final Path reportFile = directory.resolve("startup.properties");
+        write(reportFile, "archived.startupMillis=\\u00zz\n");
+        StartupReport.of(reportFile, 123L, 4567L).save();
+
+        final Properties report = load(reportFile);
+        assertFalse(report.containsKey("archived.startupMillis"));
+        assertEquals("123", report.getProperty("unarchived.startupMillis"));
+        assertNoTemporaryFiles(directory);
+    }
+
+    @Test
+    public void testNeverThrows(@TempDir final Path directory) throws IOException {
+        final Path notDirectory = directory.resolve("not-directory");
+        write(notDirectory, "");
+
+        // It is only informational. A failure is just logged.
+        StartupReport.of(notDirectory.resolve("startup.properties"), 123L, 4567L).save();
+        assertEquals(0L, Files.size(notDirectory));
+    }
+
+    private static Properties load(final Path file) throws IOException {
+        final Properties properties = new Properties();
+        try (final InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    private static void write(final Path file, final String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static void assertNoTemporaryFiles(final Path directory) throws IOException {
+        try (final Stream<Path> files = Files.list(directory)) {
+            assertFalse(files.anyMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.support.descriptor.EngineDescriptor;
+import org.junit.platform.engine.support.hierarchical.Node;
+
+public class TestTestHistory {
+    @Test
+    public void testRoundTrip(@TempDir final Path directory) {
+        final Path historyFile = directory.resolve("history");
+        final ClassTestDescriptor testClass = newClass("org.example.TestExample");
+        final MethodTestDescriptor passed = newMethod(testClass, "testPassed");
+        final MethodTestDescriptor failed = newMethod(testClass, "testFailed");
+
+        final TestHistory empty = TestHistory.load(historyFile);
+        assertEquals(0L, empty.getLastRunMillis());
+        assertEquals(-1L, empty.getDurationNanos(testClass));
+        empty.record(testClass, 300L, false);
+        empty.record(passed, 100L, false);
+        empty.record(failed, 200L, true);
+        empty.save();
+
+        final TestHistory loaded = TestHistory.load(historyFile);
+        assertTrue(loaded.getLastRunMillis() > 0L);
+        assertEquals(300L, loaded.getDurationNanos(testClass));
+        assertEquals(100L, loaded.getDurationNanos(passed));
+        assertFalse(loaded.hasFailed(passed));
+        assertTrue(loaded.hasFailed(failed));
+        assertTrue(loaded.hasFailed(testClass));  // By its failed child.
+
+        // Durations are smoothed over runs. The outcome is the last one.
+        loaded.record(failed, 400L, false);
+        loaded.save();
+        final TestHistory reloaded = TestHistory.load(historyFile);
+        assertEquals(300L, reloaded.getDurationNanos(failed));
+        assertFalse(reloaded.hasFailed(failed));
+    }
+
+    @Test
+    public void testOrder(@TempDir final Path directory) {
+        final Path historyFile = directory.resolve("history");
+        final EngineDescriptor engine = new EngineDescriptor(ENGINE_ID, "engine");
+        final ClassTestDescriptor unknown = newClass("org.example.TestUnknown");
+        final ClassTestDescriptor fast = newClass("org.example.TestFast");
+        final ClassTestDescriptor slow = newClass("org.example.TestSlow");
+        final ClassTestDescriptor changed = newClass("org.example.TestChanged");
+        final ClassTestDescriptor failing = newClass("org.example.TestFailing");
+        final MethodTestDescriptor failingFast = newMethod(failing, "testFast");
+        final MethodTestDescriptor failingSlow = newMethod(failing, "testSlow");
+        final MethodTestDescriptor failingFailed = newMethod(failing, "testFailed");
+        for (final ClassTestDescriptor testClass : Arrays.asList(fast, slow, unknown, changed, failing)) {
+            engine.addChild(testClass);
+        }
+
+        final TestHistory saved = TestHistory.load(historyFile);
+        saved.record(fast, 100L, false);
+        saved.record(slow, 900L, false);
+        saved.record(changed, 50L, false);
+        saved.record(failing, 10L, false);
+        saved.record(failingFast, 1L, false);
+        saved.record(failingSlow, 5L, false);
+        saved.record(failingFailed, 2L, true);
+        saved.save();
+
+        TestHistory.load(historyFile).order(engine, testClass -> testClass == changed);
+        assertEquals(Arrays.asList(failing, changed, unknown, slow, fast), new ArrayList<>(engine.getChildren()));
+        assertEquals(Arrays.asList(failingFailed, failingSlow, failingFast), new ArrayList<>(failing.getChildren()));
+    }
+
+    @Test
+    public void testConcurrentSaves(@TempDir final Path directory) throws Exception {
+        final Path historyFile = directory.resolve("history");
+        final int workers = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final ArrayList<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                final ClassTestDescriptor testClass = newClass("org.example.TestWorker" + i);
+                futures.add(executor.submit(() -> {
+                    final TestHistory history = TestHistory.load(historyFile);
+                    history.record(testClass, 100L, false);
+                    start.await();
+                    history.save();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Every worker loaded the history before the others saved. No entry is lost in the read-merge-write.
+        final TestHistory loaded = TestHistory.load(historyFile);
+        for (int i = 0; i < workers; i++) {
+            assertEquals(100L, loaded.getDurationNanos(newClass("org.example.TestWorker" + i)));
+        }
+    }
+
+    @Test
+    public void testBrokenHistoryIsIgnored(@TempDir final Path directory) throws IOException {
+        final Path historyFile = directory.resolve("history");
+        final ClassTestDescriptor testClass = newClass("org.example.TestExample");
+        final TestHistory saved = TestHistory.load(historyFile);
+        saved.record(testClass, 300L, true);
+        saved.save();
+        final byte[] history = Files.readAllBytes(historyFile);
+
+        final byte[] flipped = history.clone();
+        flipped[history.length / 2] ^= 0x01;
+        final List<byte[]> brokenHistories = Arrays.asList(
+                new byte[0],
+                Arrays.copyOf(history, 12),
+                Arrays.copyOf(history, history.length - 1),
+                flipped);
+        for (final byte[] brokenHistory : brokenHistories) {
+            Files.write(historyFile, brokenHistory);
+            final TestHistory loaded = TestHistory.load(historyFile);
+            assertEquals(0L, loaded.getLastRunMillis());
+            assertEquals(-1L, loaded.getDurationNanos(testClass));
+            assertFalse(loaded.hasFailed(testClass));
+        }
+    }
+
+    private static ClassTestDescriptor newClass(final String className) {
+        return new ClassTestDescriptor(
+                ENGINE_ID.append(SelectedTestClasses.CLASS_SEGMENT_TYPE, className), className, null, Node.ExecutionMode.SAME_THREAD);
+    }
+
+    private static MethodTestDescriptor newMethod(final TestDescriptor testClass, final String methodName) {
+        final MethodTestDescriptor testMethod = new MethodTestDescriptor(
+                testClass.getUniqueId().append(SelectedTestClasses.METHOD_SEGMENT_TYPE, methodName), methodName, Node.ExecutionMode.SAME_THREAD);
+        testClass.addChild(testMethod);
+        return testMethod;
+    }
+
+    private static final UniqueId ENGINE_ID = UniqueId.forEngine("embulk-junit5-engine");
+}
@@ -0,0 +1,178 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TestTestImpactIndex {
+    @Test
+    public void testAffectedByChanges(@TempDir final Path directory) throws Exception {
+        final Path classes = directory.resolve("classes");
+        final Path dependency = copyClassFile(Dependency.class, classes);
+        final Path unused = copyClassFile(Unused.class, classes);
+        Files.write(classes.resolve("data.txt"), "data".getBytes(StandardCharsets.UTF_8));
+        final Path indexFile = directory.resolve("impact.index");
+
+        assertTrue(load(indexFile, classes).isAffected(TEST_CLASS));
+        run(indexFile, classes, false);
+        assertFalse(load(indexFile, classes).isAffected(TEST_CLASS));
+
+        // A class file which the test class has not loaded.
+        append(unused);
+        assertFalse(load(indexFile, classes).isAffected(TEST_CLASS));
+
+        // A resource file is added, and then removed.
+        final Path added = classes.resolve("added.txt");
+        Files.write(added, "added".getBytes(StandardCharsets.UTF_8));
+        assertTrue(load(indexFile, classes).isAffected(TEST_CLASS));
+        Files.delete(added);
+        assertFalse(load(indexFile, classes).isAffected(TEST_CLASS));
+
+        // A resource file is changed.
+        append(classes.resolve("data.txt"));
+        assertTrue(load(indexFile, classes).isAffected(TEST_CLASS));
+        run(indexFile, classes, false);
+        assertFalse(load(indexFile, classes).isAffected(TEST_CLASS));
+
+        // A class file which the test class has loaded.
+        append(dependency);
+        assertTrue(load(indexFile, classes).isAffected(TEST_CLASS));
+    }
+
+    @Test
+    public void testFailedIsNotRecorded(@TempDir final Path directory) throws Exception {
+        final Path classes = directory.resolve("classes");
+        copyClassFile(Dependency.class, classes);
+        final Path indexFile = directory.resolve("impact.index");
+
+        run(indexFile, classes, false);
+        assertFalse(load(indexFile, classes).isAffected(TEST_CLASS));
+
+        // The record from the passed run is forgotten by the failed run.
+        run(indexFile, classes, true);
+        assertTrue(load(indexFile, classes).isAffected(TEST_CLASS));
+    }
+
+    @Test
+    public void testConcurrentSaves(@TempDir final Path directory) throws Exception {
+        final Path classes = directory.resolve("classes");
+        copyClassFile(Dependency.class, classes);
+        final Path indexFile = directory.resolve("impact.index");
+        final int workers = 8;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final ArrayList<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                final String testClassName = "org.example.TestWorker" + i;
+                futures.add(executor.submit(() -> {
+                    final TestImpactIndex index = load(indexFile, classes);
+                    record(index, testClassName, classes, false);
+                    start.await();
+                    index.save();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Every worker loaded the index before the others saved. No record is lost in the read-merge-write.
+        final TestImpactIndex loaded = load(indexFile, classes);
+        for (int i = 0; i < workers; i++) {
+            assertFalse(loaded.isAffected("org.example.TestWorker" + i));
+        }
+    }
+
+    @Test
+    public void testBrokenIndexIsIgnored(@TempDir final Path directory) throws Exception {
+        final Path classes = directory.resolve("classes");
+        copyClassFile(Dependency.class, classes);
+        final Path indexFile = directory.resolve("impact.index");
+        run(indexFile, classes, false);
+        final byte[] index = Files.readAllBytes(indexFile);
+
+        final byte[] flipped = index.clone();
+        flipped[index.length / 2] ^= 0x01;
+        final List<byte[]> brokenIndexes = Arrays.asList(
+                new byte[0],
+                Arrays.copyOf(index, 12),
+                Arrays.copyOf(index, index.length - 1),
+                flipped);
+        for (final byte[] brokenIndex : brokenIndexes) {
+            Files.write(indexFile, brokenIndex);
+            assertTrue(load(indexFile, classes).isAffected(TEST_CLASS));
+        }
+    }
+
+    public static final class Dependency {
+    }
+
+    public static final class Unused {
+    }
+
+    /**
+     * Runs the test class as the engine does: loads {@link Dependency} in a new class loader, and saves its record.
+     */
+    private static void run(final Path indexFile, final Path classes, final boolean failed) throws Exception {
+        final TestImpactIndex index = load(indexFile, classes);
+        record(index, TEST_CLASS, classes, failed);
+        index.save();
+    }
+
+    private static void record(
+            final TestImpactIndex index, final String testClassName, final Path classes, final boolean failed) throws Exception {
+        index.invalidate(testClassName);
+        try (final URLClassLoader classLoader = new URLClassLoader(new URL[] { classes.toUri().toURL() }, null)) {
+            classLoader.loadClass(Dependency.class.getName());
+            if (failed) {
+                index.markFailed(testClassName);
+            }
+            index.record(testClassName, classLoader);
+        }
+    }
+
+    private static TestImpactIndex load(final Path indexFile, final Path classes) {
+        return TestImpactIndex.load(indexFile, Collections.singletonList(classes));
+    }
+
+    private static Path copyClassFile(final Class<?> clazz, final Path classes) throws IOException {
+        final Path classFile = classes.resolve(clazz.getName().replace('.', '/') + ".class");
+        Files.createDirectories(classFile.getParent());
+        try (final InputStream input = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class")) {
+            Files.copy(input, classFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return classFile;
+    }
+
+    // Changes the size too, as fingerprints are reused in the JVM while the size and the last modified time are unchanged.
+    private static void append(final Path file) throws IOException {
+        Files.write(file, new byte[] { 0 }, StandardOpenOption.APPEND);
+    }
+
+    private static final String TEST_CLASS = "org.example.TestExample";
+}
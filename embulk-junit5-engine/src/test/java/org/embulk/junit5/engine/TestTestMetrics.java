@@ -0,0 +1,60 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class TestTestMetrics {
+    @Test
+    public void testClassesLoadedInClassLoader() throws Exception {
+        final Path classPath = Paths.get(TestTestMetrics.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        final LoadedClassCounter counter = new LoadedClassCounter(Collections.singletonList(classPath));
+
+        try (final URLClassLoader classLoader = new URLClassLoader(new URL[] { classPath.toUri().toURL() }, null)) {
+            final TestMetrics start = TestMetrics.snapshot(counter, classLoader);
+            Class.forName(Loaded.class.getName(), false, classLoader);
+            // Classes loaded in other class loaders, such as this test class itself, are not counted.
+            final Map<String, String> metrics = TestMetrics.since(start).toMap();
+
+            assertEquals(Arrays.asList(TestMetrics.KEYS), Arrays.asList(metrics.keySet().toArray()));
+            assertEquals("1", metrics.get("classesLoaded"));
+            assertTrue(Long.parseLong(metrics.get("wallTimeNanos")) >= 0L);
+        }
+    }
+
+    @Test
+    public void testClassesLoadedSinceClassLoaderIsKnown() throws Exception {
+        final Path classPath = Paths.get(TestTestMetrics.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        final LoadedClassCounter counter = new LoadedClassCounter(Collections.singletonList(classPath));
+
+        try (final URLClassLoader classLoader = new URLClassLoader(new URL[] { classPath.toUri().toURL() }, null)) {
+            final TestMetrics start = TestMetrics.snapshot(counter, null);
+            assertEquals("-1", TestMetrics.since(start).toMap().get("classesLoaded"));
+
+            Class.forName(Loaded.class.getName(), false, classLoader);
+            final TestMetrics counting = start.countingClassesIn(classLoader);
+            Class.forName(AlsoLoaded.class.getName(), false, classLoader);
+            assertEquals("1", TestMetrics.since(counting).toMap().get("classesLoaded"));
+        }
+    }
+
+    @Test
+    public void testWithoutCounter() {
+        assertEquals("-1", TestMetrics.since(TestMetrics.snapshot(null, TestTestMetrics.class.getClassLoader())).toMap().get("classesLoaded"));
+    }
+
+    // Loaded only in the class loaders of the tests, not initialized.
+    public static final class Loaded {
+    }
+
+    public static final class AlsoLoaded {
+    }
+}
@@ -0,0 +1,70 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.support.descriptor.EngineDescriptor;
+
+public class TestTestMetricsWriter {
+    @Test
+    public void testJsonLines(@TempDir final Path directory) throws Exception {
+        final Path metricsFile = directory.resolve("reports").resolve("metrics.jsonl");
+        try (final TestMetricsWriter writer = TestMetricsWriter.open(metricsFile)) {
+            writer.write(DESCRIPTOR, null, TestMetrics.since(TestMetrics.snapshot(null, null)));
+        }
+
+        final List<String> lines = Files.readAllLines(metricsFile, StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).startsWith("{\"uniqueId\":\"[engine:embulk-junit5-engine]\",\"type\":\"container\",\"wallTimeNanos\":"));
+        assertTrue(lines.get(0).contains(",\"classesLoaded\":-1,"));
+    }
+
+    @Test
+    public void testConcurrentOpensWriteOneCsvHeader(@TempDir final Path directory) throws Exception {
+        final Path metricsFile = directory.resolve("metrics.csv");
+        final int workers = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final ArrayList<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    try (final TestMetricsWriter writer = TestMetricsWriter.open(metricsFile)) {
+                        writer.write(DESCRIPTOR, "successful", TestMetrics.since(TestMetrics.snapshot(null, null)));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The header is written only once, and before any record.
+        final List<String> lines = Files.readAllLines(metricsFile, StandardCharsets.UTF_8);
+        assertEquals(workers + 1, lines.size());
+        assertEquals("uniqueId,type,outcome,wallTimeNanos,cpuTimeNanos,allocatedBytes,classesLoaded,jvmGcTimeMillis,jvm,finishedAt", lines.get(0));
+        for (final String line : lines.subList(1, lines.size())) {
+            assertTrue(line.startsWith("\"[engine:embulk-junit5-engine]\",container,successful,"), line);
+        }
+    }
+
+    private static final TestDescriptor DESCRIPTOR = new EngineDescriptor(UniqueId.forEngine("embulk-junit5-engine"), "engine");
+}
@@ -0,0 +1,123 @@
+package org.embulk.junit5.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectMethod;
+
+import java.util.concurrent.TimeUnit;
+import org.embulk.junit5.api.EmbulkPluginTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.testkit.engine.EngineTestKit;
+import org.junit.platform.testkit.engine.Events;
+
+public class TestTestTimeout {
+    @AfterEach
+    public void clearMarkers() {
+        System.clearProperty(INTERRUPTED_PROPERTY_NAME);
+        System.clearProperty(FINISHED_PROPERTY_NAME);
+    }
+
+    @Test
+    public void testWithinTimeout() {
+        execute("testWithinTimeout", null).assertStatistics(stats -> stats.started(1).succeeded(1));
+    }
+
+    @Test
+    public void testTimeout() {
+        final String message = failureMessageOf("testTimeout", null);
+        assertTrue(message.startsWith(Fixtures.class.getName() + "#testTimeout timed out after 200 ms in embulk-junit5-test-"), message);
+        assertTrue(message.contains("Full thread dump:"), message);
+        // The dump is taken before the test thread is interrupted, so that it shows where the test was stuck.
+        assertTrue(message.contains("java.lang.Thread.sleep"), message);
+        assertTrue(message.contains(Fixtures.class.getName() + ".testTimeout"), message);
+        assertEquals("true", System.getProperty(INTERRUPTED_PROPERTY_NAME));
+    }
+
+    @Test
+    public void testDefaultTimeout() {
+        final String message = failureMessageOf("testDefaultTimeout", "300");
+        assertTrue(message.startsWith(Fixtures.class.getName() + "#testDefaultTimeout timed out after 300 ms in "), message);
+    }
+
+    @Test
+    public void testNoTimeoutOverridesDefault() {
+        execute("testNoTimeout", "100").assertStatistics(stats -> stats.started(1).succeeded(1));
+    }
+
+    @Test
+    public void testAbandonedAfterGracePeriod() {
+        final long startNanos = System.nanoTime();
+        final String message = failureMessageOf("testIgnoringInterrupt", null);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        assertTrue(message.contains("timed out after 200 ms"), message);
+        // It waits for the interrupted thread only for the grace period, and abandons it while it still runs.
+        assertTrue(elapsedMillis >= 200L + 1000L, "Elapsed " + elapsedMillis + " ms.");
+        assertTrue(elapsedMillis < 200L + 4000L, "Elapsed " + elapsedMillis + " ms.");
+        assertEquals("true", System.getProperty(INTERRUPTED_PROPERTY_NAME));
+        assertNull(System.getProperty(FINISHED_PROPERTY_NAME));
+    }
+
+    private static Events execute(final String methodName, final String defaultTimeoutMillis) {
+        final EngineTestKit.Builder builder = EngineTestKit.engine(new EmbulkPluginTestEngine())
+                .selectors(selectMethod(Fixtures.class, methodName));
+        if (defaultTimeoutMillis != null) {
+            builder.configurationParameter(Constants.DEFAULT_TIMEOUT_PROPERTY_NAME, defaultTimeoutMillis);
+        }
+        return builder.execute().testEvents();
+    }
+
+    private static String failureMessageOf(final String methodName, final String defaultTimeoutMillis) {
+        final Events events = execute(methodName, defaultTimeoutMillis);
+        events.assertStatistics(stats -> stats.started(1).failed(1));
+        return events.failed().list().get(0).getRequiredPayload(TestExecutionResult.class).getThrowable().get().getMessage();
+    }
+
+    // Not run by Jupiter. Run by the engine with EngineTestKit.
+    //
+    // It is loaded in a PluginClassLoader, so that its markers are System properties, not static fields of this test.
+    public static final class Fixtures {
+        @EmbulkPluginTest(timeoutMillis = 10000L)
+        public void testWithinTimeout() {
+        }
+
+        @EmbulkPluginTest(timeoutMillis = 200L)
+        public void testTimeout() {
+            try {
+                Thread.sleep(30000L);
+            } catch (final InterruptedException ex) {
+                System.setProperty(INTERRUPTED_PROPERTY_NAME, "true");
+            }
+        }
+
+        @EmbulkPluginTest
+        public void testDefaultTimeout() throws InterruptedException {
+            Thread.sleep(30000L);
+        }
+
+        @EmbulkPluginTest(timeoutMillis = 0L)
+        public void testNoTimeout() throws InterruptedException {
+            Thread.sleep(500L);
+        }
+
+        @EmbulkPluginTest(timeoutMillis = 200L)
+        public void testIgnoringInterrupt() {
+            final long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (System.nanoTime() < deadlineNanos) {
+                try {
+                    Thread.sleep(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime())));
+                } catch (final InterruptedException ex) {
+                    System.setProperty(INTERRUPTED_PROPERTY_NAME, "true");
+                }
+            }
+            System.setProperty(FINISHED_PROPERTY_NAME, "true");
+        }
+    }
+
+    private static final String INTERRUPTED_PROPERTY_NAME = "org.embulk.junit5.engine.TestTestTimeout.interrupted";
+
+    private static final String FINISHED_PROPERTY_NAME = "org.embulk.junit5.engine.TestTestTimeout.finished";
+}
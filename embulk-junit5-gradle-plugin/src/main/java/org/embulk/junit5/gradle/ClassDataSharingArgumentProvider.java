@@ -0,0 +1,224 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.gradle;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import org.gradle.api.Action;
+import org.gradle.api.Task;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Internal;
+import org.gradle.jvm.toolchain.JavaInstallationMetadata;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.process.CommandLineArgumentProvider;
+
+/**
+ * Runs the test JVM with a dynamic class data sharing (CDS) archive, with Java 13 or later.
+ *
+ * <p>The first run is a training run, which dumps the classes loaded in the JVM, such as embulk-core, Jackson, the JUnit
+ * Platform, the engine, and the plugin dependencies, into a dynamic archive at its exit. The following runs map the
+ * archive to start faster. The archive is keyed by the JDK, Gradle, and the class path, so that it is rebuilt when
+ * any of them changes. Archives for other keys are deleted by {@link #prepareArchiveDirectory()}, which the task
+ * runs as its first action, not to have side effects in {@link #asArguments()}.
+ *
+ * <p>With {@code maxParallelForks} more than 1, the test JVMs only map an existing archive. They never dump one, because
+ * all the forks get the same arguments, and they would race on the same archive at their exits. Run the task once with
+ * a single fork to train the archive for parallel forks.
+ *
+ * <p>The class path of the test JVM must not have non-empty directories with the archive. See {@link TestJvmClasspath}.
+ *
+ * <p>Nothing in it is an input of the task because the archive does not change the results of the tests.
+ */
+public final class ClassDataSharingArgumentProvider implements CommandLineArgumentProvider {
+    ClassDataSharingArgumentProvider(
+            final Provider<Boolean> enabled,
+            final Provider<JavaLauncher> javaLauncher,
+            final FileCollection classpath,
+            final Provider<Directory> archiveDirectory,
+            final String gradleVersion,
+            final Provider<Integer> maxParallelForks) {
+        this.enabled = enabled;
+        this.javaLauncher = javaLauncher;
+        this.classpath = classpath;
+        this.archiveDirectory = archiveDirectory;
+        this.gradleVersion = gradleVersion;
+        this.maxParallelForks = maxParallelForks;
+    }
+
+    @Internal
+    public Provider<Boolean> getEnabled() {
+        return this.enabled;
+    }
+
+    @Internal
+    public Provider<JavaLauncher> getJavaLauncher() {
+        return this.javaLauncher;
+    }
+
+    @Internal
+    public FileCollection getClasspath() {
+        return this.classpath;
+    }
+
+    @Internal
+    public Provider<Directory> getArchiveDirectory() {
+        return this.archiveDirectory;
+    }
+
+    @Internal
+    public String getGradleVersion() {
+        return this.gradleVersion;
+    }
+
+    @Internal
+    public Provider<Integer> getMaxParallelForks() {
+        return this.maxParallelForks;
+    }
+
+    @Override
+    public Iterable<String> asArguments() {
+        final JavaLauncher launcher = this.javaLauncher.get();
+        if (!isAvailable(this.enabled.get(), launcher)) {
+            logger.info("Dynamic class data sharing is disabled, or unavailable for embulkTest in Java {}.",
+                    launcher.getMetadata().getLanguageVersion().asInt());
+            return Collections.emptyList();
+        }
+
+        final JavaInstallationMetadata metadata = launcher.getMetadata();
+        final int javaVersion = metadata.getLanguageVersion().asInt();
+        final File archive = this.archiveFileOf(metadata);
+        final int forks = this.maxParallelForks.get();
+        if (forks > 1) {
+            if (archive.isFile()) {
+                return Collections.singletonList("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+            }
+            logger.info("Dynamic class data sharing is not trained for embulkTest with {} parallel forks, which would race on {}.",
+                    forks, archive);
+            return Collections.emptyList();
+        }
+        if (javaVersion >= 19) {
+            // The JVM dumps the archive at exit if it is missing or unusable, and maps it otherwise.
+            return Arrays.asList("-XX:+AutoCreateSharedArchive", "-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        }
+        if (archive.isFile()) {
+            return Collections.singletonList("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        }
+        return Collections.singletonList("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath());
+    }
+
+    /**
+     * Creates the directory of the archive, and deletes archives for other keys, which are never used again.
+     */
+    void prepareArchiveDirectory() {
+        final JavaLauncher launcher = this.javaLauncher.get();
+        if (!isAvailable(this.enabled.get(), launcher)) {
+            return;
+        }
+        final File archive = this.archiveFileOf(launcher.getMetadata());
+        final File directory = archive.getParentFile();
+        directory.mkdirs();
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                if (file.getName().endsWith(".jsa") && !file.equals(archive)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if the test JVM runs with a dynamic class data sharing archive, which requires Java 13 or later.
+     */
+    static boolean isAvailable(final boolean enabled, final JavaLauncher javaLauncher) {
+        return enabled && javaLauncher.getMetadata().getLanguageVersion().asInt() >= 13;
+    }
+
+    /**
+     * Runs {@link ClassDataSharingArgumentProvider#prepareArchiveDirectory()} as an action of the task.
+     *
+     * <p>It is a class, not a lambda, so that it is serialized into the configuration cache.
+     */
+    static final class PrepareArchiveDirectoryAction implements Action<Task> {
+        PrepareArchiveDirectoryAction(final ClassDataSharingArgumentProvider provider) {
+            this.provider = provider;
+        }
+
+        @Override
+        public void execute(final Task task) {
+            this.provider.prepareArchiveDirectory();
+        }
+
+        private final ClassDataSharingArgumentProvider provider;
+    }
+
+    private File archiveFileOf(final JavaInstallationMetadata metadata) {
+        return new File(this.archiveDirectory.get().getAsFile(), "embulkTest-" + this.keyOf(metadata) + ".jsa");
+    }
+
+    private String keyOf(final JavaInstallationMetadata metadata) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is unavailable.", ex);
+        }
+        update(digest, metadata.getInstallationPath().getAsFile().getAbsolutePath());
+        update(digest, metadata.getJavaRuntimeVersion());
+        update(digest, this.gradleVersion);
+        for (final File file : this.classpath.getFiles()) {
+            update(digest, file.getAbsolutePath());
+            if (file.isFile()) {
+                update(digest, file.length() + ":" + file.lastModified());
+            }
+        }
+
+        final StringBuilder key = new StringBuilder();
+        final byte[] hash = digest.digest();
+        for (int i = 0; i < 8; i++) {
+            key.append(String.format("%02x", hash[i] & 0xff));
+        }
+        return key.toString();
+    }
+
+    private static void update(final MessageDigest digest, final String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static final Logger logger = Logging.getLogger(ClassDataSharingArgumentProvider.class);
+
+    private final Provider<Boolean> enabled;
+
+    private final Provider<JavaLauncher> javaLauncher;
+
+    private final FileCollection classpath;
+
+    private final Provider<Directory> archiveDirectory;
+
+    private final String gradleVersion;
+
+    private final Provider<Integer> maxParallelForks;
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.gradle;
+
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+
+/**
+ * Extension {@code "embulkJunit5"} to configure the task {@code "embulkTest"}.
+ *
+ * <pre>{@code
+ * embulkJunit5 {
+ *     failFast = providers.gradleProperty("embulkTestFailFast").map { true }.orElse(false)
+ *     defaultTimeoutMillis = 600000L
+ * }
+ * }</pre>
+ */
+public abstract class EmbulkPluginTestExtension {
+    /**
+     * Skips the tests after the first failure. It is {@code false} by default.
+     */
+    public abstract Property<Boolean> getFailFast();
+
+    /**
+     * Runs only the test classes affected by changes in the plugin class path since they passed last. It is
+     * {@code false} by default. The task is not cached with it.
+     */
+    public abstract Property<Boolean> getAffectedOnly();
+
+    /**
+     * Runs the test JVM with a dynamic class data sharing archive, with Java 13 or later. It is {@code true} by default.
+     * With {@code maxParallelForks} more than 1, the archive is only used, and is trained only by a run with a single fork.
+     */
+    public abstract Property<Boolean> getClassDataSharing();
+
+    /**
+     * Builds {@code PluginClassLoader}s with an index of the plugin class path, which helps with many jar files. It is
+     * {@code false} by default.
+     */
+    public abstract Property<Boolean> getClassPathIndex();
+
+    /**
+     * The timeout of a test method in milliseconds which does not have its own, or {@code 0} for no timeout by default.
+     */
+    public abstract Property<Long> getDefaultTimeoutMillis();
+
+    /**
+     * The directory of the files which the engine keeps across runs. It is {@code build/tmp/embulkTest} by default.
+     */
+    public abstract DirectoryProperty getStateDirectory();
+
+    /**
+     * Measures per-test performance metrics, and appends them to {@link #getMetricsFile()}. It is {@code false} by default.
+     */
+    public abstract Property<Boolean> getMetrics();
+
+    /**
+     * The file to append per-test performance metrics to. It is {@code build/reports/embulkTest/metrics.jsonl} by default.
+     */
+    public abstract RegularFileProperty getMetricsFile();
+}
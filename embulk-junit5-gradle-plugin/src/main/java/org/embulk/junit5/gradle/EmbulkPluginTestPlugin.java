@@ -0,0 +1,135 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.gradle;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.plugins.JavaBasePlugin;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.plugins.JavaPluginExtension;
+import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.api.tasks.bundling.Jar;
+import org.gradle.api.tasks.testing.Test;
+import org.gradle.language.base.plugins.LifecycleBasePlugin;
+
+/**
+ * Gradle plugin {@code "org.embulk.embulk-junit5"} to run Embulk plugin tests with embulk-junit5-engine.
+ *
+ * <p>It creates the source set {@code "embulkTest"} in {@code src/embulkTest}, and the task {@code "embulkTest"} to run
+ * it. The plugin class path, which the engine loads the tests in, is the classes and the resources of {@code "embulkTest"}
+ * followed by the runtime class path of {@code "main"}. Dependencies are not added automatically. Add
+ * {@code embulk-junit5-api} into {@code "embulkTestImplementation"}, and {@code embulk-junit5-engine} and
+ * {@code embulk-core} into {@code "embulkTestRuntimeOnly"}.
+ *
+ * <p>The task is cacheable, and compatible with the configuration cache. The plugin class path is an order-sensitive
+ * class path input, and the options of the engine are inputs. The files which the engine keeps across runs, such as
+ * the discovery index and the test history, are under {@link EmbulkPluginTestExtension#getStateDirectory()}, and they
+ * are not inputs. They are only for speed, except that the results of the affected-only mode depend on the test impact
+ * index. The task is not cached in the affected-only mode.
+ */
+public class EmbulkPluginTestPlugin implements Plugin<Project> {
+    @Override
+    public void apply(final Project project) {
+        project.getPluginManager().apply(JavaPlugin.class);
+
+        final EmbulkPluginTestExtension extension = project.getExtensions().create(EXTENSION_NAME, EmbulkPluginTestExtension.class);
+        extension.getFailFast().convention(false);
+        extension.getAffectedOnly().convention(false);
+        extension.getClassDataSharing().convention(true);
+        extension.getClassPathIndex().convention(false);
+        extension.getDefaultTimeoutMillis().convention(0L);
+        extension.getStateDirectory().convention(project.getLayout().getBuildDirectory().dir("tmp/embulkTest"));
+        extension.getMetrics().convention(false);
+        extension.getMetricsFile().convention(project.getLayout().getBuildDirectory().file("reports/embulkTest/metrics.jsonl"));
+
+        final JavaPluginExtension java = project.getExtensions().getByType(JavaPluginExtension.class);
+        final SourceSet main = java.getSourceSets().getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+        // "embulkTestImplementation" should not extend "testImplementation" so that it does not include main and test
+        // in the top-level class loader. The same for "embulkTestRuntimeOnly".
+        final SourceSet embulkTest = java.getSourceSets().create(SOURCE_SET_NAME);
+
+        final ConfigurableFileCollection pluginClasspath = project.files(
+                embulkTest.getOutput().getClassesDirs(),
+                (Callable<File>) () -> embulkTest.getOutput().getResourcesDir(),
+                main.getRuntimeClasspath());
+        pluginClasspath.builtBy(embulkTest.getProcessResourcesTaskName());
+
+        // The classes and the resources of "embulkTest" in a jar file, only for the class path of the test JVM with class data
+        // sharing. See TestJvmClasspath. The plugin class path still has their directories.
+        final TaskProvider<Jar> embulkTestJarTask = project.getTasks().register(JAR_TASK_NAME, Jar.class, jar -> {
+            jar.setDescription("Assembles a jar of the source set \"" + SOURCE_SET_NAME + "\" for class data sharing.");
+            jar.from(embulkTest.getOutput());
+            jar.getDestinationDirectory().set(project.getLayout().getBuildDirectory().dir("tmp/" + JAR_TASK_NAME));
+            jar.getArchiveFileName().set(SOURCE_SET_NAME + ".jar");
+            jar.setPreserveFileTimestamps(false);
+            jar.setReproducibleFileOrder(true);
+        });
+
+        final TaskProvider<Test> embulkTestTask = project.getTasks().register(TASK_NAME, Test.class, test -> {
+            test.setDescription("Runs the Embulk plugin tests in the source set \"" + SOURCE_SET_NAME + "\".");
+            test.setGroup(LifecycleBasePlugin.VERIFICATION_GROUP);
+            test.useJUnitPlatform();
+
+            // "@EmbulkPluginTest" methods are picked up from the classes in "testClassesDirs".
+            test.setTestClassesDirs(embulkTest.getOutput().getClassesDirs());
+
+            test.setClasspath(project.files(new TestJvmClasspath(
+                    embulkTest.getRuntimeClasspath(),
+                    embulkTest.getOutput(),
+                    project.files(embulkTestJarTask),
+                    extension.getClassDataSharing(),
+                    test.getJavaLauncher())));
+
+            test.getJvmArgumentProviders().add(new EngineArgumentProvider(
+                    pluginClasspath,
+                    extension.getFailFast(),
+                    extension.getAffectedOnly(),
+                    extension.getClassPathIndex(),
+                    extension.getDefaultTimeoutMillis(),
+                    extension.getStateDirectory(),
+                    extension.getMetrics(),
+                    extension.getMetricsFile()));
+            final ClassDataSharingArgumentProvider classDataSharing = new ClassDataSharingArgumentProvider(
+                    extension.getClassDataSharing(),
+                    test.getJavaLauncher(),
+                    test.getClasspath(),
+                    extension.getStateDirectory().dir("cds"),
+                    project.getGradle().getGradleVersion(),
+                    project.provider(test::getMaxParallelForks));
+            test.getJvmArgumentProviders().add(classDataSharing);
+            test.doFirst(new ClassDataSharingArgumentProvider.PrepareArchiveDirectoryAction(classDataSharing));
+
+            test.getOutputs().cacheIf(
+                    "the results of the affected-only mode depend on the test impact index out of the inputs",
+                    new NotAffectedOnlySpec(extension.getAffectedOnly()));
+        });
+
+        project.getTasks().named(JavaBasePlugin.CHECK_TASK_NAME).configure(check -> check.dependsOn(embulkTestTask));
+    }
+
+    public static final String EXTENSION_NAME = "embulkJunit5";
+
+    public static final String SOURCE_SET_NAME = "embulkTest";
+
+    public static final String TASK_NAME = "embulkTest";
+
+    static final String JAR_TASK_NAME = "embulkTestJar";
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.gradle;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.stream.Collectors;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.process.CommandLineArgumentProvider;
+
+/**
+ * Passes the plugin class path and the options to embulk-junit5-engine as system properties of the test JVM.
+ *
+ * <p>They are not given by {@code Test#systemProperty} because the absolute paths in them would make the task inputs
+ * differ among machines. The plugin class path is an order-sensitive class path input, normalized by Gradle. The files
+ * which the engine keeps across runs are internal.
+ */
+public final class EngineArgumentProvider implements CommandLineArgumentProvider {
+    EngineArgumentProvider(
+            final FileCollection pluginClasspath,
+            final Provider<Boolean> failFast,
+            final Provider<Boolean> affectedOnly,
+            final Provider<Boolean> classPathIndex,
+            final Provider<Long> defaultTimeoutMillis,
+            final Provider<Directory> stateDirectory,
+            final Provider<Boolean> metrics,
+            final Provider<RegularFile> metricsFile) {
+        this.pluginClasspath = pluginClasspath;
+        this.failFast = failFast;
+        this.affectedOnly = affectedOnly;
+        this.classPathIndex = classPathIndex;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.stateDirectory = stateDirectory;
+        this.metrics = metrics;
+        this.metricsFile = metricsFile;
+    }
+
+    @Classpath
+    public FileCollection getPluginClasspath() {
+        return this.pluginClasspath;
+    }
+
+    @Input
+    public Provider<Boolean> getFailFast() {
+        return this.failFast;
+    }
+
+    @Input
+    public Provider<Boolean> getAffectedOnly() {
+        return this.affectedOnly;
+    }
+
+    @Input
+    public Provider<Boolean> getClassPathIndex() {
+        return this.classPathIndex;
+    }
+
+    @Input
+    public Provider<Long> getDefaultTimeoutMillis() {
+        return this.defaultTimeoutMillis;
+    }
+
+    @Internal
+    public Provider<Directory> getStateDirectory() {
+        return this.stateDirectory;
+    }
+
+    @Input
+    public Provider<Boolean> getMetrics() {
+        return this.metrics;
+    }
+
+    @Internal
+    public Provider<RegularFile> getMetricsFile() {
+        return this.metricsFile;
+    }
+
+    @Override
+    public Iterable<String> asArguments() {
+        final ArrayList<String> arguments = new ArrayList<>();
+        arguments.add(systemProperty("org.embulk.junit5.plugin.class.path", joinPaths(this.pluginClasspath)));
+
+        // Discover "@EmbulkPluginTest" methods from class files, and skip unchanged ones with the discovery index.
+        arguments.add(systemProperty("embulk.junit5.discovery.mode", "bytecode"));
+        arguments.add(systemProperty("embulk.junit5.discovery.index.file", this.stateFile("discovery.index")));
+
+        // Run the failed and the changed test classes first, and then the longest ones, from the previous runs.
+        arguments.add(systemProperty("embulk.junit5.execution.history.file", this.stateFile("history")));
+
+        // Record which files in the plugin class path each test class depends on.
+        arguments.add(systemProperty("embulk.junit5.execution.impact.index.file", this.stateFile("impact.index")));
+        arguments.add(systemProperty("embulk.junit5.execution.affectedOnly", this.affectedOnly.get().toString()));
+
+        arguments.add(systemProperty("embulk.junit5.plugin.class.path.index.enabled", this.classPathIndex.get().toString()));
+        arguments.add(systemProperty("embulk.junit5.execution.failFast", this.failFast.get().toString()));
+        arguments.add(systemProperty("embulk.junit5.execution.timeout.default", this.defaultTimeoutMillis.get().toString()));
+
+        // Compare the JVM startup with and without the class data sharing archive.
+        arguments.add(systemProperty("embulk.junit5.startup.report.file", this.stateFile("cds/startup.properties")));
+
+        if (this.metrics.get()) {
+            arguments.add(systemProperty("embulk.junit5.metrics.enabled", "true"));
+            arguments.add(systemProperty("embulk.junit5.metrics.file", this.metricsFile.get().getAsFile().getAbsolutePath()));
+        }
+        return arguments;
+    }
+
+    private String stateFile(final String name) {
+        return this.stateDirectory.get().file(name).getAsFile().getAbsolutePath();
+    }
+
+    private static String joinPaths(final FileCollection files) {
+        return files.getFiles().stream().map(File::getAbsolutePath).collect(Collectors.joining(File.pathSeparator));
+    }
+
+    private static String systemProperty(final String name, final String value) {
+        return "-D" + name + "=" + value;
+    }
+
+    private final FileCollection pluginClasspath;
+
+    private final Provider<Boolean> failFast;
+
+    private final Provider<Boolean> affectedOnly;
+
+    private final Provider<Boolean> classPathIndex;
+
+    private final Provider<Long> defaultTimeoutMillis;
+
+    private final Provider<Directory> stateDirectory;
+
+    private final Provider<Boolean> metrics;
+
+    private final Provider<RegularFile> metricsFile;
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.gradle;
+
+import org.gradle.api.Task;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.specs.Spec;
+
+/**
+ * Allows the task {@code "embulkTest"} to be cached unless it runs in the affected-only mode.
+ *
+ * <p>It is a class, not a lambda, so that it is serialized into the configuration cache.
+ */
+final class NotAffectedOnlySpec implements Spec<Task> {
+    NotAffectedOnlySpec(final Provider<Boolean> affectedOnly) {
+        this.affectedOnly = affectedOnly;
+    }
+
+    @Override
+    public boolean isSatisfiedBy(final Task task) {
+        return !this.affectedOnly.get();
+    }
+
+    private final Provider<Boolean> affectedOnly;
+}
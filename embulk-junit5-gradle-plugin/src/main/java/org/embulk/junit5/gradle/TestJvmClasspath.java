@@ -0,0 +1,66 @@
+/*
+ * Copyright 2024 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.junit5.gradle;
+
+import java.util.concurrent.Callable;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.provider.Provider;
+import org.gradle.jvm.toolchain.JavaLauncher;
+
+/**
+ * The class path of the test JVM of the task {@code "embulkTest"}.
+ *
+ * <p>It is the runtime class path of {@code "embulkTest"} as-is, unless the test JVM runs with a dynamic class data sharing
+ * archive. The JVM fails to dump a dynamic archive after it loads a class from a non-empty directory in the class path,
+ * which it does for the test classes from Gradle. With the archive, the classes and the resources of
+ * {@code "embulkTest"} are in a jar file in the class path instead of their directories. The other directories in the
+ * class path, if any, still prevent the archive.
+ *
+ * <p>It is a class, not a lambda, so that it is serialized into the configuration cache.
+ */
+final class TestJvmClasspath implements Callable<FileCollection> {
+    TestJvmClasspath(
+            final FileCollection runtimeClasspath,
+            final FileCollection output,
+            final FileCollection outputJar,
+            final Provider<Boolean> classDataSharing,
+            final Provider<JavaLauncher> javaLauncher) {
+        this.runtimeClasspath = runtimeClasspath;
+        this.output = output;
+        this.outputJar = outputJar;
+        this.classDataSharing = classDataSharing;
+        this.javaLauncher = javaLauncher;
+    }
+
+    @Override
+    public FileCollection call() {
+        if (!ClassDataSharingArgumentProvider.isAvailable(this.classDataSharing.get(), this.javaLauncher.get())) {
+            return this.runtimeClasspath;
+        }
+        return this.outputJar.plus(this.runtimeClasspath.minus(this.output));
+    }
+
+    private final FileCollection runtimeClasspath;
+
+    private final FileCollection output;
+
+    private final FileCollection outputJar;
+
+    private final Provider<Boolean> classDataSharing;
+
+    private final Provider<JavaLauncher> javaLauncher;
+}
@@ -0,0 +1,166 @@
+package org.embulk.junit5.gradle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs "embulkTest" in a project with the plugin, which has a plain JUnit Jupiter test in "src/embulkTest".
+ *
+ * <p>The engine options are passed to JUnit Jupiter, which just ignores them. It checks how the task is wired, not the engine.
+ */
+public class TestEmbulkPluginTestPlugin {
+    @Test
+    public void testConfigurationCache(@TempDir final Path directory) throws IOException {
+        final Path project = writeProject(directory.resolve("project"), directory.resolve("build-cache"));
+
+        final BuildResult first = run(project, "embulkTest", "--configuration-cache");
+        assertEquals(TaskOutcome.SUCCESS, first.task(":embulkTest").getOutcome());
+        assertTrue(first.getOutput().contains("Configuration cache entry stored."), first.getOutput());
+
+        final BuildResult second = run(project, "embulkTest", "--configuration-cache");
+        assertEquals(TaskOutcome.UP_TO_DATE, second.task(":embulkTest").getOutcome());
+        assertTrue(second.getOutput().contains("Reusing configuration cache."), second.getOutput());
+    }
+
+    @Test
+    public void testRelocatable(@TempDir final Path directory) throws IOException {
+        final Path buildCache = directory.resolve("build-cache");
+        final Path original = writeProject(directory.resolve("original"), buildCache);
+        final Path relocated = writeProject(directory.resolve("relocated/in/another/directory"), buildCache);
+
+        final BuildResult first = run(original, "embulkTest", "--build-cache");
+        assertEquals(TaskOutcome.SUCCESS, first.task(":embulkTest").getOutcome());
+
+        // The same project in another directory gets the results from the build cache, without absolute paths in the inputs.
+        final BuildResult second = run(relocated, "embulkTest", "--build-cache");
+        assertEquals(TaskOutcome.FROM_CACHE, second.task(":embulkTest").getOutcome());
+    }
+
+    @Test
+    public void testNotCachedWithAffectedOnly(@TempDir final Path directory) throws IOException {
+        final Path buildCache = directory.resolve("build-cache");
+        final Path original = writeProject(directory.resolve("original"), buildCache);
+        final Path relocated = writeProject(directory.resolve("relocated"), buildCache);
+        append(original.resolve("build.gradle"), AFFECTED_ONLY);
+        append(relocated.resolve("build.gradle"), AFFECTED_ONLY);
+
+        // The results of the affected-only mode are never stored in the build cache.
+        assertEquals(TaskOutcome.SUCCESS, run(original, "embulkTest", "--build-cache").task(":embulkTest").getOutcome());
+        assertEquals(TaskOutcome.SUCCESS, run(relocated, "embulkTest", "--build-cache").task(":embulkTest").getOutcome());
+    }
+
+    @Test
+    public void testClassDataSharingWithParallelForks(@TempDir final Path directory) throws IOException {
+        final Path project = writeProject(directory.resolve("project"), directory.resolve("build-cache"));
+        append(project.resolve("build.gradle"), PARALLEL_FORKS);
+        write(project.resolve("src/embulkTest/java/org/embulk/example/TestJvmArguments.java"),
+                "package org.embulk.example;\n"
+                + "public class TestJvmArguments {\n"
+                + "    @org.junit.jupiter.api.Test\n"
+                + "    public void testNotDumping() {\n"
+                + "        if (Integer.getInteger(\"forks\") > 1) {\n"
+                + "            for (final String argument : java.lang.management.ManagementFactory.getRuntimeMXBean().getInputArguments()) {\n"
+                + "                org.junit.jupiter.api.Assertions.assertFalse(argument.startsWith(\"-XX:ArchiveClassesAtExit=\"), argument);\n"
+                + "                org.junit.jupiter.api.Assertions.assertFalse(argument.startsWith(\"-XX:+AutoCreateSharedArchive\"), argument);\n"
+                + "            }\n"
+                + "        }\n"
+                + "    }\n"
+                + "}\n");
+        final Path archiveDirectory = project.resolve("build/tmp/embulkTest/cds");
+
+        // Parallel forks never dump the archive, which they would race on.
+        assertEquals(TaskOutcome.SUCCESS, run(project, "embulkTest", "-Pforks=2").task(":embulkTest").getOutcome());
+        assertFalse(hasArchive(archiveDirectory));
+
+        // A single fork trains the archive, and then parallel forks map it.
+        assertEquals(TaskOutcome.SUCCESS, run(project, "embulkTest", "--rerun", "-Pforks=1").task(":embulkTest").getOutcome());
+        assertTrue(hasArchive(archiveDirectory));
+        assertEquals(TaskOutcome.SUCCESS, run(project, "embulkTest", "--rerun", "-Pforks=2").task(":embulkTest").getOutcome());
+        assertTrue(hasArchive(archiveDirectory));
+    }
+
+    private static BuildResult run(final Path project, final String... arguments) {
+        return GradleRunner.create()
+                .withProjectDir(project.toFile())
+                .withPluginClasspath()
+                .withArguments(arguments)
+                .forwardOutput()
+                .build();
+    }
+
+    private static Path writeProject(final Path project, final Path buildCache) throws IOException {
+        write(project.resolve("settings.gradle"),
+                "rootProject.name = \"example\"\n"
+                + "buildCache {\n"
+                + "    local {\n"
+                + "        directory = file(\"" + buildCache.toAbsolutePath().toString().replace('\\', '/') + "\")\n"
+                + "    }\n"
+                + "}\n");
+        write(project.resolve("build.gradle"),
+                "plugins {\n"
+                + "    id \"java\"\n"
+                + "    id \"org.embulk.embulk-junit5\"\n"
+                + "}\n"
+                + "repositories {\n"
+                + "    mavenCentral()\n"
+                + "}\n"
+                + "dependencies {\n"
+                + "    embulkTestImplementation \"org.junit.jupiter:junit-jupiter-api:5.11.0\"\n"
+                + "    embulkTestRuntimeOnly \"org.junit.jupiter:junit-jupiter-engine:5.11.0\"\n"
+                + "    embulkTestRuntimeOnly \"org.junit.platform:junit-platform-launcher:1.11.0\"\n"
+                + "}\n");
+        write(project.resolve("src/main/java/org/embulk/example/Greeting.java"),
+                "package org.embulk.example;\n"
+                + "public class Greeting {\n"
+                + "    public static String greet() {\n"
+                + "        return \"Hello\";\n"
+                + "    }\n"
+                + "}\n");
+        // The main classes are not on the compile class path of "embulkTest". They are in the plugin class path.
+        write(project.resolve("src/embulkTest/java/org/embulk/example/TestGreeting.java"),
+                "package org.embulk.example;\n"
+                + "public class TestGreeting {\n"
+                + "    @org.junit.jupiter.api.Test\n"
+                + "    public void testGreet() {\n"
+                + "        org.junit.jupiter.api.Assertions.assertEquals(\"org.embulk.example.TestGreeting\", getClass().getName());\n"
+                + "    }\n"
+                + "}\n");
+        return project;
+    }
+
+    private static void write(final Path file, final String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void append(final Path file, final String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    private static boolean hasArchive(final Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return false;
+        }
+        try (final Stream<Path> files = Files.list(directory)) {
+            return files.anyMatch(file -> file.getFileName().toString().endsWith(".jsa"));
+        }
+    }
+
+    private static final String AFFECTED_ONLY = "embulkJunit5 {\n    affectedOnly = true\n}\n";
+
+    private static final String PARALLEL_FORKS =
+            "embulkTest {\n    maxParallelForks = Integer.parseInt(findProperty(\"forks\"))\n    systemProperty \"forks\", maxParallelForks\n}\n";
+}
@@ -0,0 +1,15 @@
+package org.embulk.input.junit5example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.embulk.junit5.api.EmbulkPluginBenchmark;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+
+public class TestExampleBenchmark {
+    @EmbulkPluginBenchmark(warmupIterations = 2, measurementIterations = 5, batchSize = 1000, timeBudgetMillis = 2000)
+    public void benchmarkSchemaBuilder() {
+        final Schema schema = Schema.builder().add("id", Types.STRING).add("count", Types.LONG).build();
+        assertEquals(2, schema.getColumnCount());
+    }
+}
@@ -0,0 +1,85 @@
+package org.embulk.input.junit5example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.embulk.config.ConfigSource;
+import org.embulk.junit5.api.EmbulkPluginTest;
+import org.embulk.junit5.api.InputPluginHarness;
+import org.embulk.junit5.api.PageCollector;
+
+public class TestExampleInputPlugin {
+    @EmbulkPluginTest
+    public void testRun() throws Exception {
+        final InputPluginHarness harness = InputPluginHarness.of("org.embulk.input.junit5example.ExampleInputPlugin");
+        final PageCollector collector = PageCollector.counting();
+        final InputPluginHarness.Result result = harness.run(harness.newConfigSource(), collector);
+
+        assertEquals(1, result.getSchema().getColumnCount());
+        assertEquals("id", result.getSchema().getColumnName(0));
+        assertEquals(0, result.getTaskCount());
+        assertEquals(0L, collector.getRecordCount());
+    }
+
+    @EmbulkPluginTest
+    public void testRunTasks() throws Exception {
+        final InputPluginHarness harness = InputPluginHarness.of("org.embulk.input.junit5example.ExampleInputPlugin").withThreads(2);
+        final ConfigSource config = harness.newConfigSource().set("tasks", 3).set("rows", 4);
+        final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final PageCollector collector = PageCollector.streaming(reader -> ids.add(reader.getString(0)));
+        final InputPluginHarness.Result result = harness.run(config, collector);
+
+        assertEquals(3, result.getTaskCount());
+        assertEquals(3, result.getTaskResults().size());
+        for (final InputPluginHarness.TaskResult taskResult : result.getTaskResults()) {
+            assertEquals(4L, taskResult.getRecordCount());
+        }
+        assertEquals(12L, collector.getRecordCount());
+        assertEquals(3L, collector.getFinishedOutputCount());
+
+        final HashSet<String> expected = new HashSet<>();
+        for (int taskIndex = 0; taskIndex < 3; taskIndex++) {
+            for (int row = 0; row < 4; row++) {
+                expected.add(taskIndex + "-" + row);
+            }
+        }
+        assertEquals(expected, ids);
+    }
+
+    @EmbulkPluginTest
+    public void testRunFailingTasks() throws Exception {
+        assertFailingTasks(InputPluginHarness.of("org.embulk.input.junit5example.ExampleInputPlugin"));
+    }
+
+    @EmbulkPluginTest
+    public void testRunFailingTasksConcurrently() throws Exception {
+        assertFailingTasks(InputPluginHarness.of("org.embulk.input.junit5example.ExampleInputPlugin").withThreads(2));
+    }
+
+    /**
+     * Fails the tasks 1 and 2 of 4 tasks by an AssertionError, and checks that the tasks 0 and 3 still run to the end.
+     */
+    private static void assertFailingTasks(final InputPluginHarness harness) {
+        final ConfigSource config = harness.newConfigSource().set("tasks", 4).set("rows", 4);
+        final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final PageCollector collector = PageCollector.streaming(reader -> {
+            final String id = reader.getString(0);
+            if (id.startsWith("1-") || id.startsWith("2-")) {
+                throw new AssertionError("Failing " + id);
+            }
+            ids.add(id);
+        });
+
+        final AssertionError failure = assertThrows(AssertionError.class, () -> harness.run(config, collector));
+        assertEquals("Failing 1-0", failure.getMessage());
+        assertEquals(1, failure.getSuppressed().length);
+        assertEquals("Failing 2-0", failure.getSuppressed()[0].getMessage());
+        assertEquals(new HashSet<>(Arrays.asList("0-0", "0-1", "0-2", "0-3", "3-0", "3-1", "3-2", "3-3")), ids);
+        assertEquals(2L, collector.getFinishedOutputCount());
+    }
+}
@@ -0,0 +1,23 @@
+package org.embulk.input.junit5example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.embulk.junit5.api.EmbulkPluginTest;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.Exec;
+
+public class TestExecSession {
+    @EmbulkPluginTest
+    public void testSharedExecSession() {
+        final Buffer buffer = Exec.getBufferAllocator().allocate();
+        assertEquals(32 * 1024, buffer.capacity());
+        buffer.release();
+    }
+
+    @EmbulkPluginTest(sharedExecSession = false)
+    public void testIsolatedExecSession() {
+        final Buffer buffer = Exec.getBufferAllocator().allocate();
+        assertEquals(32 * 1024, buffer.capacity());
+        buffer.release();
+    }
+}
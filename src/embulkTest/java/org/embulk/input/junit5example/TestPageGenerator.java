@@ -0,0 +1,70 @@
+package org.embulk.input.junit5example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import org.embulk.junit5.api.EmbulkPluginTest;
+import org.embulk.junit5.api.PageGenerator;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.PageReaderImpl;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+
+public class TestPageGenerator {
+    @EmbulkPluginTest
+    public void testIterator() {
+        final Schema schema = Schema.builder()
+                .add("id", Types.LONG)
+                .add("name", Types.STRING)
+                .add("at", Types.TIMESTAMP)
+                .add("payload", Types.JSON)
+                .build();
+        final PageGenerator generator = PageGenerator.of(schema, 10000L)
+                .withSeed(42L)
+                .withStringCardinality(10)
+                .withTimestampRange(Instant.parse("2024-01-01T00:00:00Z"), Instant.parse("2024-01-02T00:00:00Z"))
+                .withJsonShape(3, 2);
+
+        long row = 0L;
+        int pages = 0;
+        try (final PageReader reader = new PageReaderImpl(schema)) {
+            for (final Page page : generator) {
+                pages++;
+                reader.setPage(page);
+                while (reader.nextRecord()) {
+                    assertEquals(generator.valueAt(row, 0), reader.getLong(0));
+                    assertEquals(generator.valueAt(row, 1), reader.getString(1));
+                    assertEquals(generator.valueAt(row, 2), reader.getTimestampInstant(2));
+                    assertEquals(generator.valueAt(row, 3), reader.getJsonValue(3));
+                    row++;
+                }
+            }
+        }
+        assertEquals(10000L, row);
+        assertTrue(pages > 1);
+    }
+
+    @EmbulkPluginTest(maxAllocatedBytesPerRow = 1024L)
+    public void testAllocationPerRow() {
+        final Schema schema = Schema.builder().add("id", Types.LONG).add("name", Types.STRING).build();
+        long records = 0L;
+        for (final Page page : PageGenerator.of(schema, 1_000_000L)) {
+            records += PageReader.getRecordCount(page);
+            page.release();
+        }
+        assertEquals(1_000_000L, records);
+    }
+
+    @EmbulkPluginTest
+    public void testReproducible() {
+        final Schema schema = Schema.builder().add("name", Types.STRING).build();
+        final PageGenerator generator = PageGenerator.of(schema, 100L).withStringCardinality(5);
+        for (long row = 0L; row < 100L; row++) {
+            final Object value = generator.valueAt(row, 0);
+            assertEquals(value, PageGenerator.of(schema, 100L).withStringCardinality(5).valueAt(row, 0));
+            assertTrue(((String) value).matches("v[0-4]"));
+        }
+    }
+}
@@ -32,6 +32,13 @@ import org.slf4j.LoggerFactory;
 
 public class ExampleInputPlugin implements InputPlugin {
     private interface PluginTask extends Task {
+        @Config("tasks")
+        @ConfigDefault("0")
+        int getTasks();
+
+        @Config("rows")
+        @ConfigDefault("0")
+        int getRows();
     }
 
     @Override
@@ -39,7 +46,7 @@ public class ExampleInputPlugin implements InputPlugin {
         final PluginTask task = CONFIG_MAPPER_FACTORY.createConfigMapper().map(config, PluginTask.class);
         final Schema schema = Schema.builder().add("id", Types.STRING).build();
 
-        final int taskCount = 0;
+        final int taskCount = task.getTasks();
 
         return resume(task.toTaskSource(), schema, taskCount, control);
     }
@@ -64,6 +71,10 @@ public class ExampleInputPlugin implements InputPlugin {
         final PluginTask task = CONFIG_MAPPER_FACTORY.createTaskMapper().map(taskSource, PluginTask.class);
 
         try (final PageBuilder pageBuilder = Exec.getPageBuilder(Exec.getBufferAllocator(), schema, output)) {
+            for (int row = 0; row < task.getRows(); row++) {
+                pageBuilder.setString(0, taskIndex + "-" + row);
+                pageBuilder.addRecord();
+            }
             pageBuilder.finish();
         }
 